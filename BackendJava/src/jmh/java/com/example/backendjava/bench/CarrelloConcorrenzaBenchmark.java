@@ -0,0 +1,130 @@
+package com.example.backendjava.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import com.example.backendjava.jdbc.DatabaseH2;
+import com.example.backendjava.service.ArchivioCarrelli;
+
+/**
+ * Aggiunte concorrenti al carrello sulle stesse righe (20 utenti x 10 prodotti, 8 thread).
+ * Confronta il vecchio percorso (SELECT per vedere se la riga esiste, poi UPDATE o INSERT) con
+ * l'upsert atomico di ArchivioCarrelli. Oltre al throughput riporta le aggiunte fallite:
+ * con la chiave univoca sul carrello, nel vecchio percorso due INSERT concorrenti della stessa
+ * riga fanno fallire la seconda richiesta. A fine iterazione la somma delle quantità nel carrello
+ * deve essere uguale alle aggiunte riuscite, altrimenti il benchmark fallisce (aggiornamento perso).
+ * Il database è H2 in modalità PostgreSQL, che non è riconosciuto come PostgreSQL: viene misurato
+ * il ramo MERGE dell'upsert, non INSERT ... ON CONFLICT usato in produzione.
+ * Eseguire con: ./gradlew jmh  (contatori "aggiunte" e "fallite" nelle metriche secondarie)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class CarrelloConcorrenzaBenchmark {
+
+    private static final int UTENTI = 20;
+    private static final int PRODOTTI = 10;
+
+    @Param({"lettura_poi_scrittura", "upsert"})
+    public String percorso;
+
+    private JdbcTemplate jdbc;
+    private ArchivioCarrelli archivio;
+    // Pezzi aggiunti con successo nell'iterazione, da confrontare con il carrello a fine iterazione
+    private final LongAdder riuscite = new LongAdder();
+
+    /** Contatori per thread, sommati da JMH a fine iterazione. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Contatori {
+        public long aggiunte;
+        public long fallite;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        DriverManagerDataSource ds = DatabaseH2.nuovo("carrello_" + percorso, ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE");
+        jdbc = new JdbcTemplate(ds);
+        List<Object[]> prodotti = new ArrayList<>();
+        for (int i = 1; i <= PRODOTTI; i++) prodotti.add(new Object[]{i, Integer.MAX_VALUE});
+        jdbc.batchUpdate("INSERT INTO prodotto (id_prodotto, quantita_disponibile) VALUES (?, ?)", prodotti);
+
+        // Senza contesto Spring write-behind resta disattivato: ogni aggiunta è un upsert sul database
+        archivio = new ArchivioCarrelli(jdbc, new DataSourceTransactionManager(ds), false, 1800);
+    }
+
+    // Righe sempre nuove a ogni iterazione, così gli INSERT concorrenti sulla stessa chiave si ripetono
+    @Setup(Level.Iteration)
+    public void svuota() {
+        jdbc.update("DELETE FROM carrello");
+        riuscite.reset();
+    }
+
+    @TearDown(Level.Iteration)
+    public void controllaQuantita() {
+        Long nelCarrello = jdbc.queryForObject("SELECT COALESCE(SUM(quantita), 0) FROM carrello", Long.class);
+        if (nelCarrello == null || nelCarrello != riuscite.sum()) {
+            throw new IllegalStateException("Aggiornamenti persi (" + percorso + "): " + riuscite.sum()
+                    + " aggiunte riuscite, " + nelCarrello + " pezzi nel carrello");
+        }
+    }
+
+    @Benchmark
+    public void aggiungi(Contatori contatori) {
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        long idUtente = r.nextInt(UTENTI) + 1;
+        long idProdotto = r.nextInt(PRODOTTI) + 1;
+        contatori.aggiunte++;
+        try {
+            boolean riuscita;
+            if ("upsert".equals(percorso)) {
+                riuscita = archivio.aggiungiProdotto(idUtente, idProdotto, 1);
+            } else {
+                aggiungiLetturaPoiScrittura(idUtente, idProdotto);
+                riuscita = true;
+            }
+            if (riuscita) {
+                riuscite.increment();
+            } else {
+                contatori.fallite++;
+            }
+        } catch (RuntimeException e) {
+            contatori.fallite++;
+        }
+    }
+
+    private void aggiungiLetturaPoiScrittura(long idUtente, long idProdotto) {
+        jdbc.queryForObject("SELECT quantita_disponibile FROM prodotto WHERE id_prodotto = ?", Integer.class, idProdotto);
+        if (jdbc.queryForRowSet("SELECT 1 FROM carrello WHERE id_utente = ? AND id_prodotto = ?", idUtente, idProdotto).next()) {
+            jdbc.update("UPDATE carrello SET quantita = quantita + ? WHERE id_utente = ? AND id_prodotto = ?", 1, idUtente, idProdotto);
+        } else {
+            jdbc.update("INSERT INTO carrello (id_utente, id_prodotto, quantita) VALUES (?, ?, ?)", idUtente, idProdotto, 1);
+        }
+    }
+}
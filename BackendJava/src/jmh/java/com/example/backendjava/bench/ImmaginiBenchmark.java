@@ -0,0 +1,94 @@
+package com.example.backendjava.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.UrlResource;
+
+import com.example.backendjava.service.ImmaginiStatiche;
+
+/**
+ * Costo per richiesta del servizio di un'immagine, senza la parte HTTP:
+ * percorso precedente (UrlResource nuovo, exists/isReadable, Files.probeContentType e copia dallo
+ * InputStream) contro ImmaginiStatiche (metadati in cache e FileChannel.transferTo).
+ * La destinazione è un canale che scarta i byte, al posto dello stream della risposta.
+ * Eseguire con: ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ImmaginiBenchmark {
+
+    @Param({"16384", "262144", "4194304"})
+    public int dimensione;
+
+    private Path cartella;
+    private Path file;
+    private ImmaginiStatiche immagini;
+
+    @State(Scope.Thread)
+    public static class Destinazione {
+        final WritableByteChannel scarto = Channels.newChannel(OutputStream.nullOutputStream());
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        cartella = Files.createTempDirectory("bench-immagini");
+        Files.createDirectories(cartella.resolve("prodotti"));
+        file = cartella.resolve("prodotti").resolve("foto.jpg");
+        byte[] contenuto = new byte[dimensione];
+        new Random(42).nextBytes(contenuto);
+        Files.write(file, contenuto);
+        immagini = new ImmaginiStatiche(cartella.toString(), 5000, 31536000, Long.MAX_VALUE, 20000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(cartella.resolve("prodotti"));
+        Files.deleteIfExists(cartella);
+    }
+
+    @Benchmark
+    public long precedente() throws IOException {
+        Path percorso = cartella.resolve("prodotti").resolve("foto.jpg");
+        Resource resource = new UrlResource(percorso.toUri());
+        if (!resource.exists() || !resource.isReadable()) throw new IllegalStateException("file mancante");
+        String tipo = Files.probeContentType(percorso);
+        try (InputStream in = resource.getInputStream()) {
+            return in.transferTo(OutputStream.nullOutputStream()) + (tipo == null ? 0 : 1);
+        }
+    }
+
+    @Benchmark
+    public long inCache(Destinazione d) throws IOException {
+        ImmaginiStatiche.Immagine img = immagini.trova("prodotti", "foto.jpg").orElseThrow();
+        return immagini.copia(img, 0, img.dimensione(), d.scarto) + img.tipo().length();
+    }
+}
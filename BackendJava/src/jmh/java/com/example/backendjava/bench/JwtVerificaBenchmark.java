@@ -0,0 +1,102 @@
+package com.example.backendjava.bench;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.backendjava.auth.JwtUtil;
+import com.example.backendjava.auth.VerificatoreToken;
+
+import io.jsonwebtoken.Claims;
+
+/**
+ * Throughput della verifica dei token: JwtUtil.parseToken (chiave e parser ricostruiti a ogni chiamata),
+ * VerificatoreToken senza cache (solo parser precostruito) e con cache (token ripetuti tra le richieste).
+ * {@code utenti} è il numero di token distinti che si alternano, come utenti diversi collegati insieme;
+ * con 20000 utenti la cache (capienza 10000) deve togliere di continuo i token usati meno di recente.
+ * La cache si misura anche con 1 e 16 thread, per vedere quanto scala quando le richieste sono concorrenti.
+ * Eseguire con: ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class JwtVerificaBenchmark {
+
+    private static final String SECRET = "benchmarkSecretKeyForJWTVerificationThroughput123456";
+
+    @Param({"1", "1000", "20000"})
+    public int utenti;
+
+    private String[] token;
+    private VerificatoreToken senzaCache;
+    private VerificatoreToken conCache;
+
+    @State(Scope.Thread)
+    public static class Indice {
+        int i;
+    }
+
+    @Setup
+    public void setup() {
+        token = new String[utenti];
+        for (int i = 0; i < utenti; i++) {
+            Map<String, Object> claims = new HashMap<>();
+            claims.put("id", i + 1);
+            claims.put("email", "utente" + i + "@example.com");
+            claims.put("ruolo", "user");
+            token[i] = "Bearer " + JwtUtil.generateToken(claims, SECRET, 3_600_000L);
+        }
+        senzaCache = new VerificatoreToken(SECRET, 0);
+        conCache = new VerificatoreToken(SECRET, 10_000);
+    }
+
+    private String prossimo(Indice indice) {
+        String t = token[indice.i];
+        indice.i = (indice.i + 1) % utenti;
+        return t;
+    }
+
+    @Benchmark
+    public Claims parseTokenStatico(Indice indice) {
+        return JwtUtil.parseToken(prossimo(indice), SECRET).orElseThrow();
+    }
+
+    @Benchmark
+    public Claims parserPrecostruito(Indice indice) {
+        return senzaCache.verifica(prossimo(indice)).orElseThrow();
+    }
+
+    @Benchmark
+    public Claims parserConCache(Indice indice) {
+        return conCache.verifica(prossimo(indice)).orElseThrow();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Claims parserConCacheUnThread(Indice indice) {
+        return conCache.verifica(prossimo(indice)).orElseThrow();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Claims parserConCacheSediciThread(Indice indice) {
+        return conCache.verifica(prossimo(indice)).orElseThrow();
+    }
+}
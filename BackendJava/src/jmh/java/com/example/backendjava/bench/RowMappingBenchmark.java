@@ -0,0 +1,137 @@
+package com.example.backendjava.bench;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.rowset.SqlRowSet;
+
+import com.example.backendjava.dto.OrdineRiga;
+import com.example.backendjava.dto.ProdottoVista;
+import com.example.backendjava.jdbc.DatabaseH2;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Confronta la vecchia mappatura (SqlRowSet + HashMap per riga, colonne lette per nome)
+ * con i RowMapper tipizzati, serializzazione JSON compresa.
+ * Query: vetrina (la stessa che alimenta il catalogo in memoria) e storico ordini di un utente.
+ * Eseguire con: ./gradlew jmh  (il profiler gc riporta gc.alloc.rate.norm = byte allocati per operazione)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowMappingBenchmark {
+
+    private static final String SQL_VETRINA = "SELECT p.id_prodotto, p.nome, CASE WHEN p.promo = TRUE AND p.prezzo_scontato IS NOT NULL THEN p.prezzo_scontato ELSE p.prezzo END AS prezzo, p.prezzo_scontato, p.descrizione, p.immagine, p.quantita_disponibile, m.nome AS marchio, c.nome AS categoria FROM prodotto p LEFT JOIN categoria c ON p.id_categoria = c.id_categoria LEFT JOIN marchio m ON p.id_marchio = m.id_marchio WHERE p.in_vetrina = true AND p.bloccato = false";
+
+    private static final String SQL_ORDINI = "SELECT " + OrdineRiga.COLONNE + " FROM ordini WHERE user_id = ? ORDER BY data_ordine DESC";
+
+    private static final RowMapper<ProdottoVista> VETRINA_MAPPER = (rs, n) -> {
+        String img = rs.getString(6);
+        return new ProdottoVista(rs.getString(1), rs.getString(2), rs.getBigDecimal(3), rs.getBigDecimal(4), rs.getString(5),
+                img, rs.getInt(7), rs.getString(8), rs.getString(9), imageUrl(img));
+    };
+
+    @Param({"50", "500"})
+    public int righe;
+
+    private JdbcTemplate jdbc;
+    private final ObjectMapper json = new ObjectMapper();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        jdbc = new JdbcTemplate(DatabaseH2.nuovo("bench" + righe, ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE"));
+
+        for (int i = 1; i <= 10; i++) {
+            jdbc.update("INSERT INTO categoria VALUES (?, ?, ?)", i, "Categoria " + i, "cat" + i + ".jpg");
+            jdbc.update("INSERT INTO marchio VALUES (?, ?)", i, "Marchio " + i);
+        }
+        List<Object[]> prodotti = new ArrayList<>();
+        List<Object[]> ordini = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (int i = 1; i <= righe; i++) {
+            boolean promo = i % 3 == 0;
+            prodotti.add(new Object[]{i, "Prodotto " + i, "Descrizione del prodotto numero " + i, new BigDecimal("199.90"),
+                    promo ? new BigDecimal("149.90") : null, promo, i % 7 == 0 ? null : "p" + i + ".jpg", i % 20, true, false,
+                    (i % 10) + 1, (i % 10) + 1});
+            ordini.add(new Object[]{i, 1, "Via Roma " + i + ", Milano", new BigDecimal("120.00"), new BigDecimal("10.00"),
+                    new BigDecimal("110.00"), "Consegnato", new Timestamp(now - i * 3_600_000L), "carta", "Mario Rossi",
+                    "**** **** **** 1234", i % 4 == 0 ? "SCONTO10" : null});
+        }
+        jdbc.batchUpdate("INSERT INTO prodotto (id_prodotto, nome, descrizione, prezzo, prezzo_scontato, promo, immagine,"
+                + " quantita_disponibile, in_vetrina, bloccato, id_categoria, id_marchio) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", prodotti);
+        jdbc.batchUpdate("INSERT INTO ordini VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", ordini);
+    }
+
+    private static String imageUrl(String filename) {
+        if (filename == null || filename.isBlank()) {
+            return "http://localhost:8080/api/immagine/uploads/prodotti/default.jpg";
+        }
+        return "http://localhost:8080/api/immagine/uploads/prodotti/" + filename;
+    }
+
+    @Benchmark
+    public byte[] vetrinaMappe() throws Exception {
+        List<Map<String, Object>> list = new ArrayList<>();
+        SqlRowSet rs = jdbc.queryForRowSet(SQL_VETRINA);
+        while (rs.next()) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("id_prodotto", rs.getString("id_prodotto"));
+            row.put("nome", rs.getString("nome"));
+            row.put("prezzo", rs.getBigDecimal("prezzo"));
+            row.put("prezzo_scontato", rs.getBigDecimal("prezzo_scontato"));
+            row.put("descrizione", rs.getString("descrizione"));
+            String img = rs.getString("immagine");
+            row.put("immagine", img);
+            row.put("quantita_disponibile", rs.getInt("quantita_disponibile"));
+            row.put("marchio", rs.getString("marchio"));
+            row.put("categoria", rs.getString("categoria"));
+            row.put("immagine_url", imageUrl(img));
+            list.add(row);
+        }
+        return json.writeValueAsBytes(list);
+    }
+
+    @Benchmark
+    public byte[] vetrinaRecord() throws Exception {
+        return json.writeValueAsBytes(jdbc.query(SQL_VETRINA, VETRINA_MAPPER));
+    }
+
+    @Benchmark
+    public byte[] ordiniUtenteMappe() throws Exception {
+        List<Map<String, Object>> list = new ArrayList<>();
+        SqlRowSet rs = jdbc.queryForRowSet("SELECT * FROM ordini WHERE user_id = ? ORDER BY data_ordine DESC", 1L);
+        while (rs.next()) {
+            Map<String, Object> row = new HashMap<>();
+            for (String col : rs.getMetaData().getColumnNames()) row.put(col, rs.getObject(col));
+            list.add(row);
+        }
+        return json.writeValueAsBytes(list);
+    }
+
+    @Benchmark
+    public byte[] ordiniUtenteRecord() throws Exception {
+        return json.writeValueAsBytes(jdbc.query(SQL_ORDINI, OrdineRiga.MAPPER, 1L));
+    }
+}
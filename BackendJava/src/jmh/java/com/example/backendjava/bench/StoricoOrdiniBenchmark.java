@@ -0,0 +1,132 @@
+package com.example.backendjava.bench;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.example.backendjava.dto.OrdineRiga;
+import com.example.backendjava.dto.OrdineSintesi;
+import com.example.backendjava.dto.OrdineStorico;
+import com.example.backendjava.jdbc.DatabaseH2;
+
+/**
+ * Storico ordini di un cliente con molti ordini, su 1M di ordini distribuiti tra 10.000 utenti.
+ * Confronta le query precedenti (tutti gli ordini dell'utente; per l'amministratore GROUP BY su
+ * ordine_prodotti di tutti gli ordini) con le pagine keyset su (data_ordine, id) di OrdersController e
+ * AdminController: prima pagina, pagina a metà storico e, per confronto, la stessa pagina con OFFSET.
+ * Gli indici sono quelli di db/004_ordini_indici_storico.sql senza INCLUDE, che H2 non supporta.
+ * H2 valuta il confronto tra righe come filtro sul prefisso user_id: la pagina a metà storico qui scorre
+ * le righe precedenti, mentre su PostgreSQL la scansione parte dal cursore (verificare con EXPLAIN).
+ * Eseguire con: ./gradlew jmh  (il popolamento iniziale richiede alcuni secondi)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoricoOrdiniBenchmark {
+
+    private static final int UTENTI = 10_000;
+    private static final long CLIENTE = 1;
+    private static final int PAGINA = 20;
+
+    private static final String SQL_PRECEDENTE = "SELECT " + OrdineRiga.COLONNE + " FROM ordini WHERE user_id = ? ORDER BY data_ordine DESC";
+    private static final String SQL_STORICO = "SELECT " + OrdineStorico.COLONNE + " FROM ordini WHERE user_id = ?";
+    private static final String SQL_ADMIN_PRECEDENTE = "SELECT o.id, o.totale, o.stato, o.data_ordine, o.metodo_pagamento, COALESCE(SUM(op.quantita), 0) AS numero_prodotti FROM ordini o LEFT JOIN ordine_prodotti op ON o.id = op.ordine_id WHERE o.user_id = ? GROUP BY o.id, o.totale, o.stato, o.data_ordine, o.metodo_pagamento ORDER BY o.data_ordine DESC";
+    private static final String SQL_ADMIN = "SELECT o.id, o.totale, o.stato, o.data_ordine, o.metodo_pagamento, (SELECT COALESCE(SUM(op.quantita), 0) FROM ordine_prodotti op WHERE op.ordine_id = o.id) AS numero_prodotti FROM ordini o WHERE o.user_id = ?";
+    private static final String ORDINE = " ORDER BY data_ordine DESC, id DESC";
+
+    @Param({"1000000"})
+    public int ordini;
+
+    /** Ordini del cliente di lunga data; gli altri sono distribuiti tra gli utenti restanti. */
+    @Param({"20000"})
+    public int ordiniCliente;
+
+    private JdbcTemplate jdbc;
+    private Timestamp metaData;
+    private long metaId;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        jdbc = new JdbcTemplate(DatabaseH2.nuovo("storico", ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE"));
+
+        long inizio = Timestamp.valueOf("2020-01-01 00:00:00").getTime();
+        List<Object[]> righe = new ArrayList<>();
+        List<Object[]> prodotti = new ArrayList<>();
+        for (int i = 1; i <= ordini; i++) {
+            long utente = i <= ordiniCliente ? CLIENTE : 2 + (i % (UTENTI - 1));
+            // Più ordini nello stesso minuto: l'id distingue quelli con la stessa data
+            Timestamp data = new Timestamp(inizio + (i / 3) * 60_000L);
+            righe.add(new Object[]{i, utente, "Via Roma " + i + ", Milano", new BigDecimal("120.00"), BigDecimal.ZERO,
+                    new BigDecimal("120.00"), i % 10 == 0 ? "In elaborazione" : "Consegnato", data, "carta", "Mario Rossi",
+                    "**** **** **** 1234", null});
+            // Righe d'ordine solo per il cliente misurato: le query dell'amministratore leggono solo le sue
+            if (utente == CLIENTE) {
+                prodotti.add(new Object[]{i, 1 + i % 50, 1, new BigDecimal("70.00")});
+                prodotti.add(new Object[]{i, 1 + (i + 7) % 50, 2, new BigDecimal("25.00")});
+            }
+            if (righe.size() == 10_000) {
+                jdbc.batchUpdate("INSERT INTO ordini VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", righe);
+                righe.clear();
+            }
+        }
+        if (!righe.isEmpty()) jdbc.batchUpdate("INSERT INTO ordini VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", righe);
+        jdbc.batchUpdate("INSERT INTO ordine_prodotti VALUES (?, ?, ?, ?)", prodotti);
+        jdbc.execute("CREATE INDEX ordine_prodotti_ordine_idx ON ordine_prodotti (ordine_id)");
+        jdbc.execute("ANALYZE");
+
+        // Cursore a metà dello storico del cliente
+        OrdineStorico meta = jdbc.query(SQL_STORICO + ORDINE + " LIMIT 1 OFFSET ?", OrdineStorico.MAPPER, CLIENTE, ordiniCliente / 2).get(0);
+        metaData = meta.dataOrdine();
+        metaId = meta.id();
+    }
+
+    @Benchmark
+    public List<OrdineRiga> precedenteTutti() {
+        return jdbc.query(SQL_PRECEDENTE, OrdineRiga.MAPPER, CLIENTE);
+    }
+
+    @Benchmark
+    public List<OrdineStorico> keysetPrimaPagina() {
+        return jdbc.query(SQL_STORICO + ORDINE + " LIMIT ?", OrdineStorico.MAPPER, CLIENTE, PAGINA + 1);
+    }
+
+    @Benchmark
+    public List<OrdineStorico> keysetPaginaMeta() {
+        return jdbc.query(SQL_STORICO + " AND (data_ordine, id) < (?, ?)" + ORDINE + " LIMIT ?", OrdineStorico.MAPPER,
+                CLIENTE, metaData, metaId, PAGINA + 1);
+    }
+
+    @Benchmark
+    public List<OrdineStorico> offsetPaginaMeta() {
+        return jdbc.query(SQL_STORICO + ORDINE + " LIMIT ? OFFSET ?", OrdineStorico.MAPPER, CLIENTE, PAGINA + 1, ordiniCliente / 2);
+    }
+
+    @Benchmark
+    public List<OrdineSintesi> adminPrecedenteTutti() {
+        return jdbc.query(SQL_ADMIN_PRECEDENTE, OrdineSintesi.MAPPER, CLIENTE);
+    }
+
+    @Benchmark
+    public List<OrdineSintesi> adminKeysetPrimaPagina() {
+        return jdbc.query(SQL_ADMIN + " ORDER BY o.data_ordine DESC, o.id DESC LIMIT ?", OrdineSintesi.MAPPER, CLIENTE, PAGINA + 1);
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.backendjava.auth;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import com.example.backendjava.metrics.StatsProvider;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Legge l'header Authorization una volta per richiesta e, se il token è valido, salva l'utente
+ * in {@link UtenteAutenticato#ATTRIBUTO}. Non rifiuta nessuna richiesta: sono i controller a
+ * rispondere 401/403 quando l'attributo manca o il ruolo non basta.
+ * È anche l'unico punto in cui si misura il costo dell'autenticazione.
+ */
+public class FiltroAutenticazione extends OncePerRequestFilter implements StatsProvider {
+
+    private final VerificatoreToken verificatore;
+
+    private final LongAdder anonime = new LongAdder();
+    private final LongAdder autenticate = new LongAdder();
+    private final LongAdder tokenNonValidi = new LongAdder();
+    private final LongAdder durataTotaleNanos = new LongAdder();
+    private final AtomicLong durataMaxNanos = new AtomicLong();
+
+    public FiltroAutenticazione(VerificatoreToken verificatore) {
+        this.verificatore = verificatore;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String authorization = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (authorization == null || authorization.isBlank()) {
+            anonime.increment();
+        } else {
+            long start = System.nanoTime();
+            var utente = verificatore.verifica(authorization).flatMap(UtenteAutenticato::daClaims);
+            long durata = System.nanoTime() - start;
+            durataTotaleNanos.add(durata);
+            durataMaxNanos.accumulateAndGet(durata, Math::max);
+            if (utente.isPresent()) {
+                request.setAttribute(UtenteAutenticato.ATTRIBUTO, utente.get());
+                autenticate.increment();
+            } else {
+                tokenNonValidi.increment();
+            }
+        }
+        chain.doFilter(request, response);
+    }
+
+    @Override
+    public String nome() {
+        return "autenticazione";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        long conToken = autenticate.sum() + tokenNonValidi.sum();
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("anonime", anonime.sum());
+        out.put("autenticate", autenticate.sum());
+        out.put("token_non_validi", tokenNonValidi.sum());
+        out.put("durata_media_us", conToken == 0 ? 0 : durataTotaleNanos.sum() / conToken / 1000.0);
+        out.put("durata_max_us", durataMaxNanos.get() / 1000.0);
+        return out;
+    }
+}
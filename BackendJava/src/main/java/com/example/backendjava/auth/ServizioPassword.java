@@ -0,0 +1,220 @@
+package com.example.backendjava.auth;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import com.example.backendjava.metrics.StatsProvider;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Hash e verifica delle password BCrypt su un pool dedicato e limitato, fuori dai thread di Tomcat:
+ * al più un hash per core in parallelo. I controller restituiscono il CompletableFuture e il thread di
+ * richiesta torna libero durante l'hash; il future fallisce dopo il timeout.
+ * Quando la coda è piena la richiesta viene rifiutata subito ({@link Sovraccarico}, 503 per il client)
+ * invece di accodare altri thread di richiesta durante un picco di login.
+ * Il costo viene calibrato all'avvio sulla durata obiettivo (se non fissato con password.bcrypt.cost)
+ * e gli hash salvati con un costo più basso vengono rigenerati al primo login riuscito; quelli con un costo
+ * più alto restano, così una calibrazione più bassa su un'altra istanza non li indebolisce.
+ */
+@Service
+public class ServizioPassword implements StatsProvider {
+
+    /** Pool e coda pieni, oppure attesa oltre il timeout: il client deve riprovare. */
+    public static class Sovraccarico extends RuntimeException {
+        public Sovraccarico(String message) {
+            super(message);
+        }
+    }
+
+    /** Esito della verifica; {@code nuovoHash} è valorizzato se l'hash salvato va sostituito. */
+    public record Verifica(boolean valida, String nuovoHash) {
+    }
+
+    private static final int CAMPIONI_CALIBRAZIONE = 5;
+
+    private final int costo;
+    private final BCryptPasswordEncoder encoder;
+    private final ThreadPoolExecutor pool;
+    private final long timeoutMs;
+
+    private final LongAdder eseguiti = new LongAdder();
+    private final LongAdder rifiutati = new LongAdder();
+    private final LongAdder scaduti = new LongAdder();
+    private final LongAdder rehash = new LongAdder();
+    private final LongAdder durataTotaleMicros = new LongAdder();
+    private final AtomicInteger codaMassima = new AtomicInteger();
+    private final long calibrazioneMs;
+
+    public ServizioPassword(@Value("${password.bcrypt.cost:0}") int costoFisso,
+                            @Value("${password.bcrypt.target-ms:250}") long obiettivoMs,
+                            @Value("${password.bcrypt.min-cost:10}") int costoMinimo,
+                            @Value("${password.bcrypt.max-cost:14}") int costoMassimo,
+                            @Value("${password.pool.threads:0}") int thread,
+                            @Value("${password.pool.queue:64}") int coda,
+                            @Value("${password.timeout-ms:5000}") long timeoutMs) {
+        long inizio = System.nanoTime();
+        this.costo = costoFisso > 0 ? costoFisso : calibra(obiettivoMs, costoMinimo, costoMassimo);
+        this.calibrazioneMs = (System.nanoTime() - inizio) / 1_000_000;
+        this.encoder = new BCryptPasswordEncoder(costo);
+        this.timeoutMs = timeoutMs;
+
+        int n = thread > 0 ? thread : Runtime.getRuntime().availableProcessors();
+        AtomicInteger contatore = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(n, n, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(coda), r -> {
+            Thread t = new Thread(r, "bcrypt-" + contatore.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Costo massimo la cui durata stimata resta entro l'obiettivo: si misura la mediana di alcuni hash
+     * al costo minimo, così una pausa del GC o un core occupato non falsano la stima, e ogni incremento
+     * di costo raddoppia il lavoro.
+     */
+    static int calibra(long obiettivoMs, int costoMinimo, int costoMassimo) {
+        BCryptPasswordEncoder prova = new BCryptPasswordEncoder(costoMinimo);
+        prova.encode("calibrazione"); // riscaldamento
+        double[] durate = new double[CAMPIONI_CALIBRAZIONE];
+        for (int i = 0; i < durate.length; i++) {
+            long inizio = System.nanoTime();
+            prova.encode("calibrazione");
+            durate[i] = (System.nanoTime() - inizio) / 1_000_000.0;
+        }
+        Arrays.sort(durate);
+        double stimaMs = Math.max(durate[durate.length / 2], 0.01);
+        int costo = costoMinimo;
+        while (costo < costoMassimo && stimaMs * 2 <= obiettivoMs) {
+            stimaMs *= 2;
+            costo++;
+        }
+        return costo;
+    }
+
+    public int costo() {
+        return costo;
+    }
+
+    /** Hash della password con il costo corrente, completato sul pool dedicato. */
+    public CompletableFuture<String> codificaAsync(String password) {
+        return esegui(() -> encoder.encode(password));
+    }
+
+    /**
+     * Verifica la password sul pool dedicato; se valida e salvata con un costo più basso restituisce anche il nuovo hash.
+     * Il future fallisce con {@link Sovraccarico} se la coda è piena o il risultato non arriva entro il timeout.
+     */
+    public CompletableFuture<Verifica> verificaAsync(String password, String hash) {
+        if (password == null || hash == null) return CompletableFuture.completedFuture(new Verifica(false, null));
+        return esegui(() -> {
+            if (!encoder.matches(password, hash)) return new Verifica(false, null);
+            if (costoDi(hash) >= costo) return new Verifica(true, null);
+            rehash.increment();
+            return new Verifica(true, encoder.encode(password));
+        });
+    }
+
+    /** Come {@link #codificaAsync(String)}, attendendo il risultato sul thread chiamante. */
+    public String codifica(String password) {
+        return attendi(codificaAsync(password));
+    }
+
+    /** Come {@link #verificaAsync(String, String)}, attendendo il risultato sul thread chiamante. */
+    public Verifica verifica(String password, String hash) {
+        return attendi(verificaAsync(password, hash));
+    }
+
+    /** Costo di un hash nel formato $2a$NN$..., -1 se non riconosciuto. */
+    static int costoDi(String hash) {
+        if (hash.length() < 7 || hash.charAt(0) != '$' || hash.charAt(3) != '$' || hash.charAt(6) != '$') return -1;
+        char d = hash.charAt(4);
+        char u = hash.charAt(5);
+        if (!Character.isDigit(d) || !Character.isDigit(u)) return -1;
+        return (d - '0') * 10 + (u - '0');
+    }
+
+    private <T> CompletableFuture<T> esegui(Supplier<T> lavoro) {
+        CompletableFuture<T> risultato = new CompletableFuture<>();
+        try {
+            pool.execute(() -> {
+                // Scaduto mentre era in coda: il client ha già avuto la risposta, l'hash non serve più
+                if (risultato.isDone()) return;
+                long inizio = System.nanoTime();
+                try {
+                    risultato.complete(lavoro.get());
+                } catch (RuntimeException e) {
+                    risultato.completeExceptionally(e);
+                } finally {
+                    durataTotaleMicros.add((System.nanoTime() - inizio) / 1000);
+                    eseguiti.increment();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rifiutati.increment();
+            return CompletableFuture.failedFuture(new Sovraccarico("Troppe richieste di autenticazione, riprova tra poco"));
+        }
+        codaMassima.accumulateAndGet(pool.getQueue().size(), Math::max);
+        return risultato.orTimeout(timeoutMs, TimeUnit.MILLISECONDS).exceptionally(errore -> {
+            Throwable e = errore instanceof CompletionException && errore.getCause() != null ? errore.getCause() : errore;
+            if (e instanceof TimeoutException) {
+                scaduti.increment();
+                throw new Sovraccarico("Autenticazione non completata in tempo, riprova tra poco");
+            }
+            throw e instanceof RuntimeException re ? re : new CompletionException(e);
+        });
+    }
+
+    private static <T> T attendi(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw e;
+        }
+    }
+
+    @PreDestroy
+    public void chiudi() {
+        pool.shutdown();
+    }
+
+    @Override
+    public String nome() {
+        return "password";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        long n = eseguiti.sum();
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("costo", costo);
+        out.put("calibrazione_ms", calibrazioneMs);
+        out.put("thread", pool.getMaximumPoolSize());
+        out.put("attivi", pool.getActiveCount());
+        out.put("in_coda", pool.getQueue().size());
+        out.put("coda_massima", codaMassima.get());
+        out.put("capienza_coda", pool.getQueue().size() + pool.getQueue().remainingCapacity());
+        out.put("eseguiti", n);
+        out.put("rifiutati", rifiutati.sum());
+        out.put("scaduti", scaduti.sum());
+        out.put("rehash", rehash.sum());
+        out.put("durata_media_ms", n == 0 ? 0 : durataTotaleMicros.sum() / n / 1000.0);
+        return out;
+    }
+}
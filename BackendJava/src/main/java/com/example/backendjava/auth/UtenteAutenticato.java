@@ -0,0 +1,41 @@
+package com.example.backendjava.auth;
+
+import java.util.Optional;
+
+import io.jsonwebtoken.Claims;
+
+/**
+ * Utente della richiesta corrente, ricavato dal token una sola volta da {@link FiltroAutenticazione}
+ * e letto dai controller come attributo della richiesta ({@link #ATTRIBUTO}).
+ */
+public record UtenteAutenticato(long id, String ruolo, String email) {
+
+    /** Nome dell'attributo di richiesta; assente se il token manca o non è valido. */
+    public static final String ATTRIBUTO = "utenteAutenticato";
+
+    /** Amministratori e proprietario, dal ruolo nel token: nessun accesso al database. */
+    public boolean admin() {
+        return ruolo != null && (ruolo.equalsIgnoreCase("admin") || ruolo.equalsIgnoreCase("owner"));
+    }
+
+    /** Utente dai claim del token, vuoto se manca l'id. */
+    static Optional<UtenteAutenticato> daClaims(Claims claims) {
+        Object id = claims.get("id");
+        long valore;
+        if (id instanceof Number n) {
+            valore = n.longValue();
+        } else if (id instanceof String s && !s.isBlank()) {
+            try {
+                valore = Long.parseLong(s.trim());
+            } catch (NumberFormatException e) {
+                return Optional.empty();
+            }
+        } else {
+            return Optional.empty();
+        }
+        Object ruolo = claims.get("ruolo");
+        Object email = claims.get("email");
+        return Optional.of(new UtenteAutenticato(valore, ruolo == null ? null : String.valueOf(ruolo),
+                email == null ? null : String.valueOf(email)));
+    }
+}
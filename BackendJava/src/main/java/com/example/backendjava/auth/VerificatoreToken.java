@@ -0,0 +1,178 @@
+package com.example.backendjava.auth;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.SecretKey;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.example.backendjava.metrics.StatsProvider;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+
+/**
+ * Verifica dei token JWT con chiave e parser costruiti una sola volta.
+ * I token già verificati restano in una cache limitata (chiave: SHA-256 del token) fino alla loro
+ * scadenza, così le richieste successive con lo stesso token saltano firma e parsing dei claim.
+ * La cache è una ConcurrentHashMap senza lock sulle letture; oltre la capienza un solo thread alla volta
+ * toglie gli scaduti e poi i token usati meno di recente fino al 90% della capienza (LRU approssimato).
+ * I token non validi non vengono messi in cache. I Claims restituiti sono condivisi: vanno solo letti.
+ */
+@Component
+public class VerificatoreToken implements StatsProvider {
+
+    // L'ultimo uso viene aggiornato al più una volta al secondo, per non scrivere a ogni richiesta
+    private static final long RISOLUZIONE_USO_MS = 1000;
+
+    private static final class Verificato {
+        final Claims claims;
+        final long scadeIl;
+        volatile long ultimoUso;
+
+        Verificato(Claims claims, long scadeIl, long adesso) {
+            this.claims = claims;
+            this.scadeIl = scadeIl;
+            this.ultimoUso = adesso;
+        }
+    }
+
+    private final JwtParser parser;
+    private final int capienza;
+    private final Map<String, Verificato> cache = new ConcurrentHashMap<>();
+    private final AtomicBoolean inPulizia = new AtomicBoolean();
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final LongAdder hit = new LongAdder();
+    private final LongAdder miss = new LongAdder();
+    private final LongAdder rifiutati = new LongAdder();
+    private final LongAdder scaduti = new LongAdder();
+    private final LongAdder rimossi = new LongAdder();
+
+    public VerificatoreToken(@Value("${jwt.secret:dev-secret-please-change}") String secret,
+                             @Value("${jwt.cache.max-entries:10000}") int capienza) {
+        this.parser = costruisciParser(secret);
+        this.capienza = capienza;
+    }
+
+    private static JwtParser costruisciParser(String secret) {
+        try {
+            SecretKey key = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+            return Jwts.parserBuilder().setSigningKey(key).build();
+        } catch (Exception e) {
+            // Segreto troppo corto per HS256: come prima, nessun token risulta valido
+            return null;
+        }
+    }
+
+    /**
+     * Verifica il valore dell'header Authorization ("Bearer &lt;token&gt;" o il solo token).
+     *
+     * @return i claim del token, vuoto se assente, non valido o scaduto
+     */
+    public Optional<Claims> verifica(String authorization) {
+        if (authorization == null || authorization.isBlank() || parser == null) return Optional.empty();
+        String raw = authorization.startsWith("Bearer ") ? authorization.substring(7) : authorization;
+        if (capienza <= 0) return verificaFirma(raw);
+
+        String chiave = hash(raw);
+        long adesso = System.currentTimeMillis();
+        Verificato v = cache.get(chiave);
+        if (v != null && v.scadeIl <= adesso) {
+            if (cache.remove(chiave, v)) scaduti.increment();
+            v = null;
+        }
+        if (v != null) {
+            if (adesso - v.ultimoUso > RISOLUZIONE_USO_MS) v.ultimoUso = adesso;
+            hit.increment();
+            return Optional.of(v.claims);
+        }
+        miss.increment();
+        Optional<Claims> claims = verificaFirma(raw);
+        claims.ifPresent(c -> {
+            Date exp = c.getExpiration();
+            cache.put(chiave, new Verificato(c, exp != null ? exp.getTime() : Long.MAX_VALUE, adesso));
+            if (cache.size() > capienza) liberaSpazio();
+        });
+        return claims;
+    }
+
+    /**
+     * Toglie i token scaduti e, se non basta, quelli usati meno di recente fino al 90% della capienza.
+     * Lo fa un solo thread alla volta; gli altri proseguono senza attendere.
+     */
+    private void liberaSpazio() {
+        if (!inPulizia.compareAndSet(false, true)) return;
+        try {
+            long adesso = System.currentTimeMillis();
+            int prima = cache.size();
+            cache.values().removeIf(v -> v.scadeIl <= adesso);
+            int dopoScaduti = cache.size();
+            scaduti.add(Math.max(0, prima - dopoScaduti));
+            int eccesso = dopoScaduti - capienza * 9 / 10;
+            if (eccesso <= 0) return;
+            List<Map.Entry<String, Verificato>> voci = new ArrayList<>(cache.entrySet());
+            voci.sort(Comparator.comparingLong(e -> e.getValue().ultimoUso));
+            for (Map.Entry<String, Verificato> e : voci.subList(0, Math.min(eccesso, voci.size()))) {
+                if (cache.remove(e.getKey(), e.getValue())) rimossi.increment();
+            }
+        } finally {
+            inPulizia.set(false);
+        }
+    }
+
+    private Optional<Claims> verificaFirma(String raw) {
+        try {
+            return Optional.ofNullable(parser.parseClaimsJws(raw).getBody());
+        } catch (Exception e) {
+            rifiutati.increment();
+            return Optional.empty();
+        }
+    }
+
+    private static String hash(String raw) {
+        byte[] digest = SHA256.get().digest(raw.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(digest);
+    }
+
+    @Override
+    public String nome() {
+        return "jwt";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("cache_dimensione", cache.size());
+        out.put("cache_capienza", capienza);
+        out.put("hit", hit.sum());
+        out.put("miss", miss.sum());
+        out.put("rifiutati", rifiutati.sum());
+        out.put("scaduti", scaduti.sum());
+        out.put("rimossi", rimossi.sum());
+        return out;
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.backendjava.config;
+
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.example.backendjava.auth.FiltroAutenticazione;
+import com.example.backendjava.auth.VerificatoreToken;
+
+@Configuration
+public class AutenticazioneConfig {
+
+    @Bean
+    public FiltroAutenticazione filtroAutenticazione(VerificatoreToken verificatore) {
+        return new FiltroAutenticazione(verificatore);
+    }
+
+    @Bean
+    public FilterRegistrationBean<FiltroAutenticazione> registrazioneFiltroAutenticazione(FiltroAutenticazione filtro) {
+        FilterRegistrationBean<FiltroAutenticazione> registrazione = new FilterRegistrationBean<>(filtro);
+        registrazione.addUrlPatterns("/api/*");
+        return registrazione;
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.backendjava.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/** Abilita i metodi @Scheduled (es. scrittura periodica dei carrelli). */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -1,16 +1,10 @@
 package com.example.backendjava.controller;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.sql.Timestamp;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -19,12 +13,23 @@ import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestAttribute;
 import org.springframework.web.bind.annotation.RequestBody;
-import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
-
-import com.example.backendjava.auth.JwtUtil;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.example.backendjava.auth.UtenteAutenticato;
+import com.example.backendjava.dto.OrdineConCliente;
+import com.example.backendjava.dto.OrdineRiga;
+import com.example.backendjava.dto.OrdineSintesi;
+import com.example.backendjava.dto.RigaOrdineAdmin;
+import com.example.backendjava.dto.StatisticaUtente;
+import com.example.backendjava.jdbc.Cursore;
+import com.example.backendjava.jdbc.JsonStreaming;
+import com.example.backendjava.service.ArchivioImmagini;
+import com.example.backendjava.service.CatalogoSnapshot;
 
 /**
  * Controller REST per le funzionalità amministrative.
@@ -34,25 +39,25 @@ import com.example.backendjava.auth.JwtUtil;
 @RequestMapping("/api/admin")
 public class AdminController {
     private final JdbcTemplate jdbc;
+    private final CatalogoSnapshot catalogo;
+    private final JsonStreaming streaming;
+    private final ArchivioImmagini archivio;
 
-    @Value("${jwt.secret:dev-secret-please-change}")
-    private String jwtSecret;
-
-    @Value("${uploads.dir:}")
-    private String uploadsDir;
-
-    public AdminController(JdbcTemplate jdbc) {
+    public AdminController(JdbcTemplate jdbc, CatalogoSnapshot catalogo, JsonStreaming streaming, ArchivioImmagini archivio) {
         this.jdbc = jdbc;
+        this.catalogo = catalogo;
+        this.streaming = streaming;
+        this.archivio = archivio;
     }
 
-    private boolean isAuthenticated(String authorization) {
-        return JwtUtil.parseToken(authorization, jwtSecret).isPresent();
+    private static boolean isAdmin(UtenteAutenticato utente) {
+        return utente != null && utente.admin();
     }
 
     @PatchMapping("/users/{id}/block")
-    public ResponseEntity<?> toggleBlock(@RequestHeader(value = "Authorization", required = false) String authorization,
+    public ResponseEntity<?> toggleBlock(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
                                         @PathVariable("id") long userId) {
-        if (!isAuthenticated(authorization)) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        if (!isAdmin(utente)) return ResponseEntity.status(utente == null ? HttpStatus.UNAUTHORIZED : HttpStatus.FORBIDDEN).build();
         SqlRowSet rs = jdbc.queryForRowSet("SELECT is_blocked FROM utenti WHERE id = ?", userId);
         if (!rs.next()) return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Utente non trovato");
         boolean newStatus = !rs.getBoolean("is_blocked");
@@ -61,63 +66,66 @@ public class AdminController {
     }
 
     @PatchMapping("/users/{id}/admin")
-    public ResponseEntity<?> setRole(@RequestHeader(value = "Authorization", required = false) String authorization,
+    public ResponseEntity<?> setRole(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
                             @PathVariable("id") long userId,
                             @RequestBody Map<String, Object> body) {
-        if (!isAuthenticated(authorization)) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        if (!isAdmin(utente)) return ResponseEntity.status(utente == null ? HttpStatus.UNAUTHORIZED : HttpStatus.FORBIDDEN).build();
         String ruolo = Objects.toString(body.getOrDefault("ruolo", body.getOrDefault("makeAdmin", true).equals(Boolean.TRUE) ? "admin" : "user"));
         jdbc.update("UPDATE utenti SET ruolo = ? WHERE id = ?", ruolo, userId);
         return ResponseEntity.ok(Map.of("success", true, "ruolo", ruolo));
     }
 
+    /**
+     * Statistiche ordini per utente, ordinate per numero ordini e totale speso, in streaming.
+     * Niente paginazione: l'ordinamento è su aggregati, quindi ogni pagina dovrebbe comunque raggruppare
+     * tutti gli ordini; lo streaming evita almeno di tenere l'intero risultato in memoria.
+     */
     @GetMapping("/statistiche-utenti")
-    public ResponseEntity<?> statistiche(@RequestHeader(value = "Authorization", required = false) String authorization) {
-        var claims = JwtUtil.parseToken(authorization, jwtSecret);
-        if (claims.isEmpty()) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
-        long currentUserId = ((Number) claims.get().get("id")).longValue();
-        String sql = "SELECT u.id, u.nome, u.cognome, u.email, u.is_blocked, u.ruolo, COUNT(o.id) AS numero_ordini, COALESCE(SUM(o.totale), 0) AS totale_speso, MAX(o.data_ordine) AS ultimo_ordine FROM utenti u LEFT JOIN ordini o ON u.id = o.user_id WHERE u.id != ? GROUP BY u.id, u.nome, u.cognome, u.email, u.is_blocked, u.ruolo ORDER BY numero_ordini DESC, totale_speso DESC";
-        List<Map<String, Object>> list = new ArrayList<>();
-        SqlRowSet rs = jdbc.queryForRowSet(sql, currentUserId);
-        while (rs.next()) {
-            Map<String, Object> row = new HashMap<>();
-            row.put("id", rs.getLong("id"));
-            row.put("nome", rs.getString("nome"));
-            row.put("cognome", rs.getString("cognome"));
-            row.put("email", rs.getString("email"));
-            row.put("is_blocked", rs.getBoolean("is_blocked"));
-            row.put("ruolo", rs.getString("ruolo"));
-            row.put("numero_ordini", rs.getLong("numero_ordini"));
-            row.put("totale_speso", rs.getBigDecimal("totale_speso"));
-            row.put("ultimo_ordine", rs.getTimestamp("ultimo_ordine"));
-            list.add(row);
-        }
-        return ResponseEntity.ok(list);
+    public ResponseEntity<StreamingResponseBody> statistiche(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente) {
+        if (!isAdmin(utente)) return streaming.errore(utente == null ? HttpStatus.UNAUTHORIZED : HttpStatus.FORBIDDEN, Map.of("error", "Solo admin"));
+        long currentUserId = utente.id();
+        String sql = "SELECT u.id, u.nome, u.cognome, u.email, u.is_blocked, u.ruolo, COUNT(o.id) AS numero_ordini, COALESCE(SUM(o.totale), 0) AS totale_speso, MAX(o.data_ordine) AS ultimo_ordine FROM utenti u LEFT JOIN ordini o ON u.id = o.user_id WHERE u.id != ? GROUP BY u.id, u.nome, u.cognome, u.email, u.is_blocked, u.ruolo";
+        return streaming.array(StatisticaUtente.MAPPER, sql + " ORDER BY numero_ordini DESC, totale_speso DESC, id", currentUserId);
     }
 
+    /**
+     * Ordini di un utente con il numero di prodotti, dal più recente. Come lo storico utente: array completo
+     * senza parametri, pagina keyset su (data_ordine, id) con limit e/o cursore.
+     * Il numero di prodotti è una sottoquery per riga: viene calcolato solo per gli ordini della pagina.
+     */
     @GetMapping("/users/{userId}/ordini")
-    public ResponseEntity<?> ordiniUtente(@RequestHeader(value = "Authorization", required = false) String authorization,
-                                    @PathVariable("userId") long userId) {
-        if (!isAuthenticated(authorization)) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
-        String sql = "SELECT o.id, o.totale, o.stato, o.data_ordine, o.metodo_pagamento, COALESCE(SUM(op.quantita), 0) AS numero_prodotti FROM ordini o LEFT JOIN ordine_prodotti op ON o.id = op.ordine_id WHERE o.user_id = ? GROUP BY o.id, o.totale, o.stato, o.data_ordine, o.metodo_pagamento ORDER BY o.data_ordine DESC";
-        List<Map<String, Object>> list = new ArrayList<>();
-        SqlRowSet rs = jdbc.queryForRowSet(sql, userId);
-        while (rs.next()) {
-            Map<String, Object> row = new HashMap<>();
-            row.put("id", rs.getLong("id"));
-            row.put("totale", rs.getBigDecimal("totale"));
-            row.put("stato", rs.getString("stato"));
-            row.put("data_ordine", rs.getTimestamp("data_ordine"));
-            row.put("metodo_pagamento", rs.getString("metodo_pagamento"));
-            row.put("numero_prodotti", rs.getLong("numero_prodotti"));
-            list.add(row);
+    public ResponseEntity<StreamingResponseBody> ordiniUtente(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
+                                                              @PathVariable("userId") long userId,
+                                                              @RequestParam(value = "limit", required = false) Integer limit,
+                                                              @RequestParam(value = "cursore", required = false) String cursore) {
+        if (!isAdmin(utente)) return streaming.errore(utente == null ? HttpStatus.UNAUTHORIZED : HttpStatus.FORBIDDEN, Map.of("error", "Solo admin"));
+        String sql = "SELECT o.id, o.totale, o.stato, o.data_ordine, o.metodo_pagamento, (SELECT COALESCE(SUM(op.quantita), 0) FROM ordine_prodotti op WHERE op.ordine_id = o.id) AS numero_prodotti FROM ordini o WHERE o.user_id = ?";
+        String ordine = " ORDER BY o.data_ordine DESC, o.id DESC";
+        if (limit == null && cursore == null) return streaming.array(OrdineSintesi.MAPPER, sql + ordine, userId);
+        if (cursore == null) {
+            return streaming.pagina(OrdineSintesi.MAPPER, AdminController::cursoreOrdine, JsonStreaming.limite(limit), sql + ordine, userId);
         }
-        return ResponseEntity.ok(list);
+        Timestamp dataOrdine;
+        long id;
+        try {
+            String[] c = Cursore.decodifica(cursore, 2);
+            dataOrdine = Timestamp.valueOf(c[0]);
+            id = Long.parseLong(c[1]);
+        } catch (IllegalArgumentException e) {
+            return streaming.errore(HttpStatus.BAD_REQUEST, Map.of("error", "Cursore non valido"));
+        }
+        return streaming.pagina(OrdineSintesi.MAPPER, AdminController::cursoreOrdine, JsonStreaming.limite(limit),
+                sql + " AND (o.data_ordine, o.id) < (?, ?)" + ordine, userId, dataOrdine, id);
+    }
+
+    private static String cursoreOrdine(OrdineSintesi o) {
+        return Cursore.codifica(o.dataOrdine(), o.id());
     }
 
     @DeleteMapping("/prodotti/{id}")
-    public ResponseEntity<?> deleteOrBlockProduct(@RequestHeader(value = "Authorization", required = false) String authorization,
+    public ResponseEntity<?> deleteOrBlockProduct(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
         @PathVariable("id") Long prodottoId) {
-        if (!isAuthenticated(authorization)) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        if (!isAdmin(utente)) return ResponseEntity.status(utente == null ? HttpStatus.UNAUTHORIZED : HttpStatus.FORBIDDEN).build();
         SqlRowSet check = jdbc.queryForRowSet("SELECT * FROM prodotto WHERE id_prodotto = ?", prodottoId);
         if (!check.next()) return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Prodotto non trovato"));
         String immagine = check.getString("immagine");
@@ -125,60 +133,46 @@ public class AdminController {
         long count = ordersCheck.next() ? ordersCheck.getLong("count") : 0;
         if (count > 0) {
             jdbc.update("UPDATE prodotto SET bloccato = true WHERE id_prodotto = ?", prodottoId);
+            catalogo.aggiornaProdotto(prodottoId);
             return ResponseEntity.ok(Map.of("message", "Prodotto marcato come bloccato (aveva ordini associati)", "action", "blocked"));
         } else {
             SqlRowSet deleted = jdbc.queryForRowSet("DELETE FROM prodotto WHERE id_prodotto = ? RETURNING *", prodottoId);
             if (!deleted.next()) return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", "Eliminazione fallita"));
-            // delete image file if exists
-            if (immagine != null && !immagine.isBlank() && uploadsDir != null && !uploadsDir.isBlank()) {
-                try {
-                    Path path = Paths.get(uploadsDir, "prodotti", immagine);
-                    Files.deleteIfExists(path);
-                } catch (IOException ignored) {
-                    // Ignore file deletion errors - not critical
-                }
-            }
+            catalogo.rimuoviProdotto(prodottoId);
+            // Il file viene cancellato solo se nessun altro prodotto usa la stessa immagine
+            archivio.rilascia(immagine);
             return ResponseEntity.ok(Map.of("message", "Prodotto eliminato con successo", "action", "deleted"));
         }
     }
 
     @GetMapping("/ordini/{ordineId}/dettaglio")
-    public ResponseEntity<?> dettaglioOrdine(@RequestHeader(value = "Authorization", required = false) String authorization,
+    public ResponseEntity<?> dettaglioOrdine(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
                                     @PathVariable("ordineId") long ordineId) {
-        if (!isAuthenticated(authorization)) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
-        SqlRowSet ordine = jdbc.queryForRowSet("SELECT o.*, u.nome AS nome_cliente, u.cognome AS cognome_cliente, u.email AS email_cliente FROM ordini o JOIN utenti u ON o.user_id = u.id WHERE o.id = ?", ordineId);
-        if (!ordine.next()) return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Ordine non trovato"));
-        Map<String, Object> order = new HashMap<>();
-        for (String col : ordine.getMetaData().getColumnNames()) order.put(col, ordine.getObject(col));
-        List<Map<String, Object>> prodotti = new ArrayList<>();
-        SqlRowSet righe = jdbc.queryForRowSet("SELECT p.nome, op.quantita, op.prezzo AS prezzo_unitario, (op.quantita * op.prezzo) AS subtotale FROM ordine_prodotti op JOIN prodotto p ON op.prodotto_id = p.id_prodotto WHERE op.ordine_id = ?", ordineId);
-        while (righe.next()) {
-            Map<String, Object> r = new HashMap<>();
-            r.put("nome", righe.getString("nome"));
-            r.put("quantita", righe.getInt("quantita"));
-            r.put("prezzo_unitario", righe.getBigDecimal("prezzo_unitario"));
-            r.put("subtotale", righe.getBigDecimal("subtotale"));
-            prodotti.add(r);
-        }
-        return ResponseEntity.ok(Map.of("ordine", order, "prodotti", prodotti));
+        if (!isAdmin(utente)) return ResponseEntity.status(utente == null ? HttpStatus.UNAUTHORIZED : HttpStatus.FORBIDDEN).build();
+        List<OrdineConCliente> ordine = jdbc.query("SELECT " + OrdineConCliente.COLONNE + " FROM ordini o JOIN utenti u ON o.user_id = u.id WHERE o.id = ?",
+                OrdineConCliente.MAPPER, ordineId);
+        if (ordine.isEmpty()) return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Ordine non trovato"));
+        List<RigaOrdineAdmin> prodotti = jdbc.query("SELECT p.nome, op.quantita, op.prezzo AS prezzo_unitario, (op.quantita * op.prezzo) AS subtotale FROM ordine_prodotti op JOIN prodotto p ON op.prodotto_id = p.id_prodotto WHERE op.ordine_id = ?", RigaOrdineAdmin.MAPPER, ordineId);
+        return ResponseEntity.ok(Map.of("ordine", ordine.get(0), "prodotti", prodotti));
     }
 
     @PatchMapping("/ordini/{ordineId}/stato")
-    public ResponseEntity<?> aggiornaStato(@RequestHeader(value = "Authorization", required = false) String authorization,
+    public ResponseEntity<?> aggiornaStato(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
                                     @PathVariable("ordineId") long ordineId,
                                     @RequestBody Map<String, Object> body) {
-        if (!isAuthenticated(authorization)) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        if (!isAdmin(utente)) return ResponseEntity.status(utente == null ? HttpStatus.UNAUTHORIZED : HttpStatus.FORBIDDEN).build();
         String stato = Objects.toString(body.get("stato"), "");
         String corriere = Objects.toString(body.get("corriere"), null);
         String codice_spedizione = Objects.toString(body.get("codice_spedizione"), null);
         String dettagli_pacco = Objects.toString(body.get("dettagli_pacco"), null);
 
-        SqlRowSet result = jdbc.queryForRowSet("UPDATE ordini SET stato = ? WHERE id = ? RETURNING *", stato, ordineId);
-        if (!result.next()) return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Ordine non trovato"));
+        List<OrdineRiga> result = jdbc.query("UPDATE ordini SET stato = ? WHERE id = ? RETURNING " + OrdineRiga.COLONNE,
+                OrdineRiga.MAPPER, stato, ordineId);
+        if (result.isEmpty()) return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Ordine non trovato"));
+        OrdineRiga aggiornato = result.get(0);
 
         if (stato.trim().equalsIgnoreCase("spedito")) {
-            SqlRowSet ord = jdbc.queryForRowSet("SELECT indirizzo_consegna FROM ordini WHERE id = ?", ordineId);
-            String indirizzo = ord.next() ? ord.getString("indirizzo_consegna") : null;
+            String indirizzo = aggiornato.indirizzoConsegna();
             String dettaglioConData = (dettagli_pacco != null && !dettagli_pacco.isBlank()) ? (java.time.LocalDateTime.now().toString().replace('T', ' ') + " " + dettagli_pacco) : null;
             jdbc.update("INSERT INTO tracking_ordine (id_ordine, stato, corriere, codice_spedizione, dettagli_pacco, indirizzo_spedizione, data_aggiornamento) VALUES (?, ?, ?, ?, ?, ?, NOW()) ON CONFLICT (id_ordine) DO NOTHING",
                     ordineId, stato, corriere, codice_spedizione, dettaglioConData, indirizzo);
@@ -188,15 +182,13 @@ public class AdminController {
                     stato, dettaglioConData, ordineId);
         }
 
-        Map<String, Object> updated = new HashMap<>();
-        for (String col : result.getMetaData().getColumnNames()) updated.put(col, result.getObject(col));
-        return ResponseEntity.ok(Map.of("message", "Stato aggiornato con successo", "ordine", updated));
+        return ResponseEntity.ok(Map.of("message", "Stato aggiornato con successo", "ordine", aggiornato));
     }
 
     @DeleteMapping("/utenti/{id}")
-    public ResponseEntity<?> deleteUser(@RequestHeader(value = "Authorization", required = false) String authorization,
+    public ResponseEntity<?> deleteUser(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
                                         @PathVariable("id") long id) {
-        if (!isAuthenticated(authorization)) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        if (!isAdmin(utente)) return ResponseEntity.status(utente == null ? HttpStatus.UNAUTHORIZED : HttpStatus.FORBIDDEN).build();
         jdbc.update("DELETE FROM utenti WHERE id = ?", id);
         return ResponseEntity.ok(Map.of("success", true, "message", "Utente rimosso"));
     }
@@ -1,26 +1,33 @@
 package com.example.backendjava.controller;
 
 import com.example.backendjava.auth.JwtUtil;
+import com.example.backendjava.auth.ServizioPassword;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.support.rowset.SqlRowSet;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Controller REST per la gestione dell'autenticazione utenti.
  * Fornisce endpoint per registrazione, login e gestione JWT token.
+ * Dopo l'hash BCrypt il resto della richiesta (query, firma del token) prosegue sull'esecutore
+ * applicativo di Spring, così i thread del pool delle password fanno solo hash.
  */
 @RestController
 @RequestMapping("/api/auth")
 public class AuthController {
     private final JdbcTemplate jdbc;
-    private final BCryptPasswordEncoder encoder = new BCryptPasswordEncoder();
+    private final ServizioPassword passwords;
+    private final AsyncTaskExecutor esecutore;
 
     @Value("${jwt.secret:dev-secret-please-change}")
     private String jwtSecret;
@@ -28,91 +35,111 @@ public class AuthController {
     @Value("${jwt.expiration.millis:7200000}") // 2h
     private long jwtExpirationMillis;
 
-    public AuthController(JdbcTemplate jdbc) {
+    public AuthController(JdbcTemplate jdbc, ServizioPassword passwords, AsyncTaskExecutor esecutore) {
         this.jdbc = jdbc;
+        this.passwords = passwords;
+        this.esecutore = esecutore;
+    }
+
+    /** 503 con Retry-After se l'hash è stato rifiutato per sovraccarico, altrimenti rilancia l'errore. */
+    private static ResponseEntity<?> occupato(Throwable errore) {
+        Throwable causa = errore instanceof CompletionException && errore.getCause() != null ? errore.getCause() : errore;
+        if (!(causa instanceof ServizioPassword.Sovraccarico)) {
+            throw causa instanceof RuntimeException re ? re : new CompletionException(causa);
+        }
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(Map.of("message", causa.getMessage()));
     }
 
     /**
      * Registra un nuovo utente nel sistema.
+     * L'hash viene calcolato sul pool di ServizioPassword: il thread di richiesta non resta in attesa.
      * 
      * @param body Dati registrazione: nome, cognome, email, password
      * @return ResponseEntity con dati utente creato (id, nome, email)
      */
     @PostMapping("/register")
-    public ResponseEntity<?> register(@RequestBody Map<String, Object> body) {
+    public CompletableFuture<ResponseEntity<?>> register(@RequestBody Map<String, Object> body) {
         String nome = ((String) body.get("nome"));
         String cognome = ((String) body.get("cognome"));
         String email = ((String) body.get("email"));
         String password = ((String) body.get("password"));
         if (nome == null || cognome == null || email == null || password == null) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                    .body(Map.of("message", "Tutti i campi sono obbligatori"));
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("message", "Tutti i campi sono obbligatori")));
         }
-        email = email.toLowerCase();
-        String hashed = encoder.encode(password);
-        Long id = jdbc.queryForObject(
-                "INSERT INTO utenti (nome, cognome, email, password) VALUES (?, ?, ?, ?) RETURNING id",
-                Long.class, nome, cognome, email, hashed
-        );
-        Map<String, Object> res = new HashMap<>();
-        res.put("id", id);
-        res.put("nome", nome);
-        res.put("email", email);
-        return ResponseEntity.ok(res);
+        String emailMinuscola = email.toLowerCase();
+        return passwords.codificaAsync(password).<ResponseEntity<?>>thenApplyAsync(hashed -> {
+            Long id = jdbc.queryForObject(
+                    "INSERT INTO utenti (nome, cognome, email, password) VALUES (?, ?, ?, ?) RETURNING id",
+                    Long.class, nome, cognome, emailMinuscola, hashed
+            );
+            Map<String, Object> res = new HashMap<>();
+            res.put("id", id);
+            res.put("nome", nome);
+            res.put("email", emailMinuscola);
+            return ResponseEntity.ok(res);
+        }, esecutore).exceptionally(AuthController::occupato);
     }
 
     /**
      * Effettua il login di un utente esistente.
-     * Verifica le credenziali e genera un JWT token.
+     * Verifica le credenziali e genera un JWT token; la verifica BCrypt non occupa il thread di richiesta.
      * 
      * @param body Credenziali: email, password
      * @return ResponseEntity con token JWT e dati utente (id, nome, email, ruolo)
      */
     @PostMapping("/login")
-    public ResponseEntity<?> login(@RequestBody Map<String, Object> body) {
+    public CompletableFuture<ResponseEntity<?>> login(@RequestBody Map<String, Object> body) {
         String email = ((String) body.get("email"));
         String password = ((String) body.get("password"));
         if (email == null || password == null) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                    .body(Map.of("message", "Email e password obbligatorie"));
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(Map.of("message", "Email e password obbligatorie")));
         }
-        email = email.toLowerCase();
+        String emailMinuscola = email.toLowerCase();
 
-        SqlRowSet rs = jdbc.queryForRowSet("SELECT * FROM utenti WHERE email = ?", email);
+        SqlRowSet rs = jdbc.queryForRowSet("SELECT * FROM utenti WHERE email = ?", emailMinuscola);
         if (!rs.next()) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                    .body(Map.of("message", "Credenziali non valide"));
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(Map.of("message", "Credenziali non valide")));
         }
 
-        String hashed = rs.getString("password");
-        if (!encoder.matches(password, hashed)) {
-            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                    .body(Map.of("message", "Credenziali non valide"));
-        }
+        return passwords.verificaAsync(password, rs.getString("password")).<ResponseEntity<?>>thenApplyAsync(verifica -> {
+            if (!verifica.valida()) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                        .body(Map.of("message", "Credenziali non valide"));
+            }
 
-        if (rs.getBoolean("is_blocked")) {
-            return ResponseEntity.status(HttpStatus.FORBIDDEN)
-                    .body(Map.of("error", "Account bloccato, Contatta l'amministratore."));
-        }
-        long id = rs.getLong("id");
-        String nome = rs.getString("nome");
-        String ruolo = rs.getString("ruolo");
+            if (rs.getBoolean("is_blocked")) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                        .body(Map.of("error", "Account bloccato, Contatta l'amministratore."));
+            }
+            long id = rs.getLong("id");
+            String nome = rs.getString("nome");
+            String ruolo = rs.getString("ruolo");
+            // Hash salvato con un costo più basso di quello attuale: lo sostituisce ora che la password è nota
+            if (verifica.nuovoHash() != null) {
+                jdbc.update("UPDATE utenti SET password = ? WHERE id = ?", verifica.nuovoHash(), id);
+            }
 
-        Map<String, Object> claims = new HashMap<>();
-        claims.put("id", id);
-        claims.put("nome", nome);
-        claims.put("email", email);
-        claims.put("ruolo", ruolo);
-        String token = JwtUtil.generateToken(claims, jwtSecret, jwtExpirationMillis);
+            Map<String, Object> claims = new HashMap<>();
+            claims.put("id", id);
+            claims.put("nome", nome);
+            claims.put("email", emailMinuscola);
+            claims.put("ruolo", ruolo);
+            String token = JwtUtil.generateToken(claims, jwtSecret, jwtExpirationMillis);
 
-        Map<String, Object> user = new HashMap<>();
-        user.put("id", id);
-        user.put("nome", nome);
-        user.put("email", email);
-        user.put("ruolo", ruolo);
-        Map<String, Object> res = new HashMap<>();
-        res.put("token", token);
-        res.put("user", user);
-        return ResponseEntity.ok(res);
+            Map<String, Object> user = new HashMap<>();
+            user.put("id", id);
+            user.put("nome", nome);
+            user.put("email", emailMinuscola);
+            user.put("ruolo", ruolo);
+            Map<String, Object> res = new HashMap<>();
+            res.put("token", token);
+            res.put("user", user);
+            return ResponseEntity.ok(res);
+        }, esecutore).exceptionally(AuthController::occupato);
     }
 }
@@ -1,33 +1,33 @@
 package com.example.backendjava.controller;
 
-import com.example.backendjava.auth.JwtUtil;
-import org.springframework.beans.factory.annotation.Value;
+import com.example.backendjava.auth.UtenteAutenticato;
+import com.example.backendjava.dto.CouponVista;
+import com.example.backendjava.jdbc.Cursore;
+import com.example.backendjava.jdbc.JsonStreaming;
+import com.example.backendjava.service.RegistroCoupon;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.util.*;
 import java.sql.Date;
+import java.sql.Timestamp;
 import java.time.LocalDate;
 
 @RestController
 @RequestMapping("/api/coupon")
 public class CouponController {
     private final JdbcTemplate jdbc;
+    private final JsonStreaming streaming;
+    private final RegistroCoupon registro;
 
-    @Value("${jwt.secret:dev-secret-please-change}")
-    private String jwtSecret;
-
-    public CouponController(JdbcTemplate jdbc) {
+    public CouponController(JdbcTemplate jdbc, JsonStreaming streaming, RegistroCoupon registro) {
         this.jdbc = jdbc;
-    }
-
-    private Optional<String> roleFromAuth(String authorization) {
-        return JwtUtil.parseToken(authorization, jwtSecret).map(c -> String.valueOf(c.get("ruolo")));
+        this.streaming = streaming;
+        this.registro = registro;
     }
 
     private static Date toSqlDate(Object o) {
@@ -45,24 +45,21 @@ public class CouponController {
         }
     }
 
-    private boolean isAdmin(String authorization) {
-        return roleFromAuth(authorization).map(r -> r.equalsIgnoreCase("admin") || r.equalsIgnoreCase("owner")).orElse(false);
+    private static boolean isAdmin(UtenteAutenticato utente) {
+        return utente != null && utente.admin();
     }
 
-    private Optional<Long> userIdFromAuth(String authorization) {
-        return JwtUtil.parseToken(authorization, jwtSecret)
-                .map(c -> c.get("id"))
-                .filter(Objects::nonNull)
-                .map(v -> (v instanceof Number) ? ((Number) v).longValue() : Long.parseLong(String.valueOf(v)));
+    private static Optional<Long> userIdFromAuth(UtenteAutenticato utente) {
+        return Optional.ofNullable(utente).map(UtenteAutenticato::id);
     }
 
     // Verify coupon validity and compute discount (used by checkout)
     @PostMapping("/verifica")
     public ResponseEntity<?> verifyCoupon(
-            @RequestHeader(value = "Authorization", required = false) String authorization,
+            @RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
             @RequestBody Map<String, Object> body
     ) {
-        var userIdOpt = userIdFromAuth(authorization);
+        var userIdOpt = userIdFromAuth(utente);
         if (userIdOpt.isEmpty()) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of(
                     "valido", false,
@@ -75,78 +72,38 @@ public class CouponController {
         BigDecimal totale = toDecimal(body.get("totale_carrello"));
         if (totale == null) totale = BigDecimal.ZERO;
 
-        SqlRowSet rs = jdbc.queryForRowSet(
-                "SELECT * FROM coupon WHERE codice = ? AND attivo = TRUE " +
-                        "AND (data_scadenza IS NULL OR data_scadenza >= CURRENT_DATE) " +
-                        "AND (usi_massimi IS NULL OR usi_attuali < usi_massimi)",
-                codice
-        );
-
-        if (!rs.next()) {
+        RegistroCoupon.Valutazione v = registro.valuta(codice, userId, totale);
+        if (!v.valido()) {
             return ResponseEntity.ok(Map.of(
                     "valido", false,
-                    "messaggio", "Coupon non valido, scaduto o esaurito"
+                    "messaggio", v.messaggio()
             ));
         }
 
-        long couponId = rs.getLong("id");
-        String tipo = rs.getString("tipo_sconto");
-        BigDecimal valoreSconto = rs.getBigDecimal("valore_sconto");
-        BigDecimal importoMinimo = rs.getBigDecimal("importo_minimo");
-        boolean usoSingolo = rs.getBoolean("uso_singolo");
-
-        if (usoSingolo) {
-            SqlRowSet used = jdbc.queryForRowSet(
-                    "SELECT 1 FROM coupon_utilizzi WHERE coupon_id = ? AND user_id = ?",
-                    couponId, userId
-            );
-            if (used.next()) {
-                return ResponseEntity.ok(Map.of(
-                        "valido", false,
-                        "messaggio", "Hai già utilizzato questo coupon"
-                ));
-            }
-        }
-
-        if (importoMinimo != null && totale.compareTo(importoMinimo) < 0) {
-            return ResponseEntity.ok(Map.of(
-                    "valido", false,
-                    "messaggio", "Importo minimo richiesto: €" + importoMinimo
-            ));
-        }
-
-        BigDecimal sconto;
-        if ("percentuale".equalsIgnoreCase(tipo)) {
-            sconto = totale.multiply(valoreSconto).divide(BigDecimal.valueOf(100));
-        } else {
-            sconto = valoreSconto.min(totale);
-        }
-        BigDecimal totaleScontato = totale.subtract(sconto);
-        if (totaleScontato.compareTo(BigDecimal.ZERO) < 0) totaleScontato = BigDecimal.ZERO;
-
+        RegistroCoupon.Coupon c = v.coupon();
         Map<String, Object> payload = new HashMap<>();
         payload.put("valido", true);
         payload.put("coupon", Map.of(
-                "id", couponId,
-                "codice", rs.getString("codice"),
-                "descrizione", rs.getString("descrizione"),
-                "tipo_sconto", tipo,
-                "valore_sconto", valoreSconto
+                "id", c.id(),
+                "codice", c.codice(),
+                "descrizione", c.descrizione(),
+                "tipo_sconto", c.tipoSconto(),
+                "valore_sconto", c.valoreSconto()
         ));
-        payload.put("sconto", sconto.setScale(2, RoundingMode.HALF_UP));
+        payload.put("sconto", v.sconto());
         payload.put("totale_originale", totale);
-        payload.put("totale_scontato", totaleScontato.setScale(2, RoundingMode.HALF_UP));
-        payload.put("messaggio", "Coupon applicato: " + rs.getString("descrizione"));
+        payload.put("totale_scontato", v.totaleScontato());
+        payload.put("messaggio", v.messaggio());
         return ResponseEntity.ok(payload);
     }
 
     // Mark coupon usage (increment counters and record single-use)
     @PostMapping("/usa")
     public ResponseEntity<?> useCoupon(
-            @RequestHeader(value = "Authorization", required = false) String authorization,
+            @RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
             @RequestBody Map<String, Object> body
     ) {
-        var userIdOpt = userIdFromAuth(authorization);
+        var userIdOpt = userIdFromAuth(utente);
         if (userIdOpt.isEmpty()) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Non autenticato"));
         long userId = userIdOpt.get();
 
@@ -156,67 +113,65 @@ public class CouponController {
         else if (idObj != null) couponId = Long.parseLong(String.valueOf(idObj));
         if (couponId == null) return ResponseEntity.badRequest().body(Map.of("error", "coupon_id mancante"));
 
-        SqlRowSet rs = jdbc.queryForRowSet("SELECT * FROM coupon WHERE id = ?", couponId);
-        if (!rs.next()) return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Coupon non trovato"));
-
-        boolean usoSingolo = rs.getBoolean("uso_singolo");
-        if (usoSingolo) {
-            jdbc.update("INSERT INTO coupon_utilizzi (coupon_id, user_id) VALUES (?, ?)", couponId, userId);
-        }
-        jdbc.update("UPDATE coupon SET usi_attuali = COALESCE(usi_attuali, 0) + 1 WHERE id = ?", couponId);
-        return ResponseEntity.ok(Map.of("success", true));
+        // Compare-and-increment atomico: non supera mai usi_massimi e rispetta uso_singolo
+        return switch (registro.riscatta(couponId, userId)) {
+            case RISCATTATO -> ResponseEntity.ok(Map.of("success", true));
+            case GIA_USATO -> ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "Hai già utilizzato questo coupon"));
+            case NON_VALIDO -> jdbc.queryForList("SELECT 1 FROM coupon WHERE id = ?", Integer.class, couponId).isEmpty()
+                    ? ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Coupon non trovato"))
+                    : ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("error", "Coupon non valido, scaduto o esaurito"));
+        };
     }
 
-    // Admin: list all coupons
+    // Admin: list all coupons (streaming; limit/cursore per la paginazione keyset su created_at, id)
     @GetMapping
-    public ResponseEntity<?> listAll(@RequestHeader(value = "Authorization", required = false) String authorization) {
-        if (!isAdmin(authorization)) return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", "Solo admin"));
-        SqlRowSet rs = jdbc.queryForRowSet("SELECT * FROM coupon ORDER BY created_at DESC");
-        List<Map<String, Object>> list = new ArrayList<>();
-        while (rs.next()) {
-            Map<String, Object> row = new HashMap<>();
-            row.put("id", rs.getLong("id"));
-            row.put("codice", rs.getString("codice"));
-            row.put("descrizione", rs.getString("descrizione"));
-            row.put("tipo_sconto", rs.getString("tipo_sconto"));
-            row.put("valore_sconto", rs.getBigDecimal("valore_sconto"));
-            row.put("importo_minimo", rs.getBigDecimal("importo_minimo"));
-            row.put("data_inizio", rs.getDate("data_inizio"));
-            row.put("data_scadenza", rs.getDate("data_scadenza"));
-            row.put("usi_massimi", rs.getObject("usi_massimi"));
-            row.put("usi_attuali", rs.getObject("usi_attuali"));
-            row.put("attivo", rs.getBoolean("attivo"));
-            row.put("uso_singolo", rs.getBoolean("uso_singolo"));
-            row.put("created_at", rs.getTimestamp("created_at"));
-            list.add(row);
+    public ResponseEntity<StreamingResponseBody> listAll(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
+                                                         @RequestParam(value = "limit", required = false) Integer limit,
+                                                         @RequestParam(value = "cursore", required = false) String cursore) {
+        if (!isAdmin(utente)) return streaming.errore(HttpStatus.FORBIDDEN, Map.of("error", "Solo admin"));
+        String sql = "SELECT " + CouponVista.COLONNE + " FROM coupon";
+        // I coupon senza created_at vanno in fondo, in PostgreSQL come in H2
+        String ordine = " ORDER BY created_at DESC NULLS LAST, id DESC";
+        if (limit == null && cursore == null) return streaming.array(CouponVista.MAPPER, sql + ordine);
+        if (cursore == null) {
+            return streaming.pagina(CouponVista.MAPPER, CouponController::cursoreCoupon, JsonStreaming.limite(limit), sql + ordine);
+        }
+        Timestamp createdAt;
+        long id;
+        try {
+            String[] c = Cursore.decodifica(cursore, 2);
+            createdAt = c[0].isEmpty() ? null : Timestamp.valueOf(c[0]);
+            id = Long.parseLong(c[1]);
+        } catch (IllegalArgumentException e) {
+            return streaming.errore(HttpStatus.BAD_REQUEST, Map.of("error", "Cursore non valido"));
+        }
+        if (createdAt == null) {
+            return streaming.pagina(CouponVista.MAPPER, CouponController::cursoreCoupon, JsonStreaming.limite(limit),
+                    sql + " WHERE created_at IS NULL AND id < ?" + ordine, id);
         }
-        return ResponseEntity.ok(list);
+        // Confronto tra righe, come per lo storico ordini: la scansione dell'indice parte dal cursore
+        return streaming.pagina(CouponVista.MAPPER, CouponController::cursoreCoupon, JsonStreaming.limite(limit),
+                sql + " WHERE (created_at, id) < (?, ?) OR created_at IS NULL" + ordine, createdAt, id);
+    }
+
+    private static String cursoreCoupon(CouponVista c) {
+        return Cursore.codifica(c.createdAt() != null ? c.createdAt() : "", c.id());
+    }
+
+    /** 409 con il coupon che ha già il codice richiesto, vuoto se non ce n'è. */
+    private Optional<ResponseEntity<?>> codiceGiaUsato(String sql, Object... args) {
+        List<CouponVista> esistenti = jdbc.query("SELECT " + CouponVista.COLONNE + " FROM coupon WHERE " + sql, CouponVista.MAPPER, args);
+        if (esistenti.isEmpty()) return Optional.empty();
+        return Optional.of(ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("exists", true, "coupon", esistenti.get(0))));
     }
 
     @PostMapping
-    public ResponseEntity<?> create(@RequestHeader(value = "Authorization", required = false) String authorization,
+    public ResponseEntity<?> create(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
                                     @RequestBody Map<String, Object> body) {
-        if (!isAdmin(authorization)) return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", "Solo admin"));
+        if (!isAdmin(utente)) return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", "Solo admin"));
         String codice = String.valueOf(body.get("codice")).toUpperCase(Locale.ITALIAN);
-        SqlRowSet exists = jdbc.queryForRowSet("SELECT id FROM coupon WHERE codice = ?", codice);
-        if (exists.next()) {
-            SqlRowSet rs = jdbc.queryForRowSet("SELECT * FROM coupon WHERE codice = ?", codice);
-            if (rs.next()) {
-                Map<String, Object> coupon = new HashMap<>();
-                coupon.put("id", rs.getLong("id"));
-                coupon.put("codice", rs.getString("codice"));
-                coupon.put("descrizione", rs.getString("descrizione"));
-                coupon.put("tipo_sconto", rs.getString("tipo_sconto"));
-                coupon.put("valore_sconto", rs.getBigDecimal("valore_sconto"));
-                coupon.put("importo_minimo", rs.getBigDecimal("importo_minimo"));
-                coupon.put("data_inizio", rs.getDate("data_inizio"));
-                coupon.put("data_scadenza", rs.getDate("data_scadenza"));
-                coupon.put("usi_massimi", rs.getObject("usi_massimi"));
-                coupon.put("attivo", rs.getBoolean("attivo"));
-                coupon.put("uso_singolo", rs.getBoolean("uso_singolo"));
-                return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("exists", true, "coupon", coupon));
-            }
-        }
+        Optional<ResponseEntity<?>> conflitto = codiceGiaUsato("codice = ?", codice);
+        if (conflitto.isPresent()) return conflitto.get();
         String descrizione = (String) body.get("descrizione");
         String tipo = (String) body.get("tipo_sconto");
         BigDecimal valore = toDecimal(body.get("valore_sconto"));
@@ -228,35 +183,19 @@ public class CouponController {
         Boolean usoSingolo = toBoolean(body.get("uso_singolo"));
         jdbc.update("INSERT INTO coupon (codice, descrizione, tipo_sconto, valore_sconto, importo_minimo, data_inizio, data_scadenza, usi_massimi, attivo, uso_singolo) VALUES (?,?,?,?,?,?,?,?,?,?)",
                 codice, descrizione, tipo, valore, importoMin, dataInizio, dataScadenza, usiMassimi, attivo, usoSingolo);
+        registro.invalida();
         return ResponseEntity.status(HttpStatus.CREATED).body(Map.of("message", "Coupon creato"));
     }
 
     @PutMapping("/{id}")
-    public ResponseEntity<?> update(@RequestHeader(value = "Authorization", required = false) String authorization,
+    public ResponseEntity<?> update(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
                                     @PathVariable("id") long id,
                                     @RequestBody Map<String, Object> body) {
-        if (!isAdmin(authorization)) return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", "Solo admin"));
+        if (!isAdmin(utente)) return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", "Solo admin"));
         String codice = String.valueOf(body.get("codice")).toUpperCase(Locale.ITALIAN);
         // Prevent duplicate codice on different ID
-        SqlRowSet dup = jdbc.queryForRowSet("SELECT id FROM coupon WHERE codice = ? AND id <> ?", codice, id);
-        if (dup.next()) {
-            SqlRowSet rs = jdbc.queryForRowSet("SELECT * FROM coupon WHERE codice = ?", codice);
-            if (rs.next()) {
-                Map<String, Object> coupon = new HashMap<>();
-                coupon.put("id", rs.getLong("id"));
-                coupon.put("codice", rs.getString("codice"));
-                coupon.put("descrizione", rs.getString("descrizione"));
-                coupon.put("tipo_sconto", rs.getString("tipo_sconto"));
-                coupon.put("valore_sconto", rs.getBigDecimal("valore_sconto"));
-                coupon.put("importo_minimo", rs.getBigDecimal("importo_minimo"));
-                coupon.put("data_inizio", rs.getDate("data_inizio"));
-                coupon.put("data_scadenza", rs.getDate("data_scadenza"));
-                coupon.put("usi_massimi", rs.getObject("usi_massimi"));
-                coupon.put("attivo", rs.getBoolean("attivo"));
-                coupon.put("uso_singolo", rs.getBoolean("uso_singolo"));
-                return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("exists", true, "coupon", coupon));
-            }
-        }
+        Optional<ResponseEntity<?>> conflitto = codiceGiaUsato("codice = ? AND id <> ?", codice, id);
+        if (conflitto.isPresent()) return conflitto.get();
 
         jdbc.update("UPDATE coupon SET codice = ?, descrizione = ?, tipo_sconto = ?, valore_sconto = ?, importo_minimo = ?, data_inizio = ?, data_scadenza = ?, usi_massimi = ?, attivo = ?, uso_singolo = ? WHERE id = ?",
                 codice,
@@ -270,15 +209,17 @@ public class CouponController {
                 toBoolean(body.get("attivo")),
                 toBoolean(body.get("uso_singolo")),
                 id);
+        registro.invalida();
         return ResponseEntity.ok(Map.of("message", "Coupon aggiornato"));
     }
 
     @DeleteMapping("/{id}")
-    public ResponseEntity<?> delete(@RequestHeader(value = "Authorization", required = false) String authorization,
+    public ResponseEntity<?> delete(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
                                     @PathVariable("id") long id) {
-        if (!isAdmin(authorization)) return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", "Solo admin"));
+        if (!isAdmin(utente)) return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", "Solo admin"));
         int affected = jdbc.update("DELETE FROM coupon WHERE id = ?", id);
         if (affected == 0) return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Coupon non trovato"));
+        registro.invalida();
         return ResponseEntity.ok(Map.of("message", "Coupon rimosso con successo"));
     }
 
@@ -1,84 +1,160 @@
 package com.example.backendjava.controller;
 
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import com.example.backendjava.service.ArchivioImmagini;
+import com.example.backendjava.service.ImmaginiStatiche;
+import com.example.backendjava.service.VariantiImmagini;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.time.Instant;
+import java.io.InputStream;
+import java.nio.channels.Channels;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/immagine")
 public class ImageUploadController {
 
-    @Value("${uploads.dir:uploads}")
-    private String uploadsDir;
+    // Originale servito al posto di una variante non ancora generata
+    private static final String CACHE_ORIGINALE_PROVVISORIO = "public, max-age=60";
 
-    @SuppressWarnings("CatchMayIgnoreException")
-    @PostMapping("/upload")
-    public ResponseEntity<?> upload(@RequestParam("immagine") MultipartFile file,
-                                    @RequestHeader(value = "x-file-name", required = false) String xFileName) throws IOException {
+    private final ImmaginiStatiche immagini;
+    private final VariantiImmagini varianti;
+    private final ArchivioImmagini archivio;
+
+    public ImageUploadController(ImmaginiStatiche immagini, VariantiImmagini varianti, ArchivioImmagini archivio) {
+        this.immagini = immagini;
+        this.varianti = varianti;
+        this.archivio = archivio;
+    }
+
+    /**
+     * Caricamento in streaming: il corpo della richiesta è l'immagine stessa (Content-Type image/*) e viene
+     * scritto sul disco mentre arriva, senza il file temporaneo del multipart. Un Content-Length oltre il limite
+     * viene rifiutato prima di leggere, un contenuto troppo lungo o di un formato non ammesso a metà lettura.
+     */
+    @PostMapping(value = "/upload", consumes = {"image/jpeg", "image/png", "image/gif", "image/webp"})
+    public ResponseEntity<?> uploadFlusso(HttpServletRequest request) throws IOException {
+        try {
+            // Il canale non va chiuso: lo stream della richiesta appartiene al container
+            return salvata(archivio.salva(Channels.newChannel(request.getInputStream()), request.getContentLengthLong()));
+        } catch (ArchivioImmagini.CaricamentoRifiutato e) {
+            return rifiutato(e);
+        }
+    }
+
+    /**
+     * Caricamento multipart (form con il campo "immagine"), con gli stessi limiti.
+     * Spring salva prima la parte in un file temporaneo: per le immagini grandi è preferibile {@link #uploadFlusso}.
+     */
+    @PostMapping(value = "/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> upload(@RequestParam("immagine") MultipartFile file) throws IOException {
         if (file == null || file.isEmpty()) {
             return ResponseEntity.badRequest().body(Map.of("message", "File mancante"));
         }
-        // Save under prodotti folder
-        Path dir = Paths.get(uploadsDir, "prodotti");
-        Files.createDirectories(dir);
-
-        String original = (xFileName != null && !xFileName.isBlank()) ? xFileName : (file.getOriginalFilename() != null ? file.getOriginalFilename() : "");
-        String cleaned = (original != null && !original.isBlank()) ? original.replaceAll("[^a-zA-Z0-9._-]", "_") : ("img_" + Instant.now().toEpochMilli());
-        String base = cleaned;
-        String ext = "";
-        int dot = cleaned.lastIndexOf('.');
-        if (dot > 0) { base = cleaned.substring(0, dot); ext = cleaned.substring(dot); }
-
-        // ensure unique
-        String filename = base + ext;
-        int counter = 1;
-        while (Files.exists(dir.resolve(filename))) {
-            filename = base + "_" + (counter++) + ext;
+        try (InputStream in = file.getInputStream()) {
+            return salvata(archivio.salva(Channels.newChannel(in), file.getSize()));
+        } catch (ArchivioImmagini.CaricamentoRifiutato e) {
+            return rifiutato(e);
         }
-        Path dest = dir.resolve(filename);
-    file.transferTo(dest.toFile());
+    }
 
+    private ResponseEntity<?> salvata(ArchivioImmagini.Salvataggio salvata) {
+        // Miniatura, card e dettaglio vengono generate in background (già presenti se il contenuto era noto)
+        if (!salvata.duplicato()) varianti.genera("prodotti", salvata.nomeFile());
         Map<String, Object> out = new HashMap<>();
-        out.put("filename", filename);
+        out.put("filename", salvata.nomeFile());
+        out.put("duplicato", salvata.duplicato());
         return ResponseEntity.ok(out);
     }
 
-    // Serve le immagini statiche
-    @SuppressWarnings({"CatchMayIgnoreException", "null"})
+    private static ResponseEntity<?> rifiutato(ArchivioImmagini.CaricamentoRifiutato e) {
+        // Il resto del corpo non viene letto: la connessione va chiusa invece di essere riusata
+        return ResponseEntity.status(e.troppoGrande() ? HttpStatus.PAYLOAD_TOO_LARGE : HttpStatus.UNSUPPORTED_MEDIA_TYPE)
+                .header(HttpHeaders.CONNECTION, "close")
+                .body(Map.of("message", e.getMessage()));
+    }
+
+    /**
+     * Serve le immagini caricate con metadati in cache, header di cache a lunga durata, GET condizionale
+     * (ETag / Last-Modified → 304) e richieste Range su un singolo intervallo (206).
+     * Con {@code size} (thumb, card, detail) serve la variante ridimensionata; se non è ancora pronta
+     * serve l'originale con una cache breve, così il client la richiede di nuovo più tardi.
+     */
     @GetMapping("/uploads/{categoria}/{filename:.+}")
-    public ResponseEntity<Resource> serveFile(@PathVariable String categoria, @PathVariable String filename) {
-        try {
-            Path file = Paths.get(uploadsDir).resolve(categoria).resolve(filename);
-            Resource resource = new UrlResource(file.toUri());
-            
-            if (resource.exists() && resource.isReadable()) {
-                String contentType = Files.probeContentType(file);
-                if (contentType == null) {
-                    contentType = "application/octet-stream";
+    public void serveFile(@PathVariable String categoria, @PathVariable String filename,
+                          @RequestParam(value = "size", required = false) String size,
+                          HttpServletRequest request, HttpServletResponse response) throws IOException {
+        VariantiImmagini.Formato formato = null;
+        if (size != null && !size.isBlank()) {
+            try {
+                formato = VariantiImmagini.Formato.da(size);
+            } catch (IllegalArgumentException e) {
+                response.sendError(HttpStatus.BAD_REQUEST.value(), e.getMessage());
+                return;
+            }
+        }
+        Optional<ImmaginiStatiche.Immagine> trovata = formato != null ? varianti.variante(categoria, filename, formato) : Optional.empty();
+        String cacheControl = immagini.cacheControl();
+        if (trovata.isEmpty()) {
+            trovata = immagini.trova(categoria, filename);
+            if (formato != null) cacheControl = CACHE_ORIGINALE_PROVVISORIO;
+        }
+        if (trovata.isEmpty()) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+        ImmaginiStatiche.Immagine img = trovata.get();
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        // Imposta ETag e Last-Modified, e risponde 304 se il client ha già questa versione
+        if (new ServletWebRequest(request, response).checkNotModified(img.etag(), img.ultimaModifica())) {
+            immagini.nonModificata();
+            return;
+        }
+
+        long dimensione = img.dimensione();
+        long inizio = 0;
+        long lunghezza = dimensione;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        // Con If-Range di un'altra versione si risponde con il file intero
+        if (range != null && (ifRange == null || ifRange.equals(img.etag()))) {
+            List<HttpRange> intervalli;
+            try {
+                intervalli = HttpRange.parseRanges(range);
+                if (intervalli.size() == 1) {
+                    inizio = intervalli.get(0).getRangeStart(dimensione);
+                    lunghezza = intervalli.get(0).getRangeEnd(dimensione) - inizio + 1;
                 }
-                
-                return ResponseEntity.ok()
-                        .contentType(MediaType.parseMediaType(contentType))
-                        .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + resource.getFilename() + "\"")
-                        .body(resource);
-            } else {
-                return ResponseEntity.notFound().build();
+            } catch (IllegalArgumentException e) {
+                response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + dimensione);
+                return;
+            }
+            // Più intervalli insieme non servono alle immagini: vale il file intero
+            if (intervalli.size() == 1) {
+                response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + inizio + "-" + (inizio + lunghezza - 1) + "/" + dimensione);
+                immagini.parziale();
             }
-        } catch (Exception e) {
-            return ResponseEntity.notFound().build();
         }
+
+        response.setContentType(img.tipo());
+        response.setContentLengthLong(lunghezza);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + img.nome() + "\"");
+        if ("HEAD".equals(request.getMethod())) return;
+        immagini.invia(img, inizio, lunghezza, request, response);
     }
 }
@@ -6,7 +6,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -16,21 +15,18 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestAttribute;
 import org.springframework.web.bind.annotation.RequestBody;
-import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
-import com.example.backendjava.auth.JwtUtil;
+import com.example.backendjava.auth.UtenteAutenticato;
 
 @RestController
 @RequestMapping("/api/indirizzi")
 public class IndirizziController {
     private final JdbcTemplate jdbc;
 
-    @Value("${jwt.secret:dev-secret-please-change}")
-    private String jwtSecret;
-
     public IndirizziController(JdbcTemplate jdbc) {
         this.jdbc = jdbc;
     }
@@ -41,20 +37,14 @@ public class IndirizziController {
         return s.isEmpty() ? null : s;
     }
 
-    private Optional<Long> userIdFromAuth(String authorization) {
-        return JwtUtil.parseToken(authorization, jwtSecret)
-                .map(claims -> {
-                    Object idObj = claims.get("id");
-                    if (idObj instanceof Number n) return n.longValue();
-                    if (idObj instanceof String s && !s.isBlank()) return Long.parseLong(s);
-                    return null;
-                });
+    private static Optional<Long> userIdFromAuth(UtenteAutenticato utente) {
+        return Optional.ofNullable(utente).map(UtenteAutenticato::id);
     }
 
     @PostMapping("")
-    public ResponseEntity<?> create(@RequestHeader(value = "Authorization", required = false) String authorization,
+    public ResponseEntity<?> create(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
                                     @RequestBody Map<String, Object> body) {
-        Optional<Long> maybeUser = userIdFromAuth(authorization);
+        Optional<Long> maybeUser = userIdFromAuth(utente);
         if (maybeUser.isEmpty()) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("message", "Token mancante o non valido"));
         long userId = maybeUser.get();
 
@@ -123,8 +113,8 @@ public class IndirizziController {
     }
 
     @GetMapping("")
-    public ResponseEntity<?> list(@RequestHeader(value = "Authorization", required = false) String authorization) {
-        Optional<Long> maybeUser = userIdFromAuth(authorization);
+    public ResponseEntity<?> list(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente) {
+        Optional<Long> maybeUser = userIdFromAuth(utente);
         if (maybeUser.isEmpty()) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("message", "Token mancante o non valido"));
         long userId = maybeUser.get();
         List<Map<String, Object>> out = new ArrayList<>();
@@ -136,9 +126,9 @@ public class IndirizziController {
     }
 
     @PutMapping("/{id}/predefinito")
-    public ResponseEntity<?> setDefault(@RequestHeader(value = "Authorization", required = false) String authorization,
+    public ResponseEntity<?> setDefault(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
                                         @PathVariable("id") long indirizzoId) {
-        Optional<Long> maybeUser = userIdFromAuth(authorization);
+        Optional<Long> maybeUser = userIdFromAuth(utente);
         if (maybeUser.isEmpty()) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("message", "Token mancante o non valido"));
         long userId = maybeUser.get();
         jdbc.update("UPDATE indirizzi SET predefinito = ? WHERE user_id = ?", false, userId);
@@ -147,10 +137,10 @@ public class IndirizziController {
     }
 
     @PutMapping("/{id}")
-    public ResponseEntity<?> update(@RequestHeader(value = "Authorization", required = false) String authorization,
+    public ResponseEntity<?> update(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
                                     @PathVariable("id") long indirizzoId,
                                     @RequestBody Map<String, Object> body) {
-        Optional<Long> maybeUser = userIdFromAuth(authorization);
+        Optional<Long> maybeUser = userIdFromAuth(utente);
         if (maybeUser.isEmpty()) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("message", "Token mancante o non valido"));
         long userId = maybeUser.get();
 
@@ -200,9 +190,9 @@ public class IndirizziController {
     }
 
     @DeleteMapping("/{id}")
-    public ResponseEntity<?> delete(@RequestHeader(value = "Authorization", required = false) String authorization,
+    public ResponseEntity<?> delete(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
                                     @PathVariable("id") long indirizzoId) {
-        Optional<Long> maybeUser = userIdFromAuth(authorization);
+        Optional<Long> maybeUser = userIdFromAuth(utente);
         if (maybeUser.isEmpty()) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("message", "Token mancante o non valido"));
         long userId = maybeUser.get();
         SqlRowSet rs = jdbc.queryForRowSet("DELETE FROM indirizzi WHERE id = ? AND user_id = ? RETURNING *", indirizzoId, userId);
@@ -0,0 +1,41 @@
+package com.example.backendjava.controller;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestAttribute;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.example.backendjava.auth.UtenteAutenticato;
+import com.example.backendjava.metrics.StatsProvider;
+
+/**
+ * Controller REST per la consultazione delle metriche interne (cache, code, latenze).
+ * Riservato agli amministratori.
+ */
+@RestController
+@RequestMapping("/api/metriche")
+public class MetricheController {
+    private final List<StatsProvider> providers;
+
+    public MetricheController(List<StatsProvider> providers) {
+        this.providers = providers;
+    }
+
+    private static boolean isAdmin(UtenteAutenticato utente) {
+        return utente != null && utente.admin();
+    }
+
+    @GetMapping("")
+    public ResponseEntity<?> getMetriche(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente) {
+        if (!isAdmin(utente)) return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", "Solo admin"));
+        Map<String, Object> out = new TreeMap<>();
+        for (StatsProvider p : providers) out.put(p.nome(), p.stats());
+        return ResponseEntity.ok(out);
+    }
+}
@@ -1,18 +1,36 @@
 package com.example.backendjava.controller;
 
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.support.rowset.SqlRowSet;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestAttribute;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.example.backendjava.auth.UtenteAutenticato;
+import com.example.backendjava.dto.DettaglioOrdine;
+import com.example.backendjava.dto.OrdineRiga;
+import com.example.backendjava.dto.OrdineStorico;
+import com.example.backendjava.dto.RigaOrdineVista;
+import com.example.backendjava.dto.TrackingOrdine;
+import com.example.backendjava.jdbc.Cursore;
+import com.example.backendjava.jdbc.JsonStreaming;
 
 /**
  * Controller REST per la gestione degli ordini.
@@ -22,13 +40,21 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 @RequestMapping("/api/orders")
 public class OrdersController {
+    private static final String INCLUDI_RIGHE = "lines";
+    private static final int MAX_DETTAGLI = 100;
+    // Colonne lette da RigaOrdineVista.mapper
+    private static final String SQL_RIGHE = "SELECT p.nome, p.immagine, op.quantita, op.prezzo AS prezzo_unitario, (op.quantita * op.prezzo) AS subtotale";
+
     private final JdbcTemplate jdbc;
+    private final JsonStreaming streaming;
+    private final RowMapper<RigaOrdineVista> rigaMapper = RigaOrdineVista.mapper(this::productImageUrl);
 
     @Value("${server.port:8080}")
     private int serverPort;
 
-    public OrdersController(JdbcTemplate jdbc) {
+    public OrdersController(JdbcTemplate jdbc, JsonStreaming streaming) {
         this.jdbc = jdbc;
+        this.streaming = streaming;
     }
 
     private String productImageUrl(String filename) {
@@ -38,51 +64,156 @@ public class OrdersController {
         return "http://localhost:" + serverPort + "/api/immagine/uploads/prodotti/" + filename;
     }
 
+    /**
+     * Storico ordini dell'utente, dal più recente, con le sole colonne della lista.
+     * Senza parametri restituisce l'array completo in streaming; con limit e/o cursore una pagina keyset
+     * su (data_ordine, id), servita dall'indice ordini_utente_data_id_idx partendo dal cursore.
+     * Con include=lines ogni elemento è {"ordine", "prodotti"} come nel dettaglio, sempre paginato:
+     * le righe di tutta la pagina arrivano con una sola query in più.
+     * Solo l'utente stesso o un amministratore: 401 senza token, 403 per lo storico di un altro utente.
+     *
+     * @param limit Numero massimo di ordini per pagina
+     * @param cursore Cursore restituito dalla pagina precedente (prossimo_cursore)
+     * @param include "lines" per avere anche le righe di ogni ordine
+     */
     @GetMapping("/user/{userId}")
-    public List<Map<String, Object>> getOrdersByUser(@PathVariable("userId") long userId) {
-        String sql = "SELECT * FROM ordini WHERE user_id = ? ORDER BY data_ordine DESC";
-        List<Map<String, Object>> list = new ArrayList<>();
-        SqlRowSet rs = jdbc.queryForRowSet(sql, userId);
-        while (rs.next()) {
-            Map<String, Object> row = new HashMap<>();
-            for (String col : rs.getMetaData().getColumnNames()) row.put(col, rs.getObject(col));
-            list.add(row);
+    public ResponseEntity<StreamingResponseBody> getOrdersByUser(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
+                                                                 @PathVariable("userId") long userId,
+                                                                 @RequestParam(value = "limit", required = false) Integer limit,
+                                                                 @RequestParam(value = "cursore", required = false) String cursore,
+                                                                 @RequestParam(value = "include", required = false) String include) {
+        if (utente == null) return streaming.errore(HttpStatus.UNAUTHORIZED, Map.of("error", "Token mancante o non valido"));
+        if (utente.id() != userId && !utente.admin()) {
+            return streaming.errore(HttpStatus.FORBIDDEN, Map.of("error", "Accesso negato"));
+        }
+        boolean conRighe = INCLUDI_RIGHE.equals(include);
+        if (include != null && !conRighe) {
+            return streaming.errore(HttpStatus.BAD_REQUEST, Map.of("error", "Valore di include non supportato (ammesso: " + INCLUDI_RIGHE + ")"));
+        }
+        String sql = "SELECT " + OrdineStorico.COLONNE + " FROM ordini WHERE user_id = ?";
+        String ordine = " ORDER BY data_ordine DESC, id DESC";
+        if (!conRighe && limit == null && cursore == null) return streaming.array(OrdineStorico.MAPPER, sql + ordine, userId);
+        Object[] args = {userId};
+        if (cursore != null) {
+            try {
+                String[] c = Cursore.decodifica(cursore, 2);
+                args = new Object[]{userId, Timestamp.valueOf(c[0]), Long.parseLong(c[1])};
+            } catch (IllegalArgumentException e) {
+                return streaming.errore(HttpStatus.BAD_REQUEST, Map.of("error", "Cursore non valido"));
+            }
+            // Confronto tra righe: PostgreSQL lo usa come condizione d'indice e la scansione parte dal cursore,
+            // mentre la forma con OR scorrerebbe (e scarterebbe) tutte le righe delle pagine precedenti
+            sql += " AND (data_ordine, id) < (?, ?)";
+        }
+        if (!conRighe) {
+            return streaming.pagina(OrdineStorico.MAPPER, OrdersController::cursoreOrdine, JsonStreaming.limite(limit), sql + ordine, args);
         }
-        return list;
+        return streaming.valore(paginaConRighe(sql + ordine, JsonStreaming.limite(limit), args));
+    }
+
+    private static String cursoreOrdine(OrdineStorico o) {
+        return Cursore.codifica(o.dataOrdine(), o.id());
+    }
+
+    /** Stessa forma di {@link JsonStreaming#pagina}, con le righe di ogni ordine. */
+    private Map<String, Object> paginaConRighe(String sql, int limite, Object[] args) {
+        Object[] argsConLimite = Arrays.copyOf(args, args.length + 1);
+        argsConLimite[args.length] = limite + 1;
+        List<OrdineStorico> ordini = jdbc.query(sql + " LIMIT ?", OrdineStorico.MAPPER, argsConLimite);
+        boolean altre = ordini.size() > limite;
+        if (altre) ordini = ordini.subList(0, limite);
+        Map<Long, List<RigaOrdineVista>> righe = righePerOrdine(ordini.stream().map(OrdineStorico::id).toList());
+        List<DettaglioOrdine<OrdineStorico>> elementi = new ArrayList<>(ordini.size());
+        for (OrdineStorico o : ordini) elementi.add(new DettaglioOrdine<>(o, righe.getOrDefault(o.id(), List.of())));
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("elementi", elementi);
+        out.put("prossimo_cursore", altre ? cursoreOrdine(ordini.get(ordini.size() - 1)) : null);
+        return out;
     }
 
+    /** Righe di più ordini con una sola query, raggruppate per ordine (ordine_id è l'ultima colonna). */
+    private Map<Long, List<RigaOrdineVista>> righePerOrdine(List<Long> ids) {
+        Map<Long, List<RigaOrdineVista>> perOrdine = new HashMap<>();
+        if (ids.isEmpty()) return perOrdine;
+        String placeholders = String.join(",", Collections.nCopies(ids.size(), "?"));
+        int[] n = new int[1];
+        jdbc.query(SQL_RIGHE + ", op.ordine_id FROM ordine_prodotti op JOIN prodotto p ON op.prodotto_id = p.id_prodotto WHERE op.ordine_id IN (" + placeholders + ")",
+                rs -> {
+                    perOrdine.computeIfAbsent(rs.getLong(6), k -> new ArrayList<>()).add(rigaMapper.mapRow(rs, n[0]++));
+                }, ids.toArray());
+        return perOrdine;
+    }
+
+    /**
+     * Dettaglio di un ordine con le sue righe. Solo il proprietario o un amministratore:
+     * 401 senza token, 404 anche per l'ordine di un altro utente.
+     */
     @GetMapping("/{orderId}")
-    public ResponseEntity<?> getOrderDetail(@PathVariable("orderId") long orderId) {
-        SqlRowSet ordineResult = jdbc.queryForRowSet("SELECT id, user_id, indirizzo_consegna, totale_originale, sconto_coupon, totale, stato, data_ordine, metodo_pagamento, nome_intestatario, numero_carta_mascherato, coupon_utilizzato FROM ordini WHERE id = ?", orderId);
-        if (!ordineResult.next()) return ResponseEntity.status(404).body(Map.of("error", "Ordine non trovato"));
-        Map<String, Object> ordine = new HashMap<>();
-        for (String col : ordineResult.getMetaData().getColumnNames()) ordine.put(col, ordineResult.getObject(col));
-
-        List<Map<String, Object>> prodotti = new ArrayList<>();
-        SqlRowSet prodottiResult = jdbc.queryForRowSet(
-                "SELECT p.nome, p.immagine, op.quantita, op.prezzo AS prezzo_unitario, (op.quantita * op.prezzo) AS subtotale FROM ordine_prodotti op JOIN prodotto p ON op.prodotto_id = p.id_prodotto WHERE op.ordine_id = ?",
-                orderId
+    public ResponseEntity<?> getOrderDetail(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
+                                            @PathVariable("orderId") long orderId) {
+        if (utente == null) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Token mancante o non valido"));
+        String sql = "SELECT " + OrdineRiga.COLONNE + " FROM ordini WHERE id = ?";
+        List<OrdineRiga> ordine = utente.admin()
+                ? jdbc.query(sql, OrdineRiga.MAPPER, orderId)
+                : jdbc.query(sql + " AND user_id = ?", OrdineRiga.MAPPER, orderId, utente.id());
+        if (ordine.isEmpty()) return ResponseEntity.status(404).body(Map.of("error", "Ordine non trovato"));
+
+        List<RigaOrdineVista> prodotti = jdbc.query(
+                SQL_RIGHE + " FROM ordine_prodotti op JOIN prodotto p ON op.prodotto_id = p.id_prodotto WHERE op.ordine_id = ?",
+                rigaMapper, orderId
         );
-        while (prodottiResult.next()) {
-            Map<String, Object> r = new HashMap<>();
-            r.put("nome", prodottiResult.getString("nome"));
-            String img = prodottiResult.getString("immagine");
-            r.put("immagine", img);
-            r.put("quantita", prodottiResult.getInt("quantita"));
-            r.put("prezzo_unitario", prodottiResult.getBigDecimal("prezzo_unitario"));
-            r.put("subtotale", prodottiResult.getBigDecimal("subtotale"));
-            r.put("immagine_url", productImageUrl(img));
-            prodotti.add(r);
+        return ResponseEntity.ok(Map.of("ordine", ordine.get(0), "prodotti", prodotti));
+    }
+
+    /**
+     * Dettaglio di più ordini (es. ?ids=12,15,20) con due query in tutto: le testate e le righe di tutti
+     * gli ordini, raggruppate in memoria. Gli ordini seguono l'ordine degli id richiesti; quelli inesistenti
+     * vengono omessi, come quelli di altri utenti se chi chiede non è amministratore.
+     */
+    @GetMapping("/dettagli")
+    public ResponseEntity<?> getOrderDetails(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
+                                             @RequestParam("ids") List<Long> ids) {
+        if (utente == null) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Token mancante o non valido"));
+        List<Long> distinti = ids.stream().filter(Objects::nonNull).distinct().toList();
+        if (distinti.isEmpty()) return ResponseEntity.badRequest().body(Map.of("error", "Nessun ordine richiesto"));
+        if (distinti.size() > MAX_DETTAGLI) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Al massimo " + MAX_DETTAGLI + " ordini per richiesta"));
+        }
+        String sql = "SELECT " + OrdineRiga.COLONNE + " FROM ordini WHERE id IN ("
+                + String.join(",", Collections.nCopies(distinti.size(), "?")) + ")";
+        List<Object> args = new ArrayList<>(distinti);
+        if (!utente.admin()) {
+            sql += " AND user_id = ?";
+            args.add(utente.id());
+        }
+        Map<Long, OrdineRiga> testate = new HashMap<>();
+        for (OrdineRiga o : jdbc.query(sql, OrdineRiga.MAPPER, args.toArray())) {
+            testate.put(o.id(), o);
+        }
+        Map<Long, List<RigaOrdineVista>> righe = righePerOrdine(List.copyOf(testate.keySet()));
+        List<DettaglioOrdine<OrdineRiga>> out = new ArrayList<>(testate.size());
+        for (Long id : distinti) {
+            OrdineRiga o = testate.get(id);
+            if (o != null) out.add(new DettaglioOrdine<>(o, righe.getOrDefault(id, List.of())));
         }
-        return ResponseEntity.ok(Map.of("ordine", ordine, "prodotti", prodotti));
+        return ResponseEntity.ok(out);
     }
 
+    /**
+     * Ultimo aggiornamento di spedizione di un ordine. Come per il dettaglio, solo il proprietario
+     * dell'ordine (verificato su ordini) o un amministratore.
+     */
     @GetMapping("/tracking/{id}")
-    public ResponseEntity<?> getTracking(@PathVariable("id") long ordineId) {
-        SqlRowSet rs = jdbc.queryForRowSet("SELECT * FROM tracking_ordine WHERE id_ordine = ? ORDER BY data_aggiornamento DESC LIMIT 1", ordineId);
-        if (!rs.next()) return ResponseEntity.status(404).body(Map.of("error", "Tracking non trovato"));
-        Map<String, Object> row = new HashMap<>();
-        for (String col : rs.getMetaData().getColumnNames()) row.put(col, rs.getObject(col));
-        return ResponseEntity.ok(row);
+    public ResponseEntity<?> getTracking(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
+                                         @PathVariable("id") long ordineId) {
+        if (utente == null) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Token mancante o non valido"));
+        String ultimo = " ORDER BY data_aggiornamento DESC LIMIT 1";
+        String sql = "SELECT " + TrackingOrdine.COLONNE + " FROM tracking_ordine t WHERE t.id_ordine = ?";
+        List<TrackingOrdine> tracking = utente.admin()
+                ? jdbc.query(sql + ultimo, TrackingOrdine.MAPPER, ordineId)
+                : jdbc.query(sql + " AND EXISTS (SELECT 1 FROM ordini o WHERE o.id = t.id_ordine AND o.user_id = ?)" + ultimo,
+                        TrackingOrdine.MAPPER, ordineId, utente.id());
+        if (tracking.isEmpty()) return ResponseEntity.status(404).body(Map.of("error", "Tracking non trovato"));
+        return ResponseEntity.ok(tracking.get(0));
     }
 }
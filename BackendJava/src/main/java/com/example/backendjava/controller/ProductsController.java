@@ -2,7 +2,6 @@ package com.example.backendjava.controller;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -11,6 +10,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PatchMapping;
@@ -21,6 +21,13 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.example.backendjava.dto.ProdottoAdmin;
+import com.example.backendjava.jdbc.Cursore;
+import com.example.backendjava.jdbc.JsonStreaming;
+import com.example.backendjava.service.ArchivioImmagini;
+import com.example.backendjava.service.CatalogoSnapshot;
 
 /**
  * Controller REST per la gestione CRUD dei prodotti (area amministratore).
@@ -31,12 +38,19 @@ import org.springframework.web.bind.annotation.RestController;
 public class ProductsController {
 
     private final JdbcTemplate jdbc;
+    private final CatalogoSnapshot catalogo;
+    private final JsonStreaming streaming;
+    private final ArchivioImmagini archivio;
+    private final RowMapper<ProdottoAdmin> prodottoMapper = ProdottoAdmin.mapper(this::productImageUrl);
 
     @Value("${server.port:8080}")
     private int serverPort;
 
-    public ProductsController(JdbcTemplate jdbc) {
+    public ProductsController(JdbcTemplate jdbc, CatalogoSnapshot catalogo, JsonStreaming streaming, ArchivioImmagini archivio) {
         this.jdbc = jdbc;
+        this.catalogo = catalogo;
+        this.streaming = streaming;
+        this.archivio = archivio;
     }
 
     private String productImageUrl(String filename) {
@@ -48,38 +62,28 @@ public class ProductsController {
 
     /**
      * Carica l'elenco completo di tutti i prodotti con i relativi dettagli.
+     * Senza parametri restituisce l'array completo, scritto in streaming dal cursore del database;
+     * con limit e/o cursore restituisce una pagina keyset ordinata per id.
      * 
+     * @param limit Numero massimo di prodotti per pagina
+     * @param cursore Cursore restituito dalla pagina precedente (prossimo_cursore)
      * @return Lista di tutti i prodotti con categoria e marchio associati
      */
     @GetMapping("/load")
-    public List<Map<String, Object>> loadAll() {
+    public ResponseEntity<StreamingResponseBody> loadAll(@RequestParam(value = "limit", required = false) Integer limit,
+                                                        @RequestParam(value = "cursore", required = false) String cursore) {
         // LEFT JOIN per includere anche prodotti senza categoria/marchio validi
-        String sql = "SELECT p.*, c.nome AS nome_categoria, m.nome AS nome_marchio FROM prodotto p " +
-                "LEFT JOIN categoria c ON p.id_categoria = c.id_categoria " +
-                "LEFT JOIN marchio m ON p.id_marchio = m.id_marchio";
-        List<Map<String, Object>> list = new ArrayList<>();
-        SqlRowSet rs = jdbc.queryForRowSet(sql);
-        while (rs.next()) {
-            Map<String, Object> row = new HashMap<>();
-            row.put("id_prodotto", rs.getLong("id_prodotto"));
-            row.put("nome", rs.getString("nome"));
-            row.put("descrizione", rs.getString("descrizione"));
-            row.put("prezzo", rs.getBigDecimal("prezzo"));
-            row.put("prezzo_scontato", rs.getBigDecimal("prezzo_scontato"));
-            row.put("quantita_disponibile", rs.getInt("quantita_disponibile"));
-            row.put("id_categoria", rs.getLong("id_categoria"));
-            row.put("id_marchio", rs.getLong("id_marchio"));
-            String img = rs.getString("immagine");
-            row.put("immagine", img);
-            row.put("immagine_url", productImageUrl(img));
-            row.put("in_vetrina", rs.getBoolean("in_vetrina"));
-            row.put("promo", rs.getBoolean("promo"));
-            row.put("bloccato", rs.getBoolean("bloccato"));
-            row.put("nome_categoria", rs.getString("nome_categoria")); // Può essere null
-            row.put("nome_marchio", rs.getString("nome_marchio")); // Può essere null
-            list.add(row);
+        if (limit == null && cursore == null) {
+            return streaming.array(prodottoMapper, ProdottoAdmin.SELECT + " ORDER BY p.id_prodotto");
+        }
+        long dopoId;
+        try {
+            dopoId = cursore == null ? 0 : Long.parseLong(Cursore.decodifica(cursore, 1)[0]);
+        } catch (IllegalArgumentException e) {
+            return streaming.errore(HttpStatus.BAD_REQUEST, Map.of("message", "Cursore non valido"));
         }
-        return list;
+        return streaming.pagina(prodottoMapper, p -> Cursore.codifica(p.idProdotto()), JsonStreaming.limite(limit),
+                ProdottoAdmin.SELECT + " WHERE p.id_prodotto > ? ORDER BY p.id_prodotto", dopoId);
     }
 
     @PutMapping("/{id}")
@@ -123,6 +127,10 @@ public class ProductsController {
             };
             SqlRowSet rs = jdbc.queryForRowSet(sql, args);
             if (!rs.next()) return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("message", "Update fallito"));
+            catalogo.aggiornaProdotto(id);
+            // Immagine sostituita: la precedente viene cancellata se non la usa più nessun prodotto
+            String immaginePrecedente = existing.getString("immagine");
+            if (immaginePrecedente != null && !immaginePrecedente.equals(rs.getString("immagine"))) archivio.rilascia(immaginePrecedente);
             Map<String, Object> out = new HashMap<>();
             out.put("id_prodotto", rs.getLong("id_prodotto"));
             out.put("nome", rs.getString("nome"));
@@ -151,6 +159,7 @@ public class ProductsController {
             if (inVetrina == null || promo == null) return ResponseEntity.badRequest().body(Map.of("message", "in_vetrina e promo richiesti"));
             SqlRowSet rs = jdbc.queryForRowSet("UPDATE prodotto SET in_vetrina = ?, promo = ? WHERE id_prodotto = ? RETURNING *", inVetrina, promo, id);
             if (!rs.next()) return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("message", "Prodotto non trovato"));
+            catalogo.aggiornaProdotto(id);
             Map<String, Object> out = new HashMap<>();
             out.put("id_prodotto", rs.getLong("id_prodotto"));
             out.put("in_vetrina", rs.getBoolean("in_vetrina"));
@@ -169,6 +178,7 @@ public class ProductsController {
             if (bloccato == null) return ResponseEntity.badRequest().body(Map.of("message", "bloccato richiesto"));
             SqlRowSet rs = jdbc.queryForRowSet("UPDATE prodotto SET bloccato = ? WHERE id_prodotto = ? RETURNING id_prodotto, bloccato", bloccato, id);
             if (!rs.next()) return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("message", "Prodotto non trovato"));
+            catalogo.aggiornaProdotto(id);
             return ResponseEntity.ok(Map.of("id_prodotto", rs.getLong("id_prodotto"), "bloccato", rs.getBoolean("bloccato")));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("message", e.getMessage()));
@@ -194,8 +204,9 @@ public class ProductsController {
                     }
                 }
             }
-            jdbc.update(
-                    "INSERT INTO prodotto (nome, descrizione, prezzo, prezzo_scontato, quantita_disponibile, id_categoria, id_marchio, immagine, in_vetrina, promo, bloccato) VALUES (?,?,?,?,?,?,?,?,?, ?, ?)",
+            Long nuovoId = jdbc.queryForObject(
+                    "INSERT INTO prodotto (nome, descrizione, prezzo, prezzo_scontato, quantita_disponibile, id_categoria, id_marchio, immagine, in_vetrina, promo, bloccato) VALUES (?,?,?,?,?,?,?,?,?, ?, ?) RETURNING id_prodotto",
+                    Long.class,
                     body.get("nome"),
                     body.get("descrizione"),
                     prezzo,
@@ -208,6 +219,7 @@ public class ProductsController {
                     promo,
                     optBoolean(body.get("bloccato"), false)
             );
+            if (nuovoId != null) catalogo.aggiornaProdotto(nuovoId);
             return ResponseEntity.ok(Map.of("message", "Prodotto inserito con successo"));
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("message", e.getMessage()));
@@ -218,24 +230,7 @@ public class ProductsController {
     @GetMapping
     public ResponseEntity<?> getByName(@RequestParam("nome") String nome) {
         try {
-            SqlRowSet rs = jdbc.queryForRowSet("SELECT * FROM prodotto WHERE LOWER(nome) = LOWER(?)", nome);
-            List<Map<String, Object>> list = new ArrayList<>();
-            while (rs.next()) {
-                Map<String, Object> row = new HashMap<>();
-                row.put("id_prodotto", rs.getLong("id_prodotto"));
-                row.put("nome", rs.getString("nome"));
-                row.put("descrizione", rs.getString("descrizione"));
-                row.put("prezzo", rs.getBigDecimal("prezzo"));
-                row.put("prezzo_scontato", rs.getBigDecimal("prezzo_scontato"));
-                row.put("quantita_disponibile", rs.getInt("quantita_disponibile"));
-                row.put("id_categoria", rs.getLong("id_categoria"));
-                row.put("id_marchio", rs.getLong("id_marchio"));
-                row.put("immagine", rs.getString("immagine"));
-                row.put("in_vetrina", rs.getBoolean("in_vetrina"));
-                row.put("promo", rs.getBoolean("promo"));
-                row.put("bloccato", rs.getBoolean("bloccato"));
-                list.add(row);
-            }
+            List<ProdottoAdmin> list = jdbc.query(ProdottoAdmin.SELECT + " WHERE LOWER(p.nome) = LOWER(?)", prodottoMapper, nome);
             return ResponseEntity.ok(list);
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("message", e.getMessage()));
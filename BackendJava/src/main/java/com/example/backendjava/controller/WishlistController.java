@@ -1,11 +1,12 @@
 package com.example.backendjava.controller;
 
-import com.example.backendjava.auth.JwtUtil;
+import com.example.backendjava.auth.UtenteAutenticato;
+import com.example.backendjava.dto.WishlistVoce;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.support.rowset.SqlRowSet;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.*;
@@ -14,26 +15,17 @@ import java.util.*;
 @RequestMapping("/api/wishlist")
 public class WishlistController {
     private final JdbcTemplate jdbc;
+    private final RowMapper<WishlistVoce> voceMapper = WishlistVoce.mapper(this::productImageUrl);
 
     @Value("${server.port:8080}")
     private int serverPort;
 
-    @Value("${jwt.secret:dev-secret-please-change}")
-    private String jwtSecret;
-
     public WishlistController(JdbcTemplate jdbc) {
         this.jdbc = jdbc;
     }
 
-    @SuppressWarnings("PatternVariableCanBeUsed")
-    private Optional<Long> userIdFromAuth(String authorization) {
-        return JwtUtil.parseToken(authorization, jwtSecret)
-                .map(c -> {
-                    Object id = c.get("id");
-                    if (id instanceof Number n) return n.longValue();
-                    if (id instanceof String s && !s.isBlank()) return Long.parseLong(s);
-                    return null;
-                });
+    private static Optional<Long> userIdFromAuth(UtenteAutenticato utente) {
+        return Optional.ofNullable(utente).map(UtenteAutenticato::id);
     }
 
     private String productImageUrl(String filename) {
@@ -44,32 +36,17 @@ public class WishlistController {
     }
 
     @GetMapping("")
-    public ResponseEntity<?> list(@RequestHeader(value = "Authorization", required = false) String authorization) {
-        Optional<Long> uid = userIdFromAuth(authorization);
+    public ResponseEntity<?> list(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente) {
+        Optional<Long> uid = userIdFromAuth(utente);
         if (uid.isEmpty()) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Token mancante o non valido"));
         String sql = "SELECT p.id_prodotto as id, p.nome, p.prezzo, p.immagine, p.quantita_disponibile, p.descrizione, m.nome as marchio, c.nome as categoria FROM wish_list w JOIN prodotto p ON w.prodotto_id = p.id_prodotto JOIN categoria c on p.id_categoria = c.id_categoria JOIN marchio m on p.id_marchio = m.id_marchio WHERE w.user_id = ?";
-        List<Map<String, Object>> list = new ArrayList<>();
-        SqlRowSet rs = jdbc.queryForRowSet(sql, uid.get());
-        while (rs.next()) {
-            Map<String, Object> row = new HashMap<>();
-            row.put("id", rs.getLong("id"));
-            row.put("nome", rs.getString("nome"));
-            row.put("prezzo", rs.getBigDecimal("prezzo"));
-            row.put("immagine", rs.getString("immagine"));
-            row.put("immagine_url", productImageUrl(rs.getString("immagine")));
-            row.put("quantita_disponibile", rs.getInt("quantita_disponibile"));
-            row.put("descrizione", rs.getString("descrizione"));
-            row.put("marchio", rs.getString("marchio"));
-            row.put("categoria", rs.getString("categoria"));
-            list.add(row);
-        }
-        return ResponseEntity.ok(list);
+        return ResponseEntity.ok(jdbc.query(sql, voceMapper, uid.get()));
     }
 
     @PostMapping("")
-    public ResponseEntity<?> add(@RequestHeader(value = "Authorization", required = false) String authorization,
+    public ResponseEntity<?> add(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
                                  @RequestBody Map<String, Object> body) {
-        Optional<Long> uid = userIdFromAuth(authorization);
+        Optional<Long> uid = userIdFromAuth(utente);
         if (uid.isEmpty()) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Token mancante o non valido"));
         Object pid = body.get("prodotto_id");
         if (pid == null) return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("error", "prodotto_id obbligatorio"));
@@ -79,9 +56,9 @@ public class WishlistController {
     }
 
     @DeleteMapping("/{prodotto_id}")
-    public ResponseEntity<?> remove(@RequestHeader(value = "Authorization", required = false) String authorization,
+    public ResponseEntity<?> remove(@RequestAttribute(value = UtenteAutenticato.ATTRIBUTO, required = false) UtenteAutenticato utente,
                                     @PathVariable("prodotto_id") long prodottoId) {
-        Optional<Long> uid = userIdFromAuth(authorization);
+        Optional<Long> uid = userIdFromAuth(utente);
         if (uid.isEmpty()) return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(Map.of("error", "Token mancante o non valido"));
         jdbc.update("DELETE FROM wish_list WHERE user_id = ? AND prodotto_id = ?", uid.get(), prodottoId);
         return ResponseEntity.ok(Map.of("success", true));
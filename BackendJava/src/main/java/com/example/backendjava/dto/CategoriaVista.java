@@ -0,0 +1,11 @@
+package com.example.backendjava.dto;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Categoria del catalogo con URL dell'immagine.
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record CategoriaVista(String nome, String idCategoria, String immagine, String immagineUrl) {
+}
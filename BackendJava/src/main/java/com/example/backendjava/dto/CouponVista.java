@@ -0,0 +1,28 @@
+package com.example.backendjava.dto;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import com.example.backendjava.jdbc.Righe;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Coupon nella lista amministratore (/api/coupon).
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record CouponVista(long id, String codice, String descrizione, String tipoSconto, BigDecimal valoreSconto,
+                          BigDecimal importoMinimo, Date dataInizio, Date dataScadenza, Integer usiMassimi,
+                          Integer usiAttuali, boolean attivo, boolean usoSingolo, Timestamp createdAt) {
+
+    public static final String COLONNE = "id, codice, descrizione, tipo_sconto, valore_sconto, importo_minimo, data_inizio, data_scadenza, usi_massimi, usi_attuali, attivo, uso_singolo, created_at";
+
+    /** Legge le colonne nell'ordine di {@link #COLONNE}. */
+    public static final RowMapper<CouponVista> MAPPER = (rs, n) -> new CouponVista(
+            rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getBigDecimal(5), rs.getBigDecimal(6),
+            rs.getDate(7), rs.getDate(8), Righe.intOrNull(rs, 9), Righe.intOrNull(rs, 10), rs.getBoolean(11),
+            rs.getBoolean(12), rs.getTimestamp(13));
+}
@@ -0,0 +1,14 @@
+package com.example.backendjava.dto;
+
+import java.util.List;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Testata di un ordine con le sue righe, come nel dettaglio ordine: {"ordine": {...}, "prodotti": [...]}.
+ * La testata è {@link OrdineRiga} nel dettaglio e {@link OrdineStorico} nello storico con include=lines.
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record DettaglioOrdine<T>(T ordine, List<RigaOrdineVista> prodotti) {
+}
@@ -0,0 +1,11 @@
+package com.example.backendjava.dto;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Marchio del catalogo.
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record MarchioVista(String nome, String idMarchio) {
+}
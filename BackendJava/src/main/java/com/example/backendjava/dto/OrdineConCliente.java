@@ -0,0 +1,29 @@
+package com.example.backendjava.dto;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import com.example.backendjava.jdbc.Righe;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Testata di un ordine con i dati del cliente, per il dettaglio ordine dell'amministratore.
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record OrdineConCliente(Long id, Long userId, String indirizzoConsegna, BigDecimal totaleOriginale, BigDecimal scontoCoupon,
+                               BigDecimal totale, String stato, Timestamp dataOrdine, String metodoPagamento,
+                               String nomeIntestatario, String numeroCartaMascherato, String couponUtilizzato,
+                               String nomeCliente, String cognomeCliente, String emailCliente) {
+
+    /** Colonne di ordini (alias o) e utenti (alias u). */
+    public static final String COLONNE = "o.id, o.user_id, o.indirizzo_consegna, o.totale_originale, o.sconto_coupon, o.totale, o.stato, o.data_ordine, o.metodo_pagamento, o.nome_intestatario, o.numero_carta_mascherato, o.coupon_utilizzato, u.nome, u.cognome, u.email";
+
+    /** Legge le colonne nell'ordine di {@link #COLONNE}. */
+    public static final RowMapper<OrdineConCliente> MAPPER = (rs, n) -> new OrdineConCliente(
+            Righe.longOrNull(rs, 1), Righe.longOrNull(rs, 2), rs.getString(3), rs.getBigDecimal(4), rs.getBigDecimal(5),
+            rs.getBigDecimal(6), rs.getString(7), rs.getTimestamp(8), rs.getString(9), rs.getString(10),
+            rs.getString(11), rs.getString(12), rs.getString(13), rs.getString(14), rs.getString(15));
+}
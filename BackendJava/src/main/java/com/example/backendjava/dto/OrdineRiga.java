@@ -0,0 +1,27 @@
+package com.example.backendjava.dto;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import com.example.backendjava.jdbc.Righe;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Testata di un ordine (storico ordini utente e dettaglio ordine).
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record OrdineRiga(Long id, Long userId, String indirizzoConsegna, BigDecimal totaleOriginale, BigDecimal scontoCoupon,
+                         BigDecimal totale, String stato, Timestamp dataOrdine, String metodoPagamento,
+                         String nomeIntestatario, String numeroCartaMascherato, String couponUtilizzato) {
+
+    public static final String COLONNE = "id, user_id, indirizzo_consegna, totale_originale, sconto_coupon, totale, stato, data_ordine, metodo_pagamento, nome_intestatario, numero_carta_mascherato, coupon_utilizzato";
+
+    /** Legge le colonne nell'ordine di {@link #COLONNE}. */
+    public static final RowMapper<OrdineRiga> MAPPER = (rs, n) -> new OrdineRiga(
+            Righe.longOrNull(rs, 1), Righe.longOrNull(rs, 2), rs.getString(3), rs.getBigDecimal(4), rs.getBigDecimal(5),
+            rs.getBigDecimal(6), rs.getString(7), rs.getTimestamp(8), rs.getString(9), rs.getString(10),
+            rs.getString(11), rs.getString(12));
+}
@@ -0,0 +1,21 @@
+package com.example.backendjava.dto;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Ordine nella lista amministratore degli ordini di un utente.
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record OrdineSintesi(long id, BigDecimal totale, String stato, Timestamp dataOrdine, String metodoPagamento,
+                            long numeroProdotti) {
+
+    /** Colonne: id, totale, stato, data_ordine, metodo_pagamento, numero_prodotti */
+    public static final RowMapper<OrdineSintesi> MAPPER = (rs, n) -> new OrdineSintesi(
+            rs.getLong(1), rs.getBigDecimal(2), rs.getString(3), rs.getTimestamp(4), rs.getString(5), rs.getLong(6));
+}
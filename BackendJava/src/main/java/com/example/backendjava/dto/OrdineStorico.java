@@ -0,0 +1,23 @@
+package com.example.backendjava.dto;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Ordine nello storico dell'utente: solo le colonne mostrate nella lista, tutte presenti
+ * nell'indice ordini_utente_data_id_idx (db/004_ordini_indici_storico.sql).
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record OrdineStorico(long id, BigDecimal totale, String stato, Timestamp dataOrdine, String metodoPagamento) {
+
+    public static final String COLONNE = "id, totale, stato, data_ordine, metodo_pagamento";
+
+    /** Legge le colonne nell'ordine di {@link #COLONNE}. */
+    public static final RowMapper<OrdineStorico> MAPPER = (rs, n) -> new OrdineStorico(
+            rs.getLong(1), rs.getBigDecimal(2), rs.getString(3), rs.getTimestamp(4), rs.getString(5));
+}
@@ -0,0 +1,14 @@
+package com.example.backendjava.dto;
+
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Pacchetto tematico nell'elenco, con prezzo di listino e prezzo scontato calcolato dai prodotti.
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record PacchettoVista(long idPacchetto, String nome, String descrizione, BigDecimal prezzoTotale,
+                             BigDecimal prezzoOriginale, BigDecimal prezzoScontato) {
+}
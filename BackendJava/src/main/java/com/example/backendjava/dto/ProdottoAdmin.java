@@ -0,0 +1,32 @@
+package com.example.backendjava.dto;
+
+import java.math.BigDecimal;
+import java.util.function.UnaryOperator;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Prodotto nella gestione amministratore (/api/products).
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record ProdottoAdmin(long idProdotto, String nome, String descrizione, BigDecimal prezzo, BigDecimal prezzoScontato,
+                            int quantitaDisponibile, long idCategoria, long idMarchio, String immagine, String immagineUrl,
+                            boolean inVetrina, boolean promo, boolean bloccato, String nomeCategoria, String nomeMarchio) {
+
+    public static final String SELECT = "SELECT p.id_prodotto, p.nome, p.descrizione, p.prezzo, p.prezzo_scontato, p.quantita_disponibile, p.id_categoria, p.id_marchio, p.immagine, p.in_vetrina, p.promo, p.bloccato, c.nome AS nome_categoria, m.nome AS nome_marchio FROM prodotto p " +
+            "LEFT JOIN categoria c ON p.id_categoria = c.id_categoria " +
+            "LEFT JOIN marchio m ON p.id_marchio = m.id_marchio";
+
+    /** Legge le colonne nell'ordine di {@link #SELECT}. */
+    public static RowMapper<ProdottoAdmin> mapper(UnaryOperator<String> imageUrl) {
+        return (rs, n) -> {
+            String img = rs.getString(9);
+            return new ProdottoAdmin(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getBigDecimal(4), rs.getBigDecimal(5),
+                    rs.getInt(6), rs.getLong(7), rs.getLong(8), img, imageUrl.apply(img), rs.getBoolean(10), rs.getBoolean(11),
+                    rs.getBoolean(12), rs.getString(13), rs.getString(14));
+        };
+    }
+}
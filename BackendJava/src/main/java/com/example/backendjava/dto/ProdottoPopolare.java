@@ -0,0 +1,15 @@
+package com.example.backendjava.dto;
+
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Prodotto più venduto (/api/catalogo/popular).
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record ProdottoPopolare(String idProdotto, String nome, BigDecimal prezzo, BigDecimal prezzoScontato,
+                               String descrizione, String immagine, int quantitaDisponibile, long totalPurchased,
+                               String immagineUrl) {
+}
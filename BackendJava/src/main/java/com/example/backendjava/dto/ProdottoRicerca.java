@@ -0,0 +1,15 @@
+package com.example.backendjava.dto;
+
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Risultato della ricerca completa (/api/catalogo/prodotti/ricerca).
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record ProdottoRicerca(String idProdotto, String nome, String descrizione, BigDecimal prezzo, BigDecimal prezzoScontato,
+                              boolean promo, String immagine, int quantitaDisponibile, String marchio, String categoria,
+                              String immagineUrl) {
+}
@@ -0,0 +1,14 @@
+package com.example.backendjava.dto;
+
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Prodotto consigliato (/api/suggested/suggested).
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record ProdottoSuggerito(long idProdotto, String nome, String descrizione, BigDecimal prezzo, BigDecimal prezzoScontato,
+                                boolean promo, String immagine, String immagineUrl) {
+}
@@ -0,0 +1,16 @@
+package com.example.backendjava.dto;
+
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Prodotto come mostrato dal catalogo (vetrina, categoria, dettaglio).
+ * prezzo è già il prezzo effettivo (scontato se in promo).
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record ProdottoVista(String idProdotto, String nome, BigDecimal prezzo, BigDecimal prezzoScontato,
+                            String descrizione, String immagine, int quantitaDisponibile,
+                            String marchio, String categoria, String immagineUrl) {
+}
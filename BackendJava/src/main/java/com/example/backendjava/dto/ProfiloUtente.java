@@ -0,0 +1,21 @@
+package com.example.backendjava.dto;
+
+import java.sql.Date;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Dati anagrafici dell'utente per la pagina profilo.
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record ProfiloUtente(long id, String nome, String cognome, String email, String telefono, Date dataNascita, String sesso) {
+
+    public static final String COLONNE = "id, nome, cognome, email, telefono, data_nascita, sesso";
+
+    /** Legge le colonne nell'ordine di {@link #COLONNE}. */
+    public static final RowMapper<ProfiloUtente> MAPPER = (rs, n) -> new ProfiloUtente(
+            rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5), rs.getDate(6), rs.getString(7));
+}
@@ -0,0 +1,14 @@
+package com.example.backendjava.dto;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Carrello completo con numero di articoli e totale calcolati dal server.
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record RiepilogoCarrello(List<RigaCarrello> righe, int articoli, BigDecimal totale) {
+}
@@ -0,0 +1,17 @@
+package com.example.backendjava.dto;
+
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Riga del carrello: prodotto (id_prodotto, immagine) o pacchetto (id_pacchetto), con prezzo unitario
+ * effettivo e subtotale già calcolati.
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record RigaCarrello(String tipo, Long idProdotto, Long idPacchetto, int quantita, String nome,
+                           BigDecimal prezzo, BigDecimal subtotale, String immagine, String immagineUrl) {
+}
@@ -0,0 +1,19 @@
+package com.example.backendjava.dto;
+
+import java.math.BigDecimal;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Riga di un ordine nel dettaglio amministratore.
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record RigaOrdineAdmin(String nome, int quantita, BigDecimal prezzoUnitario, BigDecimal subtotale) {
+
+    /** Colonne: nome, quantita, prezzo_unitario, subtotale */
+    public static final RowMapper<RigaOrdineAdmin> MAPPER = (rs, n) ->
+            new RigaOrdineAdmin(rs.getString(1), rs.getInt(2), rs.getBigDecimal(3), rs.getBigDecimal(4));
+}
@@ -0,0 +1,25 @@
+package com.example.backendjava.dto;
+
+import java.math.BigDecimal;
+import java.util.function.UnaryOperator;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Riga di un ordine come mostrata all'utente (con immagine del prodotto).
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record RigaOrdineVista(String nome, String immagine, int quantita, BigDecimal prezzoUnitario, BigDecimal subtotale,
+                              String immagineUrl) {
+
+    /** Colonne: nome, immagine, quantita, prezzo_unitario, subtotale */
+    public static RowMapper<RigaOrdineVista> mapper(UnaryOperator<String> imageUrl) {
+        return (rs, n) -> {
+            String img = rs.getString(2);
+            return new RigaOrdineVista(rs.getString(1), img, rs.getInt(3), rs.getBigDecimal(4), rs.getBigDecimal(5), imageUrl.apply(img));
+        };
+    }
+}
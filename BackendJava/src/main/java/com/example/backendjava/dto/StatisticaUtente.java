@@ -0,0 +1,24 @@
+package com.example.backendjava.dto;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Utente con totali ordini per la pagina statistiche dell'amministratore.
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record StatisticaUtente(long id, String nome, String cognome, String email,
+                               @JsonProperty("is_blocked") boolean isBlocked, String ruolo,
+                               long numeroOrdini, BigDecimal totaleSpeso, Timestamp ultimoOrdine) {
+
+    /** Colonne: id, nome, cognome, email, is_blocked, ruolo, numero_ordini, totale_speso, ultimo_ordine */
+    public static final RowMapper<StatisticaUtente> MAPPER = (rs, n) -> new StatisticaUtente(
+            rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getBoolean(5), rs.getString(6),
+            rs.getLong(7), rs.getBigDecimal(8), rs.getTimestamp(9));
+}
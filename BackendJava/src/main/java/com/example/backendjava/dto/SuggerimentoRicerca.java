@@ -0,0 +1,14 @@
+package com.example.backendjava.dto;
+
+import java.math.BigDecimal;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Suggerimento di ricerca (/api/catalogo/search/suggestions).
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record SuggerimentoRicerca(String idProdotto, String nome, BigDecimal prezzo, BigDecimal prezzoScontato,
+                                  String immagine, String marchio, String categoria, String immagineUrl) {
+}
@@ -0,0 +1,24 @@
+package com.example.backendjava.dto;
+
+import java.sql.Timestamp;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import com.example.backendjava.jdbc.Righe;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Stato di spedizione di un ordine (pagina tracking).
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record TrackingOrdine(Long idOrdine, String stato, String corriere, String codiceSpedizione, String dettagliPacco,
+                             String indirizzoSpedizione, Timestamp dataAggiornamento) {
+
+    public static final String COLONNE = "id_ordine, stato, corriere, codice_spedizione, dettagli_pacco, indirizzo_spedizione, data_aggiornamento";
+
+    /** Legge le colonne nell'ordine di {@link #COLONNE}. */
+    public static final RowMapper<TrackingOrdine> MAPPER = (rs, n) -> new TrackingOrdine(
+            Righe.longOrNull(rs, 1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5),
+            rs.getString(6), rs.getTimestamp(7));
+}
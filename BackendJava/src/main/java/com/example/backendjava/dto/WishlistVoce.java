@@ -0,0 +1,26 @@
+package com.example.backendjava.dto;
+
+import java.math.BigDecimal;
+import java.util.function.UnaryOperator;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.fasterxml.jackson.databind.annotation.JsonNaming;
+
+/**
+ * Prodotto nella wishlist dell'utente.
+ */
+@JsonNaming(PropertyNamingStrategies.SnakeCaseStrategy.class)
+public record WishlistVoce(long id, String nome, BigDecimal prezzo, String immagine, String immagineUrl,
+                           int quantitaDisponibile, String descrizione, String marchio, String categoria) {
+
+    /** Colonne: id, nome, prezzo, immagine, quantita_disponibile, descrizione, marchio, categoria */
+    public static RowMapper<WishlistVoce> mapper(UnaryOperator<String> imageUrl) {
+        return (rs, n) -> {
+            String img = rs.getString(4);
+            return new WishlistVoce(rs.getLong(1), rs.getString(2), rs.getBigDecimal(3), img, imageUrl.apply(img),
+                    rs.getInt(5), rs.getString(6), rs.getString(7), rs.getString(8));
+        };
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.backendjava.jdbc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Cursore opaco per la paginazione keyset: i valori della chiave di ordinamento dell'ultima riga
+ * restituita, codificati in Base64 URL-safe. Il client lo ripassa così com'è per la pagina successiva.
+ */
+public final class Cursore {
+
+    private static final String SEPARATORE = "|";
+
+    private Cursore() {
+    }
+
+    public static String codifica(Object... valori) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < valori.length; i++) {
+            if (i > 0) sb.append(SEPARATORE);
+            sb.append(valori[i]);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException se il cursore non è valido o non ha il numero di valori atteso
+     */
+    public static String[] decodifica(String cursore, int valori) {
+        String testo = new String(Base64.getUrlDecoder().decode(cursore), StandardCharsets.UTF_8);
+        String[] parti = testo.split("\\" + SEPARATORE, -1);
+        if (parti.length != valori) throw new IllegalArgumentException("Cursore non valido");
+        return parti;
+    }
+}
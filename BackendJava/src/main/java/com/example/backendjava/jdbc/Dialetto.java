@@ -0,0 +1,19 @@
+package com.example.backendjava.jdbc;
+
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Helper per gli statement che cambiano tra PostgreSQL e gli altri database (H2 nei test e nei benchmark),
+ * ad esempio gli upsert: INSERT ... ON CONFLICT DO UPDATE su PostgreSQL, MERGE standard altrove.
+ */
+public final class Dialetto {
+
+    private Dialetto() {
+    }
+
+    /** true se il database è PostgreSQL (da memorizzare nel chiamante: apre una connessione). */
+    public static boolean postgres(JdbcTemplate jdbc) {
+        return "PostgreSQL".equals(jdbc.execute((ConnectionCallback<String>) con -> con.getMetaData().getDatabaseProductName()));
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.backendjava.jdbc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.example.backendjava.metrics.StatsProvider;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Risposte JSON scritte direttamente dal cursore del database, una riga alla volta.
+ * La query gira in una transazione read-only con ResultSet forward-only e fetch size limitato
+ * (con PostgreSQL il driver usa un cursore lato server solo fuori dall'autocommit),
+ * quindi la memoria usata per richiesta non dipende dal numero di righe.
+ */
+@Component
+public class JsonStreaming implements StatsProvider {
+
+    public static final int LIMITE_PREDEFINITO = 100;
+    public static final int LIMITE_MASSIMO = 1000;
+
+    private final JdbcTemplate jdbc;
+    private final ObjectMapper json;
+    // Niente flush dopo ogni elemento: il generator scrive sull'output a blocchi
+    private final ObjectWriter writer;
+    private final TransactionTemplate tx;
+
+    private final int fetchSize;
+
+    private final LongAdder risposte = new LongAdder();
+    private final LongAdder righe = new LongAdder();
+    private final LongAdder interrotte = new LongAdder();
+
+    @FunctionalInterface
+    private interface Scrittore<T> {
+        void scrivi(T riga) throws IOException;
+    }
+
+    public JsonStreaming(JdbcTemplate jdbc, ObjectMapper json, PlatformTransactionManager txManager,
+                         @Value("${streaming.fetch-size:500}") int fetchSize) {
+        this.jdbc = jdbc;
+        this.json = json;
+        this.fetchSize = fetchSize;
+        this.writer = json.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.tx = new TransactionTemplate(txManager);
+        this.tx.setReadOnly(true);
+    }
+
+    /** Limite di pagina richiesto dal client, ricondotto a 1..LIMITE_MASSIMO. */
+    public static int limite(Integer richiesto) {
+        if (richiesto == null) return LIMITE_PREDEFINITO;
+        return Math.max(1, Math.min(LIMITE_MASSIMO, richiesto));
+    }
+
+    /** Array JSON con tutte le righe della query. */
+    public <T> ResponseEntity<StreamingResponseBody> array(RowMapper<T> mapper, String sql, Object... args) {
+        return ok(out -> {
+            try (JsonGenerator gen = json.getFactory().createGenerator(out)) {
+                gen.writeStartArray();
+                scorri(sql, args, mapper, riga -> writer.writeValue(gen, riga));
+                gen.writeEndArray();
+            }
+        });
+    }
+
+    /**
+     * Una pagina keyset: {"elementi": [...], "prossimo_cursore": "..." | null}.
+     * La query deve già contenere il filtro sul cursore e l'ORDER BY; qui si aggiunge LIMIT limite+1
+     * per sapere se esiste una pagina successiva senza contare le righe.
+     */
+    public <T> ResponseEntity<StreamingResponseBody> pagina(RowMapper<T> mapper, Function<T, String> cursore, int limite,
+                                                           String sql, Object... args) {
+        Object[] argsConLimite = Arrays.copyOf(args, args.length + 1);
+        argsConLimite[args.length] = limite + 1;
+        return ok(out -> {
+            try (JsonGenerator gen = json.getFactory().createGenerator(out)) {
+                gen.writeStartObject();
+                gen.writeArrayFieldStart("elementi");
+                Object[] ultima = new Object[1];
+                int[] scritte = new int[1];
+                boolean[] altre = new boolean[1];
+                scorri(sql + " LIMIT ?", argsConLimite, mapper, riga -> {
+                    if (scritte[0] == limite) {
+                        altre[0] = true;
+                        return;
+                    }
+                    writer.writeValue(gen, riga);
+                    ultima[0] = riga;
+                    scritte[0]++;
+                });
+                gen.writeEndArray();
+                @SuppressWarnings("unchecked")
+                T last = (T) ultima[0];
+                gen.writeStringField("prossimo_cursore", altre[0] ? cursore.apply(last) : null);
+                gen.writeEndObject();
+            }
+        });
+    }
+
+    /** Risposta di errore con lo stesso corpo che avrebbe avuto un ResponseEntity normale. */
+    public ResponseEntity<StreamingResponseBody> errore(HttpStatus status, Object corpo) {
+        return inMemoria(status, corpo);
+    }
+
+    /** Risposta 200 con un corpo già in memoria, per le varianti non in streaming di un endpoint in streaming. */
+    public ResponseEntity<StreamingResponseBody> valore(Object corpo) {
+        return inMemoria(HttpStatus.OK, corpo);
+    }
+
+    private ResponseEntity<StreamingResponseBody> inMemoria(HttpStatus status, Object corpo) {
+        return ResponseEntity.status(status).contentType(MediaType.APPLICATION_JSON)
+                .body(out -> out.write(json.writeValueAsBytes(corpo)));
+    }
+
+    private static ResponseEntity<StreamingResponseBody> ok(StreamingResponseBody body) {
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    private <T> void scorri(String sql, Object[] args, RowMapper<T> mapper, Scrittore<T> scrittore) throws IOException {
+        PreparedStatementCreator psc = con -> {
+            PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(fetchSize);
+            new ArgumentPreparedStatementSetter(args).setValues(ps);
+            return ps;
+        };
+        risposte.increment();
+        int[] numeroRiga = new int[1];
+        try {
+            tx.executeWithoutResult(status -> jdbc.query(psc, rs -> {
+                try {
+                    scrittore.scrivi(mapper.mapRow(rs, numeroRiga[0]++));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                righe.increment();
+            }));
+        } catch (UncheckedIOException e) {
+            // Tipicamente il client ha chiuso la connessione: la transazione è già stata annullata
+            interrotte.increment();
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public String nome() {
+        return "streaming_json";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("risposte", risposte.sum());
+        out.put("righe", righe.sum());
+        out.put("interrotte", interrotte.sum());
+        out.put("fetch_size", fetchSize);
+        return out;
+    }
+}
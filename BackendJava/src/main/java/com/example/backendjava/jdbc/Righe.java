@@ -0,0 +1,25 @@
+package com.example.backendjava.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Helper per leggere colonne nullable dal ResultSet per posizione.
+ * I RowMapper dei dto leggono le colonne per indice (nell'ordine della SELECT) invece che per nome,
+ * così non serve una ricerca per stringa su ogni colonna di ogni riga.
+ */
+public final class Righe {
+
+    private Righe() {
+    }
+
+    public static Long longOrNull(ResultSet rs, int col) throws SQLException {
+        long v = rs.getLong(col);
+        return rs.wasNull() ? null : v;
+    }
+
+    public static Integer intOrNull(ResultSet rs, int col) throws SQLException {
+        int v = rs.getInt(col);
+        return rs.wasNull() ? null : v;
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.backendjava.jdbc;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Helper per le azioni da eseguire solo a transazione confermata (cache e viste in memoria):
+ * così una lettura concorrente non può rimettere in cache i dati vecchi prima del commit.
+ */
+public final class Transazioni {
+
+    private Transazioni() {
+    }
+
+    /** Esegue l'azione dopo il commit della transazione corrente, o subito se non c'è una transazione. */
+    public static void dopoCommit(Runnable azione) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    azione.run();
+                }
+            });
+        } else {
+            azione.run();
+        }
+    }
+}
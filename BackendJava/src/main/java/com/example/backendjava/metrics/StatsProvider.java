@@ -0,0 +1,16 @@
+package com.example.backendjava.metrics;
+
+import java.util.Map;
+
+/**
+ * Componente che espone i propri contatori interni (hit, miss, latenze...).
+ * Tutti i bean che implementano questa interfaccia vengono raccolti da /api/metriche.
+ */
+public interface StatsProvider {
+
+    /** Nome con cui le statistiche compaiono nella risposta di /api/metriche. */
+    String nome();
+
+    /** Fotografia corrente dei contatori. */
+    Map<String, Object> stats();
+}
@@ -0,0 +1,443 @@
+package com.example.backendjava.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.backendjava.jdbc.Dialetto;
+import com.example.backendjava.metrics.StatsProvider;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Scritture sulle tabelle carrello e carrello_pacchetto.
+ * Di default ogni modifica va subito sul database. Con carrello.write-behind.enabled=true il carrello di
+ * ogni utente vive in memoria (caricato dal database al primo accesso) e le modifiche vengono scritte
+ * periodicamente in batch: più modifiche alla stessa riga tra due scritture diventano una sola.
+ * Prima di leggere il carrello dal database (vista, checkout) va chiamato {@link #scrivi(long)};
+ * allo spegnimento dell'applicazione tutte le modifiche in sospeso vengono scritte.
+ * Le aggiunte scritte subito sono un solo statement atomico (upsert con controllo della giacenza),
+ * che richiede la chiave univoca creata da db/001_carrello_chiavi_uniche.sql.
+ */
+@Service
+public class ArchivioCarrelli implements StatsProvider {
+
+    // PostgreSQL: INSERT ... ON CONFLICT; la riga viene creata o incrementata solo se la nuova quantità non supera la giacenza
+    private static final String UPSERT_PRODOTTO_PG = "INSERT INTO carrello (id_utente, id_prodotto, quantita)"
+            + " SELECT ?, p.id_prodotto, ? FROM prodotto p WHERE p.id_prodotto = ? AND p.quantita_disponibile >= ?"
+            + " ON CONFLICT (id_utente, id_prodotto) DO UPDATE SET quantita = carrello.quantita + EXCLUDED.quantita"
+            + " WHERE carrello.quantita + EXCLUDED.quantita <= (SELECT quantita_disponibile FROM prodotto WHERE id_prodotto = EXCLUDED.id_prodotto)";
+
+    private static final String UPSERT_PACCHETTO_PG = "INSERT INTO carrello_pacchetto (id_utente, id_pacchetto, quantita) VALUES (?, ?, ?)"
+            + " ON CONFLICT (id_utente, id_pacchetto) DO UPDATE SET quantita = carrello_pacchetto.quantita + EXCLUDED.quantita";
+
+    // Altri database (H2 nei test e nei benchmark): stessa semantica con MERGE standard
+    private static final String UPSERT_PRODOTTO_MERGE = "MERGE INTO carrello c USING (SELECT CAST(? AS BIGINT) AS id_utente, p.id_prodotto,"
+            + " CAST(? AS INT) AS quantita, p.quantita_disponibile FROM prodotto p WHERE p.id_prodotto = ?) s"
+            + " ON c.id_utente = s.id_utente AND c.id_prodotto = s.id_prodotto"
+            + " WHEN MATCHED AND c.quantita + s.quantita <= s.quantita_disponibile THEN UPDATE SET quantita = c.quantita + s.quantita"
+            + " WHEN NOT MATCHED AND s.quantita <= s.quantita_disponibile THEN INSERT (id_utente, id_prodotto, quantita) VALUES (s.id_utente, s.id_prodotto, s.quantita)";
+
+    private static final String UPSERT_PACCHETTO_MERGE = "MERGE INTO carrello_pacchetto c USING (SELECT CAST(? AS BIGINT) AS id_utente,"
+            + " CAST(? AS BIGINT) AS id_pacchetto, CAST(? AS INT) AS quantita) s"
+            + " ON c.id_utente = s.id_utente AND c.id_pacchetto = s.id_pacchetto"
+            + " WHEN MATCHED THEN UPDATE SET quantita = c.quantita + s.quantita"
+            + " WHEN NOT MATCHED THEN INSERT (id_utente, id_pacchetto, quantita) VALUES (s.id_utente, s.id_pacchetto, s.quantita)";
+
+    // Con MERGE due inserimenti concorrenti della stessa riga possono violare la chiave: si riprova e il secondo diventa un UPDATE
+    private static final int TENTATIVI_UPSERT = 3;
+
+    /** Giacenza del prodotto e quantità già nel carrello dell'utente. */
+    public record Disponibilita(int giacenza, int nelCarrello) {
+    }
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+
+    private final boolean writeBehind;
+    // Carrelli senza modifiche in sospeso e non usati da più di questo intervallo vengono tolti dalla memoria
+    private final long idleSeconds;
+
+    private final Map<Long, Carrello> carrelli = new ConcurrentHashMap<>();
+    private final Set<Long> inSospeso = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder modifiche = new LongAdder();
+    private final LongAdder righeScritte = new LongAdder();
+    private final LongAdder scritture = new LongAdder();
+    private final LongAdder errori = new LongAdder();
+    private final LongAdder upsertRifiutati = new LongAdder();
+    private final LongAdder upsertRitentati = new LongAdder();
+    private volatile long ultimaScritturaMicros;
+    private volatile Boolean postgres;
+
+    /**
+     * Carrello di un utente in memoria: quantità correnti e righe modificate dall'ultima scrittura.
+     * Una volta tolto dalla mappa (inattivo o dimenticato) è marcato rimosso sotto il suo monitor:
+     * chi lo aveva già in mano ne prende uno nuovo invece di modificare una copia non più visibile.
+     */
+    private static final class Carrello {
+        final Map<Long, Integer> prodotti = new HashMap<>();
+        final Map<Long, Integer> pacchetti = new HashMap<>();
+        final Set<Long> prodottiModificati = new HashSet<>();
+        final Set<Long> pacchettiModificati = new HashSet<>();
+        volatile long ultimoAccesso = System.currentTimeMillis();
+        boolean rimosso;
+    }
+
+    /** Riga da scrivere: quantità 0 significa riga da eliminare. */
+    private record Riga(long idUtente, long id, int quantita) {
+    }
+
+    public ArchivioCarrelli(JdbcTemplate jdbc, PlatformTransactionManager transactionManager,
+                            @Value("${carrello.write-behind.enabled:false}") boolean writeBehind,
+                            @Value("${carrello.write-behind.idle-seconds:1800}") long idleSeconds) {
+        this.jdbc = jdbc;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.writeBehind = writeBehind;
+        this.idleSeconds = idleSeconds;
+    }
+
+    public boolean writeBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * Giacenza del prodotto e quantità nel carrello dell'utente, lette con una sola query
+     * (in write-behind la quantità nel carrello viene dalla memoria). Vuoto se il prodotto non esiste.
+     */
+    public Optional<Disponibilita> disponibilita(long idUtente, long idProdotto) {
+        if (writeBehind) {
+            List<Integer> g = jdbc.queryForList("SELECT quantita_disponibile FROM prodotto WHERE id_prodotto = ?", Integer.class, idProdotto);
+            if (g.isEmpty()) return Optional.empty();
+            return Optional.of(new Disponibilita(g.get(0) == null ? 0 : g.get(0), quantitaProdotto(idUtente, idProdotto)));
+        }
+        List<Disponibilita> d = jdbc.query("SELECT p.quantita_disponibile, COALESCE(c.quantita, 0) FROM prodotto p"
+                        + " LEFT JOIN carrello c ON c.id_prodotto = p.id_prodotto AND c.id_utente = ? WHERE p.id_prodotto = ?",
+                (rs, n) -> new Disponibilita(rs.getInt(1), rs.getInt(2)), idUtente, idProdotto);
+        return d.stream().findFirst();
+    }
+
+    /** Quantità del prodotto nel carrello dell'utente (0 se assente). */
+    public int quantitaProdotto(long idUtente, long idProdotto) {
+        if (!writeBehind) {
+            List<Integer> q = jdbc.queryForList("SELECT quantita FROM carrello WHERE id_utente = ? AND id_prodotto = ?",
+                    Integer.class, idUtente, idProdotto);
+            return q.isEmpty() || q.get(0) == null ? 0 : q.get(0);
+        }
+        while (true) {
+            Carrello c = carrello(idUtente);
+            synchronized (c) {
+                if (!c.rimosso) return c.prodotti.getOrDefault(idProdotto, 0);
+            }
+        }
+    }
+
+    /**
+     * Aggiunge {@code quantita} pezzi del prodotto (crea la riga se non c'è).
+     * Scrivendo subito è un solo upsert atomico che verifica anche la giacenza sul database.
+     *
+     * @return false se il prodotto non esiste o la quantità risultante supera la giacenza
+     */
+    public boolean aggiungiProdotto(long idUtente, long idProdotto, int quantita) {
+        if (!writeBehind) {
+            int righe = postgres()
+                    ? upsert(UPSERT_PRODOTTO_PG, idUtente, quantita, idProdotto, quantita)
+                    : upsert(UPSERT_PRODOTTO_MERGE, idUtente, quantita, idProdotto);
+            if (righe == 0) upsertRifiutati.increment();
+            return righe > 0;
+        }
+        modifica(idUtente, c -> {
+            c.prodotti.merge(idProdotto, quantita, Integer::sum);
+            c.prodottiModificati.add(idProdotto);
+            return true;
+        });
+        return true;
+    }
+
+    /** Imposta la quantità di un prodotto già nel carrello; con quantità &lt;= 0 lo rimuove. */
+    public void impostaProdotto(long idUtente, long idProdotto, int quantita) {
+        if (!writeBehind) {
+            if (quantita <= 0) {
+                jdbc.update("DELETE FROM carrello WHERE id_utente = ? AND id_prodotto = ?", idUtente, idProdotto);
+            } else {
+                jdbc.update("UPDATE carrello SET quantita = ? WHERE id_utente = ? AND id_prodotto = ?", quantita, idUtente, idProdotto);
+            }
+            return;
+        }
+        modifica(idUtente, c -> {
+            if (quantita <= 0) {
+                if (c.prodotti.remove(idProdotto) == null) return false;
+            } else {
+                if (!c.prodotti.containsKey(idProdotto)) return false;
+                c.prodotti.put(idProdotto, quantita);
+            }
+            c.prodottiModificati.add(idProdotto);
+            return true;
+        });
+    }
+
+    /** Aggiunge {@code quantita} pacchetti (crea la riga se non c'è). */
+    public void aggiungiPacchetto(long idUtente, long idPacchetto, int quantita) {
+        if (!writeBehind) {
+            upsert(postgres() ? UPSERT_PACCHETTO_PG : UPSERT_PACCHETTO_MERGE, idUtente, idPacchetto, quantita);
+            return;
+        }
+        modifica(idUtente, c -> {
+            c.pacchetti.merge(idPacchetto, quantita, Integer::sum);
+            c.pacchettiModificati.add(idPacchetto);
+            return true;
+        });
+    }
+
+    /** Imposta la quantità di un pacchetto già nel carrello; con quantità &lt;= 0 lo rimuove. */
+    public void impostaPacchetto(long idUtente, long idPacchetto, int quantita) {
+        if (!writeBehind) {
+            if (quantita <= 0) {
+                jdbc.update("DELETE FROM carrello_pacchetto WHERE id_utente = ? AND id_pacchetto = ?", idUtente, idPacchetto);
+            } else {
+                jdbc.update("UPDATE carrello_pacchetto SET quantita = ? WHERE id_utente = ? AND id_pacchetto = ?", quantita, idUtente, idPacchetto);
+            }
+            return;
+        }
+        modifica(idUtente, c -> {
+            if (quantita <= 0) {
+                if (c.pacchetti.remove(idPacchetto) == null) return false;
+            } else {
+                if (!c.pacchetti.containsKey(idPacchetto)) return false;
+                c.pacchetti.put(idPacchetto, quantita);
+            }
+            c.pacchettiModificati.add(idPacchetto);
+            return true;
+        });
+    }
+
+    /**
+     * Scrive subito le modifiche in sospeso dell'utente: da chiamare prima di leggere il suo carrello dal database.
+     * Passa sempre dalla scrittura sincronizzata, così attende anche una scrittura periodica già in corso
+     * che contiene le sue righe ma non ha ancora fatto commit.
+     */
+    public void scrivi(long idUtente) {
+        if (writeBehind) scriviUtenti(List.of(idUtente));
+    }
+
+    /**
+     * Il carrello dell'utente è stato svuotato sul database (checkout): la copia in memoria non vale più.
+     */
+    public void dimentica(long idUtente) {
+        if (!writeBehind) return;
+        inSospeso.remove(idUtente);
+        Carrello c = carrelli.remove(idUtente);
+        if (c == null) return;
+        synchronized (c) {
+            c.rimosso = true;
+        }
+    }
+
+    /** Scrittura periodica di tutte le modifiche in sospeso. */
+    @Scheduled(fixedDelayString = "${carrello.write-behind.flush-ms:500}")
+    public void scriviTutto() {
+        if (!writeBehind) return;
+        if (!inSospeso.isEmpty()) scriviUtenti(new ArrayList<>(inSospeso));
+        long limite = System.currentTimeMillis() - idleSeconds * 1000L;
+        for (Map.Entry<Long, Carrello> e : carrelli.entrySet()) {
+            Carrello c = e.getValue();
+            if (c.ultimoAccesso >= limite) continue;
+            // Ricontrollo sotto il monitor: una modifica concorrente tiene il carrello in memoria
+            synchronized (c) {
+                if (c.ultimoAccesso < limite && c.prodottiModificati.isEmpty() && c.pacchettiModificati.isEmpty()
+                        && !inSospeso.contains(e.getKey()) && carrelli.remove(e.getKey(), c)) {
+                    c.rimosso = true;
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void chiudi() {
+        if (writeBehind && !inSospeso.isEmpty()) scriviUtenti(new ArrayList<>(inSospeso));
+    }
+
+    private int upsert(String sql, Object... args) {
+        for (int tentativo = 1; ; tentativo++) {
+            try {
+                return jdbc.update(sql, args);
+            } catch (DuplicateKeyException e) {
+                if (tentativo >= TENTATIVI_UPSERT) throw e;
+                upsertRitentati.increment();
+            }
+        }
+    }
+
+    private boolean postgres() {
+        Boolean pg = postgres;
+        if (pg == null) {
+            pg = Dialetto.postgres(jdbc);
+            postgres = pg;
+        }
+        return pg;
+    }
+
+    private Carrello carrello(long idUtente) {
+        Carrello c = carrelli.computeIfAbsent(idUtente, this::carica);
+        c.ultimoAccesso = System.currentTimeMillis();
+        return c;
+    }
+
+    /**
+     * Esegue {@code modifica} sul carrello dell'utente tenendone il monitor; se nel frattempo il carrello
+     * è stato tolto dalla memoria ne carica uno nuovo e riprova. Se la modifica restituisce true
+     * l'utente passa tra quelli in sospeso.
+     */
+    private void modifica(long idUtente, Predicate<Carrello> modifica) {
+        while (true) {
+            Carrello c = carrello(idUtente);
+            synchronized (c) {
+                if (c.rimosso) continue;
+                if (!modifica.test(c)) return;
+            }
+            modificato(idUtente);
+            return;
+        }
+    }
+
+    private Carrello carica(long idUtente) {
+        Carrello c = new Carrello();
+        jdbc.query("SELECT id_prodotto, quantita FROM carrello WHERE id_utente = ?",
+                rs -> { c.prodotti.merge(rs.getLong(1), rs.getInt(2), Integer::sum); }, idUtente);
+        jdbc.query("SELECT id_pacchetto, quantita FROM carrello_pacchetto WHERE id_utente = ?",
+                rs -> { c.pacchetti.merge(rs.getLong(1), rs.getInt(2), Integer::sum); }, idUtente);
+        return c;
+    }
+
+    private void modificato(long idUtente) {
+        modifiche.increment();
+        inSospeso.add(idUtente);
+    }
+
+    /**
+     * Raccoglie le righe modificate degli utenti indicati e le scrive in un'unica transazione:
+     * DELETE in batch di tutte le righe toccate, poi INSERT in batch di quelle ancora presenti.
+     * Gli utenti restano in sospeso fino al commit; se la scrittura fallisce le righe restano marcate
+     * come modificate e verranno riprovate.
+     */
+    private synchronized void scriviUtenti(List<Long> utenti) {
+        long start = System.nanoTime();
+        List<Riga> prodotti = new ArrayList<>();
+        List<Riga> pacchetti = new ArrayList<>();
+        List<Long> scritti = new ArrayList<>();
+        for (Long idUtente : utenti) {
+            if (!inSospeso.contains(idUtente)) continue;
+            Carrello c = carrelli.get(idUtente);
+            if (c == null) {
+                inSospeso.remove(idUtente);
+                continue;
+            }
+            scritti.add(idUtente);
+            synchronized (c) {
+                for (Long id : c.prodottiModificati) prodotti.add(new Riga(idUtente, id, c.prodotti.getOrDefault(id, 0)));
+                for (Long id : c.pacchettiModificati) pacchetti.add(new Riga(idUtente, id, c.pacchetti.getOrDefault(id, 0)));
+                c.prodottiModificati.clear();
+                c.pacchettiModificati.clear();
+            }
+        }
+        if (prodotti.isEmpty() && pacchetti.isEmpty()) {
+            confermaScritti(scritti);
+            return;
+        }
+        try {
+            tx.executeWithoutResult(status -> {
+                scriviTabella("carrello", "id_prodotto", prodotti);
+                scriviTabella("carrello_pacchetto", "id_pacchetto", pacchetti);
+            });
+            righeScritte.add(prodotti.size() + pacchetti.size());
+            scritture.increment();
+            confermaScritti(scritti);
+        } catch (RuntimeException e) {
+            errori.increment();
+            rimetti(prodotti, true);
+            rimetti(pacchetti, false);
+            throw e;
+        } finally {
+            ultimaScritturaMicros = (System.nanoTime() - start) / 1000;
+        }
+    }
+
+    private void scriviTabella(String tabella, String colonna, List<Riga> righe) {
+        if (righe.isEmpty()) return;
+        jdbc.batchUpdate("DELETE FROM " + tabella + " WHERE id_utente = ? AND " + colonna + " = ?", righe, righe.size(),
+                (ps, r) -> {
+                    ps.setLong(1, r.idUtente());
+                    ps.setLong(2, r.id());
+                });
+        List<Riga> presenti = righe.stream().filter(r -> r.quantita() > 0).toList();
+        if (presenti.isEmpty()) return;
+        jdbc.batchUpdate("INSERT INTO " + tabella + " (id_utente, " + colonna + ", quantita) VALUES (?, ?, ?)", presenti, presenti.size(),
+                (ps, r) -> {
+                    ps.setLong(1, r.idUtente());
+                    ps.setLong(2, r.id());
+                    ps.setInt(3, r.quantita());
+                });
+    }
+
+    /** Dopo il commit: tolti dal sospeso gli utenti senza modifiche arrivate durante la scrittura. */
+    private void confermaScritti(List<Long> utenti) {
+        for (Long idUtente : utenti) {
+            Carrello c = carrelli.get(idUtente);
+            if (c == null) {
+                inSospeso.remove(idUtente);
+                continue;
+            }
+            synchronized (c) {
+                if (c.prodottiModificati.isEmpty() && c.pacchettiModificati.isEmpty()) inSospeso.remove(idUtente);
+            }
+        }
+    }
+
+    private void rimetti(List<Riga> righe, boolean prodotti) {
+        for (Riga r : righe) {
+            Carrello c = carrelli.get(r.idUtente());
+            if (c == null) continue;
+            synchronized (c) {
+                (prodotti ? c.prodottiModificati : c.pacchettiModificati).add(r.id());
+            }
+            inSospeso.add(r.idUtente());
+        }
+    }
+
+    @Override
+    public String nome() {
+        return "archivio_carrelli";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("write_behind", writeBehind);
+        out.put("carrelli_in_memoria", carrelli.size());
+        out.put("utenti_in_sospeso", inSospeso.size());
+        out.put("modifiche", modifiche.sum());
+        out.put("righe_scritte", righeScritte.sum());
+        out.put("scritture", scritture.sum());
+        out.put("errori", errori.sum());
+        out.put("upsert_rifiutati", upsertRifiutati.sum());
+        out.put("upsert_ritentati", upsertRitentati.sum());
+        out.put("ultima_scrittura_us", ultimaScritturaMicros);
+        return out;
+    }
+}
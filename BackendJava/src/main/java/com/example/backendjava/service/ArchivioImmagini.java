@@ -0,0 +1,287 @@
+package com.example.backendjava.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.example.backendjava.metrics.StatsProvider;
+
+/**
+ * Archivio delle immagini prodotto indirizzato per contenuto: il file si chiama come lo SHA-256 dei suoi byte
+ * (più l'estensione), calcolato mentre viene scritto su disco. Lo stesso contenuto caricato più volte, anche con
+ * nomi diversi, viene salvato una volta sola, e un nome non cambia mai contenuto (cache senza scadenza).
+ * I riferimenti sono le righe di prodotto con quella immagine, contate sull'indice prodotto(immagine)
+ * (db/003_prodotto_immagine_indice.sql): il file viene cancellato solo quando l'ultimo riferimento sparisce.
+ */
+@Service
+public class ArchivioImmagini implements StatsProvider {
+
+    private static final String CATEGORIA = "prodotti";
+    private static final int BUFFER = 64 * 1024;
+    // Solo i file scritti da salva(): il segnaposto default.jpg e i file caricati prima dell'archivio non si cancellano
+    private static final Pattern NOME_ARCHIVIO = Pattern.compile("[0-9a-f]{64}\\.(jpg|png|gif|webp)");
+
+    /** Nome del file salvato e se il contenuto era già presente. */
+    public record Salvataggio(String nomeFile, boolean duplicato, long dimensione) {
+    }
+
+    /** Caricamento interrotto: contenuto oltre il limite oppure non è un'immagine di un formato ammesso. */
+    public static class CaricamentoRifiutato extends IllegalArgumentException {
+        private final boolean troppoGrande;
+
+        CaricamentoRifiutato(boolean troppoGrande, String messaggio) {
+            super(messaggio);
+            this.troppoGrande = troppoGrande;
+        }
+
+        public boolean troppoGrande() {
+            return troppoGrande;
+        }
+    }
+
+    /** Formati ammessi, riconosciuti dalla firma nei primi byte e non dal nome o dal Content-Type del client. */
+    public enum Tipo {
+        JPEG(".jpg"), PNG(".png"), GIF(".gif"), WEBP(".webp");
+
+        static final int BYTE_FIRMA = 12;
+
+        private final String estensione;
+
+        Tipo(String estensione) {
+            this.estensione = estensione;
+        }
+
+        public String estensione() {
+            return estensione;
+        }
+
+        /** Tipo dai byte letti nel buffer (dalla posizione 0 alla posizione corrente), o null. */
+        static Tipo riconosci(ByteBuffer letti) {
+            int n = letti.position();
+            if (n >= 3 && b(letti, 0) == 0xFF && b(letti, 1) == 0xD8 && b(letti, 2) == 0xFF) return JPEG;
+            if (n >= 8 && b(letti, 0) == 0x89 && ascii(letti, 1, "PNG") && b(letti, 4) == 0x0D && b(letti, 5) == 0x0A
+                    && b(letti, 6) == 0x1A && b(letti, 7) == 0x0A) return PNG;
+            if (n >= 6 && (ascii(letti, 0, "GIF87a") || ascii(letti, 0, "GIF89a"))) return GIF;
+            if (n >= 12 && ascii(letti, 0, "RIFF") && ascii(letti, 8, "WEBP")) return WEBP;
+            return null;
+        }
+
+        private static int b(ByteBuffer buffer, int i) {
+            return buffer.get(i) & 0xFF;
+        }
+
+        private static boolean ascii(ByteBuffer buffer, int da, String atteso) {
+            for (int i = 0; i < atteso.length(); i++) if (b(buffer, da + i) != atteso.charAt(i)) return false;
+            return true;
+        }
+    }
+
+    private final JdbcTemplate jdbc;
+    private final ImmaginiStatiche immagini;
+    private final VariantiImmagini varianti;
+    private final Path cartella;
+    private final long maxByte;
+
+    // Un file appena caricato (o riusato) non ha ancora la riga prodotto che lo referenzia: non va cancellato
+    private final long graziaMinuti;
+
+    private final Map<String, Long> ultimoUso = new ConcurrentHashMap<>();
+
+    private final LongAdder salvate = new LongAdder();
+    private final LongAdder duplicate = new LongAdder();
+    private final LongAdder byteRisparmiati = new LongAdder();
+    private final LongAdder rimosse = new LongAdder();
+    private final LongAdder conservate = new LongAdder();
+    private final LongAdder caricamenti = new LongAdder();
+    private final LongAdder byteCaricati = new LongAdder();
+    private final LongAdder durataCaricamentiNanos = new LongAdder();
+    private final LongAdder rifiutatiDimensione = new LongAdder();
+    private final LongAdder rifiutatiTipo = new LongAdder();
+    private final LongAdder interrotti = new LongAdder();
+
+    public ArchivioImmagini(JdbcTemplate jdbc, ImmaginiStatiche immagini, VariantiImmagini varianti,
+                            @Value("${uploads.dir:uploads}") String uploadsDir,
+                            @Value("${immagini.upload.max-byte:10485760}") long maxByte,
+                            @Value("${immagini.archivio.grazia-minuti:60}") long graziaMinuti) {
+        this.jdbc = jdbc;
+        this.graziaMinuti = graziaMinuti;
+        this.immagini = immagini;
+        this.varianti = varianti;
+        this.cartella = Paths.get(uploadsDir, CATEGORIA).toAbsolutePath().normalize();
+        this.maxByte = maxByte;
+    }
+
+    /**
+     * Scrive il contenuto in un file temporaneo nella cartella definitiva calcolandone l'hash, poi lo rinomina
+     * con il nome definitivo; se un file con lo stesso hash esiste già il temporaneo viene scartato.
+     * Il tipo viene riconosciuto dai primi byte e decide l'estensione; un tipo non ammesso o il superamento
+     * di {@code immagini.upload.max-byte} interrompono la lettura con {@link CaricamentoRifiutato}.
+     *
+     * @param dimensioneDichiarata Content-Length del client, o -1: se già oltre il limite non si legge nulla
+     */
+    public Salvataggio salva(ReadableByteChannel canale, long dimensioneDichiarata) throws IOException {
+        if (dimensioneDichiarata > maxByte) throw rifiuta(true);
+        Files.createDirectories(cartella);
+        MessageDigest sha = sha256();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER);
+        Path temporaneo = Files.createTempFile(cartella, ".caricamento", ".tmp");
+        long inizio = System.nanoTime();
+        try {
+            long dimensione = 0;
+            Tipo tipo = null;
+            try (FileChannel uscita = FileChannel.open(temporaneo, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                boolean fine = false;
+                while (!fine) {
+                    int letti = canale.read(buffer);
+                    if (letti < 0) fine = true;
+                    else dimensione += letti;
+                    if (dimensione > maxByte) throw rifiuta(true);
+                    // I primi byte restano nel buffer finché non bastano a riconoscere il tipo
+                    if (tipo == null) {
+                        if (buffer.position() < Tipo.BYTE_FIRMA && !fine) continue;
+                        tipo = Tipo.riconosci(buffer);
+                        if (tipo == null) throw rifiuta(false);
+                    }
+                    buffer.flip();
+                    sha.update(buffer.duplicate());
+                    while (buffer.hasRemaining()) uscita.write(buffer);
+                    buffer.clear();
+                }
+            } catch (IOException e) {
+                // Client disconnesso o errore di lettura a metà caricamento
+                interrotti.increment();
+                throw e;
+            }
+            caricamenti.increment();
+            byteCaricati.add(dimensione);
+            durataCaricamentiNanos.add(System.nanoTime() - inizio);
+
+            String nome = HexFormat.of().formatHex(sha.digest()) + tipo.estensione();
+            Path destinazione = cartella.resolve(nome);
+            ultimoUso.put(nome, System.currentTimeMillis());
+            boolean duplicato = !sposta(temporaneo, destinazione);
+            if (duplicato) {
+                duplicate.increment();
+                byteRisparmiati.add(dimensione);
+            } else {
+                salvate.increment();
+                immagini.dimentica(destinazione);
+            }
+            return new Salvataggio(nome, duplicato, dimensione);
+        } finally {
+            Files.deleteIfExists(temporaneo);
+        }
+    }
+
+    private CaricamentoRifiutato rifiuta(boolean troppoGrande) {
+        if (troppoGrande) {
+            rifiutatiDimensione.increment();
+            return new CaricamentoRifiutato(true, "Immagine troppo grande (massimo " + maxByte + " byte)");
+        }
+        rifiutatiTipo.increment();
+        return new CaricamentoRifiutato(false, "Formato non ammesso (ammessi JPEG, PNG, GIF, WebP)");
+    }
+
+    /** Sposta sul nome definitivo; false se esiste già (stesso hash, quindi stesso contenuto). */
+    private static boolean sposta(Path temporaneo, Path destinazione) throws IOException {
+        if (Files.exists(destinazione)) return false;
+        try {
+            Files.move(temporaneo, destinazione, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            try {
+                Files.move(temporaneo, destinazione);
+            } catch (FileAlreadyExistsException gia) {
+                return false;
+            }
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Da chiamare dopo aver tolto un riferimento (es. cancellazione del prodotto): se nessun prodotto usa più
+     * l'immagine e non è stata caricata di recente, cancella il file e le sue varianti.
+     * Vengono cancellati solo i file con nome da hash del contenuto, mai il segnaposto o i file precedenti.
+     *
+     * @return true se il file è stato cancellato
+     */
+    public boolean rilascia(String nomeFile) {
+        if (nomeFile == null || !NOME_ARCHIVIO.matcher(nomeFile).matches()) return false;
+        Integer riferimenti = jdbc.queryForObject("SELECT COUNT(*) FROM prodotto WHERE immagine = ?", Integer.class, nomeFile);
+        Long uso = ultimoUso.get(nomeFile);
+        if ((riferimenti != null && riferimenti > 0) || (uso != null && System.currentTimeMillis() - uso < graziaMinuti * 60_000L)) {
+            conservate.increment();
+            return false;
+        }
+        ultimoUso.remove(nomeFile);
+        Path file = cartella.resolve(nomeFile).normalize();
+        if (!file.getParent().equals(cartella)) return false;
+        varianti.elimina(CATEGORIA, nomeFile);
+        try {
+            boolean cancellato = Files.deleteIfExists(file);
+            if (cancellato) rimosse.increment();
+            return cancellato;
+        } catch (IOException e) {
+            // Non critico: resta un file orfano
+            return false;
+        } finally {
+            immagini.dimentica(file);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String nome() {
+        return "archivio_immagini";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        long n = caricamenti.sum();
+        long byteTotali = byteCaricati.sum();
+        long nanos = durataCaricamentiNanos.sum();
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("salvate", salvate.sum());
+        out.put("duplicate", duplicate.sum());
+        out.put("byte_risparmiati", byteRisparmiati.sum());
+        out.put("rimosse", rimosse.sum());
+        out.put("conservate", conservate.sum());
+        out.put("caricamenti", n);
+        out.put("byte_caricati", byteTotali);
+        out.put("durata_media_caricamento_ms", n == 0 ? 0 : nanos / n / 1_000_000.0);
+        // Velocità media di ricezione dal client, con hash e scrittura su disco
+        out.put("byte_al_secondo", nanos == 0 ? 0 : (long) (byteTotali * 1_000_000_000.0 / nanos));
+        out.put("rifiutati_dimensione", rifiutatiDimensione.sum());
+        out.put("rifiutati_tipo", rifiutatiTipo.sum());
+        out.put("interrotti", interrotti.sum());
+        return out;
+    }
+}
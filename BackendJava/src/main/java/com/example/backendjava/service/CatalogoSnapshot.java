@@ -0,0 +1,437 @@
+package com.example.backendjava.service;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.example.backendjava.dto.CategoriaVista;
+import com.example.backendjava.dto.MarchioVista;
+import com.example.backendjava.dto.ProdottoVista;
+import com.example.backendjava.jdbc.Righe;
+import com.example.backendjava.jdbc.Transazioni;
+import com.example.backendjava.metrics.StatsProvider;
+
+/**
+ * Fotografia in memoria del catalogo (categorie, marchi, prodotti non bloccati).
+ * Ogni versione è immutabile: le letture non toccano il database finché la versione è valida,
+ * le scritture sui prodotti producono una nuova versione ricaricando solo la riga modificata.
+ */
+@Service
+public class CatalogoSnapshot implements StatsProvider {
+
+    private static final String SQL_PRODOTTI = "SELECT p.id_prodotto, p.nome, p.prezzo, p.prezzo_scontato, p.promo, p.descrizione, p.immagine, p.quantita_disponibile, p.in_vetrina, p.bloccato, p.id_categoria, m.nome AS marchio, c.nome AS categoria FROM prodotto p LEFT JOIN categoria c ON p.id_categoria = c.id_categoria LEFT JOIN marchio m ON p.id_marchio = m.id_marchio";
+
+    private final JdbcTemplate jdbc;
+
+    @Value("${server.port:8080}")
+    private int serverPort;
+
+    // Dopo questo intervallo la versione viene ricaricata alla prima lettura (modifiche fatte fuori da questa applicazione)
+    @Value("${catalogo.snapshot.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    private volatile Stato corrente;
+    // Un solo thread ricarica la versione scaduta, gli altri continuano a leggere quella corrente
+    private final AtomicBoolean ricaricaInCorso = new AtomicBoolean();
+    private final AtomicLong contatoreVersioni = new AtomicLong();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    // Prodotti con la giacenza cambiata dal checkout, applicati tutti insieme da aggiornaDisponibilita()
+    private final Set<Long> disponibilitaInSospeso = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder hit = new LongAdder();
+    private final LongAdder miss = new LongAdder();
+    private final LongAdder ricostruzioniComplete = new LongAdder();
+    private final LongAdder ricostruzioniIncrementali = new LongAdder();
+    private final LongAdder ricaricamentiInvariati = new LongAdder();
+    private final LongAdder disponibilitaLette = new LongAdder();
+    private volatile long ultimaRicostruzioneCompletaMicros;
+    private volatile long ultimaRicostruzioneIncrementaleMicros;
+
+    public CatalogoSnapshot(JdbcTemplate jdbc) {
+        this.jdbc = jdbc;
+    }
+
+    /**
+     * Prodotto del catalogo con i campi già calcolati (prezzo effettivo) e la vista JSON pronta.
+     */
+    public record ProdottoCatalogo(long id, String nome, BigDecimal prezzo, BigDecimal prezzoPieno, BigDecimal prezzoScontato,
+                                   boolean promo, String descrizione, String immagine, int quantitaDisponibile,
+                                   boolean inVetrina, Long idCategoria, String marchio, String categoria,
+                                   ProdottoVista vista) {
+    }
+
+    /**
+     * Notificato (sotto il lock del catalogo) ogni volta che viene pubblicata una nuova versione.
+     */
+    public interface Listener {
+        /** Il catalogo è stato ricaricato completamente. */
+        void catalogoRicaricato(Versione versione);
+
+        /** Sono cambiati (o spariti) solo i prodotti indicati. */
+        void prodottiAggiornati(Versione versione, Collection<Long> idProdotti);
+    }
+
+    /**
+     * Versione immutabile del catalogo.
+     * L'impronta del contenuto fa da ETag e la data di creazione da Last-Modified per gli endpoint del catalogo:
+     * lo stesso contenuto ha lo stesso ETag anche dopo un ricaricamento o un riavvio.
+     */
+    public record Versione(long numero, long creataIl, String impronta, List<CategoriaVista> categorie, List<MarchioVista> marchi,
+                           Map<Long, ProdottoCatalogo> prodotti, Map<String, List<ProdottoVista>> perCategoria,
+                           List<ProdottoVista> vetrina) {
+
+        public String etag() {
+            return "\"c" + impronta + "\"";
+        }
+    }
+
+    /**
+     * Versione pubblicata e ultimo caricamento completo da cui deriva: da qui parte il TTL, anche per le
+     * versioni incrementali e per quella mantenuta da un ricaricamento senza modifiche.
+     */
+    private record Stato(Versione versione, long caricataIl) {
+    }
+
+    public void aggiungiListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public List<CategoriaVista> categorie() {
+        return versione().categorie();
+    }
+
+    public List<MarchioVista> marchi() {
+        return versione().marchi();
+    }
+
+    public List<ProdottoVista> vetrina() {
+        return versione().vetrina();
+    }
+
+    public List<ProdottoVista> prodottiPerCategoria(String nomeCategoria) {
+        return versione().perCategoria().getOrDefault(nomeCategoria, List.of());
+    }
+
+    public Optional<ProdottoVista> prodotto(long id) {
+        ProdottoCatalogo p = versione().prodotti().get(id);
+        return p == null ? Optional.empty() : Optional.of(p.vista());
+    }
+
+    /** Prodotti non bloccati, ordinati per id. */
+    public Collection<ProdottoCatalogo> prodotti() {
+        return versione().prodotti().values();
+    }
+
+    /**
+     * Restituisce la versione corrente, caricandola dal database se assente.
+     * Alla scadenza la ricarica il primo thread che la trova scaduta, mentre gli altri continuano a ricevere
+     * la versione corrente; se il contenuto non è cambiato resta la versione precedente (stesso numero, nessuna notifica).
+     */
+    public Versione versione() {
+        Stato s = corrente;
+        if (s != null) {
+            if (scaduta(s) && ricaricaInCorso.compareAndSet(false, true)) {
+                miss.increment();
+                try {
+                    return ricaricaSeScaduta();
+                } finally {
+                    ricaricaInCorso.set(false);
+                }
+            }
+            hit.increment();
+            return s.versione();
+        }
+        miss.increment();
+        return ricaricaSeScaduta();
+    }
+
+    private synchronized Versione ricaricaSeScaduta() {
+        Stato s = corrente;
+        return s == null || scaduta(s) ? ricarica() : s.versione();
+    }
+
+    /** Ricarica tutto dal database; se il contenuto non è cambiato resta la versione precedente. */
+    synchronized Versione ricarica() {
+        Stato s = corrente;
+        Versione nuova = caricaTutto();
+        long adesso = System.currentTimeMillis();
+        if (s != null && s.versione().impronta().equals(nuova.impronta())) {
+            ricaricamentiInvariati.increment();
+            corrente = new Stato(s.versione(), adesso);
+            return s.versione();
+        }
+        corrente = new Stato(nuova, adesso);
+        for (Listener l : listeners) l.catalogoRicaricato(nuova);
+        return nuova;
+    }
+
+    /** Versione pubblicata senza controllare la scadenza, null se il catalogo non è caricato. */
+    private Versione pubblicata() {
+        Stato s = corrente;
+        return s == null ? null : s.versione();
+    }
+
+    public long numeroVersione() {
+        return versione().numero();
+    }
+
+    /**
+     * Ricarica un singolo prodotto dopo una modifica e pubblica una nuova versione.
+     * Se la chiamata avviene dentro una transazione, l'aggiornamento parte dopo il commit.
+     */
+    public void aggiornaProdotto(long idProdotto) {
+        aggiornaProdotti(List.of(idProdotto));
+    }
+
+    public void aggiornaProdotti(Collection<Long> idProdotti) {
+        if (idProdotti.isEmpty()) return;
+        List<Long> ids = List.copyOf(idProdotti);
+        Transazioni.dopoCommit(() -> ricaricaProdotti(ids));
+    }
+
+    /**
+     * Il checkout ha cambiato solo la giacenza dei prodotti: dopo il commit vengono accodati e
+     * {@link #aggiornaDisponibilita()} pubblica una sola versione per tutti gli ordini del periodo,
+     * invece di ricostruire il catalogo a ogni ordine.
+     */
+    public void disponibilitaCambiata(Collection<Long> idProdotti) {
+        if (idProdotti.isEmpty()) return;
+        List<Long> ids = List.copyOf(idProdotti);
+        Transazioni.dopoCommit(() -> disponibilitaInSospeso.addAll(ids));
+    }
+
+    /**
+     * Applica le giacenze accodate: la lettura dal database avviene fuori dal lock, sotto il lock si
+     * sostituiscono solo i prodotti con la quantità cambiata. Se nel frattempo è stata pubblicata
+     * un'altra versione i prodotti restano in coda e vengono riletti al giro successivo.
+     */
+    @Scheduled(fixedDelayString = "${catalogo.disponibilita.refresh-ms:1000}")
+    public void aggiornaDisponibilita() {
+        if (disponibilitaInSospeso.isEmpty()) return;
+        List<Long> ids = new ArrayList<>(disponibilitaInSospeso);
+        disponibilitaInSospeso.removeAll(ids);
+        Versione letta = pubblicata();
+        if (letta == null) return; // verrà caricato tutto alla prossima lettura
+        Map<Long, Integer> giacenze = new HashMap<>();
+        String placeholders = String.join(",", Collections.nCopies(ids.size(), "?"));
+        jdbc.query("SELECT id_prodotto, quantita_disponibile FROM prodotto WHERE id_prodotto IN (" + placeholders + ")",
+                rs -> { giacenze.put(rs.getLong(1), rs.getInt(2)); }, ids.toArray());
+        disponibilitaLette.add(ids.size());
+        synchronized (this) {
+            Versione v = pubblicata();
+            if (v == null) return;
+            if (v != letta) disponibilitaInSospeso.addAll(ids);
+            long start = System.nanoTime();
+            Map<Long, ProdottoCatalogo> prodotti = null;
+            List<Long> cambiati = new ArrayList<>();
+            for (Map.Entry<Long, Integer> e : giacenze.entrySet()) {
+                ProdottoCatalogo p = v.prodotti().get(e.getKey());
+                if (p == null || p.quantitaDisponibile() == e.getValue()) continue;
+                if (prodotti == null) prodotti = new TreeMap<>(v.prodotti());
+                prodotti.put(p.id(), conGiacenza(p, e.getValue()));
+                cambiati.add(p.id());
+            }
+            if (cambiati.isEmpty()) return;
+            pubblica(costruisci(v.categorie(), v.marchi(), prodotti), cambiati);
+            registraIncrementale(start);
+        }
+    }
+
+    private static ProdottoCatalogo conGiacenza(ProdottoCatalogo p, int quantita) {
+        ProdottoVista v = p.vista();
+        ProdottoVista vista = new ProdottoVista(v.idProdotto(), v.nome(), v.prezzo(), v.prezzoScontato(), v.descrizione(),
+                v.immagine(), quantita, v.marchio(), v.categoria(), v.immagineUrl());
+        return new ProdottoCatalogo(p.id(), p.nome(), p.prezzo(), p.prezzoPieno(), p.prezzoScontato(), p.promo(),
+                p.descrizione(), p.immagine(), quantita, p.inVetrina(), p.idCategoria(), p.marchio(), p.categoria(), vista);
+    }
+
+    public void rimuoviProdotto(long idProdotto) {
+        Transazioni.dopoCommit(() -> {
+            synchronized (this) {
+                Versione v = pubblicata();
+                if (v == null || !v.prodotti().containsKey(idProdotto)) return;
+                long start = System.nanoTime();
+                Map<Long, ProdottoCatalogo> prodotti = new TreeMap<>(v.prodotti());
+                prodotti.remove(idProdotto);
+                pubblica(costruisci(v.categorie(), v.marchi(), prodotti), List.of(idProdotto));
+                registraIncrementale(start);
+            }
+        });
+    }
+
+    /**
+     * Scarta la versione corrente: la prossima lettura ricarica tutto con un nuovo numero di versione
+     * (es. modifiche a categorie o marchi).
+     */
+    public synchronized void invalida() {
+        corrente = null;
+    }
+
+    private boolean scaduta(Stato s) {
+        return ttlSeconds > 0 && System.currentTimeMillis() - s.caricataIl() > ttlSeconds * 1000L;
+    }
+
+    private synchronized void ricaricaProdotti(List<Long> ids) {
+        Versione v = pubblicata();
+        if (v == null) return; // verrà caricato tutto alla prossima lettura
+        long start = System.nanoTime();
+        Map<Long, ProdottoCatalogo> prodotti = new TreeMap<>(v.prodotti());
+        ids.forEach(prodotti::remove);
+        String placeholders = String.join(",", Collections.nCopies(ids.size(), "?"));
+        jdbc.query(SQL_PRODOTTI + " WHERE p.id_prodotto IN (" + placeholders + ")", rs -> {
+            if (rs.getBoolean(10)) return; // bloccato
+            ProdottoCatalogo p = leggiProdotto(rs);
+            prodotti.put(p.id(), p);
+        }, ids.toArray());
+        pubblica(costruisci(v.categorie(), v.marchi(), prodotti), ids);
+        registraIncrementale(start);
+    }
+
+    private void pubblica(Versione v, Collection<Long> ids) {
+        Stato s = corrente;
+        corrente = new Stato(v, s != null ? s.caricataIl() : System.currentTimeMillis());
+        for (Listener l : listeners) l.prodottiAggiornati(v, ids);
+    }
+
+    private void registraIncrementale(long start) {
+        ricostruzioniIncrementali.increment();
+        ultimaRicostruzioneIncrementaleMicros = (System.nanoTime() - start) / 1000;
+    }
+
+    private Versione caricaTutto() {
+        long start = System.nanoTime();
+        List<CategoriaVista> categorie = jdbc.query("SELECT nome, id_categoria, immagine FROM categoria", (rs, n) -> {
+            String img = rs.getString(3);
+            return new CategoriaVista(rs.getString(1), rs.getString(2), img,
+                    img != null ? ("http://localhost:" + serverPort + "/api/immagine/uploads/categorie/" + img) : null);
+        });
+        List<MarchioVista> marchi = jdbc.query("SELECT nome, id_marchio FROM marchio ORDER BY nome",
+                (rs, n) -> new MarchioVista(rs.getString(1), rs.getString(2)));
+
+        Map<Long, ProdottoCatalogo> prodotti = new TreeMap<>();
+        jdbc.query(SQL_PRODOTTI + " WHERE p.bloccato = false", rs -> {
+            ProdottoCatalogo p = leggiProdotto(rs);
+            prodotti.put(p.id(), p);
+        });
+
+        Versione v = costruisci(List.copyOf(categorie), List.copyOf(marchi), prodotti);
+        ricostruzioniComplete.increment();
+        ultimaRicostruzioneCompletaMicros = (System.nanoTime() - start) / 1000;
+        return v;
+    }
+
+    private Versione costruisci(List<CategoriaVista> categorie, List<MarchioVista> marchi, Map<Long, ProdottoCatalogo> prodotti) {
+        Map<String, List<ProdottoVista>> perCategoria = new HashMap<>();
+        List<ProdottoVista> vetrina = new ArrayList<>();
+        for (ProdottoCatalogo p : prodotti.values()) {
+            if (p.categoria() != null) perCategoria.computeIfAbsent(p.categoria(), k -> new ArrayList<>()).add(p.vista());
+            if (p.inVetrina()) vetrina.add(p.vista());
+        }
+        perCategoria.replaceAll((k, list) -> List.copyOf(list));
+        return new Versione(contatoreVersioni.incrementAndGet(), System.currentTimeMillis(),
+                impronta(categorie, marchi, prodotti.values()), categorie, marchi,
+                Collections.unmodifiableMap(prodotti), Map.copyOf(perCategoria), List.copyOf(vetrina));
+    }
+
+    /**
+     * SHA-256 (primi 12 byte, esadecimale) delle rappresentazioni testuali degli elementi, nell'ordine dato.
+     * I DTO sono record, quindi la stessa fotografia produce sempre la stessa impronta.
+     */
+    static String impronta(Collection<?>... parti) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (Collection<?> parte : parti) {
+            for (Object elemento : parte) {
+                digest.update(String.valueOf(elemento).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            digest.update((byte) 0);
+        }
+        return HexFormat.of().formatHex(digest.digest(), 0, 12);
+    }
+
+    /** Colonne nell'ordine di SQL_PRODOTTI. */
+    private ProdottoCatalogo leggiProdotto(ResultSet rs) throws SQLException {
+        long id = rs.getLong(1);
+        String nome = rs.getString(2);
+        BigDecimal prezzoPieno = rs.getBigDecimal(3);
+        BigDecimal prezzoScontato = rs.getBigDecimal(4);
+        boolean promo = rs.getBoolean(5);
+        BigDecimal prezzo = promo && prezzoScontato != null ? prezzoScontato : prezzoPieno;
+        String descrizione = rs.getString(6);
+        String img = rs.getString(7);
+        int quantita = rs.getInt(8);
+        boolean inVetrina = rs.getBoolean(9);
+        Long idCategoria = Righe.longOrNull(rs, 11);
+        String marchio = rs.getString(12);
+        String categoria = rs.getString(13);
+
+        ProdottoVista vista = new ProdottoVista(String.valueOf(id), nome, prezzo, prezzoScontato, descrizione, img, quantita,
+                marchio, categoria, productImageUrl(img));
+        return new ProdottoCatalogo(id, nome, prezzo, prezzoPieno, prezzoScontato, promo, descrizione, img, quantita,
+                inVetrina, idCategoria, marchio, categoria, vista);
+    }
+
+    public String productImageUrl(String filename) {
+        if (filename == null || filename.isBlank()) {
+            return "http://localhost:" + serverPort + "/api/immagine/uploads/prodotti/default.jpg";
+        }
+        return "http://localhost:" + serverPort + "/api/immagine/uploads/prodotti/" + filename;
+    }
+
+    /** URL della variante ridimensionata, per le liste che mostrano l'immagine piccola. */
+    public String productImageUrl(String filename, VariantiImmagini.Formato formato) {
+        return productImageUrl(filename) + "?size=" + formato.nome();
+    }
+
+    @Override
+    public String nome() {
+        return "catalogo";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Versione v = pubblicata();
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("versione", v != null ? v.numero() : null);
+        out.put("prodotti", v != null ? v.prodotti().size() : 0);
+        out.put("hit", hit.sum());
+        out.put("miss", miss.sum());
+        out.put("ricostruzioni_complete", ricostruzioniComplete.sum());
+        out.put("ricostruzioni_incrementali", ricostruzioniIncrementali.sum());
+        out.put("ricaricamenti_invariati", ricaricamentiInvariati.sum());
+        out.put("disponibilita_in_sospeso", disponibilitaInSospeso.size());
+        out.put("disponibilita_lette", disponibilitaLette.sum());
+        out.put("ultima_ricostruzione_completa_us", ultimaRicostruzioneCompletaMicros);
+        out.put("ultima_ricostruzione_incrementale_us", ultimaRicostruzioneIncrementaleMicros);
+        return out;
+    }
+}
@@ -0,0 +1,298 @@
+package com.example.backendjava.service;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.backendjava.jdbc.Dialetto;
+import com.example.backendjava.jdbc.Transazioni;
+import com.example.backendjava.metrics.StatsProvider;
+
+/**
+ * Checkout come pipeline a numero fisso di round trip, indipendente dalla dimensione del carrello:
+ * carrello prodotti (1), pacchetti già espansi nei prodotti costituenti (1), testata ordine (1),
+ * righe ordine in un unico batch JDBC (1), scalo disponibilità con un solo UPDATE condizionato (1),
+ * svuotamento carrello (2), più il riscatto del coupon se indicato (1-2).
+ * Il coupon viene valutato sul totale calcolato dal carrello e riscattato nella stessa transazione
+ * dell'ordine: un coupon non valido fa fallire il checkout prima di leggere il carrello.
+ * L'UPDATE condizionato è anche ciò che impedisce di vendere più della giacenza con acquisti concorrenti,
+ * senza SELECT ... FOR UPDATE: ogni riga prodotto resta bloccata solo per la durata del proprio UPDATE.
+ */
+@Service
+public class CheckoutService implements StatsProvider {
+
+    private final JdbcTemplate jdbc;
+    private final CatalogoSnapshot catalogo;
+    private final PrenotazioniStock prenotazioni;
+    private final VisteCarrello visteCarrello;
+    private final ArchivioCarrelli archivioCarrelli;
+    private final ClassificaVendite classificaVendite;
+    private final RegistroCoupon registroCoupon;
+
+    private final LongAdder completati = new LongAdder();
+    private final LongAdder falliti = new LongAdder();
+    private final LongAdder durataTotaleMicros = new LongAdder();
+    private final LongAdder roundTripTotali = new LongAdder();
+    private final LongAdder righeOrdine = new LongAdder();
+    private final AtomicLong durataMaxMicros = new AtomicLong();
+    private volatile long ultimaDurataMicros;
+    private volatile int ultimiRoundTrip;
+    private volatile Boolean postgres;
+
+    public CheckoutService(JdbcTemplate jdbc, CatalogoSnapshot catalogo, PrenotazioniStock prenotazioni,
+                           VisteCarrello visteCarrello, ArchivioCarrelli archivioCarrelli,
+                           ClassificaVendite classificaVendite, RegistroCoupon registroCoupon) {
+        this.jdbc = jdbc;
+        this.catalogo = catalogo;
+        this.prenotazioni = prenotazioni;
+        this.visteCarrello = visteCarrello;
+        this.archivioCarrelli = archivioCarrelli;
+        this.classificaVendite = classificaVendite;
+        this.registroCoupon = registroCoupon;
+    }
+
+    /** Dati dell'ordine inviati dal client; i totali vengono calcolati dal carrello e dal coupon. */
+    public record DatiOrdine(String indirizzoConsegna, String metodoPagamento, String nomeIntestatario,
+                             String numeroCartaMascherato, String couponCodice) {
+    }
+
+    /** Ordine creato, con il costo del checkout (round trip verso il database e durata). */
+    public record Esito(long ordineId, BigDecimal totale, int roundTrip, long durataMicros) {
+    }
+
+    /** Riga dell'ordine da inserire. */
+    private record Riga(long idProdotto, int quantita, BigDecimal prezzo) {
+    }
+
+    private static BigDecimal prezzoEffettivo(BigDecimal prezzo, BigDecimal prezzoScontato, boolean promo) {
+        return promo && prezzoScontato != null ? prezzoScontato : prezzo;
+    }
+
+    @Transactional
+    public Esito checkout(long idUtente, DatiOrdine dati) {
+        long start = System.nanoTime();
+        int[] roundTrip = {0};
+        try {
+            // Definizione del coupon dalla cache: un codice non valido non costa nessun round trip
+            RegistroCoupon.Coupon coupon = null;
+            if (dati.couponCodice() != null && !dati.couponCodice().isBlank()) {
+                coupon = registroCoupon.perCodice(dati.couponCodice())
+                        .filter(c -> c.utilizzabile(LocalDate.now()))
+                        .orElseThrow(() -> new IllegalStateException("Coupon non valido, scaduto o esaurito"));
+            }
+
+            List<Riga> righe = new ArrayList<>();
+            Map<Long, Integer> richieste = new LinkedHashMap<>();
+            Map<Long, String> nomi = new HashMap<>();
+            BigDecimal[] totaleCalcolato = {BigDecimal.ZERO};
+
+            // 1. Carrello prodotti con info prodotto/promo
+            roundTrip[0]++;
+            jdbc.query("SELECT c.id_prodotto, c.quantita, p.nome, p.prezzo, p.prezzo_scontato, p.promo, p.quantita_disponibile FROM carrello c JOIN prodotto p ON c.id_prodotto = p.id_prodotto WHERE c.id_utente = ?", rs -> {
+                long idProdotto = rs.getLong(1);
+                int quantita = rs.getInt(2);
+                String nome = rs.getString(3);
+                int disponibili = rs.getInt(7);
+                if (quantita > disponibili) {
+                    throw new IllegalStateException("Quantità non disponibile per " + nome + ". Disponibili: " + disponibili);
+                }
+                BigDecimal prezzo = prezzoEffettivo(rs.getBigDecimal(4), rs.getBigDecimal(5), rs.getBoolean(6));
+                totaleCalcolato[0] = totaleCalcolato[0].add(prezzo.multiply(BigDecimal.valueOf(quantita)));
+                righe.add(new Riga(idProdotto, quantita, prezzo));
+                richieste.merge(idProdotto, quantita, Integer::sum);
+                nomi.put(idProdotto, nome);
+            }, idUtente);
+
+            // 2. Carrello pacchetti, espansi nei prodotti costituenti con una sola query: i prodotti del pacchetto
+            // sono in JOIN con prodotto, un riferimento a un prodotto cancellato non finisce nell'ordine
+            roundTrip[0]++;
+            Set<Long> pacchettiVisti = new HashSet<>();
+            jdbc.query("SELECT cp.id_pacchetto, cp.quantita, pt.prezzo_totale, pp.id_prodotto, pp.quantita, p.nome, p.prezzo, p.prezzo_scontato, p.promo FROM carrello_pacchetto cp JOIN pacchetto_tematico pt ON cp.id_pacchetto = pt.id_pacchetto LEFT JOIN (prodotto_pacchetto pp JOIN prodotto p ON pp.id_prodotto = p.id_prodotto) ON pp.id_pacchetto = pt.id_pacchetto WHERE cp.id_utente = ? ORDER BY cp.id_pacchetto", rs -> {
+                long idPacchetto = rs.getLong(1);
+                int qCarrello = rs.getInt(2);
+                // Il pacchetto si paga al prezzo del pacchetto, una volta sola anche se ha più prodotti
+                if (pacchettiVisti.add(idPacchetto)) {
+                    totaleCalcolato[0] = totaleCalcolato[0].add(rs.getBigDecimal(3).multiply(BigDecimal.valueOf(qCarrello)));
+                }
+                long idProdotto = rs.getLong(4);
+                if (rs.wasNull()) return; // pacchetto senza prodotti
+                // Moltiplica quantità: qCarrello pacchetti * qProdInPkt prodotti per pacchetto
+                int qTotale = qCarrello * rs.getInt(5);
+                righe.add(new Riga(idProdotto, qTotale, prezzoEffettivo(rs.getBigDecimal(7), rs.getBigDecimal(8), rs.getBoolean(9))));
+                richieste.merge(idProdotto, qTotale, Integer::sum);
+                nomi.put(idProdotto, rs.getString(6));
+            }, idUtente);
+
+            if (righe.isEmpty() && pacchettiVisti.isEmpty()) throw new IllegalStateException("Carrello vuoto");
+
+            BigDecimal totaleOriginale = totaleCalcolato[0];
+            BigDecimal sconto = BigDecimal.ZERO;
+            BigDecimal totale = totaleOriginale;
+            if (coupon != null) {
+                RegistroCoupon.Valutazione valutazione = registroCoupon.applica(coupon, totaleOriginale);
+                if (!valutazione.valido()) throw new IllegalStateException(valutazione.messaggio());
+                // Riscatto atomico nella transazione dell'ordine: se il checkout fallisce viene annullato
+                roundTrip[0] += coupon.usoSingolo() ? 2 : 1;
+                switch (registroCoupon.riscatta(coupon, idUtente)) {
+                    case GIA_USATO -> throw new IllegalStateException("Hai già utilizzato questo coupon");
+                    case NON_VALIDO -> throw new IllegalStateException("Coupon non valido, scaduto o esaurito");
+                    case RISCATTATO -> { }
+                }
+                sconto = valutazione.sconto();
+                totale = valutazione.totaleScontato();
+            }
+
+            // 3. Inserisci ordine
+            roundTrip[0]++;
+            // Chiave generata letta dallo stesso statement (RETURNING su PostgreSQL)
+            Object[] valori = {
+                    idUtente,
+                    dati.indirizzoConsegna(),
+                    totaleOriginale,
+                    sconto,
+                    totale,
+                    "In lavorazione",
+                    Timestamp.from(Instant.now()),
+                    dati.metodoPagamento(),
+                    dati.nomeIntestatario(),
+                    dati.numeroCartaMascherato(),
+                    coupon != null ? coupon.codice() : null
+            };
+            KeyHolder chiave = new GeneratedKeyHolder();
+            jdbc.update(con -> {
+                PreparedStatement ps = con.prepareStatement("INSERT INTO ordini (user_id, indirizzo_consegna, totale_originale, sconto_coupon, totale, stato, data_ordine, metodo_pagamento, nome_intestatario, numero_carta_mascherato, coupon_utilizzato) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)", new String[]{"id"});
+                new ArgumentPreparedStatementSetter(valori).setValues(ps);
+                return ps;
+            }, chiave);
+            long ordineId = chiave.getKey().longValue();
+
+            // 4. Righe ordine in un unico batch
+            if (!righe.isEmpty()) {
+                roundTrip[0]++;
+                jdbc.batchUpdate("INSERT INTO ordine_prodotti (ordine_id, prodotto_id, quantita, prezzo) VALUES (?, ?, ?, ?)", righe, righe.size(),
+                        (ps, r) -> {
+                            ps.setLong(1, ordineId);
+                            ps.setLong(2, r.idProdotto());
+                            ps.setInt(3, r.quantita());
+                            ps.setBigDecimal(4, r.prezzo());
+                        });
+                righeOrdine.add(righe.size());
+            }
+
+            // 5. Scala la disponibilità di tutti i prodotti con un solo UPDATE che verifica anche la giacenza
+            if (!richieste.isEmpty()) {
+                roundTrip[0]++;
+                scalaDisponibilita(richieste, nomi);
+            }
+
+            // 6. Svuota carrello (prodotti e pacchetti)
+            roundTrip[0] += 2;
+            jdbc.update("DELETE FROM carrello WHERE id_utente = ?", idUtente);
+            jdbc.update("DELETE FROM carrello_pacchetto WHERE id_utente = ?", idUtente);
+            visteCarrello.invalida(idUtente);
+            Transazioni.dopoCommit(() -> archivioCarrelli.dimentica(idUtente));
+
+            // Le disponibilità nel catalogo in memoria vengono accodate dopo il commit e applicate insieme
+            catalogo.disponibilitaCambiata(richieste.keySet());
+            // La giacenza è già stata scalata: le prenotazioni del carrello non servono più, ma solo a ordine
+            // confermato (con un rollback il carrello resta e le prenotazioni devono restare con lui)
+            Transazioni.dopoCommit(() -> prenotazioni.consuma(idUtente, richieste.keySet()));
+            // Pezzi venduti nella classifica dei più venduti, solo se l'ordine viene confermato
+            Transazioni.dopoCommit(() -> classificaVendite.registra(richieste));
+
+            long durata = (System.nanoTime() - start) / 1000;
+            registra(durata, roundTrip[0]);
+            completati.increment();
+            return new Esito(ordineId, totale, roundTrip[0], durata);
+        } catch (RuntimeException e) {
+            registra((System.nanoTime() - start) / 1000, roundTrip[0]);
+            falliti.increment();
+            throw e;
+        }
+    }
+
+    /**
+     * UPDATE ... FROM (VALUES ...) con la condizione quantita_disponibile >= richiesta: i prodotti
+     * senza giacenza sufficiente non vengono aggiornati e mancano dal RETURNING, e in quel caso
+     * l'eccezione annulla tutta la transazione. Su H2 (test) lo stesso con MERGE ... USING (VALUES ...).
+     */
+    private void scalaDisponibilita(Map<Long, Integer> richieste, Map<Long, String> nomi) {
+        StringJoiner valori = new StringJoiner(", ");
+        List<Object> args = new ArrayList<>(richieste.size() * 2);
+        for (Map.Entry<Long, Integer> e : richieste.entrySet()) {
+            valori.add("(CAST(? AS BIGINT), CAST(? AS INTEGER))");
+            args.add(e.getKey());
+            args.add(e.getValue());
+        }
+        String sql = postgres()
+                ? "UPDATE prodotto p SET quantita_disponibile = p.quantita_disponibile - r.q FROM (VALUES " + valori
+                        + ") AS r(id, q) WHERE p.id_prodotto = r.id AND p.quantita_disponibile >= r.q RETURNING p.id_prodotto"
+                : "SELECT id_prodotto FROM FINAL TABLE (MERGE INTO prodotto p USING (VALUES " + valori
+                        + ") AS r(id, q) ON p.id_prodotto = r.id AND p.quantita_disponibile >= r.q"
+                        + " WHEN MATCHED THEN UPDATE SET quantita_disponibile = p.quantita_disponibile - r.q)";
+        Set<Long> aggiornati = new HashSet<>(jdbc.queryForList(sql, Long.class, args.toArray()));
+        if (aggiornati.size() == richieste.size()) return;
+        for (Long id : richieste.keySet()) {
+            if (!aggiornati.contains(id)) {
+                prenotazioni.conflittoCheckout(id);
+                throw new IllegalStateException("Quantità non disponibile per " + nomi.get(id));
+            }
+        }
+    }
+
+    private boolean postgres() {
+        Boolean pg = postgres;
+        if (pg == null) {
+            pg = Dialetto.postgres(jdbc);
+            postgres = pg;
+        }
+        return pg;
+    }
+
+    private void registra(long durataMicros, int roundTrip) {
+        durataTotaleMicros.add(durataMicros);
+        roundTripTotali.add(roundTrip);
+        durataMaxMicros.accumulateAndGet(durataMicros, Math::max);
+        ultimaDurataMicros = durataMicros;
+        ultimiRoundTrip = roundTrip;
+    }
+
+    @Override
+    public String nome() {
+        return "checkout";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        long totali = completati.sum() + falliti.sum();
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("completati", completati.sum());
+        out.put("falliti", falliti.sum());
+        out.put("righe_ordine", righeOrdine.sum());
+        out.put("durata_media_us", totali == 0 ? 0 : durataTotaleMicros.sum() / totali);
+        out.put("durata_max_us", durataMaxMicros.get());
+        out.put("ultima_durata_us", ultimaDurataMicros);
+        out.put("round_trip_medi", totali == 0 ? 0 : (double) roundTripTotali.sum() / totali);
+        out.put("ultimi_round_trip", ultimiRoundTrip);
+        return out;
+    }
+}
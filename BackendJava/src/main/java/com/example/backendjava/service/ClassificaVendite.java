@@ -0,0 +1,305 @@
+package com.example.backendjava.service;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.example.backendjava.dto.ProdottoPopolare;
+import com.example.backendjava.metrics.StatsProvider;
+
+/**
+ * Classifica dei prodotti più venduti mantenuta in memoria.
+ * I pezzi venduti vengono letti dal database una volta (e riconciliati periodicamente), poi il checkout
+ * li incrementa con contatori LongAdder per prodotto: in totale e per giorno, per le finestre di 7 e 30 giorni.
+ * Per ogni finestra viene precalcolata la top-K (heap di dimensione {@link #MAX_LIMITE}) dei prodotti disponibili
+ * nel catalogo, così /api/catalogo/popular non aggrega più ordine_prodotti a ogni richiesta.
+ * Durante la riconciliazione le vendite registrate vengono messe da parte e sommate ai nuovi contatori
+ * dopo lo scambio, così non si perdono con i contatori vecchi.
+ */
+@Service
+public class ClassificaVendite implements CatalogoSnapshot.Listener, StatsProvider {
+
+    /** Finestra temporale della classifica; 0 giorni = dall'inizio. */
+    public enum Finestra {
+        SETTE_GIORNI(7), TRENTA_GIORNI(30), SEMPRE(0);
+
+        private final int giorni;
+
+        Finestra(int giorni) {
+            this.giorni = giorni;
+        }
+
+        public int giorni() {
+            return giorni;
+        }
+
+        /** Finestra dal parametro "giorni" della richiesta (null = dall'inizio). */
+        public static Finestra da(Integer giorni) {
+            if (giorni == null) return SEMPRE;
+            for (Finestra f : values()) if (f.giorni == giorni) return f;
+            throw new IllegalArgumentException("Finestra non supportata: " + giorni + " giorni (ammessi 7 o 30)");
+        }
+    }
+
+    private record Voce(long idProdotto, long venduti) {
+    }
+
+    /** Massimo numero di prodotti per richiesta, e dimensione della top-K precalcolata. */
+    public static final int MAX_LIMITE = 50;
+
+    private static final int GIORNI_CONSERVATI = 30;
+    private static final ZoneId ZONA = ZoneId.systemDefault();
+
+    private final JdbcTemplate jdbc;
+    private final CatalogoSnapshot catalogo;
+
+    // Ricarica completa dal database, per includere ordini scritti fuori da questa applicazione
+    private final long riconciliaMinuti;
+
+    private final Map<Long, LongAdder> totali = new ConcurrentHashMap<>();
+    // Giorno (epoch day) -> prodotto -> pezzi venduti
+    private final Map<Long, Map<Long, LongAdder>> perGiorno = new ConcurrentHashMap<>();
+    private volatile boolean caricata;
+    private volatile long caricataIl;
+    private volatile boolean modificata = true;
+    private volatile Map<Finestra, List<Voce>> classifiche = Map.of();
+    // Vendite registrate mentre carica() legge il database, sommate ai nuovi contatori dopo lo scambio;
+    // null fuori dal caricamento. Contatori e lista cambiano solo sotto questo lock
+    private final Object contatori = new Object();
+    private List<Map<Long, Integer>> registrateDuranteCaricamento;
+
+    private final LongAdder vendite = new LongAdder();
+    private final LongAdder ricalcoli = new LongAdder();
+    private final LongAdder letture = new LongAdder();
+    private volatile long ultimoRicalcoloMicros;
+    private volatile long ultimoCaricamentoMicros;
+
+    public ClassificaVendite(JdbcTemplate jdbc, CatalogoSnapshot catalogo,
+                             @Value("${catalogo.popolari.riconcilia-minuti:60}") long riconciliaMinuti) {
+        this.jdbc = jdbc;
+        this.catalogo = catalogo;
+        this.riconciliaMinuti = riconciliaMinuti;
+        catalogo.aggiungiListener(this);
+    }
+
+    /**
+     * I più venduti nella finestra, solo prodotti disponibili (non bloccati e con giacenza).
+     * Se i venduti sono meno di {@code limite} la lista viene completata con gli altri prodotti
+     * disponibili in ordine di nome, come faceva la vecchia query con LEFT JOIN.
+     */
+    public List<ProdottoPopolare> popolari(Finestra finestra, int limite) {
+        letture.increment();
+        limite = Math.max(1, Math.min(limite, MAX_LIMITE));
+        CatalogoSnapshot.Versione versione = catalogo.versione();
+        // Le classifiche vengono ricalcolate dal job periodico; qui solo al primo accesso
+        if (!caricata) ricalcola();
+        List<ProdottoPopolare> out = new ArrayList<>(limite);
+        Set<Long> inclusi = new HashSet<>();
+        for (Voce v : classifiche.getOrDefault(finestra, List.of())) {
+            if (out.size() >= limite) return out;
+            CatalogoSnapshot.ProdottoCatalogo p = versione.prodotti().get(v.idProdotto());
+            if (p == null || p.quantitaDisponibile() <= 0) continue;
+            out.add(vista(p, v.venduti()));
+            inclusi.add(p.id());
+        }
+        if (out.size() < limite) {
+            versione.prodotti().values().stream()
+                    .filter(p -> p.quantitaDisponibile() > 0 && !inclusi.contains(p.id()))
+                    .sorted(Comparator.comparing(CatalogoSnapshot.ProdottoCatalogo::nome, Comparator.nullsLast(Comparator.naturalOrder())))
+                    .limit(limite - out.size())
+                    .forEach(p -> out.add(vista(p, 0)));
+        }
+        return out;
+    }
+
+    private ProdottoPopolare vista(CatalogoSnapshot.ProdottoCatalogo p, long venduti) {
+        return new ProdottoPopolare(String.valueOf(p.id()), p.nome(), p.prezzo(), p.prezzoScontato(), p.descrizione(),
+                p.immagine(), p.quantitaDisponibile(), venduti, catalogo.productImageUrl(p.immagine(), VariantiImmagini.Formato.CARD));
+    }
+
+    /** Pezzi venduti da sempre (0 se la classifica non è ancora stata caricata). */
+    public long venduti(long idProdotto) {
+        LongAdder n = totali.get(idProdotto);
+        return n == null ? 0 : n.sum();
+    }
+
+    /**
+     * Registra le quantità vendute da un ordine confermato (da chiamare dopo il commit).
+     * Prima del caricamento iniziale non serve: le righe verranno lette dal database.
+     */
+    public void registra(Map<Long, Integer> quantitaPerProdotto) {
+        if (!caricata) return;
+        synchronized (contatori) {
+            if (registrateDuranteCaricamento != null) {
+                registrateDuranteCaricamento.add(Map.copyOf(quantitaPerProdotto));
+            } else {
+                somma(quantitaPerProdotto);
+            }
+        }
+        vendite.increment();
+        modificata = true;
+    }
+
+    private void somma(Map<Long, Integer> quantitaPerProdotto) {
+        Map<Long, LongAdder> oggi = perGiorno.computeIfAbsent(LocalDate.now(ZONA).toEpochDay(), k -> new ConcurrentHashMap<>());
+        for (Map.Entry<Long, Integer> e : quantitaPerProdotto.entrySet()) {
+            totali.computeIfAbsent(e.getKey(), k -> new LongAdder()).add(e.getValue());
+            oggi.computeIfAbsent(e.getKey(), k -> new LongAdder()).add(e.getValue());
+        }
+    }
+
+    /** Ricalcolo periodico delle classifiche se ci sono state vendite, e riconciliazione con il database. */
+    @Scheduled(fixedDelayString = "${catalogo.popolari.refresh-ms:5000}")
+    public void aggiorna() {
+        if (!caricata) return;
+        if (System.currentTimeMillis() - caricataIl > riconciliaMinuti * 60_000L) carica();
+        if (modificata) ricalcola();
+    }
+
+    /**
+     * Legge dal database i venduti totali e quelli degli ultimi 30 giorni per giorno.
+     * Le vendite registrate da qui in poi vengono sommate ai valori letti: una vendita già nel database
+     * ma registrata solo dopo l'inizio della lettura (commit avvenuto, callback non ancora eseguita)
+     * verrebbe contata due volte fino alla riconciliazione successiva.
+     */
+    synchronized void carica() {
+        long start = System.nanoTime();
+        synchronized (contatori) {
+            registrateDuranteCaricamento = new ArrayList<>();
+        }
+        LocalDate oggi = LocalDate.now(ZONA);
+        Map<Long, LongAdder> nuoviTotali = new ConcurrentHashMap<>();
+        Map<Long, Map<Long, LongAdder>> nuoviPerGiorno = new ConcurrentHashMap<>();
+        boolean letti = false;
+        try {
+            jdbc.query("SELECT prodotto_id, SUM(quantita) FROM ordine_prodotti GROUP BY prodotto_id", rs -> {
+                LongAdder a = new LongAdder();
+                a.add(rs.getLong(2));
+                nuoviTotali.put(rs.getLong(1), a);
+            });
+            jdbc.query("SELECT op.prodotto_id, CAST(o.data_ordine AS DATE), SUM(op.quantita) FROM ordine_prodotti op JOIN ordini o ON o.id = op.ordine_id"
+                            + " WHERE o.data_ordine >= ? GROUP BY op.prodotto_id, CAST(o.data_ordine AS DATE)", rs -> {
+                LongAdder a = new LongAdder();
+                a.add(rs.getLong(3));
+                nuoviPerGiorno.computeIfAbsent(rs.getDate(2).toLocalDate().toEpochDay(), k -> new ConcurrentHashMap<>()).put(rs.getLong(1), a);
+            }, Date.valueOf(oggi.minusDays(GIORNI_CONSERVATI - 1)));
+            letti = true;
+        } finally {
+            // Se la lettura fallisce restano i contatori attuali, con le vendite messe da parte nel frattempo
+            synchronized (contatori) {
+                if (letti) {
+                    totali.clear();
+                    totali.putAll(nuoviTotali);
+                    perGiorno.clear();
+                    perGiorno.putAll(nuoviPerGiorno);
+                }
+                registrateDuranteCaricamento.forEach(this::somma);
+                registrateDuranteCaricamento = null;
+            }
+        }
+        caricataIl = System.currentTimeMillis();
+        caricata = true;
+        modificata = true;
+        ultimoCaricamentoMicros = (System.nanoTime() - start) / 1000;
+    }
+
+    /** Ricostruisce la top-K di ogni finestra tra i prodotti disponibili nel catalogo corrente. */
+    synchronized void ricalcola() {
+        if (!caricata) carica();
+        long start = System.nanoTime();
+        modificata = false;
+        long oggi = LocalDate.now(ZONA).toEpochDay();
+        perGiorno.keySet().removeIf(giorno -> giorno <= oggi - GIORNI_CONSERVATI);
+        Map<Long, CatalogoSnapshot.ProdottoCatalogo> prodotti = catalogo.versione().prodotti();
+
+        Map<Finestra, List<Voce>> nuove = new EnumMap<>(Finestra.class);
+        for (Finestra f : Finestra.values()) {
+            Map<Long, Long> venduti = new HashMap<>();
+            if (f.giorni() == 0) {
+                totali.forEach((id, n) -> venduti.put(id, n.sum()));
+            } else {
+                perGiorno.forEach((giorno, perProdotto) -> {
+                    if (giorno > oggi - f.giorni()) perProdotto.forEach((id, n) -> venduti.merge(id, n.sum(), Long::sum));
+                });
+            }
+            nuove.put(f, topK(venduti, prodotti));
+        }
+        classifiche = nuove;
+        ricalcoli.increment();
+        ultimoRicalcoloMicros = (System.nanoTime() - start) / 1000;
+    }
+
+    /** Heap minimo di dimensione K: ogni prodotto entra solo se vende più del K-esimo attuale. */
+    private List<Voce> topK(Map<Long, Long> venduti, Map<Long, CatalogoSnapshot.ProdottoCatalogo> prodotti) {
+        Comparator<Voce> ordine = Comparator.comparingLong(Voce::venduti).thenComparing(v -> nome(prodotti, v), Comparator.reverseOrder());
+        int k = MAX_LIMITE;
+        PriorityQueue<Voce> heap = new PriorityQueue<>(k + 1, ordine);
+        venduti.forEach((id, n) -> {
+            CatalogoSnapshot.ProdottoCatalogo p = prodotti.get(id);
+            if (n <= 0 || p == null || p.quantitaDisponibile() <= 0) return;
+            Voce v = new Voce(id, n);
+            if (heap.size() < k) {
+                heap.add(v);
+            } else if (ordine.compare(v, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(v);
+            }
+        });
+        List<Voce> out = new ArrayList<>(heap);
+        out.sort(ordine.reversed());
+        return List.copyOf(out);
+    }
+
+    private static String nome(Map<Long, CatalogoSnapshot.ProdottoCatalogo> prodotti, Voce v) {
+        CatalogoSnapshot.ProdottoCatalogo p = prodotti.get(v.idProdotto());
+        return p == null || p.nome() == null ? "" : p.nome();
+    }
+
+    @Override
+    public void catalogoRicaricato(CatalogoSnapshot.Versione versione) {
+        modificata = true;
+    }
+
+    @Override
+    public void prodottiAggiornati(CatalogoSnapshot.Versione versione, Collection<Long> idProdotti) {
+        modificata = true;
+    }
+
+    @Override
+    public String nome() {
+        return "classifica_vendite";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("caricata", caricata);
+        out.put("prodotti_venduti", totali.size());
+        out.put("giorni_in_memoria", perGiorno.size());
+        out.put("top_k", MAX_LIMITE);
+        out.put("vendite_registrate", vendite.sum());
+        out.put("letture", letture.sum());
+        out.put("ricalcoli", ricalcoli.sum());
+        out.put("ultimo_ricalcolo_us", ultimoRicalcoloMicros);
+        out.put("ultimo_caricamento_us", ultimoCaricamentoMicros);
+        return out;
+    }
+}
@@ -0,0 +1,239 @@
+package com.example.backendjava.service;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.example.backendjava.jdbc.Dialetto;
+import com.example.backendjava.metrics.StatsProvider;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Scrittura asincrona delle visualizzazioni prodotto (la scrittura più frequente dell'applicazione).
+ * /api/suggested/visualizza mette l'evento in una coda limitata senza lock e risponde subito; un thread
+ * dedicato svuota la coda periodicamente, tiene una sola visualizzazione per (utente, prodotto) con l'ora
+ * più recente e la scrive con un upsert in batch.
+ * A coda piena gli eventi vengono scartati (e contati); oltre la soglia di pressione viene anticipata la
+ * scrittura. Se il batch fallisce le righe vengono scritte una per volta e quelle rifiutate dal database
+ * scartate. Allo spegnimento la coda viene scritta completamente.
+ */
+@Service
+public class CodaVisualizzazioni implements StatsProvider {
+
+    private static final String UPSERT_PG = "INSERT INTO visualizzazioni (user_id, prodotto_id, visualizzato_at) VALUES (?, ?, ?)"
+            + " ON CONFLICT (user_id, prodotto_id) DO UPDATE SET visualizzato_at = GREATEST(visualizzazioni.visualizzato_at, EXCLUDED.visualizzato_at)";
+
+    private static final String UPSERT_MERGE = "MERGE INTO visualizzazioni v USING (SELECT CAST(? AS BIGINT) AS user_id,"
+            + " CAST(? AS BIGINT) AS prodotto_id, CAST(? AS TIMESTAMP) AS visualizzato_at) s"
+            + " ON v.user_id = s.user_id AND v.prodotto_id = s.prodotto_id"
+            + " WHEN MATCHED THEN UPDATE SET visualizzato_at = GREATEST(v.visualizzato_at, s.visualizzato_at)"
+            + " WHEN NOT MATCHED THEN INSERT (user_id, prodotto_id, visualizzato_at) VALUES (s.user_id, s.prodotto_id, s.visualizzato_at)";
+
+    private record Evento(long idUtente, long idProdotto, long quando) {
+    }
+
+    private record Chiave(long idUtente, long idProdotto) {
+    }
+
+    private final JdbcTemplate jdbc;
+    private final int capienza;
+    private final int sogliaPressione;
+    private final int dimensioneBatch;
+    private final ScheduledExecutorService scrittore;
+
+    private final Queue<Evento> coda = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inCoda = new AtomicInteger();
+    private final AtomicBoolean scritturaAnticipata = new AtomicBoolean();
+    private volatile Boolean postgres;
+
+    private final LongAdder accodate = new LongAdder();
+    private final LongAdder scartate = new LongAdder();
+    private final LongAdder pressione = new LongAdder();
+    private final LongAdder deduplicate = new LongAdder();
+    private final LongAdder righeScritte = new LongAdder();
+    private final LongAdder scritture = new LongAdder();
+    private final LongAdder errori = new LongAdder();
+    private volatile long ultimaScritturaMicros;
+
+    public CodaVisualizzazioni(JdbcTemplate jdbc,
+                               @Value("${visualizzazioni.coda.capienza:50000}") int capienza,
+                               @Value("${visualizzazioni.coda.soglia-pressione:0.8}") double sogliaPressione,
+                               @Value("${visualizzazioni.batch:500}") int dimensioneBatch,
+                               @Value("${visualizzazioni.flush-ms:1000}") long flushMs) {
+        this.jdbc = jdbc;
+        this.capienza = capienza;
+        this.sogliaPressione = (int) (capienza * sogliaPressione);
+        this.dimensioneBatch = dimensioneBatch;
+        this.scrittore = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "visualizzazioni-scrittore");
+            t.setDaemon(true);
+            return t;
+        });
+        if (flushMs > 0) scrittore.scheduleWithFixedDelay(this::scriviInSicurezza, flushMs, flushMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Accoda una visualizzazione senza bloccare.
+     *
+     * @return false se la coda è piena e l'evento è stato scartato
+     */
+    public boolean accoda(long idUtente, long idProdotto) {
+        int n = inCoda.incrementAndGet();
+        if (n > capienza) {
+            inCoda.decrementAndGet();
+            scartate.increment();
+            return false;
+        }
+        coda.offer(new Evento(idUtente, idProdotto, System.currentTimeMillis()));
+        accodate.increment();
+        if (n >= sogliaPressione) {
+            pressione.increment();
+            // Una sola scrittura anticipata alla volta sul thread dello scrittore
+            if (scritturaAnticipata.compareAndSet(false, true)) {
+                try {
+                    scrittore.execute(() -> {
+                        scritturaAnticipata.set(false);
+                        scriviInSicurezza();
+                    });
+                } catch (RuntimeException e) {
+                    scritturaAnticipata.set(false);
+                }
+            }
+        }
+        return true;
+    }
+
+    public int inCoda() {
+        return inCoda.get();
+    }
+
+    private void scriviInSicurezza() {
+        try {
+            scrivi();
+        } catch (RuntimeException e) {
+            // già contato in errori: gli eventi sono stati rimessi in coda
+        }
+    }
+
+    /** Svuota la coda e scrive le visualizzazioni, una per (utente, prodotto), in batch. */
+    public synchronized void scrivi() {
+        while (inCoda.get() > 0) {
+            Map<Chiave, Long> ultime = new LinkedHashMap<>();
+            int letti = 0;
+            Evento e;
+            while (letti < dimensioneBatch && (e = coda.poll()) != null) {
+                inCoda.decrementAndGet();
+                letti++;
+                ultime.merge(new Chiave(e.idUtente(), e.idProdotto()), e.quando(), Math::max);
+            }
+            if (letti == 0) return;
+            deduplicate.add(letti - ultime.size());
+            scriviBatch(ultime);
+        }
+    }
+
+    private void scriviBatch(Map<Chiave, Long> ultime) {
+        long start = System.nanoTime();
+        List<Map.Entry<Chiave, Long>> righe = new ArrayList<>(ultime.entrySet());
+        String sql = postgres() ? UPSERT_PG : UPSERT_MERGE;
+        try {
+            jdbc.batchUpdate(sql, righe, righe.size(), (ps, r) -> {
+                ps.setLong(1, r.getKey().idUtente());
+                ps.setLong(2, r.getKey().idProdotto());
+                ps.setTimestamp(3, new Timestamp(r.getValue()));
+            });
+            righeScritte.add(righe.size());
+            scritture.increment();
+        } catch (RuntimeException ex) {
+            errori.increment();
+            // Una riga non valida (es. prodotto cancellato) farebbe fallire il batch a ogni tentativo:
+            // si riprova riga per riga e si scartano solo quelle rifiutate dal database
+            scriviRigaPerRiga(sql, righe);
+        } finally {
+            ultimaScritturaMicros = (System.nanoTime() - start) / 1000;
+        }
+    }
+
+    private void scriviRigaPerRiga(String sql, List<Map.Entry<Chiave, Long>> righe) {
+        for (int i = 0; i < righe.size(); i++) {
+            Map.Entry<Chiave, Long> r = righe.get(i);
+            try {
+                jdbc.update(sql, r.getKey().idUtente(), r.getKey().idProdotto(), new Timestamp(r.getValue()));
+                righeScritte.increment();
+            } catch (DataIntegrityViolationException ex) {
+                errori.increment();
+                scartate.increment();
+            } catch (RuntimeException ex) {
+                // Database non raggiungibile: le righe restanti verranno riprovate alla prossima scrittura
+                riaccoda(righe.subList(i, righe.size()));
+                throw ex;
+            }
+        }
+        scritture.increment();
+    }
+
+    /** Rimette in coda quello che ci sta, il resto viene scartato. */
+    private void riaccoda(List<Map.Entry<Chiave, Long>> righe) {
+        for (Map.Entry<Chiave, Long> r : righe) {
+            if (inCoda.incrementAndGet() > capienza) {
+                inCoda.decrementAndGet();
+                scartate.increment();
+            } else {
+                coda.offer(new Evento(r.getKey().idUtente(), r.getKey().idProdotto(), r.getValue()));
+            }
+        }
+    }
+
+    private boolean postgres() {
+        Boolean pg = postgres;
+        if (pg == null) {
+            pg = Dialetto.postgres(jdbc);
+            postgres = pg;
+        }
+        return pg;
+    }
+
+    @PreDestroy
+    public void chiudi() throws InterruptedException {
+        scrittore.shutdown();
+        scrittore.awaitTermination(5, TimeUnit.SECONDS);
+        scrivi();
+    }
+
+    @Override
+    public String nome() {
+        return "coda_visualizzazioni";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("in_coda", inCoda.get());
+        out.put("capienza", capienza);
+        out.put("accodate", accodate.sum());
+        out.put("scartate", scartate.sum());
+        out.put("pressione", pressione.sum());
+        out.put("deduplicate", deduplicate.sum());
+        out.put("righe_scritte", righeScritte.sum());
+        out.put("scritture", scritture.sum());
+        out.put("errori", errori.sum());
+        out.put("ultima_scrittura_us", ultimaScritturaMicros);
+        return out;
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.backendjava.service;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.example.backendjava.metrics.StatsProvider;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Lettura delle immagini caricate (uploads/&lt;categoria&gt;/&lt;file&gt;) per /api/immagine/uploads.
+ * Dimensione, data di modifica, ETag e content type di ogni file restano in memoria e vengono
+ * ricontrollati sul disco al più ogni {@code immagini.metadati.ricontrollo-ms}; il content type viene
+ * ricavato una sola volta per estensione.
+ * Il contenuto viene inviato con sendfile di Tomcat (zero-copy) sopra la soglia, altrimenti con
+ * FileChannel.transferTo verso lo stream della risposta.
+ */
+@Service
+public class ImmaginiStatiche implements StatsProvider {
+
+    private static final String TIPO_PREDEFINITO = "application/octet-stream";
+
+    // Attributi della richiesta per il sendfile del connettore NIO di Tomcat
+    private static final String SENDFILE_SUPPORTATO = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILE = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_INIZIO = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_FINE = "org.apache.tomcat.sendfile.end";
+
+    /** Metadati di un file immagine; controllataIl è l'ultima lettura degli attributi dal disco. */
+    public record Immagine(Path percorso, String nome, long dimensione, long ultimaModifica, String tipo, String etag,
+                           long controllataIl) {
+    }
+
+    private final Path radice;
+    private final long ricontrolloMs;
+    private final String cacheControl;
+    private final long sogliaSendfile;
+    private final int maxVoci;
+
+    private final Map<Path, Immagine> metadati = new ConcurrentHashMap<>();
+    private final Map<String, String> tipiPerEstensione = new ConcurrentHashMap<>();
+
+    private final LongAdder hit = new LongAdder();
+    private final LongAdder miss = new LongAdder();
+    private final LongAdder nonTrovate = new LongAdder();
+    private final LongAdder nonModificate = new LongAdder();
+    private final LongAdder parziali = new LongAdder();
+    private final LongAdder inviateSendfile = new LongAdder();
+    private final LongAdder inviateTransferTo = new LongAdder();
+    private final LongAdder byteInviati = new LongAdder();
+
+    public ImmaginiStatiche(@Value("${uploads.dir:uploads}") String uploadsDir,
+                            @Value("${immagini.metadati.ricontrollo-ms:5000}") long ricontrolloMs,
+                            @Value("${immagini.cache.max-age-seconds:31536000}") long maxAgeSeconds,
+                            @Value("${immagini.sendfile-soglia-bytes:49152}") long sogliaSendfile,
+                            @Value("${immagini.metadati.max-voci:20000}") int maxVoci) {
+        this.radice = Paths.get(uploadsDir).toAbsolutePath().normalize();
+        this.ricontrolloMs = ricontrolloMs;
+        // I nomi dei file caricati non vengono mai riusati per un contenuto diverso: la risposta non cambia
+        this.cacheControl = "public, max-age=" + maxAgeSeconds + ", immutable";
+        this.sogliaSendfile = sogliaSendfile;
+        this.maxVoci = maxVoci;
+    }
+
+    /** Valore di Cache-Control per le immagini. */
+    public String cacheControl() {
+        return cacheControl;
+    }
+
+    /** Metadati del file, dalla cache o dal disco; vuoto se non esiste o è fuori dalla cartella uploads. */
+    public Optional<Immagine> trova(String categoria, String nomeFile) {
+        return trova(radice.resolve(categoria).resolve(nomeFile).normalize(), 2);
+    }
+
+    /** Come {@link #trova(String, String)} per una variante ridimensionata (uploads/&lt;categoria&gt;/&lt;variante&gt;/&lt;file&gt;). */
+    public Optional<Immagine> trovaVariante(String categoria, String variante, String nomeFile) {
+        return trova(radice.resolve(categoria).resolve(variante).resolve(nomeFile).normalize(), 3);
+    }
+
+    private Optional<Immagine> trova(Path file, int livelli) {
+        if (!file.startsWith(radice) || file.getNameCount() != radice.getNameCount() + livelli) {
+            nonTrovate.increment();
+            return Optional.empty();
+        }
+        long ora = System.currentTimeMillis();
+        Immagine img = metadati.get(file);
+        if (img != null && ora - img.controllataIl() < ricontrolloMs) {
+            hit.increment();
+            return Optional.of(img);
+        }
+        miss.increment();
+        BasicFileAttributes attributi;
+        try {
+            attributi = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            metadati.remove(file);
+            nonTrovate.increment();
+            return Optional.empty();
+        }
+        if (!attributi.isRegularFile()) {
+            nonTrovate.increment();
+            return Optional.empty();
+        }
+        long dimensione = attributi.size();
+        long modifica = attributi.lastModifiedTime().toMillis();
+        if (img != null && img.dimensione() == dimensione && img.ultimaModifica() == modifica) {
+            img = new Immagine(img.percorso(), img.nome(), dimensione, modifica, img.tipo(), img.etag(), ora);
+        } else {
+            String etag = "\"" + Long.toHexString(modifica) + "-" + Long.toHexString(dimensione) + "\"";
+            img = new Immagine(file, file.getFileName().toString(), dimensione, modifica, tipo(file), etag, ora);
+        }
+        if (metadati.size() >= maxVoci) metadati.clear();
+        metadati.put(file, img);
+        return Optional.of(img);
+    }
+
+    private String tipo(Path file) {
+        String nome = file.getFileName().toString();
+        int punto = nome.lastIndexOf('.');
+        String estensione = punto >= 0 ? nome.substring(punto + 1).toLowerCase(Locale.ROOT) : "";
+        return tipiPerEstensione.computeIfAbsent(estensione, e -> {
+            try {
+                String tipo = Files.probeContentType(file);
+                return tipo != null ? tipo : TIPO_PREDEFINITO;
+            } catch (IOException ex) {
+                return TIPO_PREDEFINITO;
+            }
+        });
+    }
+
+    /** Toglie dalla cache il file (es. dopo averlo cancellato o sostituito). */
+    public void dimentica(String categoria, String nomeFile) {
+        metadati.remove(radice.resolve(categoria).resolve(nomeFile).normalize());
+    }
+
+    public void dimentica(Path file) {
+        metadati.remove(file.toAbsolutePath().normalize());
+    }
+
+    public void nonModificata() {
+        nonModificate.increment();
+    }
+
+    public void parziale() {
+        parziali.increment();
+    }
+
+    /**
+     * Invia {@code lunghezza} byte da {@code inizio}; gli header (Content-Length compreso) devono essere già impostati.
+     * Se il connettore supporta sendfile la copia la fa Tomcat dopo il ritorno, senza passare dalla JVM.
+     */
+    public void invia(Immagine img, long inizio, long lunghezza, HttpServletRequest request,
+                      HttpServletResponse response) throws IOException {
+        if (lunghezza >= sogliaSendfile && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTATO))) {
+            request.setAttribute(SENDFILE_FILE, img.percorso().toString());
+            request.setAttribute(SENDFILE_INIZIO, inizio);
+            request.setAttribute(SENDFILE_FINE, inizio + lunghezza);
+            inviateSendfile.increment();
+            byteInviati.add(lunghezza);
+            return;
+        }
+        copia(img, inizio, lunghezza, Channels.newChannel(response.getOutputStream()));
+        inviateTransferTo.increment();
+    }
+
+    /** Copia l'intervallo del file nel canale con FileChannel.transferTo; restituisce i byte copiati. */
+    public long copia(Immagine img, long inizio, long lunghezza, WritableByteChannel destinazione) throws IOException {
+        long copiati = 0;
+        try (FileChannel canale = FileChannel.open(img.percorso(), StandardOpenOption.READ)) {
+            while (copiati < lunghezza) {
+                long n = canale.transferTo(inizio + copiati, lunghezza - copiati, destinazione);
+                if (n <= 0) break; // file accorciato nel frattempo
+                copiati += n;
+            }
+        }
+        byteInviati.add(copiati);
+        return copiati;
+    }
+
+    @Override
+    public String nome() {
+        return "immagini";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("in_cache", metadati.size());
+        out.put("hit", hit.sum());
+        out.put("miss", miss.sum());
+        out.put("non_trovate", nonTrovate.sum());
+        out.put("non_modificate", nonModificate.sum());
+        out.put("parziali", parziali.sum());
+        out.put("inviate_sendfile", inviateSendfile.sum());
+        out.put("inviate_transfer_to", inviateTransferTo.sum());
+        out.put("byte_inviati", byteInviati.sum());
+        return out;
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.backendjava.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.stereotype.Service;
+
+import com.example.backendjava.metrics.StatsProvider;
+import com.example.backendjava.service.CatalogoSnapshot.ProdottoCatalogo;
+
+/**
+ * Indice invertito in memoria su nome, marchio, categoria e descrizione dei prodotti.
+ * Indicizza gli n-grammi (lunghezza 1..3) dei testi normalizzati: una query diventa l'intersezione
+ * delle liste di trigrammi e i candidati vengono poi verificati con contains/startsWith,
+ * quindi la semantica resta quella di LOWER(col) LIKE '%q%' / 'q%' usata prima in SQL.
+ * Viene tenuto allineato al CatalogoSnapshot tramite le sue notifiche.
+ */
+@Service
+public class IndiceRicercaProdotti implements CatalogoSnapshot.Listener, StatsProvider {
+
+    private static final int N = 3;
+
+    private final CatalogoSnapshot catalogo;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // n-gramma -> prodotti; "principale" copre nome, marchio e categoria, "descrizione" solo la descrizione
+    private final Map<String, Set<Long>> principale = new HashMap<>();
+    private final Map<String, Set<Long>> descrizione = new HashMap<>();
+    private final Map<Long, Testi> testi = new HashMap<>();
+
+    private final LongAdder ricerche = new LongAdder();
+    private final LongAdder candidatiVerificati = new LongAdder();
+    private volatile long ultimaRicercaMicros;
+
+    private record Testi(String nome, String marchio, String categoria, String descrizione) {
+    }
+
+    public IndiceRicercaProdotti(CatalogoSnapshot catalogo) {
+        this.catalogo = catalogo;
+        catalogo.aggiungiListener(this);
+    }
+
+    /**
+     * Ricerca completa (pagina risultati): nome, marchio, categoria o descrizione contengono q.
+     * Ordine: nome che inizia con q, marchio che inizia con q, nome che contiene q, marchio che contiene q, resto; poi per nome.
+     */
+    public List<ProdottoCatalogo> cerca(String q) {
+        return esegui(q, true, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Suggerimenti (autocompletamento): nome, marchio o categoria contengono q.
+     * Ordine: nome che inizia con q, nome che contiene q, marchio che contiene q, resto; poi per nome.
+     */
+    public List<ProdottoCatalogo> suggerimenti(String q, int limit) {
+        return esegui(q, false, limit);
+    }
+
+    private List<ProdottoCatalogo> esegui(String q, boolean conDescrizione, int limit) {
+        long start = System.nanoTime();
+        String term = q == null ? "" : normalizza(q.trim());
+        if (term.isEmpty() || limit <= 0) return List.of();
+        // Garantisce che l'indice sia stato costruito almeno una volta
+        CatalogoSnapshot.Versione versione = catalogo.versione();
+
+        Set<Long> candidati;
+        lock.readLock().lock();
+        try {
+            candidati = candidati(principale, term);
+            if (conDescrizione) candidati.addAll(candidati(descrizione, term));
+        } finally {
+            lock.readLock().unlock();
+        }
+        candidatiVerificati.add(candidati.size());
+
+        List<ProdottoCatalogo> trovati = new ArrayList<>();
+        Map<Long, Integer> rank = new HashMap<>();
+        for (Long id : candidati) {
+            ProdottoCatalogo p = versione.prodotti().get(id);
+            if (p == null || p.quantitaDisponibile() <= 0) continue;
+            String nome = normalizza(p.nome());
+            String marchio = normalizza(p.marchio());
+            String categoria = normalizza(p.categoria());
+            int r;
+            if (conDescrizione) {
+                if (nome.startsWith(term)) r = 1;
+                else if (marchio.startsWith(term)) r = 2;
+                else if (nome.contains(term)) r = 3;
+                else if (marchio.contains(term)) r = 4;
+                else if (categoria.contains(term) || normalizza(p.descrizione()).contains(term)) r = 5;
+                else continue;
+            } else {
+                if (nome.startsWith(term)) r = 1;
+                else if (nome.contains(term)) r = 2;
+                else if (marchio.contains(term)) r = 3;
+                else if (categoria.contains(term)) r = 4;
+                else continue;
+            }
+            rank.put(id, r);
+            trovati.add(p);
+        }
+        trovati.sort(Comparator.<ProdottoCatalogo>comparingInt(p -> rank.get(p.id()))
+                .thenComparing(p -> p.nome() == null ? "" : p.nome()));
+        List<ProdottoCatalogo> out = trovati.size() > limit ? List.copyOf(trovati.subList(0, limit)) : trovati;
+        ricerche.increment();
+        ultimaRicercaMicros = (System.nanoTime() - start) / 1000;
+        return out;
+    }
+
+    /** Prodotti i cui testi contengono tutti gli n-grammi del termine (superset dei risultati reali). */
+    private static Set<Long> candidati(Map<String, Set<Long>> indice, String term) {
+        if (term.length() <= N) {
+            Set<Long> ids = indice.get(term);
+            return ids == null ? new HashSet<>() : new HashSet<>(ids);
+        }
+        List<Set<Long>> liste = new ArrayList<>();
+        for (int i = 0; i + N <= term.length(); i++) {
+            Set<Long> ids = indice.get(term.substring(i, i + N));
+            if (ids == null) return new HashSet<>();
+            liste.add(ids);
+        }
+        liste.sort(Comparator.comparingInt(Set::size));
+        Set<Long> out = new HashSet<>(liste.get(0));
+        for (int i = 1; i < liste.size() && !out.isEmpty(); i++) out.retainAll(liste.get(i));
+        return out;
+    }
+
+    @Override
+    public void catalogoRicaricato(CatalogoSnapshot.Versione versione) {
+        lock.writeLock().lock();
+        try {
+            principale.clear();
+            descrizione.clear();
+            testi.clear();
+            for (ProdottoCatalogo p : versione.prodotti().values()) aggiungi(p);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void prodottiAggiornati(CatalogoSnapshot.Versione versione, Collection<Long> idProdotti) {
+        lock.writeLock().lock();
+        try {
+            for (Long id : idProdotti) {
+                rimuovi(id);
+                ProdottoCatalogo p = versione.prodotti().get(id);
+                if (p != null) aggiungi(p);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void aggiungi(ProdottoCatalogo p) {
+        Testi t = new Testi(normalizza(p.nome()), normalizza(p.marchio()), normalizza(p.categoria()), normalizza(p.descrizione()));
+        testi.put(p.id(), t);
+        for (String g : ngrammi(t.nome(), t.marchio(), t.categoria())) principale.computeIfAbsent(g, k -> new HashSet<>()).add(p.id());
+        for (String g : ngrammi(t.descrizione())) descrizione.computeIfAbsent(g, k -> new HashSet<>()).add(p.id());
+    }
+
+    private void rimuovi(long id) {
+        Testi t = testi.remove(id);
+        if (t == null) return;
+        for (String g : ngrammi(t.nome(), t.marchio(), t.categoria())) togli(principale, g, id);
+        for (String g : ngrammi(t.descrizione())) togli(descrizione, g, id);
+    }
+
+    private static void togli(Map<String, Set<Long>> indice, String gram, long id) {
+        Set<Long> ids = indice.get(gram);
+        if (ids == null) return;
+        ids.remove(id);
+        if (ids.isEmpty()) indice.remove(gram);
+    }
+
+    private static Set<String> ngrammi(String... valori) {
+        Set<String> out = new HashSet<>();
+        for (String v : valori) {
+            for (int len = 1; len <= N; len++) {
+                for (int i = 0; i + len <= v.length(); i++) out.add(v.substring(i, i + len));
+            }
+        }
+        return out;
+    }
+
+    private static String normalizza(String s) {
+        return s == null ? "" : s.toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public String nome() {
+        return "ricerca";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            out.put("prodotti_indicizzati", testi.size());
+            out.put("ngrammi", principale.size() + descrizione.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+        out.put("ricerche", ricerche.sum());
+        out.put("candidati_verificati", candidatiVerificati.sum());
+        out.put("ultima_ricerca_us", ultimaRicercaMicros);
+        return out;
+    }
+}
@@ -0,0 +1,308 @@
+package com.example.backendjava.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.example.backendjava.dto.ProdottoSuggerito;
+import com.example.backendjava.metrics.StatsProvider;
+
+/**
+ * Suggerimenti di prodotti calcolati in memoria.
+ * Per ogni utente tiene le ultime visualizzazioni in un buffer circolare (caricato dal database al primo
+ * accesso, poi alimentato da /api/suggested/visualizza); sul catalogo tiene un indice per categoria con i
+ * prodotti ordinati per prezzo, così la fascia di prezzo è una ricerca binaria.
+ * I candidati (stesse categorie delle ultime visualizzazioni, prezzo entro ±50 dalla fascia vista) sono
+ * ordinati in modo deterministico: co-visualizzazioni con i prodotti visti, poi pezzi venduti in totale
+ * (la classifica globale, non gli acquisti fatti insieme ai prodotti visti), poi id.
+ * Oltre {@code maxUtenti} vengono tolti dalla memoria gli utenti caricati per primi, uno alla volta.
+ */
+@Service
+public class MotoreSuggerimenti implements StatsProvider {
+
+    private static final BigDecimal MARGINE_PREZZO = BigDecimal.valueOf(50);
+    private static final int CAMPIONI_LATENZA = 1024;
+    // Limite ai prodotti co-visualizzati tenuti per ogni prodotto
+    private static final int MAX_VICINI = 256;
+
+    private final JdbcTemplate jdbc;
+    private final CatalogoSnapshot catalogo;
+    private final ClassificaVendite classifica;
+
+    // Visualizzazioni considerate per i suggerimenti (le più recenti)
+    private final int ultime;
+    private final int capienzaBuffer;
+    private final int risultati;
+    private final int maxUtenti;
+
+    private final Map<Long, Visualizzazioni> perUtente = new ConcurrentHashMap<>();
+    // Utenti nell'ordine di caricamento, il primo è il prossimo da togliere dalla memoria
+    private final Queue<Long> ordineCaricamento = new ConcurrentLinkedQueue<>();
+    // Utenti la cui storia dal database è già nelle co-visualizzazioni: se vengono ricaricati non si riconta
+    private final Set<Long> storiaContata = ConcurrentHashMap.newKeySet();
+    // Prodotto -> prodotto visto dallo stesso utente -> numero di utenti
+    private final Map<Long, Map<Long, LongAdder>> coVisualizzazioni = new ConcurrentHashMap<>();
+    private volatile Indice indice;
+
+    private final LongAdder richieste = new LongAdder();
+    private final LongAdder visualizzazioni = new LongAdder();
+    private final LongAdder caricamentiUtente = new LongAdder();
+    private final LongAdder utentiRimossi = new LongAdder();
+    private final long[] latenzeMicros = new long[CAMPIONI_LATENZA];
+    private final AtomicInteger campioni = new AtomicInteger();
+
+    /** Ultime visualizzazioni di un utente, dalla più recente, senza duplicati. */
+    private static final class Visualizzazioni {
+        final long[] ids;
+        int n;
+
+        Visualizzazioni(int capienza) {
+            ids = new long[capienza];
+        }
+
+        /** Porta il prodotto in testa; restituisce false se era già tra le visualizzazioni. */
+        synchronized boolean aggiungi(long id) {
+            int pos = indexOf(id);
+            boolean nuovo = pos < 0;
+            if (nuovo) pos = Math.min(n, ids.length - 1);
+            System.arraycopy(ids, 0, ids, 1, pos);
+            ids[0] = id;
+            if (nuovo && n < ids.length) n++;
+            return nuovo;
+        }
+
+        synchronized long[] ultime(int k) {
+            return Arrays.copyOf(ids, Math.min(k, n));
+        }
+
+        private int indexOf(long id) {
+            for (int i = 0; i < n; i++) if (ids[i] == id) return i;
+            return -1;
+        }
+    }
+
+    /** Indice del catalogo: per categoria, prodotti disponibili ordinati per prezzo effettivo. */
+    private record Indice(long numeroVersione, Map<Long, CatalogoSnapshot.ProdottoCatalogo[]> perCategoria) {
+    }
+
+    public MotoreSuggerimenti(JdbcTemplate jdbc, CatalogoSnapshot catalogo, ClassificaVendite classifica,
+                              @Value("${suggeriti.ultime-visualizzazioni:3}") int ultime,
+                              @Value("${suggeriti.buffer-per-utente:20}") int capienzaBuffer,
+                              @Value("${suggeriti.risultati:6}") int risultati,
+                              @Value("${suggeriti.max-utenti:50000}") int maxUtenti) {
+        this.jdbc = jdbc;
+        this.catalogo = catalogo;
+        this.classifica = classifica;
+        this.ultime = ultime;
+        this.capienzaBuffer = capienzaBuffer;
+        this.risultati = risultati;
+        this.maxUtenti = maxUtenti;
+    }
+
+    /** Registra una visualizzazione (la scrittura sul database è a carico del chiamante). */
+    public void visualizzato(long idUtente, long idProdotto) {
+        visualizzazioni.increment();
+        Visualizzazioni v = buffer(idUtente);
+        long[] precedenti = v.ultime(capienzaBuffer);
+        if (v.aggiungi(idProdotto)) {
+            for (long altro : precedenti) coVisto(idProdotto, altro);
+        }
+    }
+
+    /** Suggerimenti per l'utente, senza accessi al database se le sue visualizzazioni sono già in memoria. */
+    public List<ProdottoSuggerito> suggerimenti(long idUtente) {
+        long start = System.nanoTime();
+        richieste.increment();
+        try {
+            long[] viste = buffer(idUtente).ultime(ultime);
+            if (viste.length == 0) return List.of();
+            CatalogoSnapshot.Versione versione = catalogo.versione();
+            Indice idx = indice(versione);
+            Map<Long, CatalogoSnapshot.ProdottoCatalogo> prodotti = versione.prodotti();
+
+            Set<Long> categorie = new HashSet<>();
+            BigDecimal min = null;
+            BigDecimal max = null;
+            for (long id : viste) {
+                CatalogoSnapshot.ProdottoCatalogo p = prodotti.get(id);
+                if (p == null || p.prezzo() == null) continue;
+                if (p.idCategoria() != null) categorie.add(p.idCategoria());
+                min = min == null || p.prezzo().compareTo(min) < 0 ? p.prezzo() : min;
+                max = max == null || p.prezzo().compareTo(max) > 0 ? p.prezzo() : max;
+            }
+            if (categorie.isEmpty() || min == null) return List.of();
+            BigDecimal da = min.subtract(MARGINE_PREZZO);
+            BigDecimal a = max.add(MARGINE_PREZZO);
+
+            Set<Long> escluse = new HashSet<>();
+            for (long id : viste) escluse.add(id);
+            Map<Long, Long> coViste = new HashMap<>();
+            // Venduti letti una volta per candidato: la classifica cambia durante l'ordinamento
+            Map<Long, Long> venduti = new HashMap<>();
+            List<CatalogoSnapshot.ProdottoCatalogo> candidati = new ArrayList<>();
+            for (Long categoria : categorie) {
+                CatalogoSnapshot.ProdottoCatalogo[] perPrezzo = idx.perCategoria().get(categoria);
+                if (perPrezzo == null) continue;
+                for (int i = primoConPrezzo(perPrezzo, da); i < perPrezzo.length && perPrezzo[i].prezzo().compareTo(a) <= 0; i++) {
+                    CatalogoSnapshot.ProdottoCatalogo p = perPrezzo[i];
+                    if (escluse.contains(p.id())) continue;
+                    candidati.add(p);
+                    coViste.put(p.id(), affinita(p.id(), viste));
+                    venduti.put(p.id(), classifica.venduti(p.id()));
+                }
+            }
+            candidati.sort(Comparator.<CatalogoSnapshot.ProdottoCatalogo>comparingLong(p -> coViste.get(p.id())).reversed()
+                    .thenComparing(Comparator.<CatalogoSnapshot.ProdottoCatalogo>comparingLong(p -> venduti.get(p.id())).reversed())
+                    .thenComparingLong(CatalogoSnapshot.ProdottoCatalogo::id));
+            List<ProdottoSuggerito> out = new ArrayList<>(Math.min(risultati, candidati.size()));
+            for (CatalogoSnapshot.ProdottoCatalogo p : candidati) {
+                if (out.size() >= risultati) break;
+                out.add(new ProdottoSuggerito(p.id(), p.nome(), p.descrizione(), p.prezzoPieno(), p.prezzoScontato(),
+                        p.promo(), p.immagine(), catalogo.productImageUrl(p.immagine(), VariantiImmagini.Formato.CARD)));
+            }
+            return out;
+        } finally {
+            registraLatenza((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    private long affinita(long idProdotto, long[] viste) {
+        Map<Long, LongAdder> vicini = coVisualizzazioni.get(idProdotto);
+        if (vicini == null) return 0;
+        long totale = 0;
+        for (long id : viste) {
+            LongAdder n = vicini.get(id);
+            if (n != null) totale += n.sum();
+        }
+        return totale;
+    }
+
+    private void coVisto(long a, long b) {
+        if (a == b) return;
+        incrementa(a, b);
+        incrementa(b, a);
+    }
+
+    private void incrementa(long da, long verso) {
+        Map<Long, LongAdder> vicini = coVisualizzazioni.computeIfAbsent(da, k -> new ConcurrentHashMap<>());
+        LongAdder n = vicini.get(verso);
+        if (n == null) {
+            if (vicini.size() >= MAX_VICINI) return;
+            n = vicini.computeIfAbsent(verso, k -> new LongAdder());
+        }
+        n.increment();
+    }
+
+    /** Primo indice con prezzo &gt;= soglia (ricerca binaria sull'array ordinato per prezzo). */
+    private static int primoConPrezzo(CatalogoSnapshot.ProdottoCatalogo[] perPrezzo, BigDecimal soglia) {
+        int lo = 0;
+        int hi = perPrezzo.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (perPrezzo[mid].prezzo().compareTo(soglia) < 0) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private Visualizzazioni buffer(long idUtente) {
+        Visualizzazioni v = perUtente.get(idUtente);
+        if (v != null) return v;
+        // Query fuori da computeIfAbsent, che la eseguirebbe tenendo bloccate le altre chiavi dello stesso bin;
+        // due prime richieste concorrenti dello stesso utente leggono entrambe, ne resta una
+        Visualizzazioni caricate = carica(idUtente);
+        v = perUtente.putIfAbsent(idUtente, caricate);
+        if (v != null) return v;
+        ordineCaricamento.add(idUtente);
+        while (perUtente.size() > maxUtenti) {
+            Long primo = ordineCaricamento.poll();
+            if (primo == null) break;
+            if (perUtente.remove(primo) != null) utentiRimossi.increment();
+        }
+        return caricate;
+    }
+
+    /**
+     * Ultime visualizzazioni dell'utente dal database; la prima volta dall'avvio vengono contate anche
+     * come co-visualizzazioni, le volte successive (utente tolto dalla memoria e ricaricato) no.
+     */
+    private Visualizzazioni carica(long idUtente) {
+        caricamentiUtente.increment();
+        Visualizzazioni v = new Visualizzazioni(capienzaBuffer);
+        List<Long> ids = jdbc.queryForList("SELECT prodotto_id FROM visualizzazioni WHERE user_id = ? ORDER BY visualizzato_at DESC LIMIT ?",
+                Long.class, idUtente, capienzaBuffer);
+        for (int i = ids.size() - 1; i >= 0; i--) v.aggiungi(ids.get(i));
+        if (!storiaContata.add(idUtente)) return v;
+        for (int i = 0; i < ids.size(); i++) {
+            for (int j = i + 1; j < ids.size(); j++) coVisto(ids.get(i), ids.get(j));
+        }
+        return v;
+    }
+
+    /** Indice ricostruito quando cambia la versione del catalogo. */
+    private Indice indice(CatalogoSnapshot.Versione versione) {
+        Indice i = indice;
+        if (i != null && i.numeroVersione() == versione.numero()) return i;
+        Map<Long, List<CatalogoSnapshot.ProdottoCatalogo>> gruppi = new HashMap<>();
+        for (CatalogoSnapshot.ProdottoCatalogo p : versione.prodotti().values()) {
+            if (p.idCategoria() == null || p.prezzo() == null || p.quantitaDisponibile() <= 0) continue;
+            gruppi.computeIfAbsent(p.idCategoria(), k -> new ArrayList<>()).add(p);
+        }
+        Map<Long, CatalogoSnapshot.ProdottoCatalogo[]> perCategoria = new HashMap<>();
+        gruppi.forEach((categoria, lista) -> {
+            lista.sort(Comparator.comparing(CatalogoSnapshot.ProdottoCatalogo::prezzo).thenComparingLong(CatalogoSnapshot.ProdottoCatalogo::id));
+            perCategoria.put(categoria, lista.toArray(new CatalogoSnapshot.ProdottoCatalogo[0]));
+        });
+        i = new Indice(versione.numero(), perCategoria);
+        indice = i;
+        return i;
+    }
+
+    private void registraLatenza(long micros) {
+        int n = campioni.getAndIncrement();
+        latenzeMicros[Math.floorMod(n, CAMPIONI_LATENZA)] = micros;
+    }
+
+    /** Percentile sugli ultimi campioni di latenza. */
+    private static long percentile(long[] ordinati, double p) {
+        if (ordinati.length == 0) return 0;
+        return ordinati[Math.min(ordinati.length - 1, (int) Math.ceil(p * ordinati.length) - 1)];
+    }
+
+    @Override
+    public String nome() {
+        return "suggerimenti";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        long[] campione = Arrays.copyOf(latenzeMicros, Math.min(campioni.get(), CAMPIONI_LATENZA));
+        Arrays.sort(campione);
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("utenti_in_memoria", perUtente.size());
+        out.put("prodotti_con_covisualizzazioni", coVisualizzazioni.size());
+        out.put("richieste", richieste.sum());
+        out.put("visualizzazioni", visualizzazioni.sum());
+        out.put("caricamenti_utente", caricamentiUtente.sum());
+        out.put("utenti_rimossi", utentiRimossi.sum());
+        out.put("latenza_p50_us", percentile(campione, 0.50));
+        out.put("latenza_p99_us", percentile(campione, 0.99));
+        return out;
+    }
+}
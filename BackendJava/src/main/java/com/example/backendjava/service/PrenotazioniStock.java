@@ -0,0 +1,177 @@
+package com.example.backendjava.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.example.backendjava.metrics.StatsProvider;
+
+/**
+ * Registro in memoria delle quantità messe nel carrello, per prodotto e utente, con scadenza.
+ * Quando un utente aggiunge un prodotto gli viene riservata la quantità del suo carrello, e la
+ * disponibilità vista dagli altri si riduce finché la prenotazione non scade, non viene rimossa
+ * dal carrello o non viene consumata dal checkout.
+ * Non ci sono lock globali: ogni prodotto ha il proprio contatore atomico aggiornato con CAS e le
+ * prenotazioni di utenti diversi non si bloccano a vicenda.
+ * Il database resta la fonte di verità: il checkout scala la giacenza con un UPDATE condizionato,
+ * quindi anche se il registro si svuota (riavvio) non si può vendere più di quanto disponibile.
+ */
+@Service
+public class PrenotazioniStock implements StatsProvider {
+
+    private static final int PRODOTTI_NELLE_STATISTICHE = 10;
+
+    // Durata di una prenotazione senza attività sul carrello
+    private final long ttlSeconds;
+
+    private final Map<Long, StatoProdotto> prodotti = new ConcurrentHashMap<>();
+
+    private final LongAdder prenotazioni = new LongAdder();
+    private final LongAdder rifiutate = new LongAdder();
+    private final LongAdder scadute = new LongAdder();
+
+    public PrenotazioniStock(@Value("${stock.prenotazione.ttl-seconds:900}") long ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    private record Prenotazione(int quantita, long scadeIl) {
+        boolean scaduta(long adesso) {
+            return scadeIl <= adesso;
+        }
+    }
+
+    /** Stato di un prodotto: totale riservato più le prenotazioni per utente. */
+    private static final class StatoProdotto {
+        final AtomicInteger riservate = new AtomicInteger();
+        final Map<Long, Prenotazione> perUtente = new ConcurrentHashMap<>();
+        final LongAdder tentativi = new LongAdder();
+        final LongAdder retryCas = new LongAdder();
+        final LongAdder rifiuti = new LongAdder();
+        final LongAdder conflittiCheckout = new LongAdder();
+    }
+
+    /**
+     * Porta a {@code quantita} la prenotazione dell'utente sul prodotto (la quantità totale nel suo carrello).
+     *
+     * @param disponibili giacenza attuale letta dal database
+     * @return true se la quantità è stata riservata, false se le prenotazioni degli altri utenti non lo permettono
+     */
+    public boolean riserva(long idProdotto, long idUtente, int quantita, int disponibili) {
+        StatoProdotto stato = prodotti.computeIfAbsent(idProdotto, k -> new StatoProdotto());
+        stato.tentativi.increment();
+        if (tentaRiserva(stato, idUtente, quantita, disponibili)) return true;
+        // Prima di rifiutare libera le prenotazioni scadute e riprova una volta
+        if (liberaScadute(stato) > 0 && tentaRiserva(stato, idUtente, quantita, disponibili)) return true;
+        stato.rifiuti.increment();
+        rifiutate.increment();
+        return false;
+    }
+
+    private boolean tentaRiserva(StatoProdotto stato, long idUtente, int quantita, int disponibili) {
+        long adesso = System.currentTimeMillis();
+        boolean[] riuscita = {false};
+        // compute blocca solo la chiave di questo utente: utenti diversi procedono in parallelo
+        stato.perUtente.compute(idUtente, (k, attuale) -> {
+            int mia = attuale == null ? 0 : attuale.quantita();
+            int delta = quantita - mia;
+            while (true) {
+                int riservate = stato.riservate.get();
+                if (delta > 0 && riservate + delta > disponibili) return attuale;
+                if (stato.riservate.compareAndSet(riservate, riservate + delta)) break;
+                stato.retryCas.increment();
+            }
+            riuscita[0] = true;
+            if (attuale == null) prenotazioni.increment();
+            return new Prenotazione(quantita, adesso + ttlSeconds * 1000);
+        });
+        return riuscita[0];
+    }
+
+    /** Rimuove la prenotazione dell'utente (prodotto tolto dal carrello). */
+    public void rilascia(long idProdotto, long idUtente) {
+        StatoProdotto stato = prodotti.get(idProdotto);
+        if (stato == null) return;
+        Prenotazione p = stato.perUtente.remove(idUtente);
+        if (p != null) stato.riservate.addAndGet(-p.quantita());
+    }
+
+    /** Checkout completato: le quantità sono state scalate dal database, le prenotazioni non servono più. */
+    public void consuma(long idUtente, Collection<Long> idProdotti) {
+        for (Long id : idProdotti) rilascia(id, idUtente);
+    }
+
+    /** Il checkout ha trovato la giacenza insufficiente per il prodotto (UPDATE condizionato fallito). */
+    public void conflittoCheckout(long idProdotto) {
+        prodotti.computeIfAbsent(idProdotto, k -> new StatoProdotto()).conflittiCheckout.increment();
+    }
+
+    private int liberaScadute(StatoProdotto stato) {
+        long adesso = System.currentTimeMillis();
+        int liberate = 0;
+        for (Map.Entry<Long, Prenotazione> e : stato.perUtente.entrySet()) {
+            Prenotazione p = e.getValue();
+            if (p.scaduta(adesso) && stato.perUtente.remove(e.getKey(), p)) {
+                stato.riservate.addAndGet(-p.quantita());
+                scadute.increment();
+                liberate++;
+            }
+        }
+        return liberate;
+    }
+
+    /** Quantità attualmente riservata sul prodotto (prenotazioni scadute comprese finché non vengono liberate). */
+    public int riservate(long idProdotto) {
+        StatoProdotto stato = prodotti.get(idProdotto);
+        return stato == null ? 0 : stato.riservate.get();
+    }
+
+    @Override
+    public String nome() {
+        return "prenotazioni_stock";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("prenotazioni", prenotazioni.sum());
+        out.put("rifiutate", rifiutate.sum());
+        out.put("scadute", scadute.sum());
+        out.put("prodotti_tracciati", prodotti.size());
+
+        // Prodotti più contesi: retry CAS, rifiuti e conflitti al checkout, letti una volta per prodotto
+        // perché i contatori cambiano durante l'ordinamento
+        Map<Long, Long> contesaPerProdotto = new HashMap<>();
+        prodotti.forEach((id, s) -> contesaPerProdotto.put(id, contesa(s)));
+        List<Map.Entry<Long, StatoProdotto>> contesi = new ArrayList<>(prodotti.entrySet());
+        contesi.removeIf(e -> contesaPerProdotto.getOrDefault(e.getKey(), 0L) == 0);
+        contesi.sort(Comparator.comparingLong((Map.Entry<Long, StatoProdotto> e) -> contesaPerProdotto.get(e.getKey())).reversed());
+        List<Map<String, Object>> top = new ArrayList<>();
+        for (Map.Entry<Long, StatoProdotto> e : contesi.subList(0, Math.min(PRODOTTI_NELLE_STATISTICHE, contesi.size()))) {
+            StatoProdotto s = e.getValue();
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("id_prodotto", e.getKey());
+            row.put("riservate", s.riservate.get());
+            row.put("tentativi", s.tentativi.sum());
+            row.put("retry_cas", s.retryCas.sum());
+            row.put("rifiuti", s.rifiuti.sum());
+            row.put("conflitti_checkout", s.conflittiCheckout.sum());
+            top.add(row);
+        }
+        out.put("prodotti_contesi", top);
+        return out;
+    }
+
+    private static long contesa(StatoProdotto s) {
+        return s.retryCas.sum() + s.rifiuti.sum() + s.conflittiCheckout.sum();
+    }
+}
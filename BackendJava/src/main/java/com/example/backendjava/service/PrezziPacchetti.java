@@ -0,0 +1,227 @@
+package com.example.backendjava.service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.example.backendjava.dto.PacchettoVista;
+import com.example.backendjava.metrics.StatsProvider;
+import com.example.backendjava.service.CatalogoSnapshot.ProdottoCatalogo;
+
+/**
+ * Prezzi dei pacchetti tematici calcolati tutti insieme con una sola query (pacchetti + prodotti membri)
+ * e tenuti in memoria.
+ * Prezzo scontato = somma dei prezzi effettivi dei prodotti (promo compresa) per quantità, meno il 15%.
+ * Le notifiche del CatalogoSnapshot invalidano i prezzi quando cambia il prezzo effettivo di un prodotto
+ * membro (o il prodotto sparisce); le modifiche alla sola disponibilità non li toccano.
+ */
+@Service
+public class PrezziPacchetti implements CatalogoSnapshot.Listener, StatsProvider {
+
+    private static final BigDecimal FATTORE_SCONTO = new BigDecimal("0.85");
+
+    private static final String SQL = "SELECT pt.id_pacchetto, pt.nome, pt.descrizione, pt.prezzo_totale, pp.id_prodotto, pp.quantita, p.prezzo, p.prezzo_scontato, p.promo FROM pacchetto_tematico pt LEFT JOIN prodotto_pacchetto pp ON pp.id_pacchetto = pt.id_pacchetto LEFT JOIN prodotto p ON pp.id_prodotto = p.id_prodotto ORDER BY pt.id_pacchetto";
+
+    private final JdbcTemplate jdbc;
+    private final CatalogoSnapshot catalogo;
+
+    // Dopo questo intervallo i prezzi vengono ricalcolati alla prima lettura (modifiche fatte fuori da questa applicazione)
+    @Value("${pacchetti.prezzi.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    private volatile Listino corrente;
+    private final AtomicLong contatoreListini = new AtomicLong();
+
+    private final LongAdder hit = new LongAdder();
+    private final LongAdder miss = new LongAdder();
+    // Incrementato a ogni invalidazione: un calcolo iniziato prima non viene pubblicato
+    private final AtomicLong invalidazioni = new AtomicLong();
+    private volatile long ultimoCalcoloMicros;
+
+    /** Pacchetto con i prezzi già calcolati. */
+    public record PrezzoPacchetto(long id, String nome, String descrizione, BigDecimal prezzoTotale,
+                                  BigDecimal totaleEffettivo, BigDecimal prezzoScontato) {
+    }
+
+    /**
+     * Elenco dei pacchetti con i validatori HTTP del listino da cui è letto:
+     * l'ETag viene dall'impronta del contenuto, quindi non cambia se un ricalcolo dà gli stessi prezzi.
+     */
+    public record Elenco(String impronta, long creatoIl, List<PacchettoVista> pacchetti) {
+
+        public String etag() {
+            return "\"p" + impronta + "\"";
+        }
+    }
+
+    /**
+     * Prezzi di tutti i pacchetti e, per ogni prodotto membro, il prezzo effettivo nel catalogo al momento
+     * del calcolo (null se il prodotto non era nel catalogo: bloccato o inesistente).
+     */
+    private record Listino(long numero, long creatoIl, String impronta, Map<Long, PrezzoPacchetto> pacchetti,
+                           List<PacchettoVista> elenco, Map<Long, BigDecimal> prezziMembri) {
+    }
+
+    public PrezziPacchetti(JdbcTemplate jdbc, CatalogoSnapshot catalogo) {
+        this.jdbc = jdbc;
+        this.catalogo = catalogo;
+        catalogo.aggiungiListener(this);
+    }
+
+    /** Elenco dei pacchetti nell'ordine di id. */
+    public List<PacchettoVista> elenco() {
+        return listino().elenco();
+    }
+
+    /** Come {@link #elenco()}, insieme all'impronta del contenuto: cambia solo se cambia l'elenco. */
+    public Elenco elencoVersionato() {
+        Listino l = listino();
+        return new Elenco(l.impronta(), l.creatoIl(), l.elenco());
+    }
+
+    public Optional<PrezzoPacchetto> prezzo(long idPacchetto) {
+        return Optional.ofNullable(listino().pacchetti().get(idPacchetto));
+    }
+
+    /** Prezzo di vendita di un pacchetto dalla somma dei prezzi effettivi dei suoi prodotti (sconto del 15%). */
+    public static BigDecimal prezzoScontato(BigDecimal totaleEffettivo) {
+        return totaleEffettivo.setScale(2, RoundingMode.HALF_UP).multiply(FATTORE_SCONTO).setScale(2, RoundingMode.HALF_UP);
+    }
+
+    /** Scarta i prezzi in memoria: verranno ricalcolati alla prossima lettura. */
+    public void invalida() {
+        invalidazioni.incrementAndGet();
+        corrente = null;
+    }
+
+    private Listino listino() {
+        Listino l = corrente;
+        if (l != null && !scaduto(l)) {
+            hit.increment();
+            return l;
+        }
+        miss.increment();
+        // Il catalogo deve essere caricato perché le sue notifiche arrivino (e invalidino questi prezzi)
+        catalogo.versione();
+        synchronized (this) {
+            l = corrente;
+            if (l == null || scaduto(l)) {
+                long generazione = invalidazioni.get();
+                l = calcola();
+                if (invalidazioni.get() == generazione) corrente = l;
+            }
+            return l;
+        }
+    }
+
+    private boolean scaduto(Listino l) {
+        return ttlSeconds > 0 && System.currentTimeMillis() - l.creatoIl() > ttlSeconds * 1000L;
+    }
+
+    private Listino calcola() {
+        long start = System.nanoTime();
+        Map<Long, String[]> testi = new LinkedHashMap<>();
+        Map<Long, BigDecimal> listini = new HashMap<>();
+        Map<Long, BigDecimal> totali = new HashMap<>();
+        Map<Long, BigDecimal> prezziMembri = new HashMap<>();
+        jdbc.query(SQL, rs -> {
+            long id = rs.getLong(1);
+            if (!testi.containsKey(id)) {
+                testi.put(id, new String[]{rs.getString(2), rs.getString(3)});
+                listini.put(id, rs.getBigDecimal(4));
+                totali.put(id, BigDecimal.ZERO);
+            }
+            long idProdotto = rs.getLong(5);
+            if (rs.wasNull()) return; // pacchetto senza prodotti
+            BigDecimal prezzoPieno = rs.getBigDecimal(7);
+            BigDecimal prezzoScontato = rs.getBigDecimal(8);
+            BigDecimal prezzo = rs.getBoolean(9) && prezzoScontato != null ? prezzoScontato : prezzoPieno;
+            prezziMembri.put(idProdotto, null);
+            if (prezzo == null) return; // prodotto inesistente o senza prezzo
+            int quantita = rs.getInt(6);
+            if (rs.wasNull()) quantita = 1;
+            totali.merge(id, prezzo.multiply(BigDecimal.valueOf(quantita)), BigDecimal::add);
+        });
+
+        // Stato dei membri come lo vede il catalogo, lo stesso che arriva con le notifiche
+        Map<Long, ProdottoCatalogo> nelCatalogo = catalogo.versione().prodotti();
+        prezziMembri.replaceAll((idProdotto, nessuno) -> prezzoNelCatalogo(nelCatalogo.get(idProdotto)));
+
+        Map<Long, PrezzoPacchetto> pacchetti = new HashMap<>();
+        List<PacchettoVista> elenco = new ArrayList<>(testi.size());
+        testi.forEach((id, t) -> {
+            BigDecimal totale = totali.get(id).setScale(2, RoundingMode.HALF_UP);
+            BigDecimal scontato = prezzoScontato(totale);
+            BigDecimal listino = listini.get(id);
+            pacchetti.put(id, new PrezzoPacchetto(id, t[0], t[1], listino, totale, scontato));
+            elenco.add(new PacchettoVista(id, t[0], t[1], listino, listino, scontato));
+        });
+        ultimoCalcoloMicros = (System.nanoTime() - start) / 1000;
+        return new Listino(contatoreListini.incrementAndGet(), System.currentTimeMillis(), CatalogoSnapshot.impronta(elenco),
+                Collections.unmodifiableMap(pacchetti), List.copyOf(elenco), Collections.unmodifiableMap(prezziMembri));
+    }
+
+    @Override
+    public void catalogoRicaricato(CatalogoSnapshot.Versione versione) {
+        Listino l = corrente;
+        if (l != null) verificaMembri(l, versione, l.prezziMembri().keySet());
+    }
+
+    @Override
+    public void prodottiAggiornati(CatalogoSnapshot.Versione versione, Collection<Long> idProdotti) {
+        Listino l = corrente;
+        if (l != null) verificaMembri(l, versione, idProdotti);
+    }
+
+    private static BigDecimal prezzoNelCatalogo(ProdottoCatalogo p) {
+        return p == null ? null : p.prezzo();
+    }
+
+    /**
+     * Invalida solo se per uno dei prodotti membri è cambiato lo stato nel catalogo: prezzo effettivo diverso,
+     * oppure prodotto sparito o ricomparso. Un membro assente prima e dopo (es. bloccato) non invalida.
+     */
+    private void verificaMembri(Listino l, CatalogoSnapshot.Versione versione, Collection<Long> idProdotti) {
+        for (Long id : idProdotti) {
+            if (!l.prezziMembri().containsKey(id)) continue;
+            BigDecimal prima = l.prezziMembri().get(id);
+            BigDecimal adesso = prezzoNelCatalogo(versione.prodotti().get(id));
+            boolean uguale = prima == null ? adesso == null : adesso != null && adesso.compareTo(prima) == 0;
+            if (!uguale) {
+                invalida();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public String nome() {
+        return "prezzi_pacchetti";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Listino l = corrente;
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("pacchetti", l == null ? 0 : l.pacchetti().size());
+        out.put("prodotti_membri", l == null ? 0 : l.prezziMembri().size());
+        out.put("hit", hit.sum());
+        out.put("miss", miss.sum());
+        out.put("invalidazioni", invalidazioni.get());
+        out.put("ultimo_calcolo_us", ultimoCalcoloMicros);
+        return out;
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.backendjava.service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.backendjava.jdbc.Dialetto;
+import com.example.backendjava.jdbc.Righe;
+import com.example.backendjava.jdbc.Transazioni;
+import com.example.backendjava.metrics.StatsProvider;
+
+/**
+ * Registro dei coupon in memoria, per codice, e riscatto atomico.
+ * La verifica di un coupon legge la definizione dalla cache (invalidata da creazione, modifica e
+ * cancellazione) e interroga coupon_utilizzi solo per i coupon a uso singolo.
+ * Il riscatto è un UPDATE condizionato (compare-and-increment su usi_attuali, con usi_massimi, attivo e
+ * scadenza nella WHERE) più l'inserimento in coupon_utilizzi protetto dalla chiave univoca
+ * (db/002_coupon_utilizzi_chiave_unica.sql): nessun lock di tabella, solo il lock della riga del coupon.
+ */
+@Service
+public class RegistroCoupon implements StatsProvider {
+
+    private static final String COLONNE = "id, codice, descrizione, tipo_sconto, valore_sconto, importo_minimo, data_scadenza, usi_massimi, usi_attuali, attivo, uso_singolo";
+
+    // Compare-and-increment: aumenta usi_attuali solo se il coupon è ancora utilizzabile
+    private static final String INCREMENTA = "UPDATE coupon SET usi_attuali = COALESCE(usi_attuali, 0) + 1 WHERE id = ? AND attivo = TRUE"
+            + " AND (data_scadenza IS NULL OR data_scadenza >= CURRENT_DATE)"
+            + " AND (usi_massimi IS NULL OR COALESCE(usi_attuali, 0) < usi_massimi)";
+
+    private static final RowMapper<Coupon> MAPPER = (rs, n) -> new Coupon(rs.getLong(1), rs.getString(2), rs.getString(3),
+            rs.getString(4), rs.getBigDecimal(5), rs.getBigDecimal(6), rs.getDate(7), Righe.intOrNull(rs, 8),
+            rs.getInt(9), rs.getBoolean(10), rs.getBoolean(11));
+
+    /** Definizione di un coupon; usiAttuali è il valore al momento della lettura. */
+    public record Coupon(long id, String codice, String descrizione, String tipoSconto, BigDecimal valoreSconto,
+                         BigDecimal importoMinimo, Date dataScadenza, Integer usiMassimi, int usiAttuali,
+                         boolean attivo, boolean usoSingolo) {
+
+        /** Attivo, non scaduto e con usi disponibili. */
+        public boolean utilizzabile(LocalDate oggi) {
+            return attivo
+                    && (dataScadenza == null || !dataScadenza.toLocalDate().isBefore(oggi))
+                    && (usiMassimi == null || usiAttuali < usiMassimi);
+        }
+    }
+
+    /** Esito della verifica di un coupon su un totale; sconto e totale scontato solo se valido. */
+    public record Valutazione(boolean valido, String messaggio, Coupon coupon, BigDecimal sconto, BigDecimal totaleScontato) {
+
+        static Valutazione nonValido(String messaggio) {
+            return new Valutazione(false, messaggio, null, null, null);
+        }
+    }
+
+    public enum Riscatto {
+        RISCATTATO, NON_VALIDO, GIA_USATO
+    }
+
+    private record Voce(Optional<Coupon> coupon, long caricataIl) {
+    }
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+
+    private final long ttlSeconds;
+    private final int maxVoci;
+
+    private final Map<String, Voce> perCodice = new ConcurrentHashMap<>();
+    // Una lettura iniziata prima di un'invalidazione non finisce in cache
+    private final AtomicLong generazione = new AtomicLong();
+    private volatile Boolean postgres;
+
+    private final LongAdder hit = new LongAdder();
+    private final LongAdder miss = new LongAdder();
+    private final LongAdder invalidazioni = new LongAdder();
+    private final LongAdder riscattati = new LongAdder();
+    private final LongAdder nonValidi = new LongAdder();
+    private final LongAdder giaUsati = new LongAdder();
+
+    public RegistroCoupon(JdbcTemplate jdbc, PlatformTransactionManager transactionManager,
+                          @Value("${coupon.cache.ttl-seconds:300}") long ttlSeconds,
+                          @Value("${coupon.cache.max-voci:10000}") int maxVoci) {
+        this.jdbc = jdbc;
+        this.tx = new TransactionTemplate(transactionManager);
+        this.ttlSeconds = ttlSeconds;
+        this.maxVoci = maxVoci;
+    }
+
+    /** Coupon con il codice indicato (maiuscolo), dalla cache o dal database. */
+    public Optional<Coupon> perCodice(String codice) {
+        Voce v = perCodice.get(codice);
+        if (v != null && System.currentTimeMillis() - v.caricataIl() < ttlSeconds * 1000) {
+            hit.increment();
+            return v.coupon();
+        }
+        miss.increment();
+        long gen = generazione.get();
+        List<Coupon> trovati = jdbc.query("SELECT " + COLONNE + " FROM coupon WHERE codice = ?", MAPPER, codice);
+        Optional<Coupon> coupon = trovati.stream().findFirst();
+        if (generazione.get() == gen) {
+            if (perCodice.size() >= maxVoci) perCodice.clear();
+            perCodice.put(codice, new Voce(coupon, System.currentTimeMillis()));
+        }
+        return coupon;
+    }
+
+    /**
+     * Verifica il coupon per l'utente e calcola lo sconto sul totale.
+     * Non riserva nulla: il riscatto vero è {@link #riscatta(long, long)}.
+     */
+    public Valutazione valuta(String codice, long idUtente, BigDecimal totale) {
+        Optional<Coupon> trovato = perCodice(codice);
+        if (trovato.isEmpty() || !trovato.get().utilizzabile(LocalDate.now())) {
+            return Valutazione.nonValido("Coupon non valido, scaduto o esaurito");
+        }
+        Coupon c = trovato.get();
+        if (c.usoSingolo() && giaUsato(c.id(), idUtente)) {
+            return Valutazione.nonValido("Hai già utilizzato questo coupon");
+        }
+        return applica(c, totale);
+    }
+
+    /**
+     * Applica le regole di sconto (importo minimo, percentuale o fisso) al totale, senza controllare
+     * l'utilizzo da parte dell'utente: lo fa il riscatto.
+     */
+    public Valutazione applica(Coupon c, BigDecimal totale) {
+        if (c.importoMinimo() != null && totale.compareTo(c.importoMinimo()) < 0) {
+            return Valutazione.nonValido("Importo minimo richiesto: €" + c.importoMinimo());
+        }
+        BigDecimal sconto;
+        if ("percentuale".equalsIgnoreCase(c.tipoSconto())) {
+            sconto = totale.multiply(c.valoreSconto()).divide(BigDecimal.valueOf(100));
+        } else {
+            sconto = c.valoreSconto().min(totale);
+        }
+        BigDecimal totaleScontato = totale.subtract(sconto);
+        if (totaleScontato.compareTo(BigDecimal.ZERO) < 0) totaleScontato = BigDecimal.ZERO;
+        return new Valutazione(true, "Coupon applicato: " + c.descrizione(), c,
+                sconto.setScale(2, RoundingMode.HALF_UP), totaleScontato.setScale(2, RoundingMode.HALF_UP));
+    }
+
+    private boolean giaUsato(long idCoupon, long idUtente) {
+        return !jdbc.queryForList("SELECT 1 FROM coupon_utilizzi WHERE coupon_id = ? AND user_id = ?", Integer.class, idCoupon, idUtente).isEmpty();
+    }
+
+    /**
+     * Riscatta un uso del coupon per l'utente, nella transazione corrente se c'è (checkout) o in una nuova.
+     * L'incremento avviene solo se il coupon è ancora attivo, non scaduto e sotto usi_massimi; per i coupon
+     * a uso singolo un secondo riscatto dello stesso utente viene rifiutato senza incrementare.
+     */
+    public Riscatto riscatta(long idCoupon, long idUtente) {
+        List<Boolean> usoSingolo = jdbc.queryForList("SELECT uso_singolo FROM coupon WHERE id = ?", Boolean.class, idCoupon);
+        if (usoSingolo.isEmpty()) {
+            nonValidi.increment();
+            return Riscatto.NON_VALIDO;
+        }
+        return riscatta(idCoupon, Boolean.TRUE.equals(usoSingolo.get(0)), idUtente);
+    }
+
+    /** Come {@link #riscatta(long, long)} per un coupon già letto (dalla cache), senza rileggerne la definizione. */
+    public Riscatto riscatta(Coupon coupon, long idUtente) {
+        return riscatta(coupon.id(), coupon.usoSingolo(), idUtente);
+    }
+
+    private Riscatto riscatta(long idCoupon, boolean singolo, long idUtente) {
+        Riscatto esito = tx.execute(status -> {
+            // Prima l'utilizzo: la chiave univoca serializza i riscatti concorrenti dello stesso utente
+            if (singolo && !registraUtilizzo(idCoupon, idUtente)) return Riscatto.GIA_USATO;
+            if (jdbc.update(INCREMENTA, idCoupon) == 0) {
+                if (singolo) jdbc.update("DELETE FROM coupon_utilizzi WHERE coupon_id = ? AND user_id = ?", idCoupon, idUtente);
+                return Riscatto.NON_VALIDO;
+            }
+            return Riscatto.RISCATTATO;
+        });
+        switch (esito) {
+            case RISCATTATO -> {
+                riscattati.increment();
+                // usi_attuali è cambiato: la definizione in cache va riletta
+                Transazioni.dopoCommit(() -> scarta(idCoupon));
+            }
+            case GIA_USATO -> giaUsati.increment();
+            default -> nonValidi.increment();
+        }
+        return esito;
+    }
+
+    /** Inserisce l'utilizzo; false se l'utente ha già usato il coupon. */
+    private boolean registraUtilizzo(long idCoupon, long idUtente) {
+        if (postgres()) {
+            return jdbc.update("INSERT INTO coupon_utilizzi (coupon_id, user_id) VALUES (?, ?) ON CONFLICT DO NOTHING", idCoupon, idUtente) > 0;
+        }
+        try {
+            return jdbc.update("INSERT INTO coupon_utilizzi (coupon_id, user_id) VALUES (?, ?)", idCoupon, idUtente) > 0;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    private void scarta(long idCoupon) {
+        generazione.incrementAndGet();
+        perCodice.values().removeIf(v -> v.coupon().isPresent() && v.coupon().get().id() == idCoupon);
+    }
+
+    /** Svuota la cache (dopo il commit, se chiamato dentro una transazione). */
+    public void invalida() {
+        svuota();
+        Transazioni.dopoCommit(this::svuota);
+    }
+
+    private void svuota() {
+        generazione.incrementAndGet();
+        perCodice.clear();
+        invalidazioni.increment();
+    }
+
+    private boolean postgres() {
+        Boolean pg = postgres;
+        if (pg == null) {
+            pg = Dialetto.postgres(jdbc);
+            postgres = pg;
+        }
+        return pg;
+    }
+
+    @Override
+    public String nome() {
+        return "coupon";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("in_cache", perCodice.size());
+        out.put("hit", hit.sum());
+        out.put("miss", miss.sum());
+        out.put("invalidazioni", invalidazioni.sum());
+        out.put("riscattati", riscattati.sum());
+        out.put("non_validi", nonValidi.sum());
+        out.put("gia_usati", giaUsati.sum());
+        return out;
+    }
+}
@@ -0,0 +1,316 @@
+package com.example.backendjava.service;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.example.backendjava.metrics.StatsProvider;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Varianti ridimensionate e ricompresse (JPEG) delle immagini caricate, per non scaricare l'originale
+ * nelle griglie del catalogo: uploads/&lt;categoria&gt;/&lt;formato&gt;/&lt;file&gt;.
+ * Vengono generate su un pool di thread con coda limitata, al caricamento dell'immagine oppure alla prima
+ * richiesta di una variante mancante (immagini caricate prima); finché non esiste si serve l'originale.
+ * Un originale più stretto del formato non viene ingrandito: si usa l'originale.
+ * Le dimensioni si leggono dall'intestazione prima di decodificare: oltre max-pixel l'immagine non viene
+ * decodificata (un file piccolo può dichiarare decine di migliaia di pixel per lato) e si serve l'originale.
+ */
+@Service
+public class VariantiImmagini implements StatsProvider {
+
+    /** Formati disponibili, con il nome usato nel parametro {@code size} e nella cartella. */
+    public enum Formato {
+        MINIATURA("thumb", 160), CARD("card", 480), DETTAGLIO("detail", 1200);
+
+        private final String nome;
+        private final int larghezza;
+
+        Formato(String nome, int larghezza) {
+            this.nome = nome;
+            this.larghezza = larghezza;
+        }
+
+        public String nome() {
+            return nome;
+        }
+
+        public int larghezza() {
+            return larghezza;
+        }
+
+        /** Formato dal parametro della richiesta. */
+        public static Formato da(String nome) {
+            for (Formato f : values()) if (f.nome.equalsIgnoreCase(nome)) return f;
+            throw new IllegalArgumentException("Formato non supportato: " + nome + " (ammessi thumb, card, detail)");
+        }
+    }
+
+    private static final int MAX_LARGHEZZE = 50_000;
+
+    private final ImmaginiStatiche immagini;
+    private final float qualita;
+    private final long maxPixel;
+    private final ThreadPoolExecutor esecutore;
+    // Originali con una generazione in coda o in corso: le richieste ripetute non la riaccodano
+    private final Set<Path> inCorso = ConcurrentHashMap.newKeySet();
+    // Originali non decodificabili (o non immagini): non vengono ritentati a ogni richiesta
+    private final Set<Path> nonElaborabili = ConcurrentHashMap.newKeySet();
+    // Larghezza degli originali già decodificati: per i formati più larghi non c'è variante da generare
+    private final Map<Path, Integer> larghezze = new ConcurrentHashMap<>();
+
+    private final LongAdder generate = new LongAdder();
+    private final LongAdder fallite = new LongAdder();
+    private final LongAdder rifiutate = new LongAdder();
+    private final LongAdder troppoGrandi = new LongAdder();
+    private final LongAdder byteOriginali = new LongAdder();
+    private final LongAdder byteVarianti = new LongAdder();
+    private final LongAdder durataTotaleMillis = new LongAdder();
+
+    public VariantiImmagini(ImmaginiStatiche immagini,
+                            @Value("${immagini.varianti.thread:2}") int thread,
+                            @Value("${immagini.varianti.coda:200}") int coda,
+                            @Value("${immagini.varianti.qualita:0.8}") double qualita,
+                            @Value("${immagini.varianti.max-pixel:40000000}") long maxPixel) {
+        this.immagini = immagini;
+        this.qualita = (float) qualita;
+        this.maxPixel = maxPixel;
+        AtomicInteger contatore = new AtomicInteger();
+        this.esecutore = new ThreadPoolExecutor(thread, thread, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(coda), r -> {
+            Thread t = new Thread(r, "varianti-immagini-" + contatore.incrementAndGet());
+            t.setDaemon(true);
+            // Ridimensionare non deve rubare CPU alle richieste
+            t.setPriority(Thread.NORM_PRIORITY - 1);
+            return t;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        this.esecutore.allowCoreThreadTimeOut(true);
+    }
+
+    /** Nome del file della variante: sempre JPEG. */
+    static String nomeVariante(String nomeFile) {
+        String minuscolo = nomeFile.toLowerCase(Locale.ROOT);
+        return minuscolo.endsWith(".jpg") || minuscolo.endsWith(".jpeg") ? nomeFile : nomeFile + ".jpg";
+    }
+
+    /**
+     * Variante già generata, oppure l'originale se è più stretto del formato. Se la variante manca ne accoda
+     * la generazione e restituisce vuoto: il chiamante serve l'originale in via provvisoria.
+     */
+    public Optional<ImmaginiStatiche.Immagine> variante(String categoria, String nomeFile, Formato formato) {
+        Optional<ImmaginiStatiche.Immagine> variante = immagini.trovaVariante(categoria, formato.nome(), nomeVariante(nomeFile));
+        if (variante.isPresent()) return variante;
+        Optional<ImmaginiStatiche.Immagine> originale = immagini.trova(categoria, nomeFile);
+        if (originale.isEmpty()) return Optional.empty();
+        if (!daGenerare(originale.get(), formato)) return originale;
+        accoda(originale.get());
+        return Optional.empty();
+    }
+
+    private boolean daGenerare(ImmaginiStatiche.Immagine originale, Formato formato) {
+        Integer larghezza = larghezze.get(originale.percorso());
+        return larghezza == null || larghezza > formato.larghezza();
+    }
+
+    /** Accoda la generazione di tutte le varianti di un'immagine appena caricata. */
+    public void genera(String categoria, String nomeFile) {
+        immagini.trova(categoria, nomeFile).ifPresent(this::accoda);
+    }
+
+    private void accoda(ImmaginiStatiche.Immagine originale) {
+        Path file = originale.percorso();
+        if (nonElaborabili.contains(file) || !inCorso.add(file)) return;
+        try {
+            esecutore.execute(() -> {
+                try {
+                    generaTutte(originale);
+                } finally {
+                    inCorso.remove(file);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Coda piena: verrà ritentata alla prossima richiesta della variante
+            inCorso.remove(file);
+            rifiutate.increment();
+        }
+    }
+
+    /** Decodifica l'originale una volta e scrive tutti i formati più stretti dell'originale. */
+    void generaTutte(ImmaginiStatiche.Immagine originale) {
+        long start = System.currentTimeMillis();
+        Path file = originale.percorso();
+        try {
+            BufferedImage sorgente = decodifica(file);
+            if (sorgente == null) {
+                nonElaborabili.add(file);
+                return;
+            }
+            if (larghezze.size() >= MAX_LARGHEZZE) larghezze.clear();
+            larghezze.put(file, sorgente.getWidth());
+            for (Formato f : Formato.values()) {
+                if (sorgente.getWidth() <= f.larghezza()) continue;
+                Path destinazione = file.getParent().resolve(f.nome()).resolve(nomeVariante(originale.nome()));
+                if (Files.exists(destinazione)) continue;
+                scrivi(ridimensiona(sorgente, f.larghezza()), destinazione);
+                immagini.dimentica(destinazione);
+                byteOriginali.add(originale.dimensione());
+                byteVarianti.add(Files.size(destinazione));
+                generate.increment();
+            }
+        } catch (IOException | RuntimeException e) {
+            fallite.increment();
+        } finally {
+            durataTotaleMillis.add(System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Legge larghezza e altezza dall'intestazione e decodifica solo se i pixel non superano max-pixel.
+     * Null (già contato tra fallite o troppo_grandi) se il file non è un'immagine leggibile o è troppo grande.
+     */
+    private BufferedImage decodifica(Path file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            Iterator<ImageReader> lettori = in == null ? null : ImageIO.getImageReaders(in);
+            if (lettori == null || !lettori.hasNext()) {
+                fallite.increment();
+                return null;
+            }
+            ImageReader lettore = lettori.next();
+            try {
+                lettore.setInput(in, true, true);
+                if ((long) lettore.getWidth(0) * lettore.getHeight(0) > maxPixel) {
+                    troppoGrandi.increment();
+                    return null;
+                }
+                return lettore.read(0);
+            } finally {
+                lettore.dispose();
+            }
+        }
+    }
+
+    /** Riduce per dimezzamenti successivi e poi alla larghezza finale: più nitido di un solo passaggio bilineare. */
+    static BufferedImage ridimensiona(BufferedImage sorgente, int larghezza) {
+        BufferedImage corrente = sorgente;
+        int w = sorgente.getWidth();
+        int h = sorgente.getHeight();
+        int altezza = Math.max(1, (int) Math.round((double) h * larghezza / w));
+        do {
+            w = Math.max(larghezza, w / 2);
+            h = w == larghezza ? altezza : Math.max(altezza, h / 2);
+            BufferedImage passo = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = passo.createGraphics();
+            try {
+                // Le trasparenze diventano bianco, come lo sfondo delle card
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, w, h);
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.drawImage(corrente, 0, 0, w, h, null);
+            } finally {
+                g.dispose();
+            }
+            corrente = passo;
+        } while (w > larghezza);
+        return corrente;
+    }
+
+    /** Scrive il JPEG in un file temporaneo e lo sposta: chi serve le varianti non vede mai un file a metà. */
+    private void scrivi(BufferedImage immagine, Path destinazione) throws IOException {
+        Files.createDirectories(destinazione.getParent());
+        Path temporaneo = Files.createTempFile(destinazione.getParent(), ".variante", ".tmp");
+        try {
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+            try (ImageOutputStream out = ImageIO.createImageOutputStream(temporaneo.toFile())) {
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(qualita);
+                param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+                writer.setOutput(out);
+                writer.write(null, new IIOImage(immagine, null, null), param);
+            } finally {
+                writer.dispose();
+            }
+            try {
+                Files.move(temporaneo, destinazione, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaneo, destinazione, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporaneo);
+        }
+    }
+
+    /** Cancella le varianti di un'immagine; va chiamato prima di cancellare l'originale. */
+    public void elimina(String categoria, String nomeFile) {
+        Optional<ImmaginiStatiche.Immagine> originale = immagini.trova(categoria, nomeFile);
+        if (originale.isEmpty()) return;
+        Path cartella = originale.get().percorso().getParent();
+        for (Formato f : Formato.values()) {
+            Path variante = cartella.resolve(f.nome()).resolve(nomeVariante(nomeFile));
+            try {
+                Files.deleteIfExists(variante);
+            } catch (IOException ignored) {
+                // Non critico: resta un file orfano
+            }
+            immagini.dimentica(variante);
+        }
+    }
+
+    @PreDestroy
+    public void chiudi() throws InterruptedException {
+        esecutore.shutdown();
+        esecutore.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public String nome() {
+        return "varianti_immagini";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        long n = generate.sum();
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("generate", n);
+        out.put("fallite", fallite.sum());
+        out.put("rifiutate", rifiutate.sum());
+        out.put("troppo_grandi", troppoGrandi.sum());
+        out.put("in_coda", esecutore.getQueue().size());
+        out.put("in_corso", inCorso.size());
+        out.put("durata_totale_ms", durataTotaleMillis.sum());
+        // Quanto pesa in media una variante rispetto al suo originale
+        out.put("rapporto_byte", byteOriginali.sum() == 0 ? 0 : (double) byteVarianti.sum() / byteOriginali.sum());
+        return out;
+    }
+}
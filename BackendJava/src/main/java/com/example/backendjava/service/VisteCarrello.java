@@ -0,0 +1,203 @@
+package com.example.backendjava.service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.example.backendjava.dto.RiepilogoCarrello;
+import com.example.backendjava.dto.RigaCarrello;
+import com.example.backendjava.jdbc.Transazioni;
+import com.example.backendjava.metrics.StatsProvider;
+
+/**
+ * Vista del carrello di un utente letta con una sola query: righe prodotto e righe pacchetto in UNION ALL,
+ * con il totale effettivo dei prodotti di ogni pacchetto già aggregato nel database.
+ * Prezzi, subtotali e totale vengono calcolati in un solo passaggio sulle righe.
+ * La vista di ogni utente resta in cache fino alla successiva scrittura sul suo carrello; la cache viene
+ * svuotata quando nel catalogo cambia quello che la vista mostra (prezzo effettivo, nome, immagine) di un
+ * prodotto, non per le sole variazioni di giacenza.
+ */
+@Service
+public class VisteCarrello implements CatalogoSnapshot.Listener, StatsProvider {
+
+    private static final String PREZZO_EFFETTIVO = "CASE WHEN p.promo = TRUE AND p.prezzo_scontato IS NOT NULL THEN p.prezzo_scontato ELSE p.prezzo END";
+
+    // Colonne: 1 ordine (0 prodotto, 1 pacchetto), 2 id, 3 quantita, 4 nome, 5 prezzo (per i pacchetti: totale prodotti), 6 immagine
+    private static final String SQL = "SELECT 0, c.id_prodotto, c.quantita, p.nome, " + PREZZO_EFFETTIVO + ", p.immagine FROM carrello c JOIN prodotto p ON c.id_prodotto = p.id_prodotto WHERE c.id_utente = ?"
+            + " UNION ALL SELECT 1, cp.id_pacchetto, cp.quantita, pt.nome, SUM(" + PREZZO_EFFETTIVO + " * COALESCE(pp.quantita, 1)), CAST(NULL AS VARCHAR(255))"
+            + " FROM carrello_pacchetto cp JOIN pacchetto_tematico pt ON cp.id_pacchetto = pt.id_pacchetto LEFT JOIN prodotto_pacchetto pp ON pp.id_pacchetto = pt.id_pacchetto LEFT JOIN prodotto p ON pp.id_prodotto = p.id_prodotto"
+            + " WHERE cp.id_utente = ? GROUP BY cp.id_pacchetto, cp.quantita, pt.nome"
+            + " ORDER BY 1, 2";
+
+    private final JdbcTemplate jdbc;
+    private final CatalogoSnapshot catalogo;
+
+    private final boolean cacheAttiva;
+    private final int maxUtenti;
+
+    private final Map<Long, RiepilogoCarrello> cache = new ConcurrentHashMap<>();
+    // Versione del carrello di ogni utente: una lettura iniziata prima di una scrittura non finisce in cache.
+    // Viene svuotata insieme alla cache (e al più ogni maxUtenti utenti): versioneCatalogo scarta le letture in corso
+    private final Map<Long, AtomicLong> versioni = new ConcurrentHashMap<>();
+    private final AtomicLong versioneCatalogo = new AtomicLong();
+    // Ultima versione del catalogo vista, per confrontare i prodotti aggiornati
+    private volatile CatalogoSnapshot.Versione ultimaVersione;
+
+    private final LongAdder hit = new LongAdder();
+    private final LongAdder miss = new LongAdder();
+    private final LongAdder invalidazioni = new LongAdder();
+    private final LongAdder svuotamenti = new LongAdder();
+    private volatile long ultimaLetturaMicros;
+
+    public VisteCarrello(JdbcTemplate jdbc, CatalogoSnapshot catalogo,
+                         @Value("${carrello.cache.enabled:true}") boolean cacheAttiva,
+                         @Value("${carrello.cache.max-utenti:10000}") int maxUtenti) {
+        this.jdbc = jdbc;
+        this.catalogo = catalogo;
+        this.cacheAttiva = cacheAttiva;
+        this.maxUtenti = maxUtenti;
+        catalogo.aggiungiListener(this);
+    }
+
+    public RiepilogoCarrello vista(long idUtente) {
+        if (cacheAttiva) {
+            RiepilogoCarrello v = cache.get(idUtente);
+            if (v != null) {
+                hit.increment();
+                return v;
+            }
+        }
+        miss.increment();
+        if (!cacheAttiva) return leggi(idUtente);
+        // Il catalogo deve essere caricato perché le sue notifiche arrivino (e svuotino questa cache)
+        CatalogoSnapshot.Versione c = catalogo.versione();
+        if (ultimaVersione == null) ultimaVersione = c;
+        long versioneUtente = versione(idUtente).get();
+        long versioneProdotti = versioneCatalogo.get();
+        RiepilogoCarrello v = leggi(idUtente);
+        if (versione(idUtente).get() == versioneUtente && versioneCatalogo.get() == versioneProdotti) {
+            if (cache.size() >= maxUtenti) svuota();
+            cache.put(idUtente, v);
+        }
+        return v;
+    }
+
+    /**
+     * Il carrello dell'utente è cambiato (o sta per cambiare nella transazione corrente).
+     * La vista viene scartata subito e di nuovo dopo il commit.
+     */
+    public void invalida(long idUtente) {
+        scarta(idUtente);
+        Transazioni.dopoCommit(() -> scarta(idUtente));
+    }
+
+    private void scarta(long idUtente) {
+        if (!cacheAttiva) return;
+        versione(idUtente).incrementAndGet();
+        if (cache.remove(idUtente) != null) invalidazioni.increment();
+    }
+
+    private AtomicLong versione(long idUtente) {
+        AtomicLong v = versioni.get(idUtente);
+        if (v != null) return v;
+        if (versioni.size() >= maxUtenti) svuota();
+        return versioni.computeIfAbsent(idUtente, k -> new AtomicLong());
+    }
+
+    private RiepilogoCarrello leggi(long idUtente) {
+        long start = System.nanoTime();
+        List<RigaCarrello> righe = new ArrayList<>();
+        BigDecimal[] totale = {BigDecimal.ZERO};
+        int[] articoli = {0};
+        jdbc.query(SQL, rs -> {
+            boolean pacchetto = rs.getInt(1) == 1;
+            long id = rs.getLong(2);
+            int quantita = rs.getInt(3);
+            BigDecimal prezzo = rs.getBigDecimal(5);
+            if (prezzo == null) prezzo = BigDecimal.ZERO;
+            prezzo = pacchetto ? PrezziPacchetti.prezzoScontato(prezzo) : prezzo.setScale(2, RoundingMode.HALF_UP);
+            BigDecimal subtotale = prezzo.multiply(BigDecimal.valueOf(quantita));
+            totale[0] = totale[0].add(subtotale);
+            articoli[0] += quantita;
+            if (pacchetto) {
+                righe.add(new RigaCarrello("pacchetto", null, id, quantita, rs.getString(4), prezzo, subtotale, null, null));
+            } else {
+                String img = rs.getString(6);
+                righe.add(new RigaCarrello("prodotto", id, null, quantita, rs.getString(4), prezzo, subtotale, img,
+                        catalogo.productImageUrl(img)));
+            }
+        }, idUtente, idUtente);
+        ultimaLetturaMicros = (System.nanoTime() - start) / 1000;
+        return new RiepilogoCarrello(List.copyOf(righe), articoli[0], totale[0]);
+    }
+
+    @Override
+    public void catalogoRicaricato(CatalogoSnapshot.Versione versione) {
+        ultimaVersione = versione;
+        svuota();
+    }
+
+    /**
+     * Svuota solo se per uno dei prodotti è cambiato quello che la vista mostra: prezzo effettivo
+     * (anche dei pacchetti che lo contengono), nome o immagine, oppure il prodotto è sparito o ricomparso.
+     */
+    @Override
+    public void prodottiAggiornati(CatalogoSnapshot.Versione versione, Collection<Long> idProdotti) {
+        CatalogoSnapshot.Versione prima = ultimaVersione;
+        ultimaVersione = versione;
+        if (prima == null) {
+            svuota();
+            return;
+        }
+        for (Long id : idProdotti) {
+            if (cambiato(prima.prodotti().get(id), versione.prodotti().get(id))) {
+                svuota();
+                return;
+            }
+        }
+    }
+
+    private static boolean cambiato(CatalogoSnapshot.ProdottoCatalogo prima, CatalogoSnapshot.ProdottoCatalogo adesso) {
+        if (prima == null || adesso == null) return prima != adesso;
+        boolean stessoPrezzo = prima.prezzo() == null ? adesso.prezzo() == null
+                : adesso.prezzo() != null && adesso.prezzo().compareTo(prima.prezzo()) == 0;
+        return !stessoPrezzo || !Objects.equals(prima.nome(), adesso.nome()) || !Objects.equals(prima.immagine(), adesso.immagine());
+    }
+
+    private void svuota() {
+        versioneCatalogo.incrementAndGet();
+        cache.clear();
+        versioni.clear();
+        svuotamenti.increment();
+    }
+
+    @Override
+    public String nome() {
+        return "viste_carrello";
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("cache_attiva", cacheAttiva);
+        out.put("utenti_in_cache", cache.size());
+        out.put("hit", hit.sum());
+        out.put("miss", miss.sum());
+        out.put("invalidazioni", invalidazioni.sum());
+        out.put("svuotamenti", svuotamenti.sum());
+        out.put("ultima_lettura_us", ultimaLetturaMicros);
+        return out;
+    }
+}
@@ -0,0 +1,28 @@
+-- Chiavi univoche del carrello, richieste dagli upsert (INSERT ... ON CONFLICT) di ArchivioCarrelli.
+-- Le eventuali righe duplicate lasciate dal vecchio percorso SELECT + INSERT vengono prima accorpate
+-- sommandone le quantità. Da eseguire una volta su PostgreSQL (14 o successivo):
+--   psql -d <database> -f 001_carrello_chiavi_uniche.sql
+
+BEGIN;
+
+UPDATE carrello c SET quantita = d.totale
+FROM (SELECT id_utente, id_prodotto, SUM(quantita) AS totale, MIN(ctid) AS prima
+      FROM carrello GROUP BY id_utente, id_prodotto HAVING COUNT(*) > 1) d
+WHERE c.ctid = d.prima;
+
+DELETE FROM carrello c USING carrello d
+WHERE c.id_utente = d.id_utente AND c.id_prodotto = d.id_prodotto AND c.ctid > d.ctid;
+
+CREATE UNIQUE INDEX IF NOT EXISTS carrello_utente_prodotto_uk ON carrello (id_utente, id_prodotto);
+
+UPDATE carrello_pacchetto c SET quantita = d.totale
+FROM (SELECT id_utente, id_pacchetto, SUM(quantita) AS totale, MIN(ctid) AS prima
+      FROM carrello_pacchetto GROUP BY id_utente, id_pacchetto HAVING COUNT(*) > 1) d
+WHERE c.ctid = d.prima;
+
+DELETE FROM carrello_pacchetto c USING carrello_pacchetto d
+WHERE c.id_utente = d.id_utente AND c.id_pacchetto = d.id_pacchetto AND c.ctid > d.ctid;
+
+CREATE UNIQUE INDEX IF NOT EXISTS carrello_pacchetto_utente_pacchetto_uk ON carrello_pacchetto (id_utente, id_pacchetto);
+
+COMMIT;
@@ -0,0 +1,13 @@
+-- Chiave univoca su coupon_utilizzi, richiesta dal riscatto atomico di RegistroCoupon: per i coupon a uso
+-- singolo è l'inserimento dell'utilizzo a rifiutare un secondo riscatto dello stesso utente.
+-- Gli eventuali utilizzi duplicati vengono prima rimossi. Da eseguire una volta su PostgreSQL:
+--   psql -d <database> -f 002_coupon_utilizzi_chiave_unica.sql
+
+BEGIN;
+
+DELETE FROM coupon_utilizzi c USING coupon_utilizzi d
+WHERE c.coupon_id = d.coupon_id AND c.user_id = d.user_id AND c.ctid > d.ctid;
+
+CREATE UNIQUE INDEX IF NOT EXISTS coupon_utilizzi_coupon_utente_uk ON coupon_utilizzi (coupon_id, user_id);
+
+COMMIT;
@@ -0,0 +1,10 @@
+-- Indice su prodotto(immagine), usato da ArchivioImmagini come conteggio dei riferimenti: le immagini caricate
+-- si chiamano come l'hash del contenuto e più prodotti possono condividere lo stesso file, che viene cancellato
+-- solo quando nessun prodotto lo referenzia più. Da eseguire una volta su PostgreSQL:
+--   psql -d <database> -f 003_prodotto_immagine_indice.sql
+
+BEGIN;
+
+CREATE INDEX IF NOT EXISTS prodotto_immagine_idx ON prodotto (immagine);
+
+COMMIT;
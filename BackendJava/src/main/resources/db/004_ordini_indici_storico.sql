@@ -0,0 +1,17 @@
+-- Indici per lo storico ordini paginato in keyset su (data_ordine, id), per utente:
+--  - ordini (user_id, data_ordine DESC, id DESC) con le colonne della lista in INCLUDE: ogni pagina è una
+--    lettura contigua dell'indice che parte dal cursore, senza sort e senza accesso alla tabella;
+--  - ordine_prodotti (ordine_id) con quantita, prezzo e prodotto_id: conteggio dei prodotti per ordine
+--    e righe degli ordini senza leggere la tabella.
+-- CONCURRENTLY non blocca le scritture durante la creazione, ma non può stare in una transazione:
+-- per questo non c'è BEGIN/COMMIT. Da eseguire una volta su PostgreSQL (11 o successivo, per INCLUDE):
+--   psql -d <database> -f 004_ordini_indici_storico.sql
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS ordini_utente_data_id_idx
+    ON ordini (user_id, data_ordine DESC, id DESC) INCLUDE (totale, stato, metodo_pagamento);
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS ordine_prodotti_ordine_idx
+    ON ordine_prodotti (ordine_id) INCLUDE (quantita, prezzo, prodotto_id);
+
+ANALYZE ordini;
+ANALYZE ordine_prodotti;
@@ -0,0 +1,61 @@
+package com.example.backendjava.auth;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test unitari per FiltroAutenticazione.
+ * Verifica che l'utente venga ricavato dal token e salvato come attributo della richiesta.
+ */
+class FiltroAutenticazioneTest {
+
+    private static final String SECRET = "testSecretKeyForJWTTokenGenerationInTestEnvironment123456789";
+
+    private final FiltroAutenticazione filtro = new FiltroAutenticazione(new VerificatoreToken(SECRET, 100));
+
+    private MockHttpServletRequest esegui(String authorization) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/profile");
+        if (authorization != null) request.addHeader("Authorization", authorization);
+        filtro.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+        return request;
+    }
+
+    /**
+     * Test: token valido, l'utente con id, ruolo ed email è nell'attributo della richiesta
+     */
+    @Test
+    void testFiltro_TokenValido_ImpostaUtente() throws Exception {
+        String token = JwtUtil.generateToken(Map.of("id", 42, "ruolo", "owner", "email", "a@b.it"), SECRET, 60_000L);
+
+        Object utente = esegui("Bearer " + token).getAttribute(UtenteAutenticato.ATTRIBUTO);
+
+        assertThat(utente).isEqualTo(new UtenteAutenticato(42L, "owner", "a@b.it"));
+        assertThat(((UtenteAutenticato) utente).admin()).isTrue();
+    }
+
+    /**
+     * Test: senza header o con token non valido la richiesta prosegue senza utente
+     */
+    @Test
+    void testFiltro_TokenAssenteONonValido_NessunUtente() throws Exception {
+        assertThat(esegui(null).getAttribute(UtenteAutenticato.ATTRIBUTO)).isNull();
+        assertThat(esegui("Bearer non-valido").getAttribute(UtenteAutenticato.ATTRIBUTO)).isNull();
+
+        assertThat(filtro.stats()).containsEntry("anonime", 1L).containsEntry("token_non_validi", 1L);
+    }
+
+    /**
+     * Test: il ruolo user non è amministratore
+     */
+    @Test
+    void testUtente_RuoloUser_NonAdmin() {
+        assertThat(new UtenteAutenticato(1L, "user", null).admin()).isFalse();
+        assertThat(new UtenteAutenticato(1L, null, null).admin()).isFalse();
+    }
+}
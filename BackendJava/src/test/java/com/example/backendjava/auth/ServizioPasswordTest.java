@@ -0,0 +1,77 @@
+package com.example.backendjava.auth;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test unitari per ServizioPassword.
+ * Verifica hash e verifica sul pool dedicato, calibrazione del costo e rehash al login.
+ */
+class ServizioPasswordTest {
+
+    private final ServizioPassword passwords = new ServizioPassword(5, 250, 4, 14, 2, 8, 5000);
+
+    @AfterEach
+    void tearDown() {
+        passwords.chiudi();
+    }
+
+    /**
+     * Test: hash con il costo corrente, verificato senza bisogno di rehash
+     */
+    @Test
+    void testCodificaEVerifica_StessoCosto_NessunRehash() {
+        String hash = passwords.codifica("segreta");
+
+        assertThat(ServizioPassword.costoDi(hash)).isEqualTo(5);
+        assertThat(passwords.verifica("segreta", hash)).isEqualTo(new ServizioPassword.Verifica(true, null));
+        assertThat(passwords.verifica("sbagliata", hash).valida()).isFalse();
+    }
+
+    /**
+     * Test: hash salvato con un costo più basso, al login riuscito viene restituito il nuovo hash
+     */
+    @Test
+    void testVerifica_CostoDiverso_RestituisceNuovoHash() {
+        String vecchio = new BCryptPasswordEncoder(4).encode("segreta");
+
+        ServizioPassword.Verifica verifica = passwords.verifica("segreta", vecchio);
+
+        assertThat(verifica.valida()).isTrue();
+        assertThat(verifica.nuovoHash()).isNotNull();
+        assertThat(ServizioPassword.costoDi(verifica.nuovoHash())).isEqualTo(5);
+        assertThat(passwords.verifica("sbagliata", vecchio).nuovoHash()).isNull();
+    }
+
+    /**
+     * Test: hash salvato con un costo più alto, valido e lasciato com'è
+     */
+    @Test
+    void testVerifica_CostoPiuAlto_NessunRehash() {
+        String forte = new BCryptPasswordEncoder(6).encode("segreta");
+
+        assertThat(passwords.verifica("segreta", forte)).isEqualTo(new ServizioPassword.Verifica(true, null));
+        assertThat(passwords.stats()).containsEntry("rehash", 0L);
+    }
+
+    /**
+     * Test: la calibrazione resta tra costo minimo e massimo
+     */
+    @Test
+    void testCalibra_RestaNeiLimiti() {
+        assertThat(ServizioPassword.calibra(0, 4, 6)).isEqualTo(4);
+        assertThat(ServizioPassword.calibra(60_000, 4, 6)).isEqualTo(6);
+    }
+
+    /**
+     * Test: costo letto dal prefisso dell'hash, -1 per formati non BCrypt
+     */
+    @Test
+    void testCostoDi() {
+        assertThat(ServizioPassword.costoDi("$2a$10$abcdefghijklmnopqrstuv")).isEqualTo(10);
+        assertThat(ServizioPassword.costoDi("plain")).isEqualTo(-1);
+    }
+}
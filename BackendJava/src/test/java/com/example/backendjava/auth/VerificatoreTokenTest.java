@@ -0,0 +1,114 @@
+package com.example.backendjava.auth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test unitari per VerificatoreToken.
+ * Verifica cache dei token validi, rifiuto dei token non validi e scadenza.
+ */
+class VerificatoreTokenTest {
+
+    private static final String SECRET = "testSecretKeyForJWTTokenGenerationInTestEnvironment123456789";
+
+    /**
+     * Test: lo stesso token verificato due volte usa la cache la seconda volta
+     */
+    @Test
+    void testVerifica_TokenRipetuto_UsaLaCache() {
+        VerificatoreToken verificatore = new VerificatoreToken(SECRET, 100);
+        String token = JwtUtil.generateToken(Map.of("id", 7, "ruolo", "admin"), SECRET, 60_000L);
+
+        assertThat(verificatore.verifica("Bearer " + token)).get().extracting(c -> c.get("ruolo")).isEqualTo("admin");
+        assertThat(verificatore.verifica(token)).isPresent();
+
+        assertThat(verificatore.stats()).containsEntry("miss", 1L).containsEntry("hit", 1L).containsEntry("cache_dimensione", 1);
+    }
+
+    /**
+     * Test: token firmati con un'altra chiave o malformati non vengono accettati né messi in cache
+     */
+    @Test
+    void testVerifica_TokenNonValido_Rifiutato() {
+        VerificatoreToken verificatore = new VerificatoreToken(SECRET, 100);
+        String altro = JwtUtil.generateToken(Map.of("id", 7), SECRET.replace('t', 'x'), 60_000L);
+
+        assertThat(verificatore.verifica("Bearer " + altro)).isEmpty();
+        assertThat(verificatore.verifica("Bearer non-un-token")).isEmpty();
+        assertThat(verificatore.verifica(null)).isEmpty();
+        assertThat(verificatore.stats()).containsEntry("rifiutati", 2L).containsEntry("cache_dimensione", 0);
+    }
+
+    /**
+     * Test: la cache non supera la capienza configurata, oltre la quale toglie i token usati meno di recente
+     */
+    @Test
+    void testVerifica_CacheLimitata() {
+        VerificatoreToken verificatore = new VerificatoreToken(SECRET, 2);
+        for (int i = 0; i < 5; i++) {
+            assertThat(verificatore.verifica(JwtUtil.generateToken(Map.of("id", i), SECRET, 60_000L))).isPresent();
+        }
+        assertThat((Integer) verificatore.stats().get("cache_dimensione")).isBetween(1, 2);
+        assertThat((Long) verificatore.stats().get("rimossi")).isPositive();
+    }
+
+    /**
+     * Test: 8 thread verificano in concorrenza gli stessi token oltre la capienza, tutti accettati
+     * e la cache resta entro la capienza a fine corsa
+     */
+    @Test
+    void testVerifica_Concorrente_TuttiAccettati() throws Exception {
+        VerificatoreToken verificatore = new VerificatoreToken(SECRET, 50);
+        List<String> token = new ArrayList<>();
+        for (int i = 0; i < 200; i++) token.add(JwtUtil.generateToken(Map.of("id", i), SECRET, 60_000L));
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> esiti = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int inizio = t;
+            esiti.add(pool.submit(() -> {
+                int accettati = 0;
+                for (int i = 0; i < 1000; i++) {
+                    if (verificatore.verifica(token.get((inizio * 31 + i) % token.size())).isPresent()) accettati++;
+                }
+                return accettati;
+            }));
+        }
+        int accettati = 0;
+        for (Future<Integer> f : esiti) accettati += f.get();
+        pool.shutdown();
+        assertThat(pool.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(accettati).isEqualTo(8000);
+        verificatore.verifica(JwtUtil.generateToken(Map.of("id", -1), SECRET, 60_000L));
+        assertThat((Integer) verificatore.stats().get("cache_dimensione")).isLessThanOrEqualTo(50);
+    }
+
+    /**
+     * Test: un token scaduto non viene accettato
+     */
+    @Test
+    void testVerifica_TokenScaduto_Rifiutato() {
+        VerificatoreToken verificatore = new VerificatoreToken(SECRET, 100);
+        String scaduto = JwtUtil.generateToken(Map.of("id", 7), SECRET, -1_000L);
+
+        assertThat(verificatore.verifica(scaduto)).isEmpty();
+    }
+
+    /**
+     * Test: con un segreto troppo corto per HS256 nessun token è valido, come con JwtUtil.parseToken
+     */
+    @Test
+    void testVerifica_SegretoCorto_NessunTokenValido() {
+        VerificatoreToken verificatore = new VerificatoreToken("corto", 100);
+        assertThat(verificatore.verifica("Bearer qualsiasi")).isEmpty();
+    }
+}
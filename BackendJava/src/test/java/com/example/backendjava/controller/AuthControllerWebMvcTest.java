@@ -1,23 +1,31 @@
 package com.example.backendjava.controller;
 
+import com.example.backendjava.auth.ServizioPassword;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.support.rowset.SqlRowSet;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 
 import java.util.HashMap;
 import java.util.Map;
 
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -28,6 +36,8 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
  */
 @SuppressWarnings("null")
 @WebMvcTest(AuthController.class)
+@Import(ServizioPassword.class)
+@ImportAutoConfiguration(TaskExecutionAutoConfiguration.class)
 @AutoConfigureMockMvc(addFilters = false)
 @ActiveProfiles("test")
 class AuthControllerWebMvcTest {
@@ -44,6 +54,12 @@ class AuthControllerWebMvcTest {
     @MockBean
     private SqlRowSet sqlRowSet;
 
+    /** Le risposte arrivano da un CompletableFuture: si attende il dispatch asincrono prima delle verifiche. */
+    private ResultActions esegui(RequestBuilder richiesta) throws Exception {
+        MvcResult avviata = mockMvc.perform(richiesta).andExpect(request().asyncStarted()).andReturn();
+        return mockMvc.perform(asyncDispatch(avviata));
+    }
+
     /**
      * Test POST /api/auth/register - Registrazione utente con successo
      */
@@ -67,7 +83,7 @@ class AuthControllerWebMvcTest {
                 .thenReturn(1L);
 
         // Act & Assert
-        mockMvc.perform(post("/api/auth/register")
+        esegui(post("/api/auth/register")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(registerRequest)))
                 .andExpect(status().isOk())
@@ -89,7 +105,7 @@ class AuthControllerWebMvcTest {
         // email mancante
 
         // Act & Assert
-        mockMvc.perform(post("/api/auth/register")
+        esegui(post("/api/auth/register")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(registerRequest)))
                 .andExpect(status().isBadRequest())
@@ -119,7 +135,7 @@ class AuthControllerWebMvcTest {
                 .thenThrow(new RuntimeException("Duplicate key value violates unique constraint"));
 
         // Act & Assert
-        mockMvc.perform(post("/api/auth/register")
+        esegui(post("/api/auth/register")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(registerRequest)))
                 .andExpect(status().is5xxServerError());
@@ -150,7 +166,7 @@ class AuthControllerWebMvcTest {
         when(sqlRowSet.getString("ruolo")).thenReturn("USER");
 
         // Act & Assert
-        mockMvc.perform(post("/api/auth/login")
+        esegui(post("/api/auth/login")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(loginRequest)))
                 .andExpect(status().isOk())
@@ -177,7 +193,7 @@ class AuthControllerWebMvcTest {
         when(sqlRowSet.next()).thenReturn(false);
 
         // Act & Assert
-        mockMvc.perform(post("/api/auth/login")
+        esegui(post("/api/auth/login")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(loginRequest)))
                 .andExpect(status().isUnauthorized())
@@ -204,7 +220,7 @@ class AuthControllerWebMvcTest {
         when(sqlRowSet.getString("password")).thenReturn(hashedPassword);
 
         // Act & Assert
-        mockMvc.perform(post("/api/auth/login")
+        esegui(post("/api/auth/login")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(loginRequest)))
                 .andExpect(status().isUnauthorized())
@@ -232,7 +248,7 @@ class AuthControllerWebMvcTest {
         when(sqlRowSet.getBoolean("is_blocked")).thenReturn(true); // Account bloccato!
 
         // Act & Assert
-        mockMvc.perform(post("/api/auth/login")
+        esegui(post("/api/auth/login")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(loginRequest)))
                 .andExpect(status().isForbidden())
@@ -249,7 +265,7 @@ class AuthControllerWebMvcTest {
         loginRequest.put("password", "password123");
 
         // Act & Assert
-        mockMvc.perform(post("/api/auth/login")
+        esegui(post("/api/auth/login")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(loginRequest)))
                 .andExpect(status().isBadRequest())
@@ -266,7 +282,7 @@ class AuthControllerWebMvcTest {
         loginRequest.put("email", "mario.rossi@email.com");
 
         // Act & Assert
-        mockMvc.perform(post("/api/auth/login")
+        esegui(post("/api/auth/login")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(loginRequest)))
                 .andExpect(status().isBadRequest())
@@ -297,7 +313,7 @@ class AuthControllerWebMvcTest {
         when(sqlRowSet.getString("ruolo")).thenReturn("USER");
 
         // Act & Assert
-        mockMvc.perform(post("/api/auth/login")
+        esegui(post("/api/auth/login")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(loginRequest)))
                 .andExpect(status().isOk())
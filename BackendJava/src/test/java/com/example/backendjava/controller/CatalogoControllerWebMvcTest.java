@@ -16,8 +16,14 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
+
+import com.example.backendjava.dto.MarchioVista;
+import com.example.backendjava.service.CatalogoSnapshot;
+import com.example.backendjava.service.ClassificaVendite;
+import com.example.backendjava.service.IndiceRicercaProdotti;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -38,6 +44,15 @@ class CatalogoControllerWebMvcTest {
     @MockBean
     private JdbcTemplate jdbcTemplate;
 
+    @MockBean
+    private CatalogoSnapshot catalogoSnapshot;
+
+    @MockBean
+    private IndiceRicercaProdotti indiceRicerca;
+
+    @MockBean
+    private ClassificaVendite classificaVendite;
+
     /**
      * Test GET /api/catalogo/prodotti - verifica che restituisca la lista prodotti
      */
@@ -123,4 +138,25 @@ class CatalogoControllerWebMvcTest {
                 .andExpect(jsonPath("$.length()").value(2))
                 .andExpect(jsonPath("$[0].nome").value("Smartphone"));
     }
+
+    /**
+     * Test GET /api/catalogo/brand - con If-None-Match della versione corrente risponde 304 senza corpo
+     */
+    @Test
+    @WithMockUser(roles = "USER")
+    void testGetBrand_EtagUguale_NotModified() throws Exception {
+        CatalogoSnapshot.Versione versione = new CatalogoSnapshot.Versione(7, 1_700_000_000_000L, "a1b2c3", List.of(),
+                List.of(new MarchioVista("Apple", "1")), Map.of(), Map.of(), List.of());
+        when(catalogoSnapshot.versione()).thenReturn(versione);
+
+        mockMvc.perform(get("/api/catalogo/brand"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", versione.etag()))
+                .andExpect(header().exists("Last-Modified"))
+                .andExpect(jsonPath("$[0].nome").value("Apple"));
+
+        mockMvc.perform(get("/api/catalogo/brand").header("If-None-Match", versione.etag()))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+    }
 }
@@ -0,0 +1,99 @@
+package com.example.backendjava.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.example.backendjava.auth.UtenteAutenticato;
+import com.example.backendjava.dto.CouponVista;
+import com.example.backendjava.jdbc.DatabaseH2;
+import com.example.backendjava.jdbc.JsonStreaming;
+import com.example.backendjava.service.RegistroCoupon;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test per la gestione coupon di CouponController su un database H2 in memoria.
+ * Verifica la paginazione keyset su (created_at, id) con coupon senza data di creazione
+ * e la risposta 409 quando il codice è già usato da un altro coupon.
+ */
+class CouponControllerTest {
+
+    private static final UtenteAutenticato ADMIN = new UtenteAutenticato(9, "admin", "admin@example.com");
+
+    private final ObjectMapper json = new ObjectMapper();
+    private CouponController controller;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource ds = DatabaseH2.nuovo("coupon_controller");
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(ds);
+        jdbc.update("INSERT INTO coupon (id, codice, tipo_sconto, valore_sconto, attivo, uso_singolo, created_at) VALUES"
+                + " (1, 'A', 'percentuale', 10, TRUE, FALSE, TIMESTAMP '2026-01-10 12:00:00'),"
+                + " (2, 'B', 'percentuale', 10, TRUE, FALSE, TIMESTAMP '2026-01-10 12:00:00'),"
+                + " (3, 'C', 'fisso', 5, TRUE, FALSE, TIMESTAMP '2026-01-11 09:00:00'),"
+                + " (4, 'D', 'fisso', 5, TRUE, FALSE, NULL), (5, 'E', 'fisso', 5, TRUE, FALSE, NULL)");
+        controller = new CouponController(jdbc, new JsonStreaming(jdbc, json, transactionManager, 500),
+                new RegistroCoupon(jdbc, transactionManager, 300, 100));
+    }
+
+    private String scrivi(ResponseEntity<StreamingResponseBody> response) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+        return out.toString();
+    }
+
+    /**
+     * Test: le pagine coprono tutti i coupon una sola volta, dal più recente, con quelli senza created_at in fondo
+     */
+    @Test
+    void testListAll_Pagine_CouponSenzaDataInFondo() throws Exception {
+        List<Integer> visti = new ArrayList<>();
+        String cursore = null;
+        int pagine = 0;
+        do {
+            Map<String, Object> pagina = json.readValue(scrivi(controller.listAll(ADMIN, 2, cursore)), new TypeReference<>() {});
+            @SuppressWarnings("unchecked")
+            List<Map<String, Object>> elementi = (List<Map<String, Object>>) pagina.get("elementi");
+            elementi.forEach(c -> visti.add((Integer) c.get("id")));
+            cursore = (String) pagina.get("prossimo_cursore");
+            pagine++;
+        } while (cursore != null);
+
+        assertThat(pagine).isEqualTo(3);
+        assertThat(visti).containsExactly(3, 2, 1, 5, 4);
+        assertThat(controller.listAll(null, 2, null).getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+    }
+
+    /**
+     * Test: codice già usato da un altro coupon, 409 con quel coupon; lo stesso codice sullo stesso coupon è ammesso
+     */
+    @Test
+    void testCodiceGiaUsato_Conflitto() {
+        ResponseEntity<?> creato = controller.create(ADMIN, Map.of("codice", "b"));
+        assertThat(creato.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+        assertThat((Map<?, ?>) creato.getBody()).containsEntry("exists", true);
+        assertThat(((Map<?, ?>) creato.getBody()).get("coupon")).isInstanceOfSatisfying(CouponVista.class,
+                c -> assertThat(c.id()).isEqualTo(2));
+
+        ResponseEntity<?> aggiornato = controller.update(ADMIN, 1, Map.of("codice", "C"));
+        assertThat(aggiornato.getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+        assertThat(((Map<?, ?>) aggiornato.getBody()).get("coupon")).isInstanceOfSatisfying(CouponVista.class,
+                c -> assertThat(c.id()).isEqualTo(3));
+
+        assertThat(controller.update(ADMIN, 1, Map.of("codice", "A")).getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+}
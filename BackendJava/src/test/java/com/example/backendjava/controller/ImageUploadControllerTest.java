@@ -0,0 +1,148 @@
+package com.example.backendjava.controller;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.example.backendjava.service.ArchivioImmagini;
+import com.example.backendjava.service.ImmaginiStatiche;
+import com.example.backendjava.service.VariantiImmagini;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Test per il servizio delle immagini di ImageUploadController su una cartella uploads temporanea.
+ * Verifica header di cache, GET condizionale, richieste Range, parametro size e file fuori dalla cartella.
+ */
+class ImageUploadControllerTest {
+
+    @TempDir
+    Path uploads;
+
+    private ImmaginiStatiche immagini;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Files.createDirectories(uploads.resolve("prodotti"));
+        Files.writeString(uploads.resolve("prodotti").resolve("foto.png"), "0123456789", StandardCharsets.US_ASCII);
+        Files.writeString(uploads.resolve("segreto.txt"), "segreto", StandardCharsets.US_ASCII);
+        // Soglia sendfile irraggiungibile: il contenuto passa sempre da FileChannel.transferTo
+        immagini = new ImmaginiStatiche(uploads.toString(), 60_000, 31536000, Long.MAX_VALUE, 100);
+        VariantiImmagini varianti = new VariantiImmagini(immagini, 1, 10, 0.8, 40_000_000);
+        ArchivioImmagini archivio = new ArchivioImmagini(new JdbcTemplate(), immagini, varianti, uploads.toString(), 1000, 60);
+        mockMvc = MockMvcBuilders.standaloneSetup(new ImageUploadController(immagini, varianti, archivio)).build();
+    }
+
+    /**
+     * Test: la prima richiesta porta ETag e cache immutabile, la seconda con If-None-Match riceve 304
+     */
+    @Test
+    void testServeFile_EtagUguale_NotModified() throws Exception {
+        MvcResult prima = mockMvc.perform(get("/api/immagine/uploads/prodotti/foto.png"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", "public, max-age=31536000, immutable"))
+                .andExpect(header().string("Accept-Ranges", "bytes"))
+                .andExpect(header().exists("Last-Modified"))
+                .andExpect(header().longValue("Content-Length", 10))
+                .andExpect(content().string("0123456789"))
+                .andReturn();
+        String etag = prima.getResponse().getHeader("ETag");
+        assertThat(etag).isNotBlank();
+
+        mockMvc.perform(get("/api/immagine/uploads/prodotti/foto.png").header("If-None-Match", etag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+
+        // La seconda richiesta non rilegge gli attributi dal disco
+        assertThat(immagini.stats()).containsEntry("hit", 1L).containsEntry("miss", 1L).containsEntry("non_modificate", 1L);
+    }
+
+    /**
+     * Test: Range su un solo intervallo restituisce 206 con Content-Range, oltre la fine 416
+     */
+    @Test
+    void testServeFile_Range_ContenutoParziale() throws Exception {
+        mockMvc.perform(get("/api/immagine/uploads/prodotti/foto.png").header("Range", "bytes=2-5"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string("Content-Range", "bytes 2-5/10"))
+                .andExpect(header().longValue("Content-Length", 4))
+                .andExpect(content().string("2345"));
+
+        mockMvc.perform(get("/api/immagine/uploads/prodotti/foto.png").header("Range", "bytes=-3"))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().string("789"));
+
+        mockMvc.perform(get("/api/immagine/uploads/prodotti/foto.png").header("Range", "bytes=20-"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string("Content-Range", "bytes */10"));
+
+        // If-Range di un'altra versione: file intero
+        mockMvc.perform(get("/api/immagine/uploads/prodotti/foto.png").header("Range", "bytes=2-5").header("If-Range", "\"vecchio\""))
+                .andExpect(status().isOk())
+                .andExpect(content().string("0123456789"));
+    }
+
+    /**
+     * Test: file inesistenti e percorsi fuori dalla sottocartella rispondono 404
+     */
+    @Test
+    void testServeFile_FuoriCartellaOMancante_NotFound() throws Exception {
+        mockMvc.perform(get("/api/immagine/uploads/prodotti/manca.png"))
+                .andExpect(status().isNotFound());
+        assertThat(immagini.trova("..", "segreto.txt")).isEmpty();
+        assertThat(immagini.trova("prodotti", "../segreto.txt")).isEmpty();
+    }
+
+    /**
+     * Test: size non valido risponde 400, una variante non ancora pronta viene sostituita dall'originale con cache breve
+     */
+    @Test
+    void testServeFile_Size_VarianteMancante_OriginaleProvvisorio() throws Exception {
+        mockMvc.perform(get("/api/immagine/uploads/prodotti/foto.png").param("size", "enorme"))
+                .andExpect(status().isBadRequest());
+
+        mockMvc.perform(get("/api/immagine/uploads/prodotti/foto.png").param("size", "thumb"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", "public, max-age=60"))
+                .andExpect(content().string("0123456789"));
+    }
+
+    /**
+     * Test: il corpo image/* viene salvato in streaming con il nome per hash; tipo non ammesso 415, oltre il limite 413
+     */
+    @Test
+    void testUploadFlusso_LimitiETipo() throws Exception {
+        byte[] gif = "GIF89a-immagine".getBytes(StandardCharsets.US_ASCII);
+        MvcResult salvata = mockMvc.perform(post("/api/immagine/upload").contentType("image/gif").content(gif))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.duplicato").value(false))
+                .andReturn();
+        String nome = salvata.getResponse().getContentAsString().replaceAll(".*\"filename\":\"([^\"]+)\".*", "$1");
+        assertThat(nome).matches("[0-9a-f]{64}\\.gif");
+        assertThat(Files.readAllBytes(uploads.resolve("prodotti").resolve(nome))).isEqualTo(gif);
+
+        // Content-Type di un'immagine, contenuto di altro tipo
+        mockMvc.perform(post("/api/immagine/upload").contentType("image/png").content("<svg/>"))
+                .andExpect(status().isUnsupportedMediaType())
+                .andExpect(header().string("Connection", "close"));
+        mockMvc.perform(post("/api/immagine/upload").contentType("text/plain").content("testo"))
+                .andExpect(status().isUnsupportedMediaType());
+        mockMvc.perform(post("/api/immagine/upload").contentType("image/gif").content(new byte[2000]))
+                .andExpect(status().isPayloadTooLarge());
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.backendjava.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.example.backendjava.auth.UtenteAutenticato;
+import com.example.backendjava.dto.TrackingOrdine;
+import com.example.backendjava.jdbc.DatabaseH2;
+import com.example.backendjava.jdbc.JsonStreaming;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test per lo storico ordini di OrdersController su un database H2 in memoria.
+ * Verifica la paginazione keyset su (data_ordine, id), anche con ordini nello stesso istante,
+ * le righe incluse nello storico e il dettaglio di più ordini insieme.
+ */
+class OrdersControllerTest {
+
+    private static final UtenteAutenticato CLIENTE = new UtenteAutenticato(1, "cliente", "cliente@example.com");
+    private static final UtenteAutenticato ADMIN = new UtenteAutenticato(9, "admin", "admin@example.com");
+
+    private final ObjectMapper json = new ObjectMapper();
+    private OrdersController controller;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource ds = DatabaseH2.nuovo("ordini");
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        Timestamp base = Timestamp.valueOf("2026-01-10 12:00:00");
+        List<Object[]> righe = new ArrayList<>();
+        for (int i = 1; i <= 25; i++) {
+            // Ordini a coppie nello stesso istante: l'id decide l'ordine tra loro
+            Timestamp data = new Timestamp(base.getTime() + (i / 2) * 60_000L);
+            righe.add(new Object[]{i, 1, new BigDecimal("10.00"), "Consegnato", data, "carta"});
+        }
+        righe.add(new Object[]{100, 2, new BigDecimal("99.00"), "In elaborazione", base, "paypal"});
+        jdbc.batchUpdate("INSERT INTO ordini (id, user_id, totale, stato, data_ordine, metodo_pagamento) VALUES (?, ?, ?, ?, ?, ?)", righe);
+        jdbc.update("INSERT INTO prodotto (id_prodotto, nome, immagine) VALUES (1, 'Mouse', 'mouse.jpg'), (2, 'Tastiera', NULL)");
+        jdbc.update("INSERT INTO ordine_prodotti VALUES (25, 1, 2, 5.00), (25, 2, 1, 30.00), (24, 1, 1, 5.00), (100, 2, 3, 33.00)");
+        jdbc.update("INSERT INTO tracking_ordine (id_ordine, stato, corriere, data_aggiornamento) VALUES"
+                + " (25, 'Spedito', 'BRT', TIMESTAMP '2026-01-11 09:00:00'), (100, 'In preparazione', NULL, TIMESTAMP '2026-01-10 13:00:00')");
+        controller = new OrdersController(jdbc, new JsonStreaming(jdbc, json, new DataSourceTransactionManager(ds), 500));
+    }
+
+    private String scrivi(ResponseEntity<StreamingResponseBody> response) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+        return out.toString();
+    }
+
+    /**
+     * Test: le pagine coprono tutti gli ordini dell'utente una sola volta, dal più recente, poi il cursore è null
+     */
+    @Test
+    void testGetOrdersByUser_Pagine_TuttiGliOrdiniInOrdine() throws Exception {
+        List<Integer> visti = new ArrayList<>();
+        String cursore = null;
+        int pagine = 0;
+        do {
+            Map<String, Object> pagina = json.readValue(scrivi(controller.getOrdersByUser(CLIENTE, 1, 10, cursore, null)), new TypeReference<>() {});
+            @SuppressWarnings("unchecked")
+            List<Map<String, Object>> elementi = (List<Map<String, Object>>) pagina.get("elementi");
+            elementi.forEach(o -> visti.add((Integer) o.get("id")));
+            cursore = (String) pagina.get("prossimo_cursore");
+            pagine++;
+        } while (cursore != null);
+
+        assertThat(pagine).isEqualTo(3);
+        List<Integer> attesi = new ArrayList<>();
+        for (int i = 25; i >= 1; i--) attesi.add(i);
+        assertThat(visti).isEqualTo(attesi);
+    }
+
+    /**
+     * Test: senza parametri l'array completo ha solo le colonne della lista; cursore non valido 400
+     */
+    @Test
+    void testGetOrdersByUser_ArrayCompletoECursoreNonValido() throws Exception {
+        List<Map<String, Object>> tutti = json.readValue(scrivi(controller.getOrdersByUser(ADMIN, 2, null, null, null)), new TypeReference<>() {});
+        assertThat(tutti).hasSize(1);
+        assertThat(tutti.get(0)).containsOnlyKeys("id", "totale", "stato", "data_ordine", "metodo_pagamento")
+                .containsEntry("stato", "In elaborazione");
+
+        assertThat(controller.getOrdersByUser(CLIENTE, 1, 10, "non-valido", null).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * Test: con include=lines ogni ordine della pagina porta le sue righe; valore di include sconosciuto 400
+     */
+    @Test
+    void testGetOrdersByUser_IncludeLines_RigheRaggruppate() throws Exception {
+        Map<String, Object> pagina = json.readValue(scrivi(controller.getOrdersByUser(CLIENTE, 1, 3, null, "lines")), new TypeReference<>() {});
+        @SuppressWarnings("unchecked")
+        List<Map<String, Map<String, Object>>> elementi = (List<Map<String, Map<String, Object>>>) pagina.get("elementi");
+        assertThat(elementi).extracting(e -> e.get("ordine").get("id")).containsExactly(25, 24, 23);
+        assertThat(json.convertValue(elementi.get(0).get("prodotti"), List.class)).hasSize(2);
+        assertThat(json.convertValue(elementi.get(2).get("prodotti"), List.class)).isEmpty();
+        assertThat(pagina.get("prossimo_cursore")).isNotNull();
+
+        assertThat(controller.getOrdersByUser(CLIENTE, 1, 3, null, "tutto").getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * Test: il dettaglio di più ordini segue l'ordine degli id richiesti, omette quelli inesistenti e rifiuta liste vuote
+     */
+    @Test
+    void testGetOrderDetails_PiuOrdini() throws Exception {
+        ResponseEntity<?> risposta = controller.getOrderDetails(ADMIN, List.of(100L, 999L, 25L, 100L));
+        List<Map<String, Object>> dettagli = json.convertValue(risposta.getBody(), new TypeReference<>() {});
+
+        assertThat(dettagli).hasSize(2);
+        assertThat(dettagli).extracting(d -> ((Map<?, ?>) d.get("ordine")).get("id")).containsExactly(100, 25);
+        List<Map<String, Object>> righe = json.convertValue(dettagli.get(1).get("prodotti"), new TypeReference<>() {});
+        assertThat(righe).extracting(r -> r.get("nome")).containsExactlyInAnyOrder("Mouse", "Tastiera");
+        assertThat(righe).filteredOn(r -> "Mouse".equals(r.get("nome"))).first()
+                .satisfies(r -> assertThat(r.get("immagine_url")).asString().endsWith("/mouse.jpg"));
+
+        assertThat(controller.getOrderDetails(ADMIN, List.of()).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * Test: senza token 401; un cliente non vede storico né dettagli degli ordini di un altro utente
+     */
+    @Test
+    void testOrdiniDiAltriUtenti_Negati() {
+        assertThat(controller.getOrdersByUser(null, 1, 3, null, "lines").getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+        assertThat(controller.getOrdersByUser(CLIENTE, 2, 3, null, "lines").getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+        assertThat(controller.getOrderDetails(null, List.of(25L)).getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+
+        List<Map<String, Object>> dettagli = json.convertValue(controller.getOrderDetails(CLIENTE, List.of(100L, 25L)).getBody(),
+                new TypeReference<>() {});
+        assertThat(dettagli).extracting(d -> ((Map<?, ?>) d.get("ordine")).get("id")).containsExactly(25);
+    }
+
+    /**
+     * Test: dettaglio e tracking di un singolo ordine solo per il proprietario o un amministratore,
+     * 404 per l'ordine di un altro utente e 401 senza token
+     */
+    @Test
+    void testDettaglioETracking_SoloProprietario() {
+        assertThat(controller.getOrderDetail(null, 25).getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+        assertThat(controller.getOrderDetail(CLIENTE, 25).getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(controller.getOrderDetail(CLIENTE, 100).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(controller.getOrderDetail(ADMIN, 100).getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        assertThat(controller.getTracking(null, 25).getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+        assertThat(controller.getTracking(CLIENTE, 25).getBody()).isInstanceOfSatisfying(TrackingOrdine.class,
+                t -> assertThat(t.corriere()).isEqualTo("BRT"));
+        assertThat(controller.getTracking(CLIENTE, 100).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(controller.getTracking(ADMIN, 100).getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.backendjava.jdbc;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+/**
+ * Database H2 in memoria per test e benchmark, creato vuoto con lo schema di schema-test.sql.
+ * Ogni test inserisce solo le proprie righe.
+ */
+public final class DatabaseH2 {
+
+    private static final String SCHEMA = "schema-test.sql";
+
+    private DatabaseH2() {
+    }
+
+    /** Database {@code nome} svuotato e ricreato con lo schema condiviso. */
+    public static DriverManagerDataSource nuovo(String nome) {
+        return nuovo(nome, "");
+    }
+
+    /**
+     * Come {@link #nuovo(String)}, con parametri H2 aggiuntivi nell'URL
+     * (es. ";LOCK_TIMEOUT=10000" o ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE").
+     */
+    public static DriverManagerDataSource nuovo(String nome, String parametri) {
+        DriverManagerDataSource ds = new DriverManagerDataSource("jdbc:h2:mem:" + nome + ";DB_CLOSE_DELAY=-1" + parametri, "sa", "");
+        new JdbcTemplate(ds).execute("DROP ALL OBJECTS");
+        new ResourceDatabasePopulator(new ClassPathResource(SCHEMA)).execute(ds);
+        return ds;
+    }
+}
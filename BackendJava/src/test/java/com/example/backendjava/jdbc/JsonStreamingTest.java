@@ -0,0 +1,80 @@
+package com.example.backendjava.jdbc;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Test unitari per JsonStreaming su un database H2 in memoria.
+ * Verifica l'array completo e la paginazione keyset con cursore.
+ */
+class JsonStreamingTest {
+
+    private record Voce(long id, String nome) {
+    }
+
+    private static final RowMapper<Voce> MAPPER = (rs, n) -> new Voce(rs.getLong(1), rs.getString(2));
+
+    private final ObjectMapper json = new ObjectMapper();
+    private JsonStreaming streaming;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource ds = DatabaseH2.nuovo("streaming");
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE voce (id BIGINT PRIMARY KEY, nome VARCHAR(50))");
+        jdbc.update("INSERT INTO voce VALUES (1, 'uno'), (2, 'due'), (3, 'tre')");
+        streaming = new JsonStreaming(jdbc, json, new DataSourceTransactionManager(ds), 2);
+    }
+
+    private String scrivi(ResponseEntity<StreamingResponseBody> response) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+        return out.toString();
+    }
+
+    /**
+     * Test: senza paginazione vengono scritte tutte le righe come array JSON
+     */
+    @Test
+    void testArray_ScriveTutteLeRighe() throws Exception {
+        String body = scrivi(streaming.array(MAPPER, "SELECT id, nome FROM voce ORDER BY id"));
+
+        List<Map<String, Object>> righe = json.readValue(body, new TypeReference<>() {});
+        assertThat(righe).extracting(r -> r.get("nome")).containsExactly("uno", "due", "tre");
+    }
+
+    /**
+     * Test: la pagina restituisce il cursore finché ci sono altre righe, poi null
+     */
+    @Test
+    void testPagina_CursoreFinoAllUltimaPagina() throws Exception {
+        String sql = "SELECT id, nome FROM voce WHERE id > ? ORDER BY id";
+
+        Map<String, Object> prima = json.readValue(scrivi(streaming.pagina(MAPPER, v -> Cursore.codifica(v.id()), 2, sql, 0L)),
+                new TypeReference<>() {});
+        assertThat((List<?>) prima.get("elementi")).hasSize(2);
+        String cursore = (String) prima.get("prossimo_cursore");
+        assertThat(cursore).isNotNull();
+
+        long dopoId = Long.parseLong(Cursore.decodifica(cursore, 1)[0]);
+        Map<String, Object> seconda = json.readValue(scrivi(streaming.pagina(MAPPER, v -> Cursore.codifica(v.id()), 2, sql, dopoId)),
+                new TypeReference<>() {});
+        assertThat((List<?>) seconda.get("elementi")).hasSize(1);
+        assertThat(seconda.get("prossimo_cursore")).isNull();
+    }
+}
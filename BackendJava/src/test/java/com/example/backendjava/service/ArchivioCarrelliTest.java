@@ -0,0 +1,206 @@
+package com.example.backendjava.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import com.example.backendjava.jdbc.DatabaseH2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test unitari per ArchivioCarrelli su un database H2 in memoria.
+ * Verifica l'upsert atomico con controllo della giacenza e, in modalità write-behind, che le modifiche
+ * restino in memoria fino alla scrittura e vengano poi scritte accorpate.
+ */
+class ArchivioCarrelliTest {
+
+    private JdbcTemplate jdbc;
+    private DataSourceTransactionManager transactionManager;
+    private ArchivioCarrelli archivio;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource ds = DatabaseH2.nuovo("archivio");
+        jdbc = new JdbcTemplate(ds);
+        jdbc.update("INSERT INTO prodotto (id_prodotto, quantita_disponibile) VALUES (1, 100), (2, 3)");
+        jdbc.update("INSERT INTO carrello VALUES (7, 1, 2)");
+
+        transactionManager = new DataSourceTransactionManager(ds);
+        archivio = new ArchivioCarrelli(jdbc, transactionManager, true, 1800);
+    }
+
+    /**
+     * Test: il carrello viene caricato dal database, le modifiche restano in memoria fino a scrivi()
+     */
+    @Test
+    void testScrivi_ModificheAccorpate() {
+        assertThat(archivio.quantitaProdotto(7L, 1L)).isEqualTo(2);
+        archivio.aggiungiProdotto(7L, 1L, 1);
+        archivio.aggiungiProdotto(7L, 1L, 1);
+        archivio.aggiungiProdotto(7L, 3L, 5);
+        archivio.impostaProdotto(7L, 3L, 0);
+        archivio.aggiungiPacchetto(7L, 9L, 1);
+
+        assertThat(jdbc.queryForObject("SELECT quantita FROM carrello WHERE id_utente = 7 AND id_prodotto = 1", Integer.class)).isEqualTo(2);
+
+        archivio.scrivi(7L);
+
+        assertThat(jdbc.queryForObject("SELECT quantita FROM carrello WHERE id_utente = 7 AND id_prodotto = 1", Integer.class)).isEqualTo(4);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM carrello", Integer.class)).isEqualTo(1);
+        assertThat(jdbc.queryForObject("SELECT quantita FROM carrello_pacchetto WHERE id_utente = 7 AND id_pacchetto = 9", Integer.class)).isEqualTo(1);
+        // Cinque modifiche, tre righe scritte in una sola transazione
+        assertThat(archivio.stats()).containsEntry("modifiche", 5L).containsEntry("righe_scritte", 3L).containsEntry("scritture", 1L);
+    }
+
+    /**
+     * Test: le modifiche in sospeso vengono scritte allo spegnimento
+     */
+    @Test
+    void testChiudi_ScriveInSospeso() {
+        archivio.impostaProdotto(7L, 1L, 6);
+        archivio.chiudi();
+
+        assertThat(jdbc.queryForObject("SELECT quantita FROM carrello WHERE id_utente = 7 AND id_prodotto = 1", Integer.class)).isEqualTo(6);
+        assertThat(archivio.stats()).containsEntry("utenti_in_sospeso", 0);
+    }
+
+    /**
+     * Test: upsert con controllo della giacenza, prodotto inesistente o quantità eccessiva rifiutati
+     */
+    @Test
+    void testAggiungiProdotto_Upsert_ControllaGiacenza() {
+        archivio = new ArchivioCarrelli(jdbc, transactionManager, false, 1800);
+
+        assertThat(archivio.aggiungiProdotto(7L, 2L, 2)).isTrue();
+        assertThat(archivio.aggiungiProdotto(7L, 2L, 1)).isTrue();
+        assertThat(archivio.aggiungiProdotto(7L, 2L, 1)).isFalse();
+        assertThat(archivio.aggiungiProdotto(7L, 99L, 1)).isFalse();
+        assertThat(archivio.disponibilita(7L, 2L)).contains(new ArchivioCarrelli.Disponibilita(3, 3));
+        assertThat(archivio.disponibilita(7L, 99L)).isEmpty();
+        assertThat(archivio.stats()).containsEntry("upsert_rifiutati", 2L);
+    }
+
+    /**
+     * Test: 8 thread aggiungono in concorrenza alle stesse righe, nessuna aggiunta persa o duplicata
+     */
+    @Test
+    void testAggiungiProdotto_Concorrente_NessunaAggiuntaPersa() throws Exception {
+        archivio = new ArchivioCarrelli(jdbc, transactionManager, false, 1800);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch via = new CountDownLatch(1);
+        List<Future<Boolean>> esiti = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            long utente = 10 + i % 5;
+            esiti.add(pool.submit(() -> {
+                via.await();
+                return archivio.aggiungiProdotto(utente, 1L, 1);
+            }));
+        }
+        via.countDown();
+        int riuscite = 0;
+        for (Future<Boolean> f : esiti) if (f.get()) riuscite++;
+        pool.shutdown();
+        assertThat(pool.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+        // Giacenza 100 per riga: ogni utente arriva a 80 pezzi in una sola riga
+        assertThat(riuscite).isEqualTo(400);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM carrello WHERE id_utente >= 10", Integer.class)).isEqualTo(5);
+        assertThat(jdbc.queryForList("SELECT quantita FROM carrello WHERE id_utente >= 10", Integer.class)).containsOnly(80);
+    }
+
+    /**
+     * Test: con la scrittura periodica sempre in corso, dopo scrivi() il database contiene tutte le modifiche
+     * dell'utente, anche quando la scrittura periodica le ha già prese ma non ha ancora fatto commit;
+     * ogni dieci aggiunte un checkout legge il carrello, lo svuota e lo dimentica
+     */
+    @Test
+    void testScrivi_ScritturaPeriodicaConcorrente_LetturaSempreAggiornata() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(5);
+        CountDownLatch via = new CountDownLatch(1);
+        AtomicBoolean finito = new AtomicBoolean();
+        Future<?> periodica = pool.submit(() -> {
+            via.await();
+            while (!finito.get()) archivio.scriviTutto();
+            return null;
+        });
+        List<Future<Integer>> utenti = new ArrayList<>();
+        for (long u = 20; u < 24; u++) {
+            long idUtente = u;
+            utenti.add(pool.submit(() -> {
+                via.await();
+                int errate = 0;
+                for (int i = 1; i <= 100; i++) {
+                    archivio.aggiungiProdotto(idUtente, 1L, 1);
+                    archivio.scrivi(idUtente);
+                    List<Integer> letta = jdbc.queryForList("SELECT quantita FROM carrello WHERE id_utente = ? AND id_prodotto = 1",
+                            Integer.class, idUtente);
+                    int attesa = (i - 1) % 10 + 1;
+                    if (letta.size() != 1 || letta.get(0) != attesa) errate++;
+                    if (attesa == 10) {
+                        jdbc.update("DELETE FROM carrello WHERE id_utente = ?", idUtente);
+                        archivio.dimentica(idUtente);
+                    }
+                }
+                return errate;
+            }));
+        }
+        via.countDown();
+        int errate = 0;
+        for (Future<Integer> f : utenti) errate += f.get();
+        finito.set(true);
+        periodica.get();
+        pool.shutdown();
+        assertThat(pool.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(errate).isZero();
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM carrello WHERE id_utente >= 20", Integer.class)).isZero();
+        assertThat(archivio.stats()).containsEntry("errori", 0L);
+    }
+
+    /**
+     * Test: con inattività zero la scrittura periodica toglie di continuo i carrelli dalla memoria
+     * mentre gli utenti aggiungono, nessuna aggiunta va persa su un carrello appena rimosso
+     */
+    @Test
+    void testScriviTutto_RimozioneInattiviConcorrente_NessunaAggiuntaPersa() throws Exception {
+        archivio = new ArchivioCarrelli(jdbc, transactionManager, true, 0);
+        ExecutorService pool = Executors.newFixedThreadPool(5);
+        CountDownLatch via = new CountDownLatch(1);
+        AtomicBoolean finito = new AtomicBoolean();
+        Future<?> periodica = pool.submit(() -> {
+            via.await();
+            while (!finito.get()) archivio.scriviTutto();
+            return null;
+        });
+        List<Future<?>> utenti = new ArrayList<>();
+        for (long u = 30; u < 34; u++) {
+            long idUtente = u;
+            utenti.add(pool.submit(() -> {
+                via.await();
+                for (int i = 0; i < 200; i++) archivio.aggiungiProdotto(idUtente, 1L, 1);
+                return null;
+            }));
+        }
+        via.countDown();
+        for (Future<?> f : utenti) f.get();
+        finito.set(true);
+        periodica.get();
+        pool.shutdown();
+        assertThat(pool.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        archivio.chiudi();
+
+        assertThat(jdbc.queryForList("SELECT quantita FROM carrello WHERE id_utente >= 30", Integer.class)).containsExactly(200, 200, 200, 200);
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.backendjava.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.example.backendjava.jdbc.DatabaseH2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Test unitari per ArchivioImmagini su una cartella uploads temporanea e un database H2 in memoria.
+ * Verifica nomi per hash, deduplicazione, limiti di tipo e dimensione e cancellazione solo all'ultimo riferimento.
+ */
+class ArchivioImmaginiTest {
+
+    private static final byte[] FIRMA_PNG = {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A};
+    // SHA-256 della firma PNG seguita da "contenuto"
+    private static final String HASH = "d72944066c8c6dae390d50b071c63e897aae899f1000f9167b23fadb653fb2b7";
+
+    @TempDir
+    Path uploads;
+
+    private JdbcTemplate jdbc;
+    private ArchivioImmagini archivio;
+
+    @BeforeEach
+    void setUp() {
+        jdbc = new JdbcTemplate(DatabaseH2.nuovo("archivio"));
+        // Nessun periodo di grazia: si verifica solo il conteggio dei riferimenti
+        archivio = archivio(0);
+    }
+
+    private ArchivioImmagini archivio(long graziaMinuti) {
+        ImmaginiStatiche immagini = new ImmaginiStatiche(uploads.toString(), 0, 31536000, Long.MAX_VALUE, 100);
+        return new ArchivioImmagini(jdbc, immagini, new VariantiImmagini(immagini, 1, 10, 0.8, 40_000_000),
+                uploads.toString(), 1000, graziaMinuti);
+    }
+
+    private static byte[] png(String testo) {
+        byte[] corpo = testo.getBytes(StandardCharsets.UTF_8);
+        byte[] out = Arrays.copyOf(FIRMA_PNG, FIRMA_PNG.length + corpo.length);
+        System.arraycopy(corpo, 0, out, FIRMA_PNG.length, corpo.length);
+        return out;
+    }
+
+    private ArchivioImmagini.Salvataggio salva(byte[] contenuto, long dimensioneDichiarata) throws Exception {
+        return archivio.salva(Channels.newChannel(new ByteArrayInputStream(contenuto)), dimensioneDichiarata);
+    }
+
+    private ArchivioImmagini.Salvataggio salva(String testo) throws Exception {
+        return salva(png(testo), -1);
+    }
+
+    /**
+     * Test: lo stesso contenuto con nomi diversi produce un solo file, chiamato come l'hash
+     */
+    @Test
+    void testSalva_StessoContenuto_UnSoloFile() throws Exception {
+        ArchivioImmagini.Salvataggio primo = salva("contenuto");
+        ArchivioImmagini.Salvataggio secondo = salva("contenuto");
+        ArchivioImmagini.Salvataggio altro = salva("altro contenuto");
+
+        assertThat(primo.nomeFile()).isEqualTo(HASH + ".png");
+        assertThat(primo.duplicato()).isFalse();
+        assertThat(secondo.nomeFile()).isEqualTo(primo.nomeFile());
+        assertThat(secondo.duplicato()).isTrue();
+        assertThat(altro.nomeFile()).isNotEqualTo(primo.nomeFile());
+        try (var file = Files.list(uploads.resolve("prodotti"))) {
+            assertThat(file.filter(Files::isRegularFile).count()).isEqualTo(2);
+        }
+        assertThat(Files.readAllBytes(uploads.resolve("prodotti").resolve(primo.nomeFile()))).isEqualTo(png("contenuto"));
+        assertThat(archivio.stats()).containsEntry("salvate", 2L).containsEntry("duplicate", 1L).containsEntry("byte_risparmiati", 17L);
+    }
+
+    /**
+     * Test: il tipo viene riconosciuto dalla firma e decide l'estensione, un contenuto non immagine viene rifiutato
+     */
+    @Test
+    void testSalva_TipoDallaFirma() throws Exception {
+        byte[] jpeg = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 0x10, 'J', 'F', 'I', 'F', 0, 1};
+        assertThat(salva(jpeg, jpeg.length).nomeFile()).endsWith(".jpg");
+        byte[] webp = "RIFF\0\0\0\0WEBPVP8 ".getBytes(StandardCharsets.ISO_8859_1);
+        assertThat(salva(webp, -1).nomeFile()).endsWith(".webp");
+
+        assertThatThrownBy(() -> salva("<html>non sono un'immagine</html>".getBytes(StandardCharsets.UTF_8), -1))
+                .isInstanceOfSatisfying(ArchivioImmagini.CaricamentoRifiutato.class, e -> assertThat(e.troppoGrande()).isFalse());
+        assertThatThrownBy(() -> salva(new byte[0], 0)).isInstanceOf(ArchivioImmagini.CaricamentoRifiutato.class);
+        assertThat(archivio.stats()).containsEntry("rifiutati_tipo", 2L).containsEntry("caricamenti", 2L);
+        assertThat((Long) archivio.stats().get("byte_al_secondo")).isPositive();
+    }
+
+    /**
+     * Test: oltre il limite il caricamento viene rifiutato, dal Content-Length senza leggere o a metà lettura,
+     * e non resta nessun file temporaneo
+     */
+    @Test
+    void testSalva_OltreLimite_Rifiutato() throws Exception {
+        AtomicLong letti = new AtomicLong();
+        byte[] grande = png("x".repeat(5000));
+        ReadableByteChannel contato = new ReadableByteChannel() {
+            private final ReadableByteChannel canale = Channels.newChannel(new ByteArrayInputStream(grande));
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                // Al più 100 byte per lettura, come una richiesta che arriva a pezzi
+                ByteBuffer parte = dst.slice().limit(Math.min(dst.remaining(), 100));
+                int n = canale.read(parte);
+                if (n > 0) {
+                    dst.position(dst.position() + n);
+                    letti.addAndGet(n);
+                }
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        assertThatThrownBy(() -> archivio.salva(contato, grande.length))
+                .isInstanceOfSatisfying(ArchivioImmagini.CaricamentoRifiutato.class, e -> assertThat(e.troppoGrande()).isTrue());
+        assertThat(letti.get()).isZero();
+
+        // Content-Length assente: la lettura si interrompe appena superato il limite
+        assertThatThrownBy(() -> archivio.salva(contato, -1)).isInstanceOf(ArchivioImmagini.CaricamentoRifiutato.class);
+        assertThat(letti.get()).isGreaterThan(1000).isLessThan(grande.length);
+
+        try (var file = Files.list(uploads.resolve("prodotti"))) {
+            assertThat(file.count()).isZero();
+        }
+        assertThat(archivio.stats()).containsEntry("rifiutati_dimensione", 2L).containsEntry("caricamenti", 0L);
+    }
+
+    /**
+     * Test: il file resta finché un prodotto lo usa e viene cancellato all'ultimo riferimento
+     */
+    @Test
+    void testRilascia_UltimoRiferimento_FileCancellato() throws Exception {
+        String nome = salva("contenuto").nomeFile();
+        Path file = uploads.resolve("prodotti").resolve(nome);
+        jdbc.update("INSERT INTO prodotto (id_prodotto, immagine) VALUES (1, ?)", nome);
+        jdbc.update("INSERT INTO prodotto (id_prodotto, immagine) VALUES (2, ?)", nome);
+
+        jdbc.update("DELETE FROM prodotto WHERE id_prodotto = 1");
+        assertThat(archivio.rilascia(nome)).isFalse();
+        assertThat(file).exists();
+
+        jdbc.update("DELETE FROM prodotto WHERE id_prodotto = 2");
+        assertThat(archivio.rilascia(nome)).isTrue();
+        assertThat(file).doesNotExist();
+        assertThat(archivio.stats()).containsEntry("rimosse", 1L).containsEntry("conservate", 1L);
+    }
+
+    /**
+     * Test: un file appena caricato, non ancora assegnato a un prodotto, non viene cancellato durante il periodo di grazia
+     */
+    @Test
+    void testRilascia_CaricatoDiRecente_Conservato() throws Exception {
+        archivio = archivio(60);
+        String nome = salva("contenuto").nomeFile();
+
+        assertThat(archivio.rilascia(nome)).isFalse();
+        assertThat(uploads.resolve("prodotti").resolve(nome)).exists();
+        assertThat(archivio.rilascia("../../fuori.png")).isFalse();
+    }
+
+    /**
+     * Test: senza riferimenti non vengono cancellati il segnaposto default.jpg né i file con nome non da hash
+     */
+    @Test
+    void testRilascia_NomeNonDaHash_MaiCancellato() throws Exception {
+        Path cartella = Files.createDirectories(uploads.resolve("prodotti"));
+        Files.writeString(cartella.resolve("default.jpg"), "segnaposto");
+        Files.writeString(cartella.resolve("mouse_1.png"), "vecchio caricamento");
+
+        assertThat(archivio.rilascia("default.jpg")).isFalse();
+        assertThat(archivio.rilascia("mouse_1.png")).isFalse();
+        assertThat(cartella.resolve("default.jpg")).exists();
+        assertThat(cartella.resolve("mouse_1.png")).exists();
+        assertThat(archivio.stats()).containsEntry("rimosse", 0L);
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.backendjava.service;
+
+import java.math.BigDecimal;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.backendjava.jdbc.DatabaseH2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Test unitari per CheckoutService su un database H2 in memoria, dentro una transazione come con @Transactional.
+ * Verifica ordine completo con pacchetti, rollback per giacenza insufficiente e coupon non valido.
+ */
+class CheckoutServiceTest {
+
+    private static final long UTENTE = 7;
+
+    private JdbcTemplate jdbc;
+    private TransactionTemplate tx;
+    private PrenotazioniStock prenotazioni;
+    private CatalogoSnapshot catalogo;
+    private CheckoutService checkout;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource ds = DatabaseH2.nuovo("checkout");
+        jdbc = new JdbcTemplate(ds);
+        jdbc.update("INSERT INTO prodotto (id_prodotto, nome, prezzo, prezzo_scontato, promo, quantita_disponibile) VALUES"
+                + " (1, 'Mouse', 20.00, 15.00, TRUE, 10), (2, 'Tastiera', 40.00, NULL, FALSE, 5)");
+        jdbc.update("INSERT INTO pacchetto_tematico (id_pacchetto, nome, prezzo_totale) VALUES (1, 'Postazione', 50.00)");
+        // Il pacchetto contiene anche un prodotto cancellato (99): non deve finire nell'ordine
+        jdbc.update("INSERT INTO prodotto_pacchetto VALUES (1, 2, 1), (1, 99, 1)");
+        jdbc.update("INSERT INTO carrello VALUES (?, 1, 2)", UTENTE);
+        jdbc.update("INSERT INTO carrello_pacchetto VALUES (?, 1, 2)", UTENTE);
+        jdbc.update("INSERT INTO coupon (id, codice, descrizione, tipo_sconto, valore_sconto, importo_minimo, usi_massimi, usi_attuali, attivo, uso_singolo)"
+                + " VALUES (1, 'SCONTO10', 'Sconto 10%', 'percentuale', 10, NULL, 50, 0, TRUE, FALSE)");
+
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(ds);
+        tx = new TransactionTemplate(transactionManager);
+        catalogo = new CatalogoSnapshot(jdbc);
+        prenotazioni = new PrenotazioniStock(900);
+        VisteCarrello viste = new VisteCarrello(jdbc, catalogo, false, 100);
+        RegistroCoupon coupon = new RegistroCoupon(jdbc, transactionManager, 300, 100);
+        checkout = new CheckoutService(jdbc, catalogo, prenotazioni, viste, new ArchivioCarrelli(jdbc, transactionManager, false, 1800),
+                new ClassificaVendite(jdbc, catalogo, 60), coupon);
+
+        prenotazioni.riserva(1L, UTENTE, 2, 10);
+    }
+
+    private CheckoutService.Esito esegui(String codiceCoupon) {
+        CheckoutService.DatiOrdine dati = new CheckoutService.DatiOrdine("Via Roma 1, Milano", "carta", "Mario Rossi",
+                "**** **** **** 1234", codiceCoupon);
+        return tx.execute(status -> checkout.checkout(UTENTE, dati));
+    }
+
+    /**
+     * Test: ordine con prodotti e pacchetti, coupon applicato, giacenza scalata, carrello svuotato e prenotazioni consumate
+     */
+    @Test
+    void testCheckout_Completato() {
+        CheckoutService.Esito esito = esegui("SCONTO10");
+
+        // 2 x 15.00 (promo) + 2 pacchetti x 50.00 = 130.00, meno il 10%
+        assertThat(esito.totale()).isEqualByComparingTo("117.00");
+        assertThat(jdbc.queryForObject("SELECT totale_originale FROM ordini WHERE id = ?", BigDecimal.class, esito.ordineId()))
+                .isEqualByComparingTo("130.00");
+        assertThat(jdbc.queryForList("SELECT prodotto_id FROM ordine_prodotti WHERE ordine_id = ? ORDER BY prodotto_id", Long.class, esito.ordineId()))
+                .containsExactly(1L, 2L);
+        assertThat(jdbc.queryForList("SELECT quantita_disponibile FROM prodotto ORDER BY id_prodotto", Integer.class)).containsExactly(8, 3);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM carrello", Integer.class)).isZero();
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM carrello_pacchetto", Integer.class)).isZero();
+        assertThat(jdbc.queryForObject("SELECT usi_attuali FROM coupon WHERE id = 1", Integer.class)).isEqualTo(1);
+        assertThat(prenotazioni.riservate(1L)).isZero();
+        assertThat(checkout.stats()).containsEntry("completati", 1L).containsEntry("righe_ordine", 2L);
+    }
+
+    /**
+     * Test: il checkout non ricostruisce il catalogo, le giacenze vengono applicate tutte insieme
+     * dall'aggiornamento periodico con una sola nuova versione
+     */
+    @Test
+    void testCheckout_GiacenzeCatalogoAccorpate() {
+        CatalogoSnapshot.Versione prima = catalogo.versione();
+        esegui(null);
+
+        assertThat(catalogo.versione()).isSameAs(prima);
+        assertThat(catalogo.stats()).containsEntry("disponibilita_in_sospeso", 2);
+
+        catalogo.aggiornaDisponibilita();
+
+        assertThat(catalogo.prodotto(1L).orElseThrow().quantitaDisponibile()).isEqualTo(8);
+        assertThat(catalogo.prodotto(2L).orElseThrow().quantitaDisponibile()).isEqualTo(3);
+        assertThat(catalogo.versione().numero()).isEqualTo(prima.numero() + 1);
+        assertThat(catalogo.stats()).containsEntry("ricostruzioni_complete", 1L).containsEntry("ricostruzioni_incrementali", 1L)
+                .containsEntry("disponibilita_in_sospeso", 0);
+    }
+
+    /**
+     * Test: giacenza insufficiente per un prodotto del pacchetto, scoperta dall'UPDATE condizionato:
+     * ordine, righe, scalo delle giacenze e riscatto del coupon vengono annullati, le prenotazioni restano
+     */
+    @Test
+    void testCheckout_GiacenzaInsufficiente_Rollback() {
+        jdbc.update("UPDATE prodotto SET quantita_disponibile = 1 WHERE id_prodotto = 2");
+
+        assertThatThrownBy(() -> esegui("SCONTO10"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("Quantità non disponibile per Tastiera");
+
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM ordini", Integer.class)).isZero();
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM ordine_prodotti", Integer.class)).isZero();
+        assertThat(jdbc.queryForList("SELECT quantita_disponibile FROM prodotto ORDER BY id_prodotto", Integer.class)).containsExactly(10, 1);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM carrello", Integer.class)).isEqualTo(1);
+        assertThat(jdbc.queryForObject("SELECT usi_attuali FROM coupon WHERE id = 1", Integer.class)).isZero();
+        assertThat(prenotazioni.riservate(1L)).isEqualTo(2);
+        assertThat(checkout.stats()).containsEntry("falliti", 1L);
+    }
+
+    /**
+     * Test: coupon inesistente, il checkout fallisce prima di scrivere qualsiasi cosa
+     */
+    @Test
+    void testCheckout_CouponNonValido() {
+        assertThatThrownBy(() -> esegui("NONESISTE"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("Coupon non valido, scaduto o esaurito");
+
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM ordini", Integer.class)).isZero();
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM carrello", Integer.class)).isEqualTo(1);
+        assertThat(checkout.stats()).containsEntry("falliti", 1L).containsEntry("ultimi_round_trip", 0);
+    }
+}
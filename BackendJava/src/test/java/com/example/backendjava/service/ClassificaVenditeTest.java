@@ -0,0 +1,119 @@
+package com.example.backendjava.service;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import com.example.backendjava.dto.ProdottoPopolare;
+import com.example.backendjava.jdbc.DatabaseH2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+/**
+ * Test unitari per ClassificaVendite su un database H2 in memoria.
+ * Verifica classifica totale, finestre temporali e aggiornamento incrementale dal checkout.
+ */
+class ClassificaVenditeTest {
+
+    private JdbcTemplate jdbc;
+    private ClassificaVendite classifica;
+
+    @BeforeEach
+    void setUp() {
+        jdbc = new JdbcTemplate(DatabaseH2.nuovo("classifica"));
+        jdbc.update("INSERT INTO prodotto (id_prodotto, nome, prezzo, prezzo_scontato, promo, immagine, quantita_disponibile) VALUES"
+                + " (1, 'Mouse', 20.00, 15.00, TRUE, 'mouse.jpg', 10), (2, 'Tastiera', 40.00, NULL, FALSE, NULL, 10),"
+                + " (3, 'Monitor', 200.00, NULL, FALSE, NULL, 0), (4, 'Cuffie', 50.00, NULL, FALSE, NULL, 5)");
+        Instant adesso = Instant.now();
+        jdbc.update("INSERT INTO ordini (id, data_ordine) VALUES (1, ?), (2, ?)", Timestamp.from(adesso.minus(60, ChronoUnit.DAYS)), Timestamp.from(adesso.minus(1, ChronoUnit.HOURS)));
+        // Tastiera: 9 pezzi due mesi fa, Mouse: 4 pezzi oggi, Monitor esaurito
+        jdbc.update("INSERT INTO ordine_prodotti (ordine_id, prodotto_id, quantita) VALUES (1, 2, 9), (2, 1, 4), (2, 3, 50)");
+
+        classifica = new ClassificaVendite(jdbc, new CatalogoSnapshot(jdbc), 60);
+    }
+
+    /**
+     * Test: classifica totale e di 7 giorni, prodotti esauriti esclusi, completamento in ordine di nome
+     */
+    @Test
+    void testPopolari_FinestreTemporali() {
+        assertThat(classifica.popolari(ClassificaVendite.Finestra.SEMPRE, 3))
+                .extracting(ProdottoPopolare::idProdotto, ProdottoPopolare::totalPurchased)
+                .containsExactly(tuple("2", 9L), tuple("1", 4L),
+                        tuple("4", 0L));
+        assertThat(classifica.popolari(ClassificaVendite.Finestra.SETTE_GIORNI, 2))
+                .extracting(ProdottoPopolare::idProdotto)
+                .containsExactly("1", "4");
+        assertThat(classifica.popolari(ClassificaVendite.Finestra.SEMPRE, 1).get(0).prezzo()).isEqualByComparingTo("40.00");
+    }
+
+    /**
+     * Test: le vendite registrate dal checkout entrano nella classifica al ricalcolo, senza rileggere il database
+     */
+    @Test
+    void testRegistra_AggiornaClassifica() {
+        classifica.popolari(ClassificaVendite.Finestra.SEMPRE, 3);
+        jdbc.execute("DROP TABLE ordine_prodotti");
+
+        classifica.registra(Map.of(4L, 12));
+        classifica.aggiorna();
+
+        assertThat(classifica.popolari(ClassificaVendite.Finestra.TRENTA_GIORNI, 3))
+                .extracting(ProdottoPopolare::idProdotto)
+                .containsExactly("4", "1", "2");
+        assertThat(classifica.popolari(ClassificaVendite.Finestra.SEMPRE, 1).get(0).totalPurchased()).isEqualTo(12L);
+    }
+
+    /**
+     * Test: tutti i prodotti venduti riportano i venduti reali, non 0, e il limite oltre il massimo viene ridotto
+     */
+    @Test
+    void testPopolari_TuttiIVendutiFinoAlLimite() {
+        jdbc.update("INSERT INTO ordine_prodotti (ordine_id, prodotto_id, quantita) VALUES (2, 4, 1)");
+
+        assertThat(classifica.popolari(ClassificaVendite.Finestra.SEMPRE, 3))
+                .extracting(ProdottoPopolare::idProdotto, ProdottoPopolare::totalPurchased)
+                .containsExactly(tuple("2", 9L), tuple("1", 4L), tuple("4", 1L));
+        assertThat(classifica.popolari(ClassificaVendite.Finestra.SEMPRE, 500)).hasSize(3);
+    }
+
+    /**
+     * Test: una vendita registrata mentre la riconciliazione legge il database viene sommata ai valori letti,
+     * non persa con i contatori vecchi
+     */
+    @Test
+    void testRegistra_DuranteCaricamento_NonPersa() {
+        ClassificaVendite[] inCorso = new ClassificaVendite[1];
+        JdbcTemplate lento = new JdbcTemplate(jdbc.getDataSource()) {
+            @Override
+            public void query(String sql, RowCallbackHandler rch) {
+                // Il checkout registra la vendita (non ancora nel database letto) durante la lettura
+                inCorso[0].registra(Map.of(4L, 3));
+                super.query(sql, rch);
+            }
+        };
+        inCorso[0] = new ClassificaVendite(lento, new CatalogoSnapshot(jdbc), 60);
+        inCorso[0].carica();
+        inCorso[0].carica();
+
+        assertThat(inCorso[0].venduti(4L)).isEqualTo(3L);
+        assertThat(inCorso[0].venduti(2L)).isEqualTo(9L);
+    }
+
+    /**
+     * Test: finestra non supportata
+     */
+    @Test
+    void testFinestra_NonSupportata() {
+        assertThat(ClassificaVendite.Finestra.da(null)).isEqualTo(ClassificaVendite.Finestra.SEMPRE);
+        assertThatThrownBy(() -> ClassificaVendite.Finestra.da(14)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
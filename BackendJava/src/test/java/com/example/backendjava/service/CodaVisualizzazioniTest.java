@@ -0,0 +1,82 @@
+package com.example.backendjava.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.example.backendjava.jdbc.DatabaseH2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test unitari per CodaVisualizzazioni su un database H2 in memoria.
+ * Verifica deduplicazione, scrittura in batch, scarto a coda piena e scrittura allo spegnimento.
+ */
+class CodaVisualizzazioniTest {
+
+    private JdbcTemplate jdbc;
+
+    @BeforeEach
+    void setUp() {
+        jdbc = new JdbcTemplate(DatabaseH2.nuovo("visualizzazioni"));
+        jdbc.update("INSERT INTO visualizzazioni VALUES (1, 10, TIMESTAMP '2020-01-01 00:00:00')");
+    }
+
+    /**
+     * Test: eventi ripetuti sulla stessa coppia diventano una riga, la riga esistente viene aggiornata
+     */
+    @Test
+    void testScrivi_DeduplicaEAggiorna() {
+        // Senza scrittura periodica: la coda viene svuotata solo da scrivi()
+        CodaVisualizzazioni coda = new CodaVisualizzazioni(jdbc, 100, 1.0, 500, 0);
+        coda.accoda(1L, 10L);
+        coda.accoda(1L, 10L);
+        coda.accoda(1L, 11L);
+        coda.accoda(2L, 10L);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM visualizzazioni", Integer.class)).isEqualTo(1);
+
+        coda.scrivi();
+
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM visualizzazioni", Integer.class)).isEqualTo(3);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM visualizzazioni WHERE visualizzato_at > TIMESTAMP '2020-01-01 00:00:00'", Integer.class)).isEqualTo(3);
+        assertThat(coda.stats()).containsEntry("deduplicate", 1L).containsEntry("righe_scritte", 3L).containsEntry("in_coda", 0);
+    }
+
+    /**
+     * Test: a coda piena gli eventi vengono scartati e contati, allo spegnimento la coda viene scritta
+     */
+    @Test
+    void testAccoda_CodaPiena_ScartaEScriveAllaChiusura() throws Exception {
+        // Soglia di pressione oltre la capienza: nessuna scrittura anticipata durante il test
+        CodaVisualizzazioni coda = new CodaVisualizzazioni(jdbc, 2, 2.0, 500, 0);
+        assertThat(coda.accoda(5L, 1L)).isTrue();
+        assertThat(coda.accoda(5L, 2L)).isTrue();
+        assertThat(coda.accoda(5L, 3L)).isFalse();
+
+        coda.chiudi();
+
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM visualizzazioni WHERE user_id = 5", Integer.class)).isEqualTo(2);
+        assertThat(coda.stats()).containsEntry("scartate", 1L).containsEntry("righe_scritte", 2L);
+    }
+
+    /**
+     * Test: una riga rifiutata dal database fa fallire il batch, le altre vengono scritte una per volta
+     * e solo quella rifiutata viene scartata
+     */
+    @Test
+    void testScrivi_RigaNonValida_ScartataSoloLei() {
+        jdbc.update("INSERT INTO prodotto (id_prodotto) VALUES (10), (11)");
+        jdbc.execute("ALTER TABLE visualizzazioni ADD FOREIGN KEY (prodotto_id) REFERENCES prodotto (id_prodotto)");
+        CodaVisualizzazioni coda = new CodaVisualizzazioni(jdbc, 100, 1.0, 500, 0);
+        coda.accoda(3L, 10L);
+        coda.accoda(3L, 99L);
+        coda.accoda(3L, 11L);
+
+        coda.scrivi();
+
+        assertThat(jdbc.queryForList("SELECT prodotto_id FROM visualizzazioni WHERE user_id = 3 ORDER BY prodotto_id", Long.class))
+                .containsExactly(10L, 11L);
+        // Un errore per il batch e uno per la riga scartata; niente torna in coda
+        assertThat(coda.stats()).containsEntry("scartate", 1L).containsEntry("errori", 2L).containsEntry("in_coda", 0);
+    }
+}
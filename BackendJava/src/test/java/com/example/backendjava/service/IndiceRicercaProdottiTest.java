@@ -0,0 +1,99 @@
+package com.example.backendjava.service;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.example.backendjava.service.CatalogoSnapshot.ProdottoCatalogo;
+import com.example.backendjava.service.CatalogoSnapshot.Versione;
+
+/**
+ * Test unitari per IndiceRicercaProdotti.
+ * Verifica che l'indice a n-grammi mantenga la stessa semantica e lo stesso ordinamento
+ * delle vecchie query LIKE '%q%'.
+ */
+class IndiceRicercaProdottiTest {
+
+    private CatalogoSnapshot catalogo;
+    private IndiceRicercaProdotti indice;
+
+    private static ProdottoCatalogo prodotto(long id, String nome, String marchio, String categoria, String descrizione, int quantita) {
+        return new ProdottoCatalogo(id, nome, new BigDecimal("100.00"), new BigDecimal("100.00"), null, false,
+                descrizione, null, quantita, false, 1L, marchio, categoria, null);
+    }
+
+    private Versione versione(ProdottoCatalogo... prodotti) {
+        Map<Long, ProdottoCatalogo> map = new TreeMap<>();
+        for (ProdottoCatalogo p : prodotti) map.put(p.id(), p);
+        Versione v = new Versione(1, System.currentTimeMillis(), "test", List.of(), List.of(), map, Map.of(), List.of());
+        when(catalogo.versione()).thenReturn(v);
+        return v;
+    }
+
+    @BeforeEach
+    void setUp() {
+        catalogo = mock(CatalogoSnapshot.class);
+        indice = new IndiceRicercaProdotti(catalogo);
+        indice.catalogoRicaricato(versione(
+                prodotto(1, "RTX 4090 Gaming", "Gigabyte", "Schede video", "Scheda top di gamma", 5),
+                prodotto(2, "Tomahawk B550", "MSI", "Schede madri", "Scheda madre per Ryzen", 3),
+                prodotto(3, "MSI RTX 4060", "MSI", "Schede video", "Compatta", 2),
+                prodotto(4, "ROG Thor 1000W", "ASUS", "Alimentatori", "Alimentatore platinum con display RTX-ready", 4),
+                prodotto(5, "RTX 3060 Ti", "Gigabyte", "Schede video", "Esaurita", 0)
+        ));
+    }
+
+    /**
+     * Test: la ricerca completa ordina per nome che inizia, marchio che inizia, nome che contiene, resto
+     */
+    @Test
+    void testCerca_RispettaOrdinamentoDiRilevanza() {
+        List<ProdottoCatalogo> risultati = indice.cerca("rtx");
+
+        // 1 inizia con RTX; 3 contiene RTX nel nome; 4 solo nella descrizione; 5 esaurito
+        assertThat(risultati).extracting(ProdottoCatalogo::id).containsExactly(1L, 3L, 4L);
+    }
+
+    /**
+     * Test: i termini più lunghi di un trigramma vengono verificati come sottostringa esatta
+     */
+    @Test
+    void testCerca_TermineLungo_VerificaSottostringa() {
+        assertThat(indice.cerca("scheda madre")).extracting(ProdottoCatalogo::id).containsExactly(2L);
+        assertThat(indice.cerca("madre scheda")).isEmpty();
+    }
+
+    /**
+     * Test: i suggerimenti ignorano la descrizione e rispettano il limite
+     */
+    @Test
+    void testSuggerimenti_IgnoranoDescrizioneERispettanoLimite() {
+        assertThat(indice.suggerimenti("platinum", 5)).isEmpty();
+        assertThat(indice.suggerimenti("msi", 1)).extracting(ProdottoCatalogo::id).containsExactly(3L);
+    }
+
+    /**
+     * Test: un prodotto modificato viene reindicizzato senza ricostruire tutto l'indice
+     */
+    @Test
+    void testProdottiAggiornati_ReindicizzaSoloIlProdotto() {
+        Versione v = versione(
+                prodotto(1, "RTX 4090 Gaming", "Gigabyte", "Schede video", "Scheda top di gamma", 5),
+                prodotto(2, "Tomahawk B650", "MSI", "Schede madri", "Scheda madre per Ryzen", 3),
+                prodotto(3, "MSI RTX 4060", "MSI", "Schede video", "Compatta", 2),
+                prodotto(4, "ROG Thor 1000W", "ASUS", "Alimentatori", "Alimentatore platinum con display RTX-ready", 4)
+        );
+        indice.prodottiAggiornati(v, List.of(2L, 5L));
+
+        assertThat(indice.cerca("b550")).isEmpty();
+        assertThat(indice.cerca("b650")).extracting(ProdottoCatalogo::id).containsExactly(2L);
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.backendjava.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.example.backendjava.dto.ProdottoSuggerito;
+import com.example.backendjava.jdbc.DatabaseH2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test unitari per MotoreSuggerimenti su un database H2 in memoria.
+ * Verifica candidati per categoria e fascia di prezzo, ordinamento per co-visualizzazioni e limite agli utenti in memoria.
+ */
+class MotoreSuggerimentiTest {
+
+    private JdbcTemplate jdbc;
+    private CatalogoSnapshot catalogo;
+    private MotoreSuggerimenti motore;
+
+    @BeforeEach
+    void setUp() {
+        jdbc = new JdbcTemplate(DatabaseH2.nuovo("suggerimenti"));
+        jdbc.update("INSERT INTO categoria VALUES (1, 'Periferiche', NULL), (2, 'Monitor', NULL)");
+        jdbc.update("INSERT INTO prodotto (id_prodotto, nome, prezzo, quantita_disponibile, id_categoria) VALUES"
+                + " (1, 'Mouse', 30.00, 10, 1), (2, 'Tastiera', 60.00, 10, 1), (3, 'Tappetino', 10.00, 10, 1),"
+                + " (4, 'Webcam', 70.00, 0, 1), (5, 'Mouse pro', 200.00, 10, 1), (6, 'Monitor', 40.00, 10, 2),"
+                + " (7, 'Cuffie', 50.00, 10, 1)");
+        jdbc.update("INSERT INTO visualizzazioni VALUES (9, 1, CURRENT_TIMESTAMP)");
+
+        catalogo = new CatalogoSnapshot(jdbc);
+        motore = new MotoreSuggerimenti(jdbc, catalogo, new ClassificaVendite(jdbc, catalogo, 60), 3, 20, 6, 100);
+    }
+
+    /**
+     * Test: stessa categoria e prezzo entro ±50, esclusi prodotti visti ed esauriti, a parità ordinati per id
+     */
+    @Test
+    void testSuggerimenti_CategoriaEFasciaDiPrezzo() {
+        assertThat(motore.suggerimenti(9L)).extracting(ProdottoSuggerito::idProdotto).containsExactly(2L, 3L, 7L);
+        assertThat(motore.suggerimenti(42L)).isEmpty();
+        assertThat(motore.stats()).containsEntry("richieste", 2L);
+    }
+
+    /**
+     * Test: i prodotti visti insieme da altri utenti passano in testa
+     */
+    @Test
+    void testSuggerimenti_CoVisualizzazioniInTesta() {
+        motore.visualizzato(10L, 1L);
+        motore.visualizzato(10L, 7L);
+        motore.visualizzato(11L, 7L);
+        motore.visualizzato(11L, 1L);
+        motore.visualizzato(11L, 3L);
+
+        // Cuffie viste con il Mouse da due utenti, Tappetino da uno
+        assertThat(motore.suggerimenti(9L)).extracting(ProdottoSuggerito::idProdotto).containsExactly(7L, 3L, 2L);
+    }
+
+    /**
+     * Test: oltre il limite viene tolto solo l'utente caricato per primo, e quando torna la sua storia
+     * non viene contata di nuovo nelle co-visualizzazioni
+     */
+    @Test
+    void testBuffer_OltreMaxUtenti_TogliePrimoSenzaRicontare() {
+        motore = new MotoreSuggerimenti(jdbc, catalogo, new ClassificaVendite(jdbc, catalogo, 60), 3, 20, 6, 2);
+        jdbc.update("INSERT INTO visualizzazioni (user_id, prodotto_id, visualizzato_at) VALUES"
+                + " (12, 1, CURRENT_TIMESTAMP), (12, 7, CURRENT_TIMESTAMP)");
+
+        motore.suggerimenti(12L);
+        motore.visualizzato(10L, 1L);
+        motore.visualizzato(10L, 3L);
+        motore.suggerimenti(13L);
+        motore.suggerimenti(12L);
+
+        // Cuffie e Tappetino visti una volta ciascuno con il Mouse: a parità decide l'id
+        assertThat(motore.suggerimenti(9L)).extracting(ProdottoSuggerito::idProdotto).containsExactly(3L, 7L, 2L);
+        assertThat(motore.stats()).containsEntry("utenti_in_memoria", 2).containsEntry("caricamenti_utente", 5L)
+                .containsEntry("utenti_rimossi", 3L);
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.backendjava.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test unitari per PrenotazioniStock.
+ * Verifica che con molti utenti concorrenti non si riservi mai più della giacenza.
+ */
+class PrenotazioniStockTest {
+
+    private PrenotazioniStock prenotazioni;
+
+    @BeforeEach
+    void setUp() {
+        prenotazioni = new PrenotazioniStock(900);
+    }
+
+    /**
+     * Test: 200 utenti concorrenti su 50 pezzi, esattamente 50 prenotazioni riescono
+     */
+    @Test
+    void testRiserva_Concorrente_NonSuperaLaGiacenza() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        CountDownLatch via = new CountDownLatch(1);
+        List<Future<Boolean>> esiti = new ArrayList<>();
+        for (long utente = 1; utente <= 200; utente++) {
+            long u = utente;
+            esiti.add(pool.submit(() -> {
+                via.await();
+                return prenotazioni.riserva(7L, u, 1, 50);
+            }));
+        }
+        via.countDown();
+        int riuscite = 0;
+        for (Future<Boolean> f : esiti) if (f.get()) riuscite++;
+        pool.shutdown();
+        assertThat(pool.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(riuscite).isEqualTo(50);
+        assertThat(prenotazioni.riservate(7L)).isEqualTo(50);
+    }
+
+    /**
+     * Test: la prenotazione dello stesso utente viene sostituita, non sommata
+     */
+    @Test
+    void testRiserva_StessoUtente_AggiornaLaQuantita() {
+        assertThat(prenotazioni.riserva(1L, 10L, 2, 5)).isTrue();
+        assertThat(prenotazioni.riserva(1L, 10L, 4, 5)).isTrue();
+        assertThat(prenotazioni.riservate(1L)).isEqualTo(4);
+
+        assertThat(prenotazioni.riserva(1L, 11L, 2, 5)).isFalse();
+        prenotazioni.rilascia(1L, 10L);
+        assertThat(prenotazioni.riserva(1L, 11L, 2, 5)).isTrue();
+    }
+
+    /**
+     * Test: le prenotazioni scadute vengono liberate quando servono ad altri utenti
+     */
+    @Test
+    void testRiserva_PrenotazioneScaduta_VieneLiberata() {
+        // Durata zero: ogni prenotazione è già scaduta appena fatta
+        prenotazioni = new PrenotazioniStock(0);
+        assertThat(prenotazioni.riserva(1L, 10L, 3, 3)).isTrue();
+
+        assertThat(prenotazioni.riserva(1L, 11L, 3, 3)).isTrue();
+        assertThat(prenotazioni.riservate(1L)).isEqualTo(3);
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.backendjava.service;
+
+import java.math.BigDecimal;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.example.backendjava.jdbc.DatabaseH2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test unitari per PrezziPacchetti su un database H2 in memoria.
+ * Verifica il calcolo dei prezzi e l'invalidazione tramite le notifiche del catalogo.
+ */
+class PrezziPacchettiTest {
+
+    private JdbcTemplate jdbc;
+    private CatalogoSnapshot catalogo;
+    private PrezziPacchetti prezzi;
+
+    @BeforeEach
+    void setUp() {
+        jdbc = new JdbcTemplate(DatabaseH2.nuovo("pacchetti"));
+        jdbc.update("INSERT INTO prodotto (id_prodotto, nome, prezzo, prezzo_scontato, promo, quantita_disponibile) VALUES"
+                + " (1, 'Mouse', 20.00, 15.00, TRUE, 10), (2, 'Tastiera', 40.00, NULL, FALSE, 10)");
+        jdbc.update("INSERT INTO pacchetto_tematico VALUES (1, 'Postazione', 'Mouse e tastiera', 60.00), (2, 'Vuoto', '', 10.00)");
+        jdbc.update("INSERT INTO prodotto_pacchetto VALUES (1, 1, 2), (1, 2, 1)");
+
+        catalogo = new CatalogoSnapshot(jdbc);
+        prezzi = new PrezziPacchetti(jdbc, catalogo);
+    }
+
+    /**
+     * Test: prezzo scontato = (2 x 15.00 in promo + 40.00) - 15%, pacchetti senza prodotti a zero
+     */
+    @Test
+    void testElenco_CalcolaIPrezzi() {
+        assertThat(prezzi.elenco()).hasSize(2);
+        assertThat(prezzi.prezzo(1).orElseThrow().totaleEffettivo()).isEqualByComparingTo("70.00");
+        assertThat(prezzi.prezzo(1).orElseThrow().prezzoScontato()).isEqualByComparingTo("59.50");
+        assertThat(prezzi.elenco().get(0).prezzoOriginale()).isEqualByComparingTo("60.00");
+        assertThat(prezzi.prezzo(2).orElseThrow().prezzoScontato()).isEqualByComparingTo(BigDecimal.ZERO);
+        assertThat(prezzi.prezzo(3)).isEmpty();
+    }
+
+    /**
+     * Test: cambio di promo su un prodotto membro, i prezzi vengono ricalcolati
+     */
+    @Test
+    void testPrezzoMembroCambiato_Invalida() {
+        prezzi.elenco();
+        jdbc.update("UPDATE prodotto SET promo = FALSE WHERE id_prodotto = 1");
+        catalogo.aggiornaProdotto(1L);
+
+        assertThat(prezzi.prezzo(1).orElseThrow().totaleEffettivo()).isEqualByComparingTo("80.00");
+        assertThat(prezzi.stats()).containsEntry("invalidazioni", 1L);
+    }
+
+    /**
+     * Test: le modifiche alla sola disponibilità non invalidano i prezzi
+     */
+    @Test
+    void testSoloDisponibilitaCambiata_NonInvalida() {
+        prezzi.elenco();
+        jdbc.update("UPDATE prodotto SET quantita_disponibile = 3 WHERE id_prodotto = 2");
+        catalogo.aggiornaProdotto(2L);
+
+        assertThat(prezzi.prezzo(1).orElseThrow().prezzoScontato()).isEqualByComparingTo("59.50");
+        assertThat(prezzi.stats()).containsEntry("invalidazioni", 0L);
+    }
+
+    /**
+     * Test: membri assenti dal catalogo (bloccati o inesistenti) prima e dopo un ricaricamento non invalidano,
+     * un membro che sparisce sì
+     */
+    @Test
+    void testMembroAssente_InvalidaSoloSeCambia() {
+        jdbc.update("INSERT INTO prodotto (id_prodotto, nome, prezzo, quantita_disponibile, bloccato) VALUES (3, 'Monitor', 200.00, 5, TRUE)");
+        jdbc.update("INSERT INTO pacchetto_tematico VALUES (3, 'Ufficio', '', 250.00)");
+        jdbc.update("INSERT INTO prodotto_pacchetto VALUES (3, 3, 1), (3, 99, 1)");
+        prezzi.elenco();
+
+        catalogo.invalida();
+        catalogo.versione();
+        catalogo.aggiornaProdotto(3L);
+        assertThat(prezzi.stats()).containsEntry("invalidazioni", 0L);
+
+        jdbc.update("UPDATE prodotto SET bloccato = TRUE WHERE id_prodotto = 2");
+        catalogo.aggiornaProdotto(2L);
+        assertThat(prezzi.stats()).containsEntry("invalidazioni", 1L);
+    }
+
+    /**
+     * Test: un ricaricamento per TTL senza modifiche mantiene versione ed ETag, e un nuovo avvio
+     * sullo stesso contenuto produce gli stessi ETag; un prezzo cambiato li cambia
+     */
+    @Test
+    void testStessoContenuto_StessoEtag() {
+        CatalogoSnapshot.Versione prima = catalogo.versione();
+        String etagPacchetti = prezzi.elencoVersionato().etag();
+
+        assertThat(catalogo.ricarica()).isSameAs(prima);
+        assertThat(catalogo.versione()).isSameAs(prima);
+        assertThat(catalogo.stats()).containsEntry("ricostruzioni_complete", 2L).containsEntry("ricaricamenti_invariati", 1L);
+
+        CatalogoSnapshot riavviato = new CatalogoSnapshot(jdbc);
+        assertThat(riavviato.versione().etag()).isEqualTo(prima.etag());
+        assertThat(new PrezziPacchetti(jdbc, riavviato).elencoVersionato().etag()).isEqualTo(etagPacchetti);
+
+        jdbc.update("UPDATE prodotto SET prezzo = 45.00 WHERE id_prodotto = 2");
+        catalogo.aggiornaProdotto(2L);
+        assertThat(catalogo.versione().etag()).isNotEqualTo(prima.etag());
+        assertThat(prezzi.elencoVersionato().etag()).isNotEqualTo(etagPacchetti);
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.backendjava.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongUnaryOperator;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.backendjava.jdbc.DatabaseH2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test unitari per RegistroCoupon su un database H2 in memoria.
+ * Verifica cache per codice con invalidazione e riscatto atomico sotto concorrenza.
+ */
+class RegistroCouponTest {
+
+    private JdbcTemplate jdbc;
+    private DataSourceTransactionManager transactionManager;
+    private RegistroCoupon registro;
+
+    @BeforeEach
+    void setUp() {
+        // Attesa lunga sui lock di riga: i riscatti concorrenti dello stesso coupon si mettono in fila
+        DriverManagerDataSource ds = DatabaseH2.nuovo("coupon", ";LOCK_TIMEOUT=10000");
+        jdbc = new JdbcTemplate(ds);
+        jdbc.update("INSERT INTO coupon (id, codice, descrizione, tipo_sconto, valore_sconto, importo_minimo, usi_massimi, usi_attuali, attivo, uso_singolo)"
+                + " VALUES (1, 'SCONTO10', 'Sconto 10%', 'percentuale', 10, 20, 50, 0, TRUE, FALSE)");
+        jdbc.update("INSERT INTO coupon (id, codice, descrizione, tipo_sconto, valore_sconto, importo_minimo, usi_massimi, usi_attuali, attivo, uso_singolo)"
+                + " VALUES (2, 'BENVENUTO', 'Benvenuto', 'fisso', 5, NULL, NULL, 0, TRUE, TRUE)");
+        transactionManager = new DataSourceTransactionManager(ds);
+        registro = new RegistroCoupon(jdbc, transactionManager, 300, 100);
+    }
+
+    /**
+     * Test: la verifica calcola lo sconto, la seconda lettura arriva dalla cache finché non viene invalidata
+     */
+    @Test
+    void testValuta_CacheEInvalidazione() {
+        RegistroCoupon.Valutazione v = registro.valuta("SCONTO10", 1L, new BigDecimal("50"));
+        assertThat(v.valido()).isTrue();
+        assertThat(v.sconto()).isEqualByComparingTo("5.00");
+        assertThat(v.totaleScontato()).isEqualByComparingTo("45.00");
+        assertThat(registro.valuta("SCONTO10", 1L, new BigDecimal("10")).messaggio()).isEqualTo("Importo minimo richiesto: €20.00");
+
+        jdbc.update("UPDATE coupon SET attivo = FALSE WHERE id = 1");
+        assertThat(registro.valuta("SCONTO10", 1L, new BigDecimal("50")).valido()).isTrue();
+        assertThat(registro.stats()).containsEntry("hit", 2L).containsEntry("miss", 1L);
+
+        registro.invalida();
+        assertThat(registro.valuta("SCONTO10", 1L, new BigDecimal("50")).valido()).isFalse();
+    }
+
+    /**
+     * Test: dopo un riscatto il coupon a uso singolo non è più valido per lo stesso utente
+     */
+    @Test
+    void testRiscatta_UsoSingolo_SecondoRifiutato() {
+        assertThat(registro.riscatta(2L, 7L)).isEqualTo(RegistroCoupon.Riscatto.RISCATTATO);
+        assertThat(registro.riscatta(2L, 7L)).isEqualTo(RegistroCoupon.Riscatto.GIA_USATO);
+        assertThat(registro.riscatta(2L, 8L)).isEqualTo(RegistroCoupon.Riscatto.RISCATTATO);
+        assertThat(registro.riscatta(99L, 7L)).isEqualTo(RegistroCoupon.Riscatto.NON_VALIDO);
+
+        assertThat(registro.valuta("BENVENUTO", 7L, BigDecimal.TEN).messaggio()).isEqualTo("Hai già utilizzato questo coupon");
+        assertThat(jdbc.queryForObject("SELECT usi_attuali FROM coupon WHERE id = 2", Integer.class)).isEqualTo(2);
+    }
+
+    /**
+     * Test: il riscatto dentro una transazione esterna (checkout) viene annullato con il rollback
+     */
+    @Test
+    void testRiscatta_TransazioneEsterna_AnnullatoConRollback() {
+        RegistroCoupon.Coupon coupon = registro.perCodice("BENVENUTO").orElseThrow();
+        assertThat(registro.applica(coupon, new BigDecimal("3")).totaleScontato()).isEqualByComparingTo("0.00");
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            assertThat(registro.riscatta(coupon, 7L)).isEqualTo(RegistroCoupon.Riscatto.RISCATTATO);
+            status.setRollbackOnly();
+        });
+
+        assertThat(jdbc.queryForObject("SELECT usi_attuali FROM coupon WHERE id = 2", Integer.class)).isZero();
+        assertThat(registro.riscatta(coupon, 7L)).isEqualTo(RegistroCoupon.Riscatto.RISCATTATO);
+    }
+
+    /**
+     * Test: 200 riscatti concorrenti di un coupon con 50 usi, nessun uso oltre il massimo
+     */
+    @Test
+    void testRiscatta_Concorrente_MaiOltreUsiMassimi() throws Exception {
+        List<RegistroCoupon.Riscatto> esiti = riscattaInParallelo(1L, 200, i -> i);
+
+        assertThat(esiti).filteredOn(e -> e == RegistroCoupon.Riscatto.RISCATTATO).hasSize(50);
+        assertThat(esiti).filteredOn(e -> e == RegistroCoupon.Riscatto.NON_VALIDO).hasSize(150);
+        assertThat(jdbc.queryForObject("SELECT usi_attuali FROM coupon WHERE id = 1", Integer.class)).isEqualTo(50);
+    }
+
+    /**
+     * Test: riscatti concorrenti dello stesso utente su un coupon a uso singolo, uno solo va a buon fine
+     */
+    @Test
+    void testRiscatta_ConcorrenteStessoUtente_UnSoloRiscatto() throws Exception {
+        List<RegistroCoupon.Riscatto> esiti = riscattaInParallelo(2L, 20, i -> 7L);
+
+        assertThat(esiti).filteredOn(e -> e == RegistroCoupon.Riscatto.RISCATTATO).hasSize(1);
+        assertThat(esiti).filteredOn(e -> e == RegistroCoupon.Riscatto.GIA_USATO).hasSize(19);
+        assertThat(jdbc.queryForObject("SELECT usi_attuali FROM coupon WHERE id = 2", Integer.class)).isEqualTo(1);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM coupon_utilizzi WHERE coupon_id = 2", Integer.class)).isEqualTo(1);
+    }
+
+    private List<RegistroCoupon.Riscatto> riscattaInParallelo(long idCoupon, int richieste,
+                                                             LongUnaryOperator utente) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        CountDownLatch via = new CountDownLatch(1);
+        List<Future<RegistroCoupon.Riscatto>> futuri = new ArrayList<>();
+        for (int i = 0; i < richieste; i++) {
+            long idUtente = utente.applyAsLong(i);
+            futuri.add(pool.submit(() -> {
+                via.await();
+                return registro.riscatta(idCoupon, idUtente);
+            }));
+        }
+        via.countDown();
+        List<RegistroCoupon.Riscatto> esiti = new ArrayList<>();
+        for (Future<RegistroCoupon.Riscatto> f : futuri) esiti.add(f.get());
+        pool.shutdown();
+        assertThat(pool.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        return esiti;
+    }
+}
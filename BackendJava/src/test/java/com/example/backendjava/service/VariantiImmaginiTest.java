@@ -0,0 +1,98 @@
+package com.example.backendjava.service;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Test unitari per VariantiImmagini su una cartella uploads temporanea.
+ * Verifica dimensioni e formato delle varianti e l'uso dell'originale quando è già piccolo.
+ */
+class VariantiImmaginiTest {
+
+    @TempDir
+    Path uploads;
+
+    private ImmaginiStatiche immagini;
+    private VariantiImmagini varianti;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Files.createDirectories(uploads.resolve("prodotti"));
+        scriviPng(uploads.resolve("prodotti").resolve("grande.png"), 2000, 1000);
+        scriviPng(uploads.resolve("prodotti").resolve("piccola.png"), 300, 300);
+        // Ricontrollo dei metadati a ogni richiesta: le varianti scritte dal test sono subito visibili
+        immagini = new ImmaginiStatiche(uploads.toString(), 0, 31536000, Long.MAX_VALUE, 100);
+        varianti = new VariantiImmagini(immagini, 1, 10, 0.8, 40_000_000);
+    }
+
+    private static void scriviPng(Path file, int larghezza, int altezza) throws Exception {
+        BufferedImage img = new BufferedImage(larghezza, altezza, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(0, 0, larghezza / 2, altezza);
+        g.dispose();
+        ImageIO.write(img, "png", file.toFile());
+    }
+
+    /**
+     * Test: dall'originale vengono generati i tre formati JPEG con le proporzioni mantenute
+     */
+    @Test
+    void testGeneraTutte_TreFormatiJpeg() throws Exception {
+        varianti.generaTutte(immagini.trova("prodotti", "grande.png").orElseThrow());
+
+        for (VariantiImmagini.Formato f : VariantiImmagini.Formato.values()) {
+            ImmaginiStatiche.Immagine v = varianti.variante("prodotti", "grande.png", f).orElseThrow();
+            assertThat(v.percorso()).isEqualTo(uploads.resolve("prodotti").resolve(f.nome()).resolve("grande.png.jpg").toAbsolutePath());
+            BufferedImage letta = ImageIO.read(v.percorso().toFile());
+            assertThat(letta.getWidth()).isEqualTo(f.larghezza());
+            assertThat(letta.getHeight()).isEqualTo(f.larghezza() / 2);
+        }
+        assertThat(varianti.stats()).containsEntry("generate", 3L).containsEntry("fallite", 0L);
+        assertThat((double) varianti.stats().get("rapporto_byte")).isLessThan(1.0);
+    }
+
+    /**
+     * Test: un originale più stretto del formato non viene ingrandito, si usa l'originale
+     */
+    @Test
+    void testVariante_OriginalePiccolo_UsaOriginale() {
+        ImmaginiStatiche.Immagine originale = immagini.trova("prodotti", "piccola.png").orElseThrow();
+        varianti.generaTutte(originale);
+
+        assertThat(varianti.variante("prodotti", "piccola.png", VariantiImmagini.Formato.MINIATURA)).isPresent()
+                .get().extracting(ImmaginiStatiche.Immagine::nome).isEqualTo("piccola.png.jpg");
+        assertThat(varianti.variante("prodotti", "piccola.png", VariantiImmagini.Formato.CARD)).contains(originale);
+        assertThatThrownBy(() -> VariantiImmagini.Formato.da("enorme")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * Test: oltre max-pixel l'originale non viene decodificato né ritentato, si continua a servire l'originale
+     */
+    @Test
+    void testGeneraTutte_OltreMaxPixel_NonElaborata() {
+        varianti = new VariantiImmagini(immagini, 1, 10, 0.8, 1_000_000);
+        ImmaginiStatiche.Immagine grande = immagini.trova("prodotti", "grande.png").orElseThrow();
+        varianti.generaTutte(grande);
+
+        assertThat(uploads.resolve("prodotti").resolve("thumb").resolve("grande.png.jpg")).doesNotExist();
+        assertThat(varianti.variante("prodotti", "grande.png", VariantiImmagini.Formato.MINIATURA)).isEmpty();
+        assertThat(varianti.stats()).containsEntry("troppo_grandi", 1L).containsEntry("generate", 0L)
+                .containsEntry("in_corso", 0);
+
+        varianti.generaTutte(immagini.trova("prodotti", "piccola.png").orElseThrow());
+        assertThat(varianti.stats()).containsEntry("generate", 1L);
+    }
+}
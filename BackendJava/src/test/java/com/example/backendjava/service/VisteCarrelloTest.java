@@ -0,0 +1,102 @@
+package com.example.backendjava.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.example.backendjava.dto.RiepilogoCarrello;
+import com.example.backendjava.dto.RigaCarrello;
+import com.example.backendjava.jdbc.DatabaseH2;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Test unitari per VisteCarrello su un database H2 in memoria.
+ * Verifica righe, totali e invalidazione della cache dopo una scrittura sul carrello.
+ */
+class VisteCarrelloTest {
+
+    private JdbcTemplate jdbc;
+    private CatalogoSnapshot catalogo;
+    private VisteCarrello viste;
+
+    @BeforeEach
+    void setUp() {
+        jdbc = new JdbcTemplate(DatabaseH2.nuovo("carrello"));
+        jdbc.update("INSERT INTO prodotto (id_prodotto, nome, prezzo, prezzo_scontato, promo, immagine, quantita_disponibile) VALUES"
+                + " (1, 'Mouse', 20.00, 15.00, TRUE, 'mouse.jpg', 10), (2, 'Tastiera', 40.00, NULL, FALSE, NULL, 10)");
+        jdbc.update("INSERT INTO pacchetto_tematico (id_pacchetto, nome, prezzo_totale) VALUES (1, 'Postazione', 60.00), (2, 'Altro', 30.00)");
+        jdbc.update("INSERT INTO prodotto_pacchetto VALUES (1, 1, 2), (1, 2, 1), (2, 2, 1)");
+        jdbc.update("INSERT INTO carrello VALUES (7, 2, 1), (7, 1, 3)");
+        jdbc.update("INSERT INTO carrello_pacchetto VALUES (7, 1, 2), (7, 2, 1)");
+
+        catalogo = new CatalogoSnapshot(jdbc);
+        viste = new VisteCarrello(jdbc, catalogo, true, 100);
+    }
+
+    /**
+     * Test: prodotti prima dei pacchetti, prezzo effettivo (promo) e prezzo pacchetto scontato del 15%
+     */
+    @Test
+    void testVista_RigheETotale() {
+        RiepilogoCarrello v = viste.vista(7L);
+
+        assertThat(v.righe()).extracting(RigaCarrello::tipo).containsExactly("prodotto", "prodotto", "pacchetto", "pacchetto");
+        assertThat(v.righe().get(0).idProdotto()).isEqualTo(1L);
+        assertThat(v.righe().get(0).prezzo()).isEqualByComparingTo("15.00");
+        assertThat(v.righe().get(0).immagineUrl()).endsWith("/mouse.jpg");
+        // (2 x 15.00 + 40.00) * 0.85 = 59.50
+        assertThat(v.righe().get(2).prezzo()).isEqualByComparingTo("59.50");
+        assertThat(v.righe().get(2).subtotale()).isEqualByComparingTo("119.00");
+        // 45.00 + 40.00 + 119.00 + 34.00
+        assertThat(v.totale()).isEqualByComparingTo("238.00");
+        assertThat(v.articoli()).isEqualTo(7);
+        assertThat(viste.vista(99L).righe()).isEmpty();
+    }
+
+    /**
+     * Test: la seconda lettura viene dalla cache, una scrittura sul carrello la invalida
+     */
+    @Test
+    void testVista_CacheInvalidataDopoScrittura() {
+        viste.vista(7L);
+        viste.vista(7L);
+        assertThat(viste.stats()).containsEntry("hit", 1L);
+
+        jdbc.update("DELETE FROM carrello_pacchetto WHERE id_utente = 7");
+        viste.invalida(7L);
+
+        assertThat(viste.vista(7L).righe()).hasSize(2);
+    }
+
+    /**
+     * Test: una variazione della sola giacenza lascia la cache, un prezzo cambiato la svuota
+     */
+    @Test
+    void testProdottiAggiornati_SvuotaSoloSeCambiaIlPrezzo() {
+        viste.vista(7L);
+        jdbc.update("UPDATE prodotto SET quantita_disponibile = 4 WHERE id_prodotto = 2");
+        catalogo.aggiornaProdotto(2L);
+        viste.vista(7L);
+        assertThat(viste.stats()).containsEntry("hit", 1L).containsEntry("svuotamenti", 0L);
+
+        jdbc.update("UPDATE prodotto SET prezzo = 50.00 WHERE id_prodotto = 2");
+        catalogo.aggiornaProdotto(2L);
+
+        assertThat(viste.vista(7L).righe().get(1).prezzo()).isEqualByComparingTo("50.00");
+        assertThat(viste.stats()).containsEntry("hit", 1L).containsEntry("svuotamenti", 1L);
+    }
+
+    /**
+     * Test: oltre maxUtenti cache e versioni per utente vengono svuotate insieme, senza crescere
+     */
+    @Test
+    void testVista_OltreMaxUtenti_SvuotaAncheLeVersioni() {
+        viste = new VisteCarrello(jdbc, catalogo, true, 2);
+        for (long u = 1; u <= 5; u++) viste.invalida(u);
+        viste.vista(7L);
+
+        assertThat(viste.stats()).containsEntry("utenti_in_cache", 1);
+        assertThat((Long) viste.stats().get("svuotamenti")).isPositive();
+    }
+}
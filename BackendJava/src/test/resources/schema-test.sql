@@ -0,0 +1,39 @@
+-- Schema H2 condiviso da test e benchmark (DatabaseH2.nuovo): stesse tabelle e colonne usate dall'applicazione su PostgreSQL.
+-- I default permettono ai test di inserire solo le colonne che interessano.
+
+CREATE TABLE categoria (id_categoria BIGINT PRIMARY KEY, nome VARCHAR(100), immagine VARCHAR(255));
+
+CREATE TABLE marchio (id_marchio BIGINT PRIMARY KEY, nome VARCHAR(100));
+
+CREATE TABLE prodotto (id_prodotto BIGINT PRIMARY KEY, nome VARCHAR(255), prezzo DECIMAL(10,2), prezzo_scontato DECIMAL(10,2),
+    promo BOOLEAN DEFAULT FALSE, descrizione VARCHAR(1000) DEFAULT '', immagine VARCHAR(255), quantita_disponibile INT DEFAULT 0,
+    in_vetrina BOOLEAN DEFAULT FALSE, bloccato BOOLEAN DEFAULT FALSE, id_categoria BIGINT, id_marchio BIGINT);
+
+CREATE TABLE pacchetto_tematico (id_pacchetto BIGINT PRIMARY KEY, nome VARCHAR(100), descrizione VARCHAR(1000) DEFAULT '',
+    prezzo_totale DECIMAL(10,2));
+
+CREATE TABLE prodotto_pacchetto (id_pacchetto BIGINT, id_prodotto BIGINT, quantita INT);
+
+CREATE TABLE carrello (id_utente BIGINT, id_prodotto BIGINT, quantita INT);
+CREATE UNIQUE INDEX carrello_utente_prodotto_uk ON carrello (id_utente, id_prodotto);
+
+CREATE TABLE carrello_pacchetto (id_utente BIGINT, id_pacchetto BIGINT, quantita INT);
+CREATE UNIQUE INDEX carrello_pacchetto_uk ON carrello_pacchetto (id_utente, id_pacchetto);
+
+CREATE TABLE ordini (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, user_id BIGINT, indirizzo_consegna VARCHAR(255),
+    totale_originale DECIMAL(10,2), sconto_coupon DECIMAL(10,2), totale DECIMAL(10,2), stato VARCHAR(50), data_ordine TIMESTAMP,
+    metodo_pagamento VARCHAR(50), nome_intestatario VARCHAR(100), numero_carta_mascherato VARCHAR(30), coupon_utilizzato VARCHAR(50));
+CREATE INDEX ordini_utente_data_id_idx ON ordini (user_id, data_ordine DESC, id DESC);
+
+CREATE TABLE ordine_prodotti (ordine_id BIGINT, prodotto_id BIGINT, quantita INT, prezzo DECIMAL(10,2));
+
+CREATE TABLE tracking_ordine (id_ordine BIGINT, stato VARCHAR(50), corriere VARCHAR(100), codice_spedizione VARCHAR(100),
+    dettagli_pacco VARCHAR(255), indirizzo_spedizione VARCHAR(255), data_aggiornamento TIMESTAMP);
+
+CREATE TABLE coupon (id BIGINT PRIMARY KEY, codice VARCHAR(50) UNIQUE, descrizione VARCHAR(255), tipo_sconto VARCHAR(20),
+    valore_sconto DECIMAL(10,2), importo_minimo DECIMAL(10,2), data_inizio DATE, data_scadenza DATE, usi_massimi INT,
+    usi_attuali INT DEFAULT 0, attivo BOOLEAN, uso_singolo BOOLEAN, created_at TIMESTAMP);
+
+CREATE TABLE coupon_utilizzi (coupon_id BIGINT, user_id BIGINT, UNIQUE (coupon_id, user_id));
+
+CREATE TABLE visualizzazioni (user_id BIGINT, prodotto_id BIGINT, visualizzato_at TIMESTAMP, PRIMARY KEY (user_id, prodotto_id));
@@ -642,13 +642,10 @@ salvaProdotto() {
   console.log('selectedFile:', this.selectedFile); 
   if (this.selectedFile) {
      console.log('Tentativo upload file:', this.selectedFile.name);
-    // Se è stata selezionata una nuova immagine, caricala prima
-    const formData = new FormData();
-    formData.append('immagine', this.selectedFile);
-
+    // Se è stata selezionata una nuova immagine, caricala prima (il file è il corpo della richiesta, in streaming)
     console.log('Invio richiesta upload a backend...');
-    this.http.post<{ filename: string }>(`${this.baseUrl}/immagine/upload`, 
-      formData,{ headers: { 'x-file-name': this.selectedFile.name } })
+    this.http.post<{ filename: string }>(`${this.baseUrl}/immagine/upload`,
+      this.selectedFile, { headers: { 'Content-Type': this.selectedFile.type || 'application/octet-stream' } })
       .subscribe({
         next: res => {
           console.log('Risposta upload:', res);
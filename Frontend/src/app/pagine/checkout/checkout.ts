@@ -323,24 +323,19 @@ private getIndirizzoCompleto(): string {
    
 
 
+   // Sconto e totali vengono calcolati (e il coupon riscattato) dal server durante il checkout
    const datiCompleti = {
     ...this.datiPagamento,
-    totale: this.totaleScontato,
-    totale_originale: this.totaleOriginale,     
-    sconto_applicato: this.scontoApplicato,     
     coupon_applicato: this.couponApplicato ? this.couponCorrente : null,
     indirizzo_consegna: this.getIndirizzoCompleto()
   };
 
     this.acquistiService.processaCheckout(datiCompleti).subscribe({
       next: (risultato: any) => {
-         if (this.couponApplicato) {
-      this.couponService.usaCoupon(this.couponCorrente.id).subscribe();
-    }
         this.processing = false;
         if (risultato.success) {
           this.carrelloService.aggiornaDopoAcquisto();
-          alert(`Acquisto completato con successo! Totale: €${this.totaleScontato.toFixed(2)}`);
+          alert(`Acquisto completato con successo! Totale: €${Number(risultato.totale).toFixed(2)}`);
           this.router.navigate(['/profilo'], { 
             queryParams: { tab: 'acquisti' } 
           });